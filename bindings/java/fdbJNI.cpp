@@ -20,6 +20,8 @@
 
 #include <jni.h>
 #include <string.h>
+#include <atomic>
+#include <new>
 
 #define FDB_API_VERSION 620
 
@@ -103,6 +105,118 @@ void throwParamNotNull(JNIEnv *jenv) {
 	throwNamedException( jenv, "java/lang/IllegalArgumentException", "Argument cannot be null" );
 }
 
+// Gives native code access to the contents of a Java byte array for the duration of a call.
+//  Arrays of up to INLINE_BYTES are copied onto the stack with GetByteArrayRegion, which
+//  neither allocates nor pins anything. Larger arrays are accessed in place through
+//  GetPrimitiveArrayCritical, or, for calls that might block, copied to the heap.
+//
+// No other JNI function may be called while an array is held critically, so every array
+//  used by a call is wrapped (which reads its length and copies it if it is small) before
+//  any of them is acquired, and any exception is thrown only once all have been released.
+class JavaByteArray {
+public:
+	static const int INLINE_BYTES = 256;
+
+	JavaByteArray(JNIEnv *jenv, jbyteArray array, bool mayPin = true)
+		: jenv(jenv), array(array), mayPin(mayPin), offset(0), length(0), data(nullptr), heapData(nullptr), pinned(false) {
+		if( array )
+			init( 0, jenv->GetArrayLength( array ) );
+	}
+
+	// Refers to the region [offset, offset + length) of the array, which the caller has
+	//  already checked lies within it.
+	JavaByteArray(JNIEnv *jenv, jbyteArray array, jint offset, jint length, bool mayPin = true)
+		: jenv(jenv), array(array), mayPin(mayPin), offset(0), length(0), data(nullptr), heapData(nullptr), pinned(false) {
+		if( array )
+			init( offset, length );
+	}
+
+	~JavaByteArray() {
+		release();
+		delete[] heapData;
+	}
+
+	// Makes the contents available through bytes(). Returns false on failure.
+	bool acquire() {
+		if( data || !array )
+			return true;
+		if( !mayPin )
+			return false;
+
+		data = (uint8_t *)jenv->GetPrimitiveArrayCritical( array, JNI_NULL );
+		pinned = data != nullptr;
+		return pinned;
+	}
+
+	void release() {
+		if( pinned ) {
+			jenv->ReleasePrimitiveArrayCritical( array, data, JNI_ABORT );
+			pinned = false;
+			data = nullptr;
+		}
+	}
+
+	// Copied regions start at the beginning of their copy, pinned ones at the offset into the array
+	const uint8_t *bytes() const { return pinned ? data + offset : data; }
+	int size() const { return length; }
+
+private:
+	JavaByteArray(const JavaByteArray&);
+	JavaByteArray& operator=(const JavaByteArray&);
+
+	void init( jint regionOffset, jint regionLength ) {
+		offset = regionOffset;
+		length = regionLength;
+		if( length <= INLINE_BYTES ) {
+			jenv->GetByteArrayRegion( array, offset, length, (jbyte *)inlineData );
+			data = inlineData;
+		}
+		else if( !mayPin ) {
+			heapData = new (std::nothrow) uint8_t[length];
+			if( heapData ) {
+				jenv->GetByteArrayRegion( array, offset, length, (jbyte *)heapData );
+				data = heapData;
+			}
+		}
+	}
+
+	JNIEnv *jenv;
+	jbyteArray array;
+	bool mayPin;
+	int offset;
+	int length;
+	uint8_t *data;
+	uint8_t *heapData;
+	bool pinned;
+	uint8_t inlineData[INLINE_BYTES];
+};
+
+// Returns the address of the byte at the given offset into a direct ByteBuffer, or
+//  throws an exception and returns null if the buffer is not direct.
+static const uint8_t *getDirectBytes( JNIEnv *jenv, jobject buffer, jint offset ) {
+	uint8_t *base = (uint8_t *)jenv->GetDirectBufferAddress( buffer );
+	if( !base ) {
+		if( !jenv->ExceptionOccurred() )
+			throwRuntimeEx( jenv, "Error getting address of direct buffer" );
+		return nullptr;
+	}
+	return base + offset;
+}
+
+// Acquires the given arrays, in order. On failure, releases any that were acquired and
+//  throws an exception.
+static bool acquireArrays( JNIEnv *jenv, JavaByteArray &first, JavaByteArray *second = nullptr ) {
+	if( first.acquire() && (!second || second->acquire()) )
+		return true;
+
+	first.release();
+	if( second )
+		second->release();
+	if( !jenv->ExceptionOccurred() )
+		throwRuntimeEx( jenv, "Error getting handle to native resources" );
+	return false;
+}
+
 #ifdef __cplusplus
 extern "C" {
 #endif
@@ -142,6 +256,39 @@ static void callCallback( FDBFuture* f, void* data ) {
 	g_thread_jenv->DeleteGlobalRef(callback);
 }
 
+// The native side of FutureMultiResult: one future per key read, and a single Java callback
+//  that is called once all of them are ready. The object is freed once its owner has
+//  disposed of it and every callback registered on its futures has fired.
+struct MultiGet {
+	FDBFuture **futures;
+	int count;
+	std::atomic<int> pending;
+	std::atomic<int> refs;
+	jobject callback;
+
+	MultiGet(int count) : futures(new FDBFuture*[count]()), count(count), pending(count), refs(1), callback(JNI_NULL) {}
+
+	~MultiGet() {
+		for(int i = 0; i < count; i++) {
+			if(futures[i])
+				fdb_future_destroy(futures[i]);
+		}
+		delete[] futures;
+	}
+};
+
+static void releaseMultiGet( MultiGet *mg ) {
+	if( mg->refs.fetch_sub(1) == 1 )
+		delete mg;
+}
+
+static void multiGetCallback( FDBFuture* f, void* data ) {
+	MultiGet *mg = (MultiGet *)data;
+	if( mg->pending.fetch_sub(1) == 1 )
+		callCallback( f, mg->callback );
+	releaseMultiGet( mg );
+}
+
 // Attempts to throw 't', attempts to shut down the JVM if this fails.
 void safeThrow( JNIEnv *jenv, jthrowable t ) {
 	if( jenv->Throw( t ) != 0 ) {
@@ -344,7 +491,6 @@ JNIEXPORT jobject JNICALL Java_com_apple_foundationdb_FutureResults_FutureResult
 	return result;
 }
 
-// SOMEDAY: explore doing this more efficiently with Direct ByteBuffers
 JNIEXPORT jobject JNICALL Java_com_apple_foundationdb_FutureResults_FutureResults_1get(JNIEnv *jenv, jobject, jlong future) {
 	if( !future ) {
 		throwParamNotNull(jenv);
@@ -376,27 +522,27 @@ JNIEXPORT jobject JNICALL Java_com_apple_foundationdb_FutureResults_FutureResult
 			throwOutOfMem(jenv);
 		return JNI_NULL;
 	}
-	uint8_t *keyvalues_barr = (uint8_t *)jenv->GetByteArrayElements(keyValueArray, JNI_NULL); 
-	if (!keyvalues_barr) {
-		throwRuntimeEx( jenv, "Error getting handle to native resources" );
-		return JNI_NULL;
-	}
-
 	jintArray lengthArray = jenv->NewIntArray(count * 2);
 	if( !lengthArray ) {
 		if( !jenv->ExceptionOccurred() )
 			throwOutOfMem(jenv);
+		return JNI_NULL;
+	}
 
-		jenv->ReleaseByteArrayElements(keyValueArray, (jbyte *)keyvalues_barr, 0);
+	// Both arrays were just allocated, so they are filled in place rather than copied
+	//  back from a separate buffer
+	uint8_t *keyvalues_barr = (uint8_t *)jenv->GetPrimitiveArrayCritical(keyValueArray, JNI_NULL);
+	if( !keyvalues_barr ) {
+		if( !jenv->ExceptionOccurred() )
+			throwRuntimeEx( jenv, "Error getting handle to native resources" );
 		return JNI_NULL;
 	}
 
-	jint *length_barr = jenv->GetIntArrayElements(lengthArray, JNI_NULL); 
+	jint *length_barr = (jint *)jenv->GetPrimitiveArrayCritical(lengthArray, JNI_NULL);
 	if( !length_barr ) {
+		jenv->ReleasePrimitiveArrayCritical(keyValueArray, keyvalues_barr, 0);
 		if( !jenv->ExceptionOccurred() )
-			throwOutOfMem(jenv);
-
-		jenv->ReleaseByteArrayElements(keyValueArray, (jbyte *)keyvalues_barr, 0);
+			throwRuntimeEx( jenv, "Error getting handle to native resources" );
 		return JNI_NULL;
 	}
 
@@ -411,8 +557,8 @@ JNIEXPORT jobject JNICALL Java_com_apple_foundationdb_FutureResults_FutureResult
 		offset += kvs[i].value_length;
 	}
 
-	jenv->ReleaseByteArrayElements(keyValueArray, (jbyte *)keyvalues_barr, 0);
-	jenv->ReleaseIntArrayElements(lengthArray, length_barr, 0);
+	jenv->ReleasePrimitiveArrayCritical(lengthArray, length_barr, 0);
+	jenv->ReleasePrimitiveArrayCritical(keyValueArray, keyvalues_barr, 0);
 
 	jobject result = jenv->NewObject(resultCls, resultCtorId, keyValueArray, lengthArray, (jboolean)more);
 	if( jenv->ExceptionOccurred() )
@@ -421,6 +567,66 @@ JNIEXPORT jobject JNICALL Java_com_apple_foundationdb_FutureResults_FutureResult
 	return result;
 }
 
+// Copies the results of a range read into a direct ByteBuffer laid out as:
+//   [count][more] followed, for each key-value pair, by [key_length][value_length][key][value]
+//  with all integers as jints in native byte order. If the whole batch does not fit, only as
+//  many pairs as fit are written and "more" is set. Returns false, having written nothing, if
+//  not even the first pair fits.
+JNIEXPORT jboolean JNICALL Java_com_apple_foundationdb_FutureResults_FutureResults_1getDirect(JNIEnv *jenv, jobject, jlong future, jobject jbuffer, jint bufferCapacity) {
+	if( !future || !jbuffer ) {
+		throwParamNotNull(jenv);
+		return JNI_FALSE;
+	}
+
+	uint8_t *buffer = (uint8_t *)jenv->GetDirectBufferAddress( jbuffer );
+	if( !buffer ) {
+		if( !jenv->ExceptionOccurred() )
+			throwRuntimeEx( jenv, "Error getting handle to native resources" );
+		return JNI_FALSE;
+	}
+
+	FDBFuture *f = (FDBFuture *)future;
+
+	const FDBKeyValue *kvs;
+	int count;
+	fdb_bool_t more;
+	fdb_error_t err = fdb_future_get_keyvalue_array( f, &kvs, &count, &more );
+	if( err ) {
+		safeThrow( jenv, getThrowable( jenv, err ) );
+		return JNI_FALSE;
+	}
+
+	int64_t totalCapacityNeeded = 2 * sizeof(jint);
+	for(int i = 0; i < count; i++) {
+		totalCapacityNeeded += 2 * sizeof(jint) + kvs[i].key_length + kvs[i].value_length;
+		if( totalCapacityNeeded > bufferCapacity ) {
+			if( i == 0 )
+				return JNI_FALSE;
+			count = i;
+			more = 1;
+			break;
+		}
+	}
+
+	jint header[2] = { (jint)count, (jint)(more ? 1 : 0) };
+	memcpy(buffer, header, sizeof(header));
+	int offset = sizeof(header);
+
+	for(int i = 0; i < count; i++) {
+		jint lengths[2] = { (jint)kvs[i].key_length, (jint)kvs[i].value_length };
+		memcpy(buffer + offset, lengths, sizeof(lengths));
+		offset += sizeof(lengths);
+
+		memcpy(buffer + offset, kvs[i].key, kvs[i].key_length);
+		offset += kvs[i].key_length;
+
+		memcpy(buffer + offset, kvs[i].value, kvs[i].value_length);
+		offset += kvs[i].value_length;
+	}
+
+	return JNI_TRUE;
+}
+
 // SOMEDAY: explore doing this more efficiently with Direct ByteBuffers
 JNIEXPORT jbyteArray JNICALL Java_com_apple_foundationdb_FutureResult_FutureResult_1get(JNIEnv *jenv, jobject, jlong future) {
 	if( !future ) {
@@ -452,6 +658,118 @@ JNIEXPORT jbyteArray JNICALL Java_com_apple_foundationdb_FutureResult_FutureResu
 	return result;
 }
 
+JNIEXPORT jobjectArray JNICALL Java_com_apple_foundationdb_FutureMultiResult_FutureMultiResult_1get(JNIEnv *jenv, jobject, jlong future) {
+	if( !future ) {
+		throwParamNotNull(jenv);
+		return JNI_NULL;
+	}
+	MultiGet *mg = (MultiGet *)future;
+
+	jclass byteArrayClass = jenv->FindClass("[B");
+	if( jenv->ExceptionOccurred() )
+		return JNI_NULL;
+
+	jobjectArray results = jenv->NewObjectArray(mg->count, byteArrayClass, JNI_NULL);
+	if( !results ) {
+		if( !jenv->ExceptionOccurred() )
+			throwOutOfMem(jenv);
+		return JNI_NULL;
+	}
+
+	for(int i = 0; i < mg->count; i++) {
+		fdb_bool_t present;
+		const uint8_t *value;
+		int length;
+		fdb_error_t err = fdb_future_get_value(mg->futures[i], &present, &value, &length);
+		if( err ) {
+			safeThrow( jenv, getThrowable( jenv, err ) );
+			return JNI_NULL;
+		}
+
+		if( !present )
+			continue;
+
+		jbyteArray result = jenv->NewByteArray(length);
+		if( !result ) {
+			if( !jenv->ExceptionOccurred() )
+				throwOutOfMem(jenv);
+			return JNI_NULL;
+		}
+
+		jenv->SetByteArrayRegion(result, 0, length, (const jbyte *)value);
+		jenv->SetObjectArrayElement(results, i, result);
+		jenv->DeleteLocalRef(result);
+		if( jenv->ExceptionOccurred() )
+			return JNI_NULL;
+	}
+
+	return results;
+}
+
+JNIEXPORT void JNICALL Java_com_apple_foundationdb_FutureMultiResult_FutureMultiResult_1registerCallback(JNIEnv *jenv, jobject, jlong future, jobject callback) {
+	if( !g_IFutureCallback_call_methodID ) {
+		if( !findCallbackMethods( jenv ) ) {
+			return;
+		}
+	}
+
+	if( !future || !callback ) {
+		throwParamNotNull(jenv);
+		return;
+	}
+	MultiGet *mg = (MultiGet *)future;
+
+	mg->callback = jenv->NewGlobalRef( callback );
+	if( !mg->callback ) {
+		if( !jenv->ExceptionOccurred() )
+			throwOutOfMem(jenv);
+		return;
+	}
+
+	g_thread_jenv = jenv;
+	mg->refs += mg->count;
+	for(int i = 0; i < mg->count; i++) {
+		fdb_error_t err = fdb_future_set_callback( mg->futures[i], &multiGetCallback, mg );
+		if( err ) {
+			// This can only fail for a future that is already being waited on, which none of
+			//  these are. Drop the references of the callbacks that will not be called. As
+			//  those reads are never counted off, pending cannot reach zero and the Java
+			//  callback will not be called, so its reference is deleted here.
+			mg->refs -= mg->count - i;
+			jenv->DeleteGlobalRef( mg->callback );
+			mg->callback = JNI_NULL;
+			safeThrow( jenv, getThrowable( jenv, err ) );
+			return;
+		}
+	}
+}
+
+JNIEXPORT void JNICALL Java_com_apple_foundationdb_FutureMultiResult_FutureMultiResult_1dispose(JNIEnv *jenv, jobject, jlong future) {
+	if( !future ) {
+		throwParamNotNull(jenv);
+		return;
+	}
+	MultiGet *mg = (MultiGet *)future;
+
+	// Cancelling fires the callbacks of any reads that are still outstanding, which
+	//  releases their references to this object
+	for(int i = 0; i < mg->count; i++) {
+		fdb_future_cancel(mg->futures[i]);
+	}
+	releaseMultiGet(mg);
+}
+
+JNIEXPORT void JNICALL Java_com_apple_foundationdb_FutureMultiResult_FutureMultiResult_1cancel(JNIEnv *jenv, jobject, jlong future) {
+	if( !future ) {
+		throwParamNotNull(jenv);
+		return;
+	}
+	MultiGet *mg = (MultiGet *)future;
+	for(int i = 0; i < mg->count; i++) {
+		fdb_future_cancel(mg->futures[i]);
+	}
+}
+
 JNIEXPORT jbyteArray JNICALL Java_com_apple_foundationdb_FutureKey_FutureKey_1get(JNIEnv * jenv, jclass, jlong future) {
 	if( !future ) {
 		throwParamNotNull(jenv);
@@ -493,7 +811,7 @@ JNIEXPORT jlong JNICALL Java_com_apple_foundationdb_FDBDatabase_Database_1create
 	return (jlong)tr;
 }
 
-JNIEXPORT void JNICALL Java_com_apple_foundationdb_FDBDatabase_Database_1dispose(JNIEnv *jenv, jobject, jlong dPtr) {
+JNIEXPORT void JNICALL Java_com_apple_foundationdb_FDBDatabase_Database_1dispose(JNIEnv *jenv, jclass, jlong dPtr) {
 	if( !dPtr ) {
 		throwParamNotNull(jenv);
 		return;
@@ -507,20 +825,14 @@ JNIEXPORT void JNICALL Java_com_apple_foundationdb_FDBDatabase_Database_1setOpti
 		return;
 	}
 	FDBDatabase *c = (FDBDatabase *)dPtr;
-	uint8_t *barr = nullptr;
-	int size = 0;
 
-	if(value != JNI_NULL) {
-		barr = (uint8_t *)jenv->GetByteArrayElements( value, JNI_NULL );
-		if (!barr) {
-			throwRuntimeEx( jenv, "Error getting handle to native resources" );
+	fdb_error_t err;
+	{
+		JavaByteArray param( jenv, value, false );
+		if( !acquireArrays( jenv, param ) )
 			return;
-		}
-		size = jenv->GetArrayLength( value );
+		err = fdb_database_set_option( c, (FDBDatabaseOption)code, param.bytes(), param.size() );
 	}
-	fdb_error_t err = fdb_database_set_option( c, (FDBDatabaseOption)code, barr, size );
-	if(value != JNI_NULL)
-		jenv->ReleaseByteArrayElements( value, (jbyte *)barr, JNI_ABORT );
 	if( err ) {
 		safeThrow( jenv, getThrowable( jenv, err ) );
 	}
@@ -580,69 +892,124 @@ JNIEXPORT jlong JNICALL Java_com_apple_foundationdb_FDBTransaction_Transaction_1
 	}
 	FDBTransaction *tr = (FDBTransaction *)tPtr;
 
-	uint8_t *barr = (uint8_t *)jenv->GetByteArrayElements( keyBytes, JNI_NULL );
-	if(!barr) {
-		if( !jenv->ExceptionOccurred() )
-			throwRuntimeEx( jenv, "Error getting handle to native resources" );
+	JavaByteArray key( jenv, keyBytes );
+	if( !acquireArrays( jenv, key ) )
 		return 0;
-	}
 
-	FDBFuture *f = fdb_transaction_get( tr, barr, jenv->GetArrayLength( keyBytes ), (fdb_bool_t)snapshot );
-	jenv->ReleaseByteArrayElements( keyBytes, (jbyte *)barr, JNI_ABORT );
+	FDBFuture *f = fdb_transaction_get( tr, key.bytes(), key.size(), (fdb_bool_t)snapshot );
 	return (jlong)f;
 }
 
-JNIEXPORT jlong JNICALL Java_com_apple_foundationdb_FDBTransaction_Transaction_1getKey(JNIEnv *jenv, jobject, jlong tPtr, 
-		jbyteArray keyBytes, jboolean orEqual, jint offset, jboolean snapshot) {
+JNIEXPORT jlong JNICALL Java_com_apple_foundationdb_FDBTransaction_Transaction_1getSlice(JNIEnv *jenv, jobject, jlong tPtr, jbyteArray keyBytes, jint keyOffset, jint keyLength, jboolean snapshot) {
 	if( !tPtr || !keyBytes ) {
 		throwParamNotNull(jenv);
 		return 0;
 	}
 	FDBTransaction *tr = (FDBTransaction *)tPtr;
 
-	uint8_t *barr = (uint8_t *)jenv->GetByteArrayElements( keyBytes, JNI_NULL );
-	if(!barr) {
-		if( !jenv->ExceptionOccurred() )
-			throwRuntimeEx( jenv, "Error getting handle to native resources" );
+	JavaByteArray key( jenv, keyBytes, keyOffset, keyLength );
+	if( !acquireArrays( jenv, key ) )
+		return 0;
+
+	FDBFuture *f = fdb_transaction_get( tr, key.bytes(), key.size(), (fdb_bool_t)snapshot );
+	return (jlong)f;
+}
+
+JNIEXPORT jlong JNICALL Java_com_apple_foundationdb_FDBTransaction_Transaction_1getDirect(JNIEnv *jenv, jobject, jlong tPtr, jobject keyBuffer, jint keyOffset, jint keyLength, jboolean snapshot) {
+	if( !tPtr || !keyBuffer ) {
+		throwParamNotNull(jenv);
 		return 0;
 	}
+	FDBTransaction *tr = (FDBTransaction *)tPtr;
 
-	FDBFuture *f = fdb_transaction_get_key( tr, barr, jenv->GetArrayLength( keyBytes ), orEqual, offset, (fdb_bool_t)snapshot );
-	jenv->ReleaseByteArrayElements( keyBytes, (jbyte *)barr, JNI_ABORT );
+	const uint8_t *key = getDirectBytes( jenv, keyBuffer, keyOffset );
+	if( !key )
+		return 0;
+
+	FDBFuture *f = fdb_transaction_get( tr, key, keyLength, (fdb_bool_t)snapshot );
 	return (jlong)f;
 }
 
-JNIEXPORT jlong JNICALL Java_com_apple_foundationdb_FDBTransaction_Transaction_1getRange
-  (JNIEnv *jenv, jobject, jlong tPtr, jbyteArray keyBeginBytes, jboolean orEqualBegin, jint offsetBegin,
-		jbyteArray keyEndBytes, jboolean orEqualEnd, jint offsetEnd, jint rowLimit, jint targetBytes, 
-		jint streamingMode, jint iteration, jboolean snapshot, jboolean reverse) {
-	if( !tPtr || !keyBeginBytes || !keyEndBytes ) {
+JNIEXPORT jlong JNICALL Java_com_apple_foundationdb_FDBTransaction_Transaction_1getMulti(JNIEnv *jenv, jobject, jlong tPtr, jbyteArray packedKeys, jintArray keyLengths, jboolean snapshot) {
+	if( !tPtr || !packedKeys || !keyLengths ) {
 		throwParamNotNull(jenv);
 		return 0;
 	}
 	FDBTransaction *tr = (FDBTransaction *)tPtr;
 
-	uint8_t *barrBegin = (uint8_t *)jenv->GetByteArrayElements( keyBeginBytes, JNI_NULL );
-	if (!barrBegin) {
-		if( !jenv->ExceptionOccurred() )
-			throwRuntimeEx( jenv, "Error getting handle to native resources" );
+	int count = jenv->GetArrayLength( keyLengths );
+	MultiGet *mg = new MultiGet(count);
+
+	// The lengths are copied out so that they can be checked before any keys are read
+	jint *lengths = new jint[count];
+	jenv->GetIntArrayRegion( keyLengths, 0, count, lengths );
+
+	bool valid = true;
+	{
+		JavaByteArray keys( jenv, packedKeys );
+		if( !acquireArrays( jenv, keys ) ) {
+			delete[] lengths;
+			delete mg;
+			return 0;
+		}
+
+		int offset = 0;
+		for(int i = 0; i < count; i++) {
+			if( lengths[i] < 0 || lengths[i] > keys.size() - offset ) {
+				valid = false;
+				break;
+			}
+			mg->futures[i] = fdb_transaction_get( tr, keys.bytes() + offset, lengths[i], (fdb_bool_t)snapshot );
+			offset += lengths[i];
+		}
+	}
+	delete[] lengths;
+
+	if( !valid ) {
+		delete mg;
+		throwNamedException( jenv, "java/lang/IllegalArgumentException", "Key lengths exceed the packed keys" );
 		return 0;
 	}
+	return (jlong)mg;
+}
 
-	uint8_t *barrEnd = (uint8_t *)jenv->GetByteArrayElements( keyEndBytes, JNI_NULL );
-	if (!barrEnd) {
-		jenv->ReleaseByteArrayElements( keyBeginBytes, (jbyte *)barrBegin, JNI_ABORT );
-		if( !jenv->ExceptionOccurred() )
-			throwRuntimeEx( jenv, "Error getting handle to native resources" );
+JNIEXPORT jlong JNICALL Java_com_apple_foundationdb_FDBTransaction_Transaction_1getKey(JNIEnv *jenv, jobject, jlong tPtr, 
+		jbyteArray keyBytes, jboolean orEqual, jint offset, jboolean snapshot) {
+	if( !tPtr || !keyBytes ) {
+		throwParamNotNull(jenv);
+		return 0;
+	}
+	FDBTransaction *tr = (FDBTransaction *)tPtr;
+
+	JavaByteArray key( jenv, keyBytes );
+	if( !acquireArrays( jenv, key ) )
+		return 0;
+
+	FDBFuture *f = fdb_transaction_get_key( tr, key.bytes(), key.size(), orEqual, offset, (fdb_bool_t)snapshot );
+	return (jlong)f;
+}
+
+// The begin and end keys are regions of their arrays, which the caller has checked
+JNIEXPORT jlong JNICALL Java_com_apple_foundationdb_FDBTransaction_Transaction_1getRange
+  (JNIEnv *jenv, jobject, jlong tPtr, jbyteArray keyBeginBytes, jint keyBeginOffset, jint keyBeginLength,
+		jboolean orEqualBegin, jint offsetBegin,
+		jbyteArray keyEndBytes, jint keyEndOffset, jint keyEndLength, jboolean orEqualEnd, jint offsetEnd,
+		jint rowLimit, jint targetBytes, jint streamingMode, jint iteration, jboolean snapshot, jboolean reverse) {
+	if( !tPtr || !keyBeginBytes || !keyEndBytes ) {
+		throwParamNotNull(jenv);
 		return 0;
 	}
+	FDBTransaction *tr = (FDBTransaction *)tPtr;
+
+	JavaByteArray begin( jenv, keyBeginBytes, keyBeginOffset, keyBeginLength );
+	JavaByteArray end( jenv, keyEndBytes, keyEndOffset, keyEndLength );
+	if( !acquireArrays( jenv, begin, &end ) )
+		return 0;
 
 	FDBFuture *f = fdb_transaction_get_range( tr, 
-			barrBegin, jenv->GetArrayLength( keyBeginBytes ), orEqualBegin, offsetBegin,
-			barrEnd, jenv->GetArrayLength( keyEndBytes ), orEqualEnd, offsetEnd, rowLimit,
+			begin.bytes(), begin.size(), orEqualBegin, offsetBegin,
+			end.bytes(), end.size(), orEqualEnd, offsetEnd, rowLimit,
 			targetBytes, (FDBStreamingMode)streamingMode, iteration, snapshot, reverse);
-	jenv->ReleaseByteArrayElements( keyBeginBytes, (jbyte *)barrBegin, JNI_ABORT );
-	jenv->ReleaseByteArrayElements( keyEndBytes, (jbyte *)barrEnd, JNI_ABORT );
 	return (jlong)f;
 }
 
@@ -653,105 +1020,231 @@ JNIEXPORT void JNICALL Java_com_apple_foundationdb_FDBTransaction_Transaction_1s
 	}
 	FDBTransaction *tr = (FDBTransaction *)tPtr;
 
-	uint8_t *barrKey = (uint8_t *)jenv->GetByteArrayElements( keyBytes, JNI_NULL );
-	if (!barrKey) {
-		if( !jenv->ExceptionOccurred() )
-			throwRuntimeEx( jenv, "Error getting handle to native resources" );
+	JavaByteArray key( jenv, keyBytes );
+	JavaByteArray value( jenv, valueBytes );
+	if( !acquireArrays( jenv, key, &value ) )
+		return;
+
+	fdb_transaction_set( tr, key.bytes(), key.size(), value.bytes(), value.size() );
+}
+
+JNIEXPORT void JNICALL Java_com_apple_foundationdb_FDBTransaction_Transaction_1clear__J_3B(JNIEnv *jenv, jobject, jlong tPtr, jbyteArray keyBytes) {
+	if( !tPtr || !keyBytes ) {
+		throwParamNotNull(jenv);
 		return;
 	}
+	FDBTransaction *tr = (FDBTransaction *)tPtr;
 
-	uint8_t *barrValue = (uint8_t *)jenv->GetByteArrayElements( valueBytes, JNI_NULL );
-	if (!barrValue) {
-		jenv->ReleaseByteArrayElements( keyBytes, (jbyte *)barrKey, JNI_ABORT );
-		if( !jenv->ExceptionOccurred() )
-			throwRuntimeEx( jenv, "Error getting handle to native resources" );
+	JavaByteArray key( jenv, keyBytes );
+	if( !acquireArrays( jenv, key ) )
+		return;
+
+	fdb_transaction_clear( tr, key.bytes(), key.size() );
+}
+
+JNIEXPORT void JNICALL Java_com_apple_foundationdb_FDBTransaction_Transaction_1clear__J_3B_3B(JNIEnv *jenv, jobject, jlong tPtr, jbyteArray keyBeginBytes, jbyteArray keyEndBytes) {
+	if( !tPtr || !keyBeginBytes || !keyEndBytes ) {
+		throwParamNotNull(jenv);
 		return;
 	}
+	FDBTransaction *tr = (FDBTransaction *)tPtr;
+
+	JavaByteArray begin( jenv, keyBeginBytes );
+	JavaByteArray end( jenv, keyEndBytes );
+	if( !acquireArrays( jenv, begin, &end ) )
+		return;
 
-	fdb_transaction_set( tr, 
-			barrKey, jenv->GetArrayLength( keyBytes ),
-			barrValue, jenv->GetArrayLength( valueBytes ) );
-	jenv->ReleaseByteArrayElements( keyBytes, (jbyte *)barrKey, JNI_ABORT );
-	jenv->ReleaseByteArrayElements( valueBytes, (jbyte *)barrValue, JNI_ABORT );
+	fdb_transaction_clear_range( tr, begin.bytes(), begin.size(), end.bytes(), end.size() );
 }
 
-JNIEXPORT void JNICALL Java_com_apple_foundationdb_FDBTransaction_Transaction_1clear__J_3B(JNIEnv *jenv, jobject, jlong tPtr, jbyteArray keyBytes) {
-	if( !tPtr || !keyBytes ) {
+JNIEXPORT void JNICALL Java_com_apple_foundationdb_FDBTransaction_Transaction_1mutate(JNIEnv *jenv, jobject, jlong tPtr, jint code,
+																		jbyteArray key, jbyteArray value ) {
+	if( !tPtr || !key || !value ) {
 		throwParamNotNull(jenv);
 		return;
 	}
 	FDBTransaction *tr = (FDBTransaction *)tPtr;
 
-	uint8_t *barr = (uint8_t *)jenv->GetByteArrayElements( keyBytes, JNI_NULL );
-	if (!barr) {
-		if( !jenv->ExceptionOccurred() )
-			throwRuntimeEx( jenv, "Error getting handle to native resources" );
+	JavaByteArray keyArray( jenv, key );
+	JavaByteArray valueArray( jenv, value );
+	if( !acquireArrays( jenv, keyArray, &valueArray ) )
+		return;
+
+	fdb_transaction_atomic_op( tr, 
+			keyArray.bytes(), keyArray.size(),
+			valueArray.bytes(), valueArray.size(),
+			(FDBMutationType)code);
+}
+
+JNIEXPORT void JNICALL Java_com_apple_foundationdb_FDBTransaction_Transaction_1setSlice(JNIEnv *jenv, jobject, jlong tPtr,
+		jbyteArray keyBytes, jint keyOffset, jint keyLength, jbyteArray valueBytes, jint valueOffset, jint valueLength) {
+	if( !tPtr || !keyBytes || !valueBytes ) {
+		throwParamNotNull(jenv);
 		return;
 	}
+	FDBTransaction *tr = (FDBTransaction *)tPtr;
 
-	fdb_transaction_clear( tr, barr, jenv->GetArrayLength( keyBytes ) );
-	jenv->ReleaseByteArrayElements( keyBytes, (jbyte *)barr, JNI_ABORT );
+	JavaByteArray key( jenv, keyBytes, keyOffset, keyLength );
+	JavaByteArray value( jenv, valueBytes, valueOffset, valueLength );
+	if( !acquireArrays( jenv, key, &value ) )
+		return;
+
+	fdb_transaction_set( tr, key.bytes(), key.size(), value.bytes(), value.size() );
 }
 
-JNIEXPORT void JNICALL Java_com_apple_foundationdb_FDBTransaction_Transaction_1clear__J_3B_3B(JNIEnv *jenv, jobject, jlong tPtr, jbyteArray keyBeginBytes, jbyteArray keyEndBytes) {
-	if( !tPtr || !keyBeginBytes || !keyEndBytes ) {
+JNIEXPORT void JNICALL Java_com_apple_foundationdb_FDBTransaction_Transaction_1setDirect(JNIEnv *jenv, jobject, jlong tPtr,
+		jobject keyBuffer, jint keyOffset, jint keyLength, jobject valueBuffer, jint valueOffset, jint valueLength) {
+	if( !tPtr || !keyBuffer || !valueBuffer ) {
 		throwParamNotNull(jenv);
 		return;
 	}
 	FDBTransaction *tr = (FDBTransaction *)tPtr;
 
-	uint8_t *barrKeyBegin = (uint8_t *)jenv->GetByteArrayElements( keyBeginBytes, JNI_NULL );
-	if (!barrKeyBegin) {
-		if( !jenv->ExceptionOccurred() )
-			throwRuntimeEx( jenv, "Error getting handle to native resources" );
+	const uint8_t *key = getDirectBytes( jenv, keyBuffer, keyOffset );
+	if( !key )
+		return;
+	const uint8_t *value = getDirectBytes( jenv, valueBuffer, valueOffset );
+	if( !value )
+		return;
+
+	fdb_transaction_set( tr, key, keyLength, value, valueLength );
+}
+
+JNIEXPORT void JNICALL Java_com_apple_foundationdb_FDBTransaction_Transaction_1clearSlice(JNIEnv *jenv, jobject, jlong tPtr,
+		jbyteArray keyBytes, jint keyOffset, jint keyLength) {
+	if( !tPtr || !keyBytes ) {
+		throwParamNotNull(jenv);
 		return;
 	}
+	FDBTransaction *tr = (FDBTransaction *)tPtr;
 
-	uint8_t *barrKeyEnd = (uint8_t *)jenv->GetByteArrayElements( keyEndBytes, JNI_NULL );
-	if (!barrKeyEnd) {
-		jenv->ReleaseByteArrayElements( keyBeginBytes, (jbyte *)barrKeyBegin, JNI_ABORT );
-		if( !jenv->ExceptionOccurred() )
-			throwRuntimeEx( jenv, "Error getting handle to native resources" );
+	JavaByteArray key( jenv, keyBytes, keyOffset, keyLength );
+	if( !acquireArrays( jenv, key ) )
+		return;
+
+	fdb_transaction_clear( tr, key.bytes(), key.size() );
+}
+
+JNIEXPORT void JNICALL Java_com_apple_foundationdb_FDBTransaction_Transaction_1clearDirect(JNIEnv *jenv, jobject, jlong tPtr,
+		jobject keyBuffer, jint keyOffset, jint keyLength) {
+	if( !tPtr || !keyBuffer ) {
+		throwParamNotNull(jenv);
 		return;
 	}
+	FDBTransaction *tr = (FDBTransaction *)tPtr;
 
-	fdb_transaction_clear_range( tr, 
-			barrKeyBegin, jenv->GetArrayLength( keyBeginBytes ),
-			barrKeyEnd, jenv->GetArrayLength( keyEndBytes ) );
-	jenv->ReleaseByteArrayElements( keyBeginBytes, (jbyte *)barrKeyBegin, JNI_ABORT );
-	jenv->ReleaseByteArrayElements( keyEndBytes, (jbyte *)barrKeyEnd, JNI_ABORT );
+	const uint8_t *key = getDirectBytes( jenv, keyBuffer, keyOffset );
+	if( !key )
+		return;
+
+	fdb_transaction_clear( tr, key, keyLength );
 }
 
-JNIEXPORT void JNICALL Java_com_apple_foundationdb_FDBTransaction_Transaction_1mutate(JNIEnv *jenv, jobject, jlong tPtr, jint code,
-																		jbyteArray key, jbyteArray value ) {
-	if( !tPtr || !key || !value ) {
+JNIEXPORT void JNICALL Java_com_apple_foundationdb_FDBTransaction_Transaction_1mutateSlice(JNIEnv *jenv, jobject, jlong tPtr, jint code,
+		jbyteArray keyBytes, jint keyOffset, jint keyLength, jbyteArray paramBytes, jint paramOffset, jint paramLength) {
+	if( !tPtr || !keyBytes || !paramBytes ) {
 		throwParamNotNull(jenv);
 		return;
 	}
 	FDBTransaction *tr = (FDBTransaction *)tPtr;
 
-	uint8_t *barrKey = (uint8_t *)jenv->GetByteArrayElements( key, JNI_NULL );
-	if (!barrKey) {
-		if( !jenv->ExceptionOccurred() )
-			throwRuntimeEx( jenv, "Error getting handle to native resources" );
+	JavaByteArray key( jenv, keyBytes, keyOffset, keyLength );
+	JavaByteArray param( jenv, paramBytes, paramOffset, paramLength );
+	if( !acquireArrays( jenv, key, &param ) )
+		return;
+
+	fdb_transaction_atomic_op( tr, key.bytes(), key.size(), param.bytes(), param.size(), (FDBMutationType)code );
+}
+
+JNIEXPORT void JNICALL Java_com_apple_foundationdb_FDBTransaction_Transaction_1mutateDirect(JNIEnv *jenv, jobject, jlong tPtr, jint code,
+		jobject keyBuffer, jint keyOffset, jint keyLength, jobject paramBuffer, jint paramOffset, jint paramLength) {
+	if( !tPtr || !keyBuffer || !paramBuffer ) {
+		throwParamNotNull(jenv);
 		return;
 	}
+	FDBTransaction *tr = (FDBTransaction *)tPtr;
 
-	uint8_t *barrValue = (uint8_t *)jenv->GetByteArrayElements( value, JNI_NULL );
-	if (!barrValue) {
-		jenv->ReleaseByteArrayElements( key, (jbyte *)barrKey, JNI_ABORT );
-		if( !jenv->ExceptionOccurred() )
-			throwRuntimeEx( jenv, "Error getting handle to native resources" );
+	const uint8_t *key = getDirectBytes( jenv, keyBuffer, keyOffset );
+	if( !key )
+		return;
+	const uint8_t *param = getDirectBytes( jenv, paramBuffer, paramOffset );
+	if( !param )
 		return;
+
+	fdb_transaction_atomic_op( tr, key, keyLength, param, paramLength, (FDBMutationType)code );
+}
+
+static int32_t readMutationInt(const uint8_t *p) {
+	return (int32_t)((uint32_t)p[0] | ((uint32_t)p[1] << 8) | ((uint32_t)p[2] << 16) | ((uint32_t)p[3] << 24));
+}
+
+// Checks that a buffer recorded by MutationBuffer consists entirely of whole writes.
+static bool validMutations( const uint8_t *barr, int length ) {
+	int offset = 0;
+	while( offset < length ) {
+		if( length - offset < 12 )
+			return false;
+		int32_t paramLength1 = readMutationInt( barr + offset + 4 );
+		int32_t paramLength2 = readMutationInt( barr + offset + 8 );
+		offset += 12;
+		if( paramLength1 < 0 || paramLength2 < 0 || paramLength1 > length - offset || paramLength2 > length - offset - paramLength1 )
+			return false;
+		offset += paramLength1 + paramLength2;
 	}
+	return true;
+}
 
-	fdb_transaction_atomic_op( tr, 
-			barrKey, jenv->GetArrayLength( key ),
-			barrValue, jenv->GetArrayLength( value ),
-			(FDBMutationType)code);
+// Applies the writes recorded by MutationBuffer, in order. Each write is an operation
+//  code followed by two lengths and then the bytes of both of its parameters.
+JNIEXPORT void JNICALL Java_com_apple_foundationdb_FDBTransaction_Transaction_1applyMutations(JNIEnv *jenv, jobject, jlong tPtr, jbyteArray mutations, jint length) {
+	if( !tPtr || !mutations ) {
+		throwParamNotNull(jenv);
+		return;
+	}
+	FDBTransaction *tr = (FDBTransaction *)tPtr;
+
+	if( length < 0 || length > jenv->GetArrayLength( mutations ) ) {
+		throwNamedException( jenv, "java/lang/IllegalArgumentException", "Invalid mutation buffer length" );
+		return;
+	}
 
-	jenv->ReleaseByteArrayElements( key, (jbyte *)barrKey, JNI_ABORT );
-	jenv->ReleaseByteArrayElements( value, (jbyte *)barrValue, JNI_ABORT );
+	// The buffer is copied rather than pinned, since applying a large batch while
+	//  holding it critically would hold up garbage collection for the whole time
+	JavaByteArray buffer( jenv, mutations, 0, length, false );
+	if( !acquireArrays( jenv, buffer ) )
+		return;
+
+	// Nothing is applied from a malformed buffer
+	const uint8_t *barr = buffer.bytes();
+	if( !validMutations( barr, length ) ) {
+		throwNamedException( jenv, "java/lang/IllegalArgumentException", "Malformed mutation buffer" );
+		return;
+	}
+
+	int offset = 0;
+	while( offset < length ) {
+		int32_t op = readMutationInt( barr + offset );
+		int32_t paramLength1 = readMutationInt( barr + offset + 4 );
+		int32_t paramLength2 = readMutationInt( barr + offset + 8 );
+		const uint8_t *param1 = barr + offset + 12;
+		const uint8_t *param2 = param1 + paramLength1;
+		offset += 12 + paramLength1 + paramLength2;
+
+		switch( op ) {
+			case -1:
+				fdb_transaction_set( tr, param1, paramLength1, param2, paramLength2 );
+				break;
+			case -2:
+				fdb_transaction_clear( tr, param1, paramLength1 );
+				break;
+			case -3:
+				fdb_transaction_clear_range( tr, param1, paramLength1, param2, paramLength2 );
+				break;
+			default:
+				fdb_transaction_atomic_op( tr, param1, paramLength1, param2, paramLength2, (FDBMutationType)op );
+				break;
+		}
+	}
 }
 
 JNIEXPORT jlong JNICALL Java_com_apple_foundationdb_FDBTransaction_Transaction_1commit(JNIEnv *jenv, jobject, jlong tPtr) {
@@ -770,21 +1263,14 @@ JNIEXPORT void JNICALL Java_com_apple_foundationdb_FDBTransaction_Transaction_1s
 		return;
 	}
 	FDBTransaction *tr = (FDBTransaction *)tPtr;
-	uint8_t *barr = nullptr;
-	int size = 0;
 
-	if(value != JNI_NULL) {
-		barr = (uint8_t *)jenv->GetByteArrayElements( value, JNI_NULL );
-		if (!barr) {
-			if( !jenv->ExceptionOccurred() )
-				throwRuntimeEx( jenv, "Error getting handle to native resources" );
+	fdb_error_t err;
+	{
+		JavaByteArray param( jenv, value, false );
+		if( !acquireArrays( jenv, param ) )
 			return;
-		}
-		size = jenv->GetArrayLength( value );
+		err = fdb_transaction_set_option( tr, (FDBTransactionOption)code, param.bytes(), param.size() );
 	}
-	fdb_error_t err = fdb_transaction_set_option( tr, (FDBTransactionOption)code, barr, size );
-	if(value != JNI_NULL)
-		jenv->ReleaseByteArrayElements( value, (jbyte *)barr, JNI_ABORT );
 	if( err ) {
 		safeThrow( jenv, getThrowable( jenv, err ) );
 	}
@@ -831,17 +1317,11 @@ JNIEXPORT jlong JNICALL Java_com_apple_foundationdb_FDBTransaction_Transaction_1
 	}
 	FDBTransaction *tr = (FDBTransaction *)tPtr;
 
-	uint8_t *barr = (uint8_t *)jenv->GetByteArrayElements( key, JNI_NULL );
-	if (!barr) {
-		if( !jenv->ExceptionOccurred() )
-			throwRuntimeEx( jenv, "Error getting handle to native resources" );
+	JavaByteArray keyArray( jenv, key );
+	if( !acquireArrays( jenv, keyArray ) )
 		return 0;
-	}
-	int size = jenv->GetArrayLength( key );
 
-	FDBFuture *f = fdb_transaction_get_addresses_for_key( tr, barr, size );
-
-	jenv->ReleaseByteArrayElements( key, (jbyte *)barr, JNI_ABORT );
+	FDBFuture *f = fdb_transaction_get_addresses_for_key( tr, keyArray.bytes(), keyArray.size() );
 	return (jlong)f;
 }
 
@@ -855,7 +1335,7 @@ JNIEXPORT jlong JNICALL Java_com_apple_foundationdb_FDBTransaction_Transaction_1
 	return (jlong)f;
 }
 
-JNIEXPORT void JNICALL Java_com_apple_foundationdb_FDBTransaction_Transaction_1dispose(JNIEnv *jenv, jobject, jlong tPtr) {
+JNIEXPORT void JNICALL Java_com_apple_foundationdb_FDBTransaction_Transaction_1dispose(JNIEnv *jenv, jclass, jlong tPtr) {
 	if( !tPtr ) {
 		throwParamNotNull(jenv);
 		return;
@@ -878,16 +1358,11 @@ JNIEXPORT jlong JNICALL Java_com_apple_foundationdb_FDBTransaction_Transaction_1
 	}
 	FDBTransaction *tr = (FDBTransaction *)tPtr;
 
-	uint8_t *barr = (uint8_t *)jenv->GetByteArrayElements( key, JNI_NULL );
-	if (!barr) {
-		if( !jenv->ExceptionOccurred() )
-			throwRuntimeEx( jenv, "Error getting handle to native resources" );
+	JavaByteArray keyArray( jenv, key );
+	if( !acquireArrays( jenv, keyArray ) )
 		return 0;
-	}
-	int size = jenv->GetArrayLength( key );
-	FDBFuture *f = fdb_transaction_watch( tr, barr, size );
 
-	jenv->ReleaseByteArrayElements( key, (jbyte *)barr, JNI_ABORT );
+	FDBFuture *f = fdb_transaction_watch( tr, keyArray.bytes(), keyArray.size() );
 	return (jlong)f;
 }
 
@@ -907,27 +1382,15 @@ JNIEXPORT void JNICALL Java_com_apple_foundationdb_FDBTransaction_Transaction_1a
 	}
 	FDBTransaction *tr = (FDBTransaction *)tPtr;
 
-	uint8_t *begin_barr = (uint8_t *)jenv->GetByteArrayElements( keyBegin, JNI_NULL );
-	if (!begin_barr) {
-		if( !jenv->ExceptionOccurred() )
-			throwRuntimeEx( jenv, "Error getting handle to native resources" );
-		return;
-	}
-	int begin_size = jenv->GetArrayLength( keyBegin );
+	fdb_error_t err;
+	{
+		JavaByteArray begin( jenv, keyBegin );
+		JavaByteArray end( jenv, keyEnd );
+		if( !acquireArrays( jenv, begin, &end ) )
+			return;
 
-	uint8_t *end_barr = (uint8_t *)jenv->GetByteArrayElements( keyEnd, JNI_NULL );
-	if (!end_barr) {
-		jenv->ReleaseByteArrayElements( keyBegin, (jbyte *)begin_barr, JNI_ABORT );
-		if( !jenv->ExceptionOccurred() )
-			throwRuntimeEx( jenv, "Error getting handle to native resources" );
-		return;
+		err = fdb_transaction_add_conflict_range( tr, begin.bytes(), begin.size(), end.bytes(), end.size(), (FDBConflictRangeType)conflictType );
 	}
-	int end_size = jenv->GetArrayLength( keyEnd );
-
-	fdb_error_t err = fdb_transaction_add_conflict_range( tr, begin_barr, begin_size, end_barr, end_size, (FDBConflictRangeType)conflictType );
-
-	jenv->ReleaseByteArrayElements( keyBegin, (jbyte *)begin_barr, JNI_ABORT );
-	jenv->ReleaseByteArrayElements( keyEnd, (jbyte *)end_barr, JNI_ABORT );
 
 	if( err ) {
 		safeThrow( jenv, getThrowable( jenv, err ) );
@@ -960,20 +1423,13 @@ JNIEXPORT void JNICALL Java_com_apple_foundationdb_FDB_Select_1API_1version(JNIE
 }
 
 JNIEXPORT void JNICALL Java_com_apple_foundationdb_FDB_Network_1setOption(JNIEnv *jenv, jobject, jint code, jbyteArray value) {
-	uint8_t *barr = nullptr;
-	int size = 0;
-	if(value != JNI_NULL) {
-		barr = (uint8_t *)jenv->GetByteArrayElements( value, JNI_NULL );
-		if (!barr) {
-			if( !jenv->ExceptionOccurred() )
-				throwRuntimeEx( jenv, "Error getting handle to native resources" );
+	fdb_error_t err;
+	{
+		JavaByteArray param( jenv, value, false );
+		if( !acquireArrays( jenv, param ) )
 			return;
-		}
-		size = jenv->GetArrayLength( value );
+		err = fdb_network_set_option((FDBNetworkOption)code, param.bytes(), param.size());
 	}
-	fdb_error_t err = fdb_network_set_option((FDBNetworkOption)code, barr, size);
-	if(value != JNI_NULL)
-		jenv->ReleaseByteArrayElements( value, (jbyte *)barr, JNI_ABORT );
 	if( err ) {
 		safeThrow( jenv, getThrowable( jenv, err ) );
 	}
@@ -0,0 +1,123 @@
+/*
+ * RangeResultBenchmark.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2018 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures decoding a batch of a range read into a {@link RangeResult} from either of the
+ *  forms the native layer produces, and then materializing its key-value pairs, or
+ *  reading them in place through a {@link KeyValueView}. The
+ *  batches are built here, so no database is needed. This is in the
+ *  {@code com.apple.foundationdb} package because {@code RangeResult} is package-private.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RangeResultBenchmark {
+	@Param({"10", "1000"})
+	public int pairs;
+
+	@Param({"32"})
+	public int keySize;
+
+	@Param({"16", "512"})
+	public int valueSize;
+
+	private byte[] keyValues;
+	private int[] lengths;
+	private ByteBuffer buffer;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		int pairSize = keySize + valueSize;
+		keyValues = new byte[pairs * pairSize];
+		lengths = new int[pairs * 2];
+		// The layout written by the native layer into pooled buffers
+		buffer = ByteBuffer.allocateDirect(8 + pairs * (8 + pairSize)).order(ByteOrder.nativeOrder());
+		buffer.putInt(pairs).putInt(1);
+		for(int i = 0; i < pairs; i++) {
+			lengths[i * 2] = keySize;
+			lengths[i * 2 + 1] = valueSize;
+			buffer.putInt(keySize).putInt(valueSize);
+			for(int j = 0; j < pairSize; j++) {
+				byte b = (byte)(i + j);
+				keyValues[i * pairSize + j] = b;
+				buffer.put(b);
+			}
+		}
+		buffer.clear();
+	}
+
+	@Benchmark
+	public RangeResult fromArray() {
+		return new RangeResult(keyValues, lengths, true);
+	}
+
+	@Benchmark
+	public RangeResult fromBuffer() {
+		return new RangeResult(buffer);
+	}
+
+	@Benchmark
+	public void fromArrayValues(Blackhole bh) {
+		for(KeyValue kv : new RangeResult(keyValues, lengths, true).values) {
+			bh.consume(kv);
+		}
+	}
+
+	@Benchmark
+	public void fromBufferValues(Blackhole bh) {
+		for(KeyValue kv : new RangeResult(buffer).values) {
+			bh.consume(kv);
+		}
+	}
+
+	@Benchmark
+	public void fromBufferViews(Blackhole bh) {
+		RangeResult result = new RangeResult(buffer);
+		KeyValueView view = new KeyValueView();
+		for(int i = 0; i < result.size(); i++) {
+			view.set(result, i);
+			bh.consume(view.getKey());
+			bh.consume(view.getValue());
+		}
+	}
+}
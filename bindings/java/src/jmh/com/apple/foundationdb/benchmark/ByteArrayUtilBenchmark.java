@@ -0,0 +1,116 @@
+/*
+ * ByteArrayUtilBenchmark.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2018 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.benchmark;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.apple.foundationdb.tuple.ByteArrayUtil;
+
+/**
+ * Measures the {@link ByteArrayUtil} operations used on every key: unsigned comparison,
+ *  substitution of byte patterns (as used to escape nulls), and incrementing a prefix to
+ *  find the end of its range.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ByteArrayUtilBenchmark {
+	private static final byte[] NULL = new byte[] {0x00};
+	private static final byte[] ESCAPED_NULL = new byte[] {0x00, (byte)0xff};
+
+	@Param({"16", "128", "1024"})
+	public int keySize;
+
+	private byte[] key;
+	private byte[] equalKey;
+	private byte[] greaterKey;
+	private byte[] withNulls;
+	private byte[] trailingFF;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		key = new byte[keySize];
+		for(int i = 0; i < keySize; i++) {
+			key[i] = (byte)(i * 31 + 1);
+			if(key[i] == 0) {
+				key[i] = 1;
+			}
+		}
+		equalKey = Arrays.copyOf(key, keySize);
+		greaterKey = Arrays.copyOf(key, keySize);
+		greaterKey[keySize - 1]++;
+
+		withNulls = Arrays.copyOf(key, keySize);
+		for(int i = 0; i < keySize; i += 8) {
+			withNulls[i] = 0;
+		}
+
+		trailingFF = Arrays.copyOf(key, keySize);
+		Arrays.fill(trailingFF, keySize / 2, keySize, (byte)0xff);
+	}
+
+	@Benchmark
+	public int compareUnsignedEqual() {
+		return ByteArrayUtil.compareUnsigned(key, equalKey);
+	}
+
+	@Benchmark
+	public int compareUnsignedLastByte() {
+		return ByteArrayUtil.compareUnsigned(key, greaterKey);
+	}
+
+	@Benchmark
+	public byte[] replaceNoMatch() {
+		return ByteArrayUtil.replace(key, NULL, ESCAPED_NULL);
+	}
+
+	@Benchmark
+	public byte[] replaceNulls() {
+		return ByteArrayUtil.replace(withNulls, NULL, ESCAPED_NULL);
+	}
+
+	@Benchmark
+	public byte[] strinc() {
+		return ByteArrayUtil.strinc(key);
+	}
+
+	@Benchmark
+	public byte[] strincTrailingFF() {
+		return ByteArrayUtil.strinc(trailingFF);
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * ConcurrencyBenchmark.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2018 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.benchmark;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.apple.foundationdb.Database;
+import com.apple.foundationdb.FDB;
+import com.apple.foundationdb.tuple.Tuple;
+
+/**
+ * Compares the throughput of many concurrent transactions run with the blocking
+ *  {@link Database#run(java.util.function.Function) run()} API, each on its own platform
+ *  thread or its own virtual thread. In each case the database's callbacks are run by an
+ *  executor of the same kind. Every transaction reads a key and writes another, so each
+ *  one waits on the cluster twice. The virtual thread mode requires Java 21.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ConcurrencyBenchmark {
+	private static final int TRANSACTIONS = 10_000;
+
+	@Param({"platform", "virtual"})
+	public String threads;
+
+	private ExecutorService executor;
+	private Database db;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		FDB fdb = FDB.selectAPIVersion(620);
+		executor = threads.equals("virtual") ? FDB.newVirtualThreadExecutor() : Executors.newCachedThreadPool();
+		db = fdb.open(null, executor);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		db.run(tr -> {
+			tr.clear(Tuple.from("concurrency-benchmark").range());
+			return null;
+		});
+		db.close();
+		executor.shutdown();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(TRANSACTIONS)
+	public void run() {
+		CompletableFuture<?>[] done = new CompletableFuture<?>[TRANSACTIONS];
+		for(int i = 0; i < TRANSACTIONS; i++) {
+			final byte[] key = Tuple.from("concurrency-benchmark", i).pack();
+			done[i] = CompletableFuture.runAsync(() -> db.run(tr -> {
+				byte[] value = tr.get(key).join();
+				tr.set(key, value == null ? new byte[1] : value);
+				return null;
+			}), executor);
+		}
+		CompletableFuture.allOf(done).join();
+	}
+}
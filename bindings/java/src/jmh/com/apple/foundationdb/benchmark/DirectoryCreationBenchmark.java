@@ -0,0 +1,103 @@
+/*
+ * DirectoryCreationBenchmark.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2018 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.benchmark;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.apple.foundationdb.Database;
+import com.apple.foundationdb.FDB;
+import com.apple.foundationdb.directory.DirectoryLayer;
+import com.apple.foundationdb.subspace.Subspace;
+import com.apple.foundationdb.tuple.Tuple;
+
+/**
+ * Measures the throughput of creating many directories concurrently, each in its own
+ *  transaction, with prefixes allocated one at a time within each creating transaction
+ *  or reserved in batches.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class DirectoryCreationBenchmark {
+	private static final int DIRECTORIES = 1000;
+	private static final Subspace ROOT = new Subspace(Tuple.from("directory-creation-benchmark"));
+
+	@Param({"1", "16"})
+	public int prefixBatchSize;
+
+	private Database db;
+	private DirectoryLayer directoryLayer;
+	private long invocation;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		FDB fdb = FDB.selectAPIVersion(620);
+		db = fdb.open();
+		db.run(tr -> {
+			tr.clear(ROOT.range());
+			return null;
+		});
+		directoryLayer = new DirectoryLayer(ROOT.get("nodes"), ROOT.get("contents"));
+		directoryLayer.setPrefixBatchSize(prefixBatchSize);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		db.run(tr -> {
+			tr.clear(ROOT.range());
+			return null;
+		});
+		db.close();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(DIRECTORIES)
+	public void create() {
+		String parent = "run-" + invocation++;
+		// Create the parent first so that the creations only contend on prefix allocation
+		directoryLayer.create(db, Arrays.asList(parent)).join();
+		CompletableFuture<?>[] done = new CompletableFuture<?>[DIRECTORIES];
+		for(int i = 0; i < DIRECTORIES; i++) {
+			done[i] = directoryLayer.create(db, Arrays.asList(parent, "dir-" + i));
+		}
+		CompletableFuture.allOf(done).join();
+	}
+}
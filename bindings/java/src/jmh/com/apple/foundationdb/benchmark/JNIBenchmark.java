@@ -0,0 +1,141 @@
+/*
+ * JNIBenchmark.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2018 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.apple.foundationdb.benchmark;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.apple.foundationdb.Database;
+import com.apple.foundationdb.FDB;
+import com.apple.foundationdb.KeySelector;
+import com.apple.foundationdb.Transaction;
+
+/**
+ * Measures the fixed cost of passing keys and values across JNI. Every operation is made
+ *  on a transaction that is never committed and reads only keys it has written itself, so
+ *  the reads are answered from the client's read-your-writes cache and the cluster is only
+ *  contacted to open the database.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JNIBenchmark {
+	// Transactions are replaced periodically so that their write maps stay small
+	private static final int OPS_PER_TRANSACTION = 10_000;
+
+	@Param({"16", "128"})
+	public int keySize;
+
+	@Param({"16", "1024", "100000"})
+	public int valueSize;
+
+	private Database db;
+	private Transaction tr;
+	private int ops;
+
+	private byte[] key;
+	private byte[] value;
+	private byte[] endKey;
+	private KeySelector selector;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		db = FDB.selectAPIVersion(620).open();
+		key = new byte[keySize];
+		Arrays.fill(key, (byte)'k');
+		value = new byte[valueSize];
+		Arrays.fill(value, (byte)'v');
+		endKey = Arrays.copyOf(key, keySize + 1);
+		endKey[keySize] = (byte)0xff;
+		selector = KeySelector.firstGreaterOrEqual(key);
+		newTransaction();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		tr.close();
+		db.close();
+	}
+
+	private void newTransaction() {
+		if(tr != null) {
+			tr.close();
+		}
+		tr = db.createTransaction();
+		tr.set(key, value);
+		ops = 0;
+	}
+
+	private Transaction transaction() {
+		if(++ops >= OPS_PER_TRANSACTION) {
+			newTransaction();
+		}
+		return tr;
+	}
+
+	@Benchmark
+	public void set() {
+		transaction().set(key, value);
+	}
+
+	@Benchmark
+	public void clear() {
+		transaction().clear(key);
+	}
+
+	@Benchmark
+	public void clearRange() {
+		transaction().clear(key, endKey);
+	}
+
+	@Benchmark
+	public void addReadConflictKey() {
+		transaction().addReadConflictKey(key);
+	}
+
+	@Benchmark
+	public byte[] get() {
+		return transaction().get(key).join();
+	}
+
+	@Benchmark
+	public byte[] getKey() {
+		return transaction().getKey(selector).join();
+	}
+}
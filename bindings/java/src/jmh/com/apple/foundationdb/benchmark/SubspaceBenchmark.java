@@ -0,0 +1,115 @@
+/*
+ * SubspaceBenchmark.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2018 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.apple.foundationdb.FDB;
+import com.apple.foundationdb.Range;
+import com.apple.foundationdb.subspace.Subspace;
+import com.apple.foundationdb.tuple.Tuple;
+import com.apple.foundationdb.tuple.TupleWriter;
+import com.apple.foundationdb.tuple.Versionstamp;
+
+/**
+ * Measures building and decoding keys within a {@link Subspace}, including keys holding
+ *  {@link Versionstamp}s. The API version is selected, as the encoding of incomplete
+ *  versionstamps depends on it, but no database is opened.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SubspaceBenchmark {
+	private Subspace subspace;
+	private Tuple suffix;
+	private byte[] key;
+	private byte[] trVersion;
+	private byte[] versionstampKey;
+	private final TupleWriter writer = new TupleWriter();
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		FDB.selectAPIVersion(620);
+		subspace = new Subspace(Tuple.from("application", "users"));
+		suffix = Tuple.from("user-1234567", 42L);
+		key = subspace.pack(suffix);
+		trVersion = new byte[10];
+		for(int i = 0; i < trVersion.length; i++) {
+			trVersion[i] = (byte)(i + 1);
+		}
+		versionstampKey = subspace.pack(Tuple.from(Versionstamp.complete(trVersion, 7)));
+	}
+
+	@Benchmark
+	public byte[] pack() {
+		return subspace.pack(Tuple.from("user-1234567", 42L));
+	}
+
+	@Benchmark
+	public byte[] packWriter() {
+		return subspace.packWriter(writer).add("user-1234567").add(42L).pack();
+	}
+
+	@Benchmark
+	public Tuple unpack() {
+		return subspace.unpack(key);
+	}
+
+	@Benchmark
+	public boolean contains() {
+		return subspace.contains(key);
+	}
+
+	@Benchmark
+	public Range range() {
+		return subspace.range(suffix);
+	}
+
+	@Benchmark
+	public byte[] packWithVersionstamp() {
+		return subspace.packWithVersionstamp(Tuple.from(Versionstamp.incomplete(7)));
+	}
+
+	@Benchmark
+	public Versionstamp unpackVersionstamp() {
+		return subspace.unpack(versionstampKey).getVersionstamp(0);
+	}
+
+	@Benchmark
+	public Versionstamp completeVersionstamp() {
+		return Versionstamp.complete(trVersion, 7);
+	}
+}
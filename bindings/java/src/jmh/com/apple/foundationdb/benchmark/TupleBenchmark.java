@@ -0,0 +1,154 @@
+/*
+ * TupleBenchmark.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2018 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.benchmark;
+
+import java.math.BigInteger;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.apple.foundationdb.tuple.Tuple;
+import com.apple.foundationdb.tuple.TupleReader;
+import com.apple.foundationdb.tuple.TupleWriter;
+
+/**
+ * Measures packing, unpacking, comparing and hashing {@link Tuple}s of a single element
+ *  type, which exercises the encoder and decoder for that type, or of a mix of types.
+ *  Nothing here contacts a cluster.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TupleBenchmark {
+	@Param({"long", "bigint", "string", "unicode", "bytes", "double", "uuid", "nested", "mixed"})
+	public String elementType;
+
+	@Param({"1", "10"})
+	public int elementCount;
+
+	private Object[] items;
+	private Tuple tuple;
+	private Tuple other;
+	private byte[] packed;
+	private final TupleReader reader = new TupleReader();
+	private final TupleWriter writer = new TupleWriter();
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		items = new Object[elementCount];
+		Object[] otherItems = new Object[elementCount];
+		for(int i = 0; i < elementCount; i++) {
+			items[i] = element(i);
+			otherItems[i] = element(i);
+		}
+		// Differ only in the last element, so comparisons look at every element
+		otherItems[elementCount - 1] = element(elementCount);
+		tuple = Tuple.from(items);
+		other = Tuple.from(otherItems);
+		packed = tuple.pack();
+	}
+
+	private Object element(int i) {
+		switch(elementType) {
+			case "long":
+				return 1_000_000_007L * (i + 1);
+			case "bigint":
+				return BigInteger.ONE.shiftLeft(100).add(BigInteger.valueOf(i));
+			case "string":
+				return "element-string-" + i;
+			case "unicode":
+				return "\u00e9l\u00e9ment-\u20ac-\ud83d\ude00-" + i;
+			case "bytes":
+				return new byte[] {0, 1, 2, 0, (byte)i, (byte)0xff, 0, 3};
+			case "double":
+				return Math.PI * (i + 1);
+			case "uuid":
+				return new UUID(i, ~i);
+			case "nested":
+				return Tuple.from("nested", i, null);
+			case "mixed":
+				return i % 3 == 0 ? (Object)("mixed-" + i) : (i % 3 == 1 ? (Object)(long)i : (Object)new byte[] {(byte)i, 0});
+			default:
+				throw new IllegalArgumentException("Unknown element type: " + elementType);
+		}
+	}
+
+	@Benchmark
+	public byte[] pack() {
+		// A new tuple each time, as packed representations are cached
+		return Tuple.from(items).pack();
+	}
+
+	@Benchmark
+	public int getPackedSize() {
+		return Tuple.from(items).getPackedSize();
+	}
+
+	@Benchmark
+	public byte[] writerPack() {
+		writer.reset();
+		for(Object item : items) {
+			writer.addObject(item);
+		}
+		return writer.pack();
+	}
+
+	@Benchmark
+	public Tuple fromBytes() {
+		return Tuple.fromBytes(packed);
+	}
+
+	@Benchmark
+	public void readerSkip(Blackhole bh) {
+		reader.reset(packed, 0, packed.length);
+		while(reader.hasNext()) {
+			reader.skip();
+		}
+		bh.consume(reader);
+	}
+
+	@Benchmark
+	public int compareTo() {
+		return tuple.compareTo(other);
+	}
+
+	@Benchmark
+	public int hashCodeUncached() {
+		// hashCode() is computed from the packed form, which Tuple.fromBytes() already has
+		return Tuple.fromBytes(packed).hashCode();
+	}
+}
@@ -0,0 +1,407 @@
+/*
+ * BulkWriterTests.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2018 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+import org.junit.Test;
+
+public class BulkWriterTests {
+	private static final Executor DIRECT = Runnable::run;
+	private static final int NOT_COMMITTED = 1020;
+
+	/**
+	 * A database whose transactions record the pairs set in them, and whose commits are
+	 *  decided by {@code committer}. A commit that fails with {@code not_committed} is
+	 *  retried, as by {@link Database#runAsync(Function, Executor)}; any other error is
+	 *  returned to the caller.
+	 */
+	private static class FakeDatabase implements InvocationHandler {
+		final List<List<KeyValue>> committed = Collections.synchronizedList(new ArrayList<>());
+		final List<CompletableFuture<Void>> held = Collections.synchronizedList(new ArrayList<>());
+		Function<List<KeyValue>, CompletableFuture<Void>> committer = batch -> CompletableFuture.completedFuture(null);
+		double sizeRatio = 1.0;
+		boolean holdCommits = false;
+
+		Database database() {
+			return (Database)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Database.class }, this);
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			if(method.getName().equals("runAsync") && args.length == 2) {
+				return runAsync((Function<Transaction, CompletableFuture<Object>>)args[0]);
+			}
+			throw new UnsupportedOperationException(method.getName());
+		}
+
+		private CompletableFuture<Object> runAsync(Function<Transaction, CompletableFuture<Object>> retryable) {
+			List<KeyValue> sets = new ArrayList<>();
+			Transaction tr = (Transaction)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Transaction.class },
+					(proxy, method, args) -> {
+						if(method.getName().equals("set")) {
+							sets.add(new KeyValue((byte[])args[0], (byte[])args[1]));
+							return null;
+						}
+						if(method.getName().equals("getApproximateSize")) {
+							long size = 0;
+							for(KeyValue kv : sets) {
+								size += BulkWriter.estimatedSize(kv);
+							}
+							return CompletableFuture.completedFuture((long)(size * sizeRatio));
+						}
+						throw new UnsupportedOperationException(method.getName());
+					});
+
+			return retryable.apply(tr).thenCompose(result -> {
+				CompletableFuture<Void> commit;
+				if(holdCommits) {
+					commit = new CompletableFuture<>();
+					held.add(commit);
+				}
+				else {
+					commit = CompletableFuture.completedFuture(null);
+				}
+				return commit.thenCompose(ignore -> committer.apply(sets)).thenApply(ignore -> {
+					committed.add(sets);
+					return result;
+				});
+			}).handle((result, e) -> {
+				if(e == null) {
+					return CompletableFuture.completedFuture(result);
+				}
+				FDBException err = BulkWriter.unwrap(e);
+				if(err != null && err.getCode() == NOT_COMMITTED) {
+					return runAsync(retryable);
+				}
+				CompletableFuture<Object> failed = new CompletableFuture<>();
+				failed.completeExceptionally(e);
+				return failed;
+			}).thenCompose(f -> f);
+		}
+
+		List<KeyValue> committedPairs() {
+			List<KeyValue> pairs = new ArrayList<>();
+			synchronized(committed) {
+				for(List<KeyValue> batch : committed) {
+					pairs.addAll(batch);
+				}
+			}
+			return pairs;
+		}
+
+		List<Integer> batchSizes() {
+			List<Integer> sizes = new ArrayList<>();
+			synchronized(committed) {
+				for(List<KeyValue> batch : committed) {
+					sizes.add(batch.size());
+				}
+			}
+			return sizes;
+		}
+	}
+
+	/**
+	 * An iterator over numbered pairs that counts how many of them have been read.
+	 */
+	private static class CountingSource implements Iterator<KeyValue> {
+		final List<KeyValue> pairs;
+		int read = 0;
+
+		CountingSource(List<KeyValue> pairs) {
+			this.pairs = pairs;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return read < pairs.size();
+		}
+
+		@Override
+		public KeyValue next() {
+			return pairs.get(read++);
+		}
+	}
+
+	// Pairs with an 8 byte key and a value of valueLength bytes, so each is estimated at
+	//  valueLength + 40 bytes
+	private static List<KeyValue> pairs(int count, int valueLength) {
+		List<KeyValue> pairs = new ArrayList<>();
+		for(int i = 0; i < count; i++) {
+			byte[] key = String.format("key%05d", i).getBytes();
+			pairs.add(new KeyValue(key, new byte[valueLength]));
+		}
+		return pairs;
+	}
+
+	private static void assertSamePairs(List<KeyValue> expected, List<KeyValue> actual) {
+		assertEquals(expected.size(), actual.size());
+		for(int i = 0; i < expected.size(); i++) {
+			assertArrayEquals(expected.get(i).getKey(), actual.get(i).getKey());
+			assertArrayEquals(expected.get(i).getValue(), actual.get(i).getValue());
+		}
+	}
+
+	private static Throwable failure(CompletableFuture<?> future) {
+		assertTrue(future.isCompletedExceptionally());
+		try {
+			future.join();
+		}
+		catch(CompletionException e) {
+			return e.getCause();
+		}
+		fail("Future did not fail");
+		return null;
+	}
+
+	/**
+	 * Test that a batch is cut once it holds the maximum number of keys.
+	 */
+	@Test
+	public void testKeyThreshold() {
+		FakeDatabase fake = new FakeDatabase();
+		List<KeyValue> source = pairs(10, 10);
+		BulkWriter.Progress progress = new BulkWriter(fake.database(), DIRECT)
+				.setMaxKeysPerTransaction(3)
+				.write(source).join();
+
+		assertEquals(Arrays.asList(3, 3, 3, 1), fake.batchSizes());
+		assertSamePairs(source, fake.committedPairs());
+		assertEquals(10, progress.getKeysWritten());
+		assertEquals(10 * 18, progress.getBytesWritten());
+		assertEquals(4, progress.getTransactionsCommitted());
+		assertEquals(0, progress.getRetries());
+	}
+
+	/**
+	 * Test that a batch is cut once its estimated size reaches the maximum number of
+	 *  bytes, and that the estimate is corrected by the approximate size of the
+	 *  transactions that came before.
+	 */
+	@Test
+	public void testByteThreshold() {
+		FakeDatabase fake = new FakeDatabase();
+		List<KeyValue> source = pairs(7, 60);
+		new BulkWriter(fake.database(), DIRECT)
+				.setMaxBytesPerTransaction(250)
+				.setMaxInFlight(1)
+				.write(source).join();
+
+		// Each pair is estimated at 100 bytes, so the batch exceeds the limit by its last pair
+		assertEquals(Arrays.asList(3, 3, 1), fake.batchSizes());
+		assertSamePairs(source, fake.committedPairs());
+
+		fake = new FakeDatabase();
+		fake.sizeRatio = 2.0;
+		new BulkWriter(fake.database(), DIRECT)
+				.setMaxBytesPerTransaction(250)
+				.setMaxInFlight(1)
+				.write(source).join();
+
+		// Once the first commit has shown the estimates to be half the real size
+		assertEquals(Arrays.asList(3, 2, 2), fake.batchSizes());
+		assertSamePairs(source, fake.committedPairs());
+	}
+
+	/**
+	 * Test that no more than the maximum number of batches are in flight at once, that
+	 *  the source is not read ahead of the window, and that batches are started in order.
+	 */
+	@Test
+	public void testPipelining() {
+		FakeDatabase fake = new FakeDatabase();
+		fake.holdCommits = true;
+		List<KeyValue> pairs = pairs(5, 10);
+		CountingSource source = new CountingSource(pairs);
+		List<Long> reported = Collections.synchronizedList(new ArrayList<>());
+		CompletableFuture<BulkWriter.Progress> done = new BulkWriter(fake.database(), DIRECT)
+				.setMaxKeysPerTransaction(1)
+				.setMaxInFlight(2)
+				.setProgressListener(progress -> reported.add(progress.getKeysWritten()))
+				.write(source);
+
+		assertEquals(2, fake.held.size());
+		assertEquals(2, source.read);
+
+		// Completing the second batch first frees a place for the third
+		fake.held.get(1).complete(null);
+		assertEquals(3, fake.held.size());
+		assertEquals(3, source.read);
+
+		for(int i = 0; i < 5; i++) {
+			assertFalse(done.isDone());
+			fake.held.get(i).complete(null);
+		}
+
+		BulkWriter.Progress progress = done.join();
+		assertEquals(5, progress.getKeysWritten());
+		assertEquals(5, progress.getTransactionsCommitted());
+		assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L), reported);
+
+		List<KeyValue> committed = fake.committedPairs();
+		assertSame(pairs.get(1).getKey(), committed.get(0).getKey());
+		assertSame(pairs.get(0).getKey(), committed.get(1).getKey());
+		assertSamePairs(pairs.subList(2, 5), committed.subList(2, 5));
+	}
+
+	/**
+	 * Test that a batch whose commit fails with a retryable error is written again, and
+	 *  that the retry is counted.
+	 */
+	@Test
+	public void testRetry() {
+		FakeDatabase fake = new FakeDatabase();
+		List<List<KeyValue>> attempted = new ArrayList<>();
+		fake.committer = batch -> {
+			CompletableFuture<Void> result = new CompletableFuture<>();
+			if(attempted.stream().noneMatch(b -> b.get(0).getKey() == batch.get(0).getKey())) {
+				attempted.add(batch);
+				result.completeExceptionally(new FDBException("Transaction not committed", NOT_COMMITTED));
+			}
+			else {
+				result.complete(null);
+			}
+			return result;
+		};
+
+		List<KeyValue> source = pairs(4, 10);
+		BulkWriter.Progress progress = new BulkWriter(fake.database(), DIRECT)
+				.setMaxKeysPerTransaction(2)
+				.write(source).join();
+
+		assertSamePairs(source, fake.committedPairs());
+		assertEquals(2, progress.getTransactionsCommitted());
+		assertEquals(2, progress.getRetries());
+	}
+
+	/**
+	 * Test that a batch that is too large to commit is split in half until its parts can
+	 *  be committed, and that its pairs are still written in order.
+	 */
+	@Test
+	public void testSplit() {
+		FakeDatabase fake = new FakeDatabase();
+		fake.committer = batch -> {
+			CompletableFuture<Void> result = new CompletableFuture<>();
+			if(batch.size() > 2) {
+				result.completeExceptionally(new FDBException("Transaction exceeds byte limit", BulkWriter.TRANSACTION_TOO_LARGE));
+			}
+			else {
+				result.complete(null);
+			}
+			return result;
+		};
+
+		List<KeyValue> source = pairs(8, 10);
+		BulkWriter.Progress progress = new BulkWriter(fake.database(), DIRECT)
+				.setMaxKeysPerTransaction(8)
+				.write(source).join();
+
+		assertEquals(Arrays.asList(2, 2, 2, 2), fake.batchSizes());
+		assertSamePairs(source, fake.committedPairs());
+		assertEquals(3, progress.getSplits());
+		assertEquals(4, progress.getTransactionsCommitted());
+
+		// A batch whose approximate size is beyond the limit is split without committing it
+		fake = new FakeDatabase();
+		fake.sizeRatio = BulkWriter.TRANSACTION_SIZE_LIMIT;
+		progress = new BulkWriter(fake.database(), DIRECT)
+				.setMaxKeysPerTransaction(2)
+				.write(pairs(2, 10)).join();
+
+		assertEquals(Arrays.asList(1, 1), fake.batchSizes());
+		assertEquals(1, progress.getSplits());
+	}
+
+	/**
+	 * Test that an error that cannot be retried fails the write, and that the source is
+	 *  not read further once it has.
+	 */
+	@Test
+	public void testErrorPropagation() {
+		FakeDatabase fake = new FakeDatabase();
+		FDBException error = new FDBException("Operation failed", 2000);
+		fake.committer = batch -> {
+			CompletableFuture<Void> result = new CompletableFuture<>();
+			if(fake.committed.size() == 1) {
+				result.completeExceptionally(error);
+			}
+			else {
+				result.complete(null);
+			}
+			return result;
+		};
+
+		CountingSource source = new CountingSource(pairs(10, 10));
+		CompletableFuture<BulkWriter.Progress> done = new BulkWriter(fake.database(), DIRECT)
+				.setMaxKeysPerTransaction(1)
+				.setMaxInFlight(1)
+				.write(source);
+
+		assertSame(error, BulkWriter.unwrap(failure(done)));
+		assertEquals(1, fake.committed.size());
+		assertEquals(2, source.read);
+
+		// An error thrown by the source fails the write in the same way
+		RuntimeException sourceError = new IllegalStateException("Source failed");
+		Iterator<KeyValue> failing = new Iterator<KeyValue>() {
+			@Override
+			public boolean hasNext() {
+				return true;
+			}
+
+			@Override
+			public KeyValue next() {
+				throw sourceError;
+			}
+		};
+		done = new BulkWriter(new FakeDatabase().database(), DIRECT).write(failing);
+		assertSame(sourceError, failure(done));
+	}
+
+	/**
+	 * Test that a limit on the bytes per transaction beyond what the cluster accepts is rejected.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testMaxBytesLimit() {
+		new BulkWriter(new FakeDatabase().database(), DIRECT)
+				.setMaxBytesPerTransaction(BulkWriter.TRANSACTION_SIZE_LIMIT + 1);
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * DirectBufferPoolTests.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2018 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class DirectBufferPoolTests {
+	private static final DirectBufferPool pool = DirectBufferPool.getInstance();
+
+	@After
+	public void restorePool() {
+		pool.resize(DirectBufferPool.DEFAULT_NUM_BUFFERS, DirectBufferPool.DEFAULT_BUFFER_SIZE);
+	}
+
+	// Fills a pooled buffer with a batch of pairs in the layout written by the native layer
+	private static RangeResult batch(int pairs) {
+		DirectBufferPool.PooledBuffer pooled = pool.poll();
+		assertNotNull(pooled);
+		pooled.buffer.putInt(pairs).putInt(0);
+		for(int i = 0; i < pairs; i++) {
+			pooled.buffer.putInt(1).putInt(1).put((byte)i).put((byte)-i);
+		}
+		pooled.buffer.clear();
+		return new RangeResult(pooled);
+	}
+
+	private static void awaitInUse(int expected) throws InterruptedException {
+		for(int i = 0; i < 100 && pool.getInUse() != expected; i++) {
+			System.gc();
+			Thread.sleep(20);
+		}
+		assertEquals(expected, pool.getInUse());
+	}
+
+	/**
+	 * Test that closing a result returns its buffer, and that releasing it again has no effect.
+	 */
+	@Test
+	public void testClose() {
+		pool.resize(1, 64);
+		RangeResult result = batch(2);
+		assertNull(pool.poll());
+
+		assertArrayEquals(new byte[] {1}, result.values.get(1).getKey());
+		result.close();
+		result.close();
+		assertEquals(0, pool.getInUse());
+
+		DirectBufferPool.PooledBuffer pooled = pool.poll();
+		assertNotNull(pooled);
+		pooled.release();
+		pooled.release();
+		assertEquals(0, pool.getInUse());
+	}
+
+	/**
+	 * Test that the buffers of batches that are abandoned part way through, as they are
+	 *  when a consumer breaks out of a range iterator without cancelling it, are reclaimed.
+	 */
+	@Test
+	public void testEarlyExit() throws InterruptedException {
+		pool.resize(4, 64);
+		for(int round = 0; round < 3; round++) {
+			List<RangeResult> batches = new ArrayList<>();
+			for(int i = 0; i < 4; i++) {
+				batches.add(batch(3));
+			}
+			assertNull(pool.poll());
+
+			Iterator<KeyValue> iterator = batches.get(0).values.iterator();
+			while(iterator.hasNext()) {
+				if(iterator.next().getKey()[0] == 1) {
+					break;
+				}
+			}
+
+			batches = null;
+			iterator = null;
+			awaitInUse(0);
+		}
+	}
+
+	/**
+	 * Test that buffers handed out before a resize are not recycled into the new pool.
+	 */
+	@Test
+	public void testStaleGeneration() {
+		pool.resize(2, 64);
+		DirectBufferPool.PooledBuffer stale = pool.poll();
+		assertNotNull(stale);
+
+		pool.resize(2, 64);
+		stale.release();
+		assertEquals(0, pool.getInUse());
+
+		DirectBufferPool.PooledBuffer first = pool.poll();
+		DirectBufferPool.PooledBuffer second = pool.poll();
+		assertNotNull(first);
+		assertNotNull(second);
+		assertNull(pool.poll());
+		assertTrue(first.buffer != stale.buffer && second.buffer != stale.buffer);
+		first.release();
+		second.release();
+	}
+
+	/**
+	 * Test that a result backed by a pooled buffer can be read from several threads at once,
+	 *  as readers do not share the position of the buffer.
+	 */
+	@Test
+	public void testConcurrentReads() throws InterruptedException {
+		pool.resize(1, 4096);
+		RangeResult result = batch(100);
+		AtomicBoolean mismatch = new AtomicBoolean(false);
+		List<Thread> readers = new ArrayList<>();
+		for(int t = 0; t < 4; t++) {
+			Thread reader = new Thread(() -> {
+				for(int round = 0; round < 1000; round++) {
+					for(int i = 0; i < result.size(); i++) {
+						KeyValue kv = result.values.get(i);
+						if(kv.getKey()[0] != (byte)i || kv.getValue()[0] != (byte)-i) {
+							mismatch.set(true);
+						}
+					}
+				}
+			});
+			readers.add(reader);
+			reader.start();
+		}
+		for(Thread reader : readers) {
+			reader.join();
+		}
+		assertFalse(mismatch.get());
+		result.close();
+	}
+}
@@ -0,0 +1,147 @@
+/*
+ * RangeResultTests.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2018 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class RangeResultTests {
+	private static final byte[][] KEYS = { "apple".getBytes(), "apricot".getBytes(), "banana".getBytes() };
+	private static final byte[][] VALUES = { "1".getBytes(), new byte[0], "three".getBytes() };
+
+	// The same pairs in the two layouts produced by the native layer
+	private static List<RangeResult> batches() {
+		int total = 0;
+		int[] lengths = new int[KEYS.length * 2];
+		for(int i = 0; i < KEYS.length; i++) {
+			lengths[i * 2] = KEYS[i].length;
+			lengths[i * 2 + 1] = VALUES[i].length;
+			total += KEYS[i].length + VALUES[i].length;
+		}
+		byte[] keyValues = new byte[total];
+		ByteBuffer buffer = ByteBuffer.allocateDirect(8 + 8 * KEYS.length + total).order(ByteOrder.nativeOrder());
+		buffer.putInt(KEYS.length).putInt(0);
+		int offset = 0;
+		for(int i = 0; i < KEYS.length; i++) {
+			System.arraycopy(KEYS[i], 0, keyValues, offset, KEYS[i].length);
+			offset += KEYS[i].length;
+			System.arraycopy(VALUES[i], 0, keyValues, offset, VALUES[i].length);
+			offset += VALUES[i].length;
+			buffer.putInt(KEYS[i].length).putInt(VALUES[i].length).put(KEYS[i]).put(VALUES[i]);
+		}
+		buffer.clear();
+
+		List<RangeResult> batches = new ArrayList<>();
+		batches.add(new RangeResult(keyValues, lengths, false));
+		batches.add(new RangeResult(buffer));
+		return batches;
+	}
+
+	private static byte[] bytes(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.duplicate().get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Test that a view reads each key and value in place, in either layout.
+	 */
+	@Test
+	public void testViews() {
+		for(RangeResult batch : batches()) {
+			KeyValueView view = new KeyValueView();
+			for(int i = 0; i < KEYS.length; i++) {
+				view.set(batch, i);
+				assertEquals(KEYS[i].length, view.getKeyLength());
+				assertEquals(VALUES[i].length, view.getValueLength());
+				assertArrayEquals(KEYS[i], bytes(view.getKey()));
+				assertArrayEquals(VALUES[i], bytes(view.getValue()));
+				assertTrue(view.getKey().isReadOnly());
+				assertEquals(new KeyValue(KEYS[i], VALUES[i]), view.toKeyValue());
+				assertEquals(new KeyValue(KEYS[i], VALUES[i]), batch.values.get(i));
+			}
+		}
+	}
+
+	/**
+	 * Test the accessors that read a key in place, in either layout.
+	 */
+	@Test
+	public void testAccessors() {
+		for(RangeResult batch : batches()) {
+			KeyValueView view = new KeyValueView();
+			for(int i = 0; i < KEYS.length; i++) {
+				view.set(batch, i);
+				ByteBuffer data = view.getBuffer();
+				for(int j = 0; j < KEYS[i].length; j++) {
+					assertEquals(KEYS[i][j], data.get(view.getKeyOffset() + j));
+				}
+				for(int j = 0; j < VALUES[i].length; j++) {
+					assertEquals(VALUES[i][j], data.get(view.getValueOffset() + j));
+				}
+				assertEquals(0, view.compareKey(KEYS[i]));
+			}
+
+			view.set(batch, 0);
+			assertTrue(view.keyStartsWith("ap".getBytes()));
+			assertTrue(view.keyStartsWith(new byte[0]));
+			assertFalse(view.keyStartsWith("apples".getBytes()));
+			assertFalse(view.keyStartsWith("b".getBytes()));
+			assertTrue(view.compareKey("apples".getBytes()) < 0);
+			assertTrue(view.compareKey("app".getBytes()) > 0);
+
+			// Bytes are compared unsigned
+			assertTrue(view.compareKey(new byte[] { (byte)0xff }) < 0);
+
+			view.set(batch, 2);
+			assertTrue(view.compareKey(KEYS[1]) > 0);
+			assertFalse(view.keyStartsWith("ap".getBytes()));
+		}
+	}
+
+	/**
+	 * Test that a view of a pooled batch cannot be read once the batch is closed.
+	 */
+	@Test
+	public void testViewAfterClose() {
+		RangeResult batch = batches().get(1);
+		KeyValueView view = new KeyValueView();
+		view.set(batch, 0);
+		batch.close();
+		try {
+			view.getKey();
+			fail("Read a view of a closed batch");
+		}
+		catch(IllegalStateException e) {
+			// expected
+		}
+	}
+}
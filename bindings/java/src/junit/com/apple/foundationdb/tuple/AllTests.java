@@ -25,7 +25,7 @@ import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
 @RunWith(Suite.class)
-@SuiteClasses({ ArrayUtilTests.class })
+@SuiteClasses({ ArrayUtilTests.class, TupleReaderTests.class, TupleWriterTests.class })
 public class AllTests {
 
 }
@@ -0,0 +1,178 @@
+/*
+ * TupleReaderTests.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2018 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.tuple;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import com.apple.foundationdb.subspace.Subspace;
+
+public class TupleReaderTests {
+
+	/**
+	 * Test method for {@link TupleReader#nextLong()}.
+	 */
+	@Test
+	public void testNextLong() {
+		long[] values = new long[] {0L, 1L, -1L, 255L, -255L, 256L, -256L, Integer.MAX_VALUE, Integer.MIN_VALUE,
+				Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE - 1, Long.MIN_VALUE + 1, 1L << 62, -(1L << 62)};
+		for(long value : values) {
+			TupleReader reader = new TupleReader(Tuple.from(value).pack());
+			assertEquals(value, reader.nextLong());
+			assertFalse(reader.hasNext());
+		}
+
+		// Integers outside the range of a long
+		TupleReader reader = new TupleReader(Tuple.from(BigInteger.valueOf(Long.MAX_VALUE).add(BigInteger.ONE), "a").pack());
+		try {
+			reader.nextLong();
+			fail("Read an integer out of the range of a long");
+		} catch(IllegalArgumentException e) {
+			// Expected
+		}
+		assertEquals("a", reader.skip().nextString());
+	}
+
+	/**
+	 * Test method for {@link TupleReader#skip()}.
+	 */
+	@Test
+	public void testSkip() {
+		Tuple t = Tuple.from(null, new byte[] {0, 1, 0}, "str\0ing", Tuple.from(null, "nested", Tuple.from(1L)),
+				1.5f, 2.5d, true, false, new UUID(1L, 2L), BigInteger.ONE.shiftLeft(100),
+				BigInteger.ONE.shiftLeft(100).negate(), Versionstamp.complete(new byte[10], 3), 42L);
+		TupleReader reader = new TupleReader(t.pack());
+		for(int i = 0; i < t.size() - 1; i++) {
+			assertTrue(reader.hasNext());
+			reader.skip();
+		}
+		assertEquals(42L, reader.nextLong());
+		assertFalse(reader.hasNext());
+
+		reader = new TupleReader(t.pack());
+		for(int i = 0; i < t.size(); i++) {
+			Object expected = t.get(i);
+			Object actual = reader.next();
+			if(expected instanceof byte[]) {
+				assertArrayEquals((byte[])expected, (byte[])actual);
+			}
+			else if(expected instanceof Tuple) {
+				// Nested tuples are decoded as lists
+				assertArrayEquals(Tuple.from(expected).pack(), Tuple.from(actual).pack());
+			}
+			else {
+				assertEquals(expected, actual);
+			}
+		}
+	}
+
+	/**
+	 * Test method for {@link TupleReader#nextStringEquals(String)} and
+	 * {@link TupleReader#nextBytesEquals(byte[])}.
+	 */
+	@Test
+	public void testEquals() {
+		String[] strings = new String[] {"", "a", "abc", "\0", "a\0b", "\u00e9", "\u20ac", "\ud83d\ude00", "caf\u00e9\0\ud83d\ude00"};
+		for(String s : strings) {
+			for(String other : strings) {
+				TupleReader reader = new TupleReader(Tuple.from(s, 1L).pack());
+				assertEquals(s.equals(other), reader.nextStringEquals(other));
+				assertEquals(1L, reader.nextLong());
+			}
+		}
+		assertFalse(new TupleReader(Tuple.from("a".getBytes()).pack()).nextStringEquals("a"));
+		assertFalse(new TupleReader(Tuple.from("a").pack()).nextStringEquals("\ud83d"));
+
+		byte[][] bytes = new byte[][] {{}, {0}, {0, 0}, {1, 0, (byte)0xff}, {(byte)0xff}};
+		for(byte[] b : bytes) {
+			for(byte[] other : bytes) {
+				TupleReader reader = new TupleReader(Tuple.from(b, 1L).pack());
+				assertEquals(Arrays.equals(b, other), reader.nextBytesEquals(other));
+				assertEquals(1L, reader.nextLong());
+			}
+		}
+	}
+
+	/**
+	 * Test method for {@link TupleReader#nextDouble()}, {@link TupleReader#nextFloat()},
+	 * {@link TupleReader#nextBoolean()} and {@link TupleReader#nextIsNull()}.
+	 */
+	@Test
+	public void testPrimitives() {
+		TupleReader reader = new TupleReader(Tuple.from(-0.5d, 3.25f, true, false, null, "x").pack());
+		assertEquals(TupleReader.DOUBLE_CODE, reader.peekTypeCode());
+		assertEquals(-0.5d, reader.nextDouble(), 0.0);
+		assertEquals(3.25f, reader.nextFloat(), 0.0f);
+		assertTrue(reader.nextBoolean());
+		assertFalse(reader.nextBoolean());
+		assertTrue(reader.nextIsNull());
+		assertFalse(reader.nextIsNull());
+		assertEquals(TupleReader.STRING_CODE, reader.peekTypeCode());
+		try {
+			reader.nextLong();
+			fail("Read a string as an integer");
+		} catch(IllegalArgumentException e) {
+			// Expected
+		}
+		assertEquals("x", reader.nextString());
+		try {
+			reader.skip();
+			fail("Skipped past the end of the tuple");
+		} catch(IllegalStateException e) {
+			// Expected
+		}
+	}
+
+	/**
+	 * Test method for {@link TupleReader#reset(ByteBuffer)} and
+	 * {@link Subspace#unpackReader(byte[], TupleReader)}.
+	 */
+	@Test
+	public void testSources() {
+		byte[] packed = Tuple.from("k", 7L).pack();
+
+		ByteBuffer direct = ByteBuffer.allocateDirect(packed.length + 2);
+		direct.put((byte)9).put(packed).put((byte)9).flip().position(1).limit(packed.length + 1);
+		TupleReader reader = new TupleReader(direct);
+		assertTrue(reader.nextStringEquals("k"));
+		assertEquals(7L, reader.nextLong());
+		assertFalse(reader.hasNext());
+		assertEquals(1, direct.position());
+
+		Subspace subspace = new Subspace(Tuple.from("prefix"));
+		reader.reset(ByteBuffer.wrap(packed));
+		assertEquals("k", reader.nextString());
+		subspace.unpackReader(subspace.pack(Tuple.from("k", 8L)), reader);
+		assertTrue(reader.nextStringEquals("k"));
+		assertEquals(8L, reader.nextLong());
+		assertFalse(reader.hasNext());
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * TupleWriterTests.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2018 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.tuple;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import com.apple.foundationdb.subspace.Subspace;
+
+public class TupleWriterTests {
+
+	/**
+	 * Test method for {@link TupleWriter#add(long)}.
+	 */
+	@Test
+	public void testAddLong() {
+		long[] values = new long[] {0L, 1L, -1L, 255L, -255L, 256L, -256L, 65535L, -65536L, Integer.MAX_VALUE,
+				Integer.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE - 1, Long.MIN_VALUE + 1};
+		TupleWriter writer = new TupleWriter(null, 0);
+		for(long value : values) {
+			assertArrayEquals(Tuple.from(value).pack(), writer.reset().add(value).pack());
+		}
+	}
+
+	/**
+	 * Test method for {@link TupleWriter#add(String)}.
+	 */
+	@Test
+	public void testAddString() {
+		String[] strings = new String[] {"", "a", "\0", "a\0b\0", "\u00e9", "\u07ff", "\u0800", "\u20ac",
+				"\uffff", "\ud83d\ude00", "caf\u00e9\0\ud83d\ude00"};
+		TupleWriter writer = new TupleWriter();
+		for(String s : strings) {
+			assertArrayEquals(Tuple.from(s).pack(), writer.reset().add(s).pack());
+		}
+		for(String s : new String[] {"\ud83d", "a\ude00", "\ude00\ud83d"}) {
+			try {
+				writer.reset().add(s);
+				fail("Wrote a malformed string");
+			} catch(IllegalArgumentException e) {
+				// Expected
+			}
+			assertEquals(0, writer.getPackedSize());
+		}
+	}
+
+	/**
+	 * Test method for {@link TupleWriter#addObject(Object)} and the other {@code add} methods.
+	 */
+	@Test
+	public void testMatchesTuple() {
+		Tuple t = Tuple.from(null, new byte[] {0, 1, 0}, new byte[0], "str\0ing", 1.5f, -2.5d, -0.0d, true, false,
+				new UUID(1L, -2L), BigInteger.ONE.shiftLeft(100), BigInteger.ONE.shiftLeft(100).negate(),
+				Versionstamp.complete(new byte[10], 3), Tuple.from(null, "nested", Tuple.from(1L, null)),
+				Arrays.asList(null, 2L), 42, (short)-7);
+		TupleWriter writer = new TupleWriter();
+		for(Object o : t.getItems()) {
+			writer.addObject(o);
+		}
+		assertEquals(t.size(), writer.size());
+		assertEquals(t.getPackedSize(), writer.getPackedSize());
+		assertArrayEquals(t.pack(), writer.pack());
+
+		writer.reset().beginNested().addNull().add("nested").beginNested().add(1L).addNull().endNested().endNested();
+		assertArrayEquals(Tuple.from(Tuple.from(null, "nested", Tuple.from(1L, null))).pack(), writer.pack());
+		assertEquals(1, writer.size());
+
+		writer.reset().beginNested();
+		try {
+			writer.pack();
+			fail("Packed an unended nested tuple");
+		} catch(IllegalStateException e) {
+			// Expected
+		}
+	}
+
+	/**
+	 * Test method for {@link TupleWriter#reset(byte[])}, {@link TupleWriter#packInto(ByteBuffer)}
+	 * and {@link Subspace#packWriter(TupleWriter)}.
+	 */
+	@Test
+	public void testPrefix() {
+		Subspace subspace = new Subspace(Tuple.from("prefix"), new byte[] {0, 1});
+		TupleWriter writer = subspace.packWriter();
+		for(long i = 0; i < 100; i++) {
+			assertArrayEquals(subspace.pack(Tuple.from("k", i)), writer.reset().add("k").add(i).pack());
+		}
+
+		byte[] bytes = new byte[100];
+		Arrays.fill(bytes, (byte)0);
+		byte[] key = subspace.packWriter(writer).add(bytes, 10, 50).add(bytes).pack();
+		assertArrayEquals(subspace.pack(Tuple.from(Arrays.copyOfRange(bytes, 10, 60), bytes)), key);
+
+		ByteBuffer dest = ByteBuffer.allocate(key.length + 1);
+		dest.put((byte)1);
+		writer.packInto(dest);
+		assertEquals(key.length + 1, dest.position());
+		assertArrayEquals(key, Arrays.copyOfRange(dest.array(), 1, dest.position()));
+
+		writer.reset(null);
+		assertArrayEquals(Tuple.from("k").pack(), writer.add("k").pack());
+	}
+}
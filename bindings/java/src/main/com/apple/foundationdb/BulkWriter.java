@@ -0,0 +1,478 @@
+/*
+ * BulkWriter.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2018 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.apple.foundationdb;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Writes a large number of keys and values to a {@link Database}, spread across as many
+ *  transactions as are needed to hold them. Pairs are taken from the source in order and
+ *  gathered into batches of at most a given number of keys and a given number of bytes,
+ *  and each batch is written with {@link Database#runAsync(java.util.function.Function, Executor) runAsync()},
+ *  so that it is retried on retryable errors. Up to a given number of batches are committed
+ *  at once, and the source is not read further while that many are in flight.<br>
+ * <br>
+ * The size of a batch is estimated from the lengths of its keys and values. Before each
+ *  batch is committed, its estimate is compared with the
+ *  {@link Transaction#getApproximateSize() approximate size} of its transaction, and the
+ *  ratio between the two is used to correct the estimates of the batches that follow.
+ *  A batch that is nevertheless too large to commit, either because its approximate size
+ *  is already beyond the limit on the size of a transaction or because its commit fails with
+ *  {@code transaction_too_large}, is split in half and each half is written in turn.<br>
+ * <br>
+ * This is not transactional: the pairs are committed in many transactions, in no
+ *  particular order, and if writing fails then the batches committed before the failure
+ *  remain written. Because a batch may be retried after a commit whose result is unknown,
+ *  the source should not contain the same key twice if the order in which they are
+ *  written matters.<br>
+ * <br>
+ * A {@code BulkWriter} holds only its settings, and may be used for any number of writes,
+ *  including concurrently, but its settings should not be changed while it is in use.
+ */
+public class BulkWriter {
+	/**
+	 * The maximum number of keys written in one transaction, if none is given.
+	 */
+	public static final int DEFAULT_MAX_KEYS_PER_TRANSACTION = 10_000;
+
+	/**
+	 * The maximum number of bytes written in one transaction, if none is given. This is
+	 *  well below the limit on the size of a transaction, as commits of about this size
+	 *  or smaller are the least disruptive to the cluster.
+	 */
+	public static final long DEFAULT_MAX_BYTES_PER_TRANSACTION = 1_000_000;
+
+	/**
+	 * The maximum number of transactions committed at once, if none is given.
+	 */
+	public static final int DEFAULT_MAX_IN_FLIGHT = 8;
+
+	// The limit on the size of a transaction that is enforced by the cluster
+	static final long TRANSACTION_SIZE_LIMIT = 10_000_000;
+	// The bytes each mutation adds to a transaction besides its key and value
+	static final int MUTATION_OVERHEAD = 32;
+
+	static final int TRANSACTION_TOO_LARGE = 2101;
+
+	private final Database db;
+	private final Executor executor;
+
+	private int maxKeysPerTransaction = DEFAULT_MAX_KEYS_PER_TRANSACTION;
+	private long maxBytesPerTransaction = DEFAULT_MAX_BYTES_PER_TRANSACTION;
+	private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+	private Consumer<? super Progress> progressListener = null;
+
+	/**
+	 * Creates a writer to a database, whose transactions use the database's executor.
+	 *
+	 * @param db the database to write to
+	 */
+	public BulkWriter(Database db) {
+		this(db, db.getExecutor());
+	}
+
+	/**
+	 * Creates a writer to a database.
+	 *
+	 * @param db the database to write to
+	 * @param executor the {@link Executor} to use for asynchronous callbacks, and on which
+	 *  the source of the pairs is read
+	 */
+	public BulkWriter(Database db, Executor executor) {
+		this.db = db;
+		this.executor = executor;
+	}
+
+	/**
+	 * Sets the maximum number of keys written in one transaction.
+	 *
+	 * @param maxKeys the maximum number of keys in one transaction
+	 *
+	 * @return this {@code BulkWriter}
+	 */
+	public BulkWriter setMaxKeysPerTransaction(int maxKeys) {
+		if(maxKeys < 1)
+			throw new IllegalArgumentException("Maximum keys per transaction must be at least 1");
+		this.maxKeysPerTransaction = maxKeys;
+		return this;
+	}
+
+	/**
+	 * Sets the maximum number of bytes written in one transaction. A batch is cut once
+	 *  its estimated size reaches this limit, so a batch may exceed it by the size of its
+	 *  last pair.
+	 *
+	 * @param maxBytes the maximum number of bytes in one transaction
+	 *
+	 * @return this {@code BulkWriter}
+	 */
+	public BulkWriter setMaxBytesPerTransaction(long maxBytes) {
+		if(maxBytes < 1 || maxBytes > TRANSACTION_SIZE_LIMIT)
+			throw new IllegalArgumentException("Maximum bytes per transaction must be between 1 and " + TRANSACTION_SIZE_LIMIT);
+		this.maxBytesPerTransaction = maxBytes;
+		return this;
+	}
+
+	/**
+	 * Sets the maximum number of transactions committed at once.
+	 *
+	 * @param maxInFlight the maximum number of transactions in flight
+	 *
+	 * @return this {@code BulkWriter}
+	 */
+	public BulkWriter setMaxInFlight(int maxInFlight) {
+		if(maxInFlight < 1)
+			throw new IllegalArgumentException("Maximum transactions in flight must be at least 1");
+		this.maxInFlight = maxInFlight;
+		return this;
+	}
+
+	/**
+	 * Sets a listener that is given the progress of a write each time one of its batches
+	 *  has been committed. The listener is called on the writer's executor, possibly from
+	 *  several threads at once, and should return quickly.
+	 *
+	 * @param listener the listener to call, or {@code null} to stop reporting progress
+	 *
+	 * @return this {@code BulkWriter}
+	 */
+	public BulkWriter setProgressListener(Consumer<? super Progress> listener) {
+		this.progressListener = listener;
+		return this;
+	}
+
+	/**
+	 * Writes every pair in {@code source} to the database.
+	 *
+	 * @param source the keys and values to write
+	 *
+	 * @return a {@code CompletableFuture} that is set to the final progress of the write
+	 *  once every pair has been committed, or to the first error that could not be retried
+	 */
+	public CompletableFuture<Progress> write(Iterable<? extends KeyValue> source) {
+		return write(source.iterator());
+	}
+
+	/**
+	 * Writes every pair remaining in {@code source} to the database. The iterator is read
+	 *  on the writer's executor, from one thread at a time, and is not read once the write
+	 *  has failed.
+	 *
+	 * @param source the keys and values to write
+	 *
+	 * @return a {@code CompletableFuture} that is set to the final progress of the write
+	 *  once every pair has been committed, or to the first error that could not be retried
+	 */
+	public CompletableFuture<Progress> write(Iterator<? extends KeyValue> source) {
+		Ingest ingest = new Ingest(source, maxKeysPerTransaction, maxBytesPerTransaction, maxInFlight, progressListener);
+		executor.execute(ingest::pump);
+		return ingest.done;
+	}
+
+	static long estimatedSize(KeyValue kv) {
+		return kv.getKey().length + kv.getValue().length + MUTATION_OVERHEAD;
+	}
+
+	static FDBException unwrap(Throwable t) {
+		while((t instanceof CompletionException || t instanceof ExecutionException) && t.getCause() != null) {
+			t = t.getCause();
+		}
+		return t instanceof FDBException ? (FDBException)t : null;
+	}
+
+	/**
+	 * The progress of a write by a {@link BulkWriter}, as of the last batch it committed.
+	 */
+	public static class Progress {
+		private final long keysWritten;
+		private final long bytesWritten;
+		private final long transactionsCommitted;
+		private final long retries;
+		private final long splits;
+		private final long elapsedNanos;
+
+		Progress(long keysWritten, long bytesWritten, long transactionsCommitted, long retries, long splits, long elapsedNanos) {
+			this.keysWritten = keysWritten;
+			this.bytesWritten = bytesWritten;
+			this.transactionsCommitted = transactionsCommitted;
+			this.retries = retries;
+			this.splits = splits;
+			this.elapsedNanos = elapsedNanos;
+		}
+
+		/**
+		 * Gets the number of keys that have been committed.
+		 *
+		 * @return the number of keys written
+		 */
+		public long getKeysWritten() {
+			return keysWritten;
+		}
+
+		/**
+		 * Gets the total length of the keys and values that have been committed.
+		 *
+		 * @return the number of bytes written
+		 */
+		public long getBytesWritten() {
+			return bytesWritten;
+		}
+
+		/**
+		 * Gets the number of transactions that have been committed.
+		 *
+		 * @return the number of transactions committed
+		 */
+		public long getTransactionsCommitted() {
+			return transactionsCommitted;
+		}
+
+		/**
+		 * Gets the number of times a transaction has been retried after a retryable error.
+		 *
+		 * @return the number of retries
+		 */
+		public long getRetries() {
+			return retries;
+		}
+
+		/**
+		 * Gets the number of times a batch has been split in half because it was too large
+		 *  to commit.
+		 *
+		 * @return the number of batches split
+		 */
+		public long getSplits() {
+			return splits;
+		}
+
+		/**
+		 * Gets the time since the write was started.
+		 *
+		 * @param unit the unit in which to return the time
+		 *
+		 * @return the elapsed time
+		 */
+		public long getElapsed(TimeUnit unit) {
+			return unit.convert(elapsedNanos, TimeUnit.NANOSECONDS);
+		}
+
+		/**
+		 * Gets the average rate at which keys have been committed since the write was started.
+		 *
+		 * @return the number of keys written per second
+		 */
+		public double getKeysPerSecond() {
+			return elapsedNanos == 0 ? 0.0 : keysWritten * 1e9 / elapsedNanos;
+		}
+
+		/**
+		 * Gets the average rate at which bytes have been committed since the write was started.
+		 *
+		 * @return the number of bytes written per second
+		 */
+		public double getBytesPerSecond() {
+			return elapsedNanos == 0 ? 0.0 : bytesWritten * 1e9 / elapsedNanos;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d keys, %d bytes in %d transactions (%d retries, %d splits) in %.3f s: %.0f keys/s, %.0f bytes/s",
+					keysWritten, bytesWritten, transactionsCommitted, retries, splits,
+					elapsedNanos / 1e9, getKeysPerSecond(), getBytesPerSecond());
+		}
+	}
+
+	private class Ingest {
+		final Iterator<? extends KeyValue> source;
+		final int maxKeys;
+		final long maxBytes;
+		final int maxInFlight;
+		final Consumer<? super Progress> listener;
+		final CompletableFuture<Progress> done = new CompletableFuture<>();
+		final long startNanos = System.nanoTime();
+
+		// The ratio of approximate sizes to estimated sizes, as last observed
+		volatile double sizeRatio = 1.0;
+
+		// Guarded by this
+		int inFlight = 0;
+		boolean exhausted = false;
+		boolean pumping = false;
+		boolean pumpAgain = false;
+		long keysWritten = 0;
+		long bytesWritten = 0;
+		long transactionsCommitted = 0;
+		long retries = 0;
+		long splits = 0;
+
+		Ingest(Iterator<? extends KeyValue> source, int maxKeys, long maxBytes, int maxInFlight, Consumer<? super Progress> listener) {
+			this.source = source;
+			this.maxKeys = maxKeys;
+			this.maxBytes = maxBytes;
+			this.maxInFlight = maxInFlight;
+			this.listener = listener;
+		}
+
+		/**
+		 * Starts batches until the window is full or the source is exhausted. Only one
+		 *  thread pumps at a time, as it is the only one to read the source; a call made
+		 *  while another thread is pumping makes that thread check the window again.
+		 */
+		void pump() {
+			synchronized(this) {
+				if(pumping) {
+					pumpAgain = true;
+					return;
+				}
+				pumping = true;
+			}
+			try {
+				while(true) {
+					synchronized(this) {
+						if(done.isDone() || exhausted || inFlight >= maxInFlight) {
+							if(pumpAgain && !done.isDone()) {
+								pumpAgain = false;
+								continue;
+							}
+							pumping = false;
+							if(exhausted && inFlight == 0) {
+								done.complete(snapshot());
+							}
+							return;
+						}
+					}
+					List<KeyValue> batch = nextBatch();
+					synchronized(this) {
+						exhausted = !source.hasNext();
+						if(batch.isEmpty()) {
+							continue;
+						}
+						inFlight++;
+					}
+					commit(batch).whenCompleteAsync((v, e) -> {
+						synchronized(Ingest.this) {
+							inFlight--;
+						}
+						if(e != null) {
+							done.completeExceptionally(e);
+						}
+						else {
+							pump();
+						}
+					}, executor);
+				}
+			}
+			catch(Throwable t) {
+				synchronized(this) {
+					pumping = false;
+				}
+				done.completeExceptionally(t);
+			}
+		}
+
+		private List<KeyValue> nextBatch() {
+			List<KeyValue> batch = new ArrayList<>();
+			double ratio = sizeRatio;
+			long estimate = 0;
+			while(batch.size() < maxKeys && estimate * ratio < maxBytes && source.hasNext()) {
+				KeyValue kv = source.next();
+				batch.add(kv);
+				estimate += estimatedSize(kv);
+			}
+			return batch;
+		}
+
+		private CompletableFuture<Void> commit(List<KeyValue> batch) {
+			long estimate = 0;
+			long bytes = 0;
+			for(KeyValue kv : batch) {
+				estimate += estimatedSize(kv);
+				bytes += kv.getKey().length + kv.getValue().length;
+			}
+			final long batchEstimate = estimate;
+			final long batchBytes = bytes;
+			final boolean[] attempted = { false };
+
+			return db.runAsync(tr -> {
+				if(attempted[0]) {
+					synchronized(Ingest.this) {
+						retries++;
+					}
+				}
+				attempted[0] = true;
+				for(KeyValue kv : batch) {
+					tr.set(kv.getKey(), kv.getValue());
+				}
+				return tr.getApproximateSize().thenApply(size -> {
+					if(batchEstimate > 0) {
+						sizeRatio = Math.max(1.0, (double)size / batchEstimate);
+					}
+					// Save the round trip of a commit that would be rejected
+					if(size > TRANSACTION_SIZE_LIMIT && batch.size() > 1) {
+						throw new FDBException("Transaction exceeds byte limit", TRANSACTION_TOO_LARGE);
+					}
+					return null;
+				});
+			}, executor).handle((v, e) -> {
+				if(e == null) {
+					Progress progress;
+					synchronized(Ingest.this) {
+						keysWritten += batch.size();
+						bytesWritten += batchBytes;
+						transactionsCommitted++;
+						progress = snapshot();
+					}
+					if(listener != null) {
+						listener.accept(progress);
+					}
+					return CompletableFuture.<Void>completedFuture(null);
+				}
+				FDBException err = unwrap(e);
+				if(err == null || err.getCode() != TRANSACTION_TOO_LARGE || batch.size() < 2 || done.isDone()) {
+					CompletableFuture<Void> failed = new CompletableFuture<>();
+					failed.completeExceptionally(e);
+					return failed;
+				}
+				synchronized(Ingest.this) {
+					splits++;
+				}
+				int mid = batch.size() / 2;
+				List<KeyValue> second = batch.subList(mid, batch.size());
+				return commit(batch.subList(0, mid)).thenCompose(ignore -> commit(second));
+			}).thenCompose(f -> f);
+		}
+
+		// Must be called while holding the lock on this
+		private Progress snapshot() {
+			return new Progress(keysWritten, bytesWritten, transactionsCommitted, retries, splits, System.nanoTime() - startNanos);
+		}
+	}
+}
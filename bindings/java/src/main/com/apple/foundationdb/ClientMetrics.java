@@ -0,0 +1,218 @@
+/*
+ * ClientMetrics.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2018 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link MetricsListener} that keeps running totals of everything reported to it: a
+ *  {@link LatencyHistogram} and a failure count for each {@link MetricsListener.Operation Operation},
+ *  the rows and bytes read by each kind of read, the number and size of writes, the sizes
+ *  of committed transactions, and the number of retries for each error code. Counters are
+ *  {@link LongAdder}s, so recording is cheap even when many threads report at once, and
+ *  the values can be read at any time.<br>
+ * <br>
+ * For example:
+ * <pre>
+ * {@code
+ * ClientMetrics metrics = new ClientMetrics();
+ * Database db = fdb.open(null, FDB.DEFAULT_EXECUTOR, metrics);
+ * ...
+ * long p99 = metrics.getLatency(MetricsListener.Operation.COMMIT).getPercentile(99);
+ * }
+ * </pre>
+ */
+public class ClientMetrics implements MetricsListener {
+	private final EnumMap<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+	private final EnumMap<Operation, LongAdder> failures = new EnumMap<>(Operation.class);
+	private final EnumMap<Operation, LongAdder> rowsRead = new EnumMap<>(Operation.class);
+	private final EnumMap<Operation, LongAdder> bytesRead = new EnumMap<>(Operation.class);
+	private final LongAdder writes = new LongAdder();
+	private final LongAdder bytesWritten = new LongAdder();
+	private final LatencyHistogram commitSizes = new LatencyHistogram();
+	// Error codes are small, so retries are counted in an array indexed by code, which
+	//  unlike a map keyed by Integer needs no boxing. Any other code goes in the map.
+	private static final int INDEXED_ERROR_CODES = 8192;
+	private final AtomicReferenceArray<LongAdder> retries = new AtomicReferenceArray<>(INDEXED_ERROR_CODES);
+	private final ConcurrentHashMap<Integer, LongAdder> otherRetries = new ConcurrentHashMap<>();
+
+	public ClientMetrics() {
+		// Every entry is created up front, so the maps are only read once shared
+		for(Operation operation : Operation.values()) {
+			latencies.put(operation, new LatencyHistogram());
+			failures.put(operation, new LongAdder());
+			rowsRead.put(operation, new LongAdder());
+			bytesRead.put(operation, new LongAdder());
+		}
+	}
+
+	@Override
+	public void onOperation(Operation operation, long latencyNanos, boolean succeeded) {
+		latencies.get(operation).record(latencyNanos);
+		if(!succeeded) {
+			failures.get(operation).increment();
+		}
+	}
+
+	@Override
+	public void onRead(Operation operation, int rows, long bytes) {
+		rowsRead.get(operation).add(rows);
+		bytesRead.get(operation).add(bytes);
+	}
+
+	@Override
+	public void onWrite(long bytes) {
+		writes.increment();
+		bytesWritten.add(bytes);
+	}
+
+	@Override
+	public void onCommitSize(long bytesWritten) {
+		commitSizes.record(bytesWritten);
+	}
+
+	@Override
+	public void onRetry(int errorCode) {
+		if(errorCode < 0 || errorCode >= INDEXED_ERROR_CODES) {
+			otherRetries.computeIfAbsent(errorCode, ignore -> new LongAdder()).increment();
+			return;
+		}
+		LongAdder count = retries.get(errorCode);
+		if(count == null) {
+			retries.compareAndSet(errorCode, null, new LongAdder());
+			count = retries.get(errorCode);
+		}
+		count.increment();
+	}
+
+	/**
+	 * Gets the histogram of the latencies of an operation, in nanoseconds.
+	 *
+	 * @param operation the operation
+	 * @return the latencies of {@code operation}
+	 */
+	public LatencyHistogram getLatency(Operation operation) {
+		return latencies.get(operation);
+	}
+
+	/**
+	 * Gets the number of times an operation has completed with an error.
+	 *
+	 * @param operation the operation
+	 * @return the number of failures of {@code operation}
+	 */
+	public long getFailures(Operation operation) {
+		return failures.get(operation).sum();
+	}
+
+	/**
+	 * Gets the number of rows read by a kind of read.
+	 *
+	 * @param operation {@link Operation#GET}, {@link Operation#GET_ALL} or {@link Operation#GET_RANGE}
+	 * @return the number of key-value pairs read
+	 */
+	public long getRowsRead(Operation operation) {
+		return rowsRead.get(operation).sum();
+	}
+
+	/**
+	 * Gets the number of bytes read by a kind of read.
+	 *
+	 * @param operation {@link Operation#GET}, {@link Operation#GET_ALL} or {@link Operation#GET_RANGE}
+	 * @return the number of bytes of keys and values read
+	 */
+	public long getBytesRead(Operation operation) {
+		return bytesRead.get(operation).sum();
+	}
+
+	/**
+	 * Gets the number of sets, clears and atomic mutations made.
+	 *
+	 * @return the number of writes
+	 */
+	public long getWrites() {
+		return writes.sum();
+	}
+
+	/**
+	 * Gets the number of bytes of keys and values written.
+	 *
+	 * @return the number of bytes written
+	 */
+	public long getBytesWritten() {
+		return bytesWritten.sum();
+	}
+
+	/**
+	 * Gets the distribution of the sizes of committed transactions, counted as the bytes
+	 *  of keys and values that they wrote. The histogram's values are in bytes rather than
+	 *  nanoseconds.
+	 *
+	 * @return the sizes of committed transactions
+	 */
+	public LatencyHistogram getCommitSizes() {
+		return commitSizes;
+	}
+
+	/**
+	 * Gets the number of retries for each error code that has been retried.
+	 *
+	 * @return a map from error code to the number of times it was handled
+	 */
+	public Map<Integer, Long> getRetries() {
+		Map<Integer, Long> counts = new TreeMap<>();
+		for(int code = 0; code < INDEXED_ERROR_CODES; code++) {
+			LongAdder count = retries.get(code);
+			if(count != null) {
+				counts.put(code, count.sum());
+			}
+		}
+		for(Map.Entry<Integer, LongAdder> entry : otherRetries.entrySet()) {
+			counts.put(entry.getKey(), entry.getValue().sum());
+		}
+		return Collections.unmodifiableMap(counts);
+	}
+
+	/**
+	 * Discards everything recorded so far.
+	 */
+	public void reset() {
+		for(Operation operation : Operation.values()) {
+			latencies.get(operation).reset();
+			failures.get(operation).reset();
+			rowsRead.get(operation).reset();
+			bytesRead.get(operation).reset();
+		}
+		writes.reset();
+		bytesWritten.reset();
+		commitSizes.reset();
+		for(int code = 0; code < INDEXED_ERROR_CODES; code++) {
+			retries.set(code, null);
+		}
+		otherRetries.clear();
+	}
+}
@@ -24,6 +24,8 @@ import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
 import java.util.function.Function;
 
+import com.apple.foundationdb.async.CloseableAsyncIterator;
+
 /**
  * A mutable, lexicographically ordered mapping from binary keys to binary values.
  *  {@link Transaction}s are used to manipulate data within a single
@@ -238,6 +240,58 @@ public interface Database extends AutoCloseable, TransactionContext {
 	<T> CompletableFuture<T> runAsync(
 			Function<? super Transaction, ? extends CompletableFuture<T>> retryable, Executor e);
 
+	/**
+	 * Reads a range of keys by splitting it into the contiguous ranges stored on single
+	 *  servers and reading up to {@code parallelism} of those at once, each with its own
+	 *  transaction. Like {@link LocalityUtil#getBoundaryKeys(Database, byte[], byte[])},
+	 *  this is not transactional: each shard is read at its own versions, and is resumed
+	 *  from its last key in a new transaction whenever a read fails with a retryable error,
+	 *  such as when a shard takes longer to read than the lifetime of a transaction.<br>
+	 * <br>
+	 * <b>Note:</b> the returned iterator must be {@link CloseableAsyncIterator#close closed}
+	 *  if it is abandoned before reaching its end, so that the transactions of any shards
+	 *  still being read are released.
+	 *
+	 * @param range the range of keys to read
+	 * @param parallelism the maximum number of shards that may be read at once
+	 * @param ordered if {@code true}, the results are returned in key order; otherwise
+	 *  rows from each shard are returned as soon as they are available
+	 *
+	 * @return an iterator over the keys and values in {@code range}
+	 */
+	default CloseableAsyncIterator<KeyValue> scanRangeParallel(Range range, int parallelism, boolean ordered) {
+		return new ParallelRangeScan(this, range.begin, range.end, parallelism, ordered, getExecutor());
+	}
+
+	/**
+	 * Creates a {@link BulkWriter} that writes large numbers of keys and values to this
+	 *  {@code Database} across many transactions, several of which are committed at once.
+	 *  Like {@link #scanRangeParallel(Range, int, boolean)}, this is not transactional.
+	 *
+	 * @return a writer to this database, with its default settings
+	 */
+	default BulkWriter bulkWriter() {
+		return new BulkWriter(this, getExecutor());
+	}
+
+	/**
+	 * Returns a cache of the shard map of this database, with which callers can find which
+	 *  ranges of keys are stored together without reading the system keys each time.
+	 *  The cache returned by this library's databases is created with the database and
+	 *  kept in a field, so the same cache is returned on every call and is shared by all
+	 *  users of the database.<br>
+	 * <br>
+	 * The default implementation, used only by other implementations of this interface,
+	 *  returns a new, empty cache on every call, so nothing is cached between calls.
+	 *  Implementations that are used for repeated scans should override it to return a
+	 *  cache that they store.
+	 *
+	 * @return a cache of the shard map of this database
+	 */
+	default ShardMapCache getShardMapCache() {
+		return new ShardMapCache(this);
+	}
+
 	/**
 	 * Close the {@code Database} object and release any associated resources. This must be called at
 	 *  least once after the {@code Database} object is no longer in use. This can be called multiple
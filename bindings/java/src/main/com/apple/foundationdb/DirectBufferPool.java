@@ -0,0 +1,143 @@
+/*
+ * DirectBufferPool.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2018 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of direct {@link ByteBuffer}s into which the native layer copies the results
+ *  of range reads. Buffers are allocated lazily, up to the size of the pool, and are
+ *  handed back by the {@link RangeResult} that was decoded from them once it is closed,
+ *  or once it becomes unreachable if it never is (for example, when an iterator is
+ *  abandoned part way through a range). If every buffer is in use, {@link #poll()}
+ *  returns {@code null} and the caller falls back to marshalling into a heap array.
+ */
+class DirectBufferPool {
+	static final int DEFAULT_NUM_BUFFERS = 128;
+	static final int DEFAULT_BUFFER_SIZE = 1024 * 512;
+
+	private static final DirectBufferPool instance = new DirectBufferPool();
+
+	private volatile Generation current = new Generation(DEFAULT_NUM_BUFFERS, DEFAULT_BUFFER_SIZE);
+
+	static DirectBufferPool getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Replaces the pool with one of the given dimensions. Buffers that are still in use
+	 *  from the previous pool are dropped, rather than recycled, when they are released.
+	 *
+	 * @param poolSize the maximum number of buffers that may be in use at once
+	 * @param bufferSize the capacity of each buffer in bytes
+	 */
+	synchronized void resize(int poolSize, int bufferSize) {
+		if(poolSize < 0)
+			throw new IllegalArgumentException("Pool size cannot be negative");
+		if(bufferSize < 8)
+			throw new IllegalArgumentException("Buffer size must be at least 8 bytes");
+		current = new Generation(poolSize, bufferSize);
+	}
+
+	int getBufferSize() {
+		return current.bufferSize;
+	}
+
+	/**
+	 * Gets the number of buffers that have been taken out of the pool and not yet released.
+	 *
+	 * @return the number of buffers in use
+	 */
+	int getInUse() {
+		Generation gen = current;
+		return gen.allocated.get() - gen.idle.size();
+	}
+
+	/**
+	 * Takes a buffer out of the pool. It must be released exactly once, either directly or
+	 *  by closing the {@link RangeResult} that it is handed to.
+	 *
+	 * @return a cleared buffer in native byte order, or {@code null} if the pool is exhausted
+	 */
+	PooledBuffer poll() {
+		Generation gen = current;
+		ByteBuffer buffer = gen.idle.poll();
+		if(buffer == null) {
+			if(gen.allocated.incrementAndGet() > gen.poolSize) {
+				gen.allocated.decrementAndGet();
+				return null;
+			}
+			buffer = ByteBuffer.allocateDirect(gen.bufferSize).order(ByteOrder.nativeOrder());
+		}
+		buffer.clear();
+		return new PooledBuffer(buffer, gen);
+	}
+
+	/**
+	 * A buffer on loan from the pool. Releasing it more than once has no effect, so it
+	 *  may be released both by its owner and as a cleanup action.
+	 */
+	final class PooledBuffer implements Runnable {
+		final ByteBuffer buffer;
+		private final Generation generation;
+		private final AtomicBoolean released = new AtomicBoolean(false);
+
+		private PooledBuffer(ByteBuffer buffer, Generation generation) {
+			this.buffer = buffer;
+			this.generation = generation;
+		}
+
+		/**
+		 * Returns the buffer to the pool, unless the pool has since been resized, in
+		 *  which case it is left to the garbage collector.
+		 */
+		void release() {
+			if(!released.compareAndSet(false, true)) {
+				return;
+			}
+			if(generation != current || !generation.idle.offer(buffer)) {
+				generation.allocated.decrementAndGet();
+			}
+		}
+
+		@Override
+		public void run() {
+			release();
+		}
+	}
+
+	private static class Generation {
+		final int poolSize;
+		final int bufferSize;
+		final ArrayBlockingQueue<ByteBuffer> idle;
+		final AtomicInteger allocated = new AtomicInteger();
+
+		Generation(int poolSize, int bufferSize) {
+			this.poolSize = poolSize;
+			this.bufferSize = bufferSize;
+			this.idle = new ArrayBlockingQueue<>(Math.max(poolSize, 1));
+		}
+	}
+}
@@ -20,6 +20,8 @@
 
 package com.apple.foundationdb;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -81,10 +83,18 @@ public class FDB {
 
 	public static final ExecutorService DEFAULT_EXECUTOR;
 
+	// Executors.newVirtualThreadPerTaskExecutor(), on JVMs that have it
+	private static final Method newVirtualThreadPerTaskExecutor;
+
 	private final int apiVersion;
 	private volatile boolean netStarted = false;
 	private volatile boolean netStopped = false;
 	volatile boolean warnOnUnclosed = true;
+	private volatile boolean enableDirectBufferQueries = false;
+	private volatile boolean enableTransactionReadCache = false;
+	private volatile int mutationBatchSize = 0;
+	private volatile int rangePrefetchBatches = 1;
+	private volatile long rangePrefetchBytes = Long.MAX_VALUE;
 	private final Semaphore netRunning = new Semaphore(1);
 	private final NetworkOptions options;
 
@@ -98,6 +108,59 @@ public class FDB {
 
 		ThreadFactory factory = new DaemonThreadFactory(Executors.defaultThreadFactory());
 		DEFAULT_EXECUTOR = Executors.newCachedThreadPool(factory);
+
+		Method method = null;
+		try {
+			method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException e) {
+			// Virtual threads are not available before Java 21
+		}
+		newVirtualThreadPerTaskExecutor = method;
+	}
+
+	/**
+	 * Returns whether this JVM can run callbacks on virtual threads. Virtual threads
+	 *  are available from Java 21.
+	 *
+	 * @return {@code true} if {@link #newVirtualThreadExecutor()} is supported
+	 */
+	public static boolean isVirtualThreadSupported() {
+		return newVirtualThreadPerTaskExecutor != null;
+	}
+
+	/**
+	 * Creates an {@link ExecutorService} that runs each task on a new virtual thread.
+	 *  Passed to {@link #open(String, Executor)}, this runs the callbacks of every
+	 *  asynchronous operation on a virtual thread. Combined with calling the blocking
+	 *  {@link Database#run(java.util.function.Function) run()} and
+	 *  {@link Database#read(java.util.function.Function) read()} methods from virtual
+	 *  threads, it lets very many transactions be in progress at once without a platform
+	 *  thread for each: a virtual thread waiting for a commit or a read is parked rather
+	 *  than blocking its carrier thread, since futures are completed without holding any
+	 *  monitor.<br>
+	 * <br>
+	 * Unlike {@link #DEFAULT_EXECUTOR}, the returned executor should be
+	 *  {@link ExecutorService#shutdown shut down} once it is no longer in use.
+	 *
+	 * @return a new executor that runs each task on a virtual thread
+	 *
+	 * @throws UnsupportedOperationException if this JVM does not support virtual threads
+	 */
+	public static ExecutorService newVirtualThreadExecutor() {
+		if(newVirtualThreadPerTaskExecutor == null) {
+			throw new UnsupportedOperationException("Virtual threads are not supported by this JVM");
+		}
+		try {
+			return (ExecutorService)newVirtualThreadPerTaskExecutor.invoke(null);
+		} catch (InvocationTargetException e) {
+			// Thrown, for instance, when virtual threads are a preview feature that is not enabled
+			if(e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException)e.getCause();
+			}
+			throw new UnsupportedOperationException("Could not create virtual thread executor", e.getCause());
+		} catch (IllegalAccessException e) {
+			throw new UnsupportedOperationException("Could not create virtual thread executor", e);
+		}
 	}
 
 	/**
@@ -212,6 +275,128 @@ public class FDB {
 		this.warnOnUnclosed = warnOnUnclosed;
 	}
 
+	/**
+	 * Enables or disables the use of pooled direct {@link java.nio.ByteBuffer}s when marshalling
+	 *  the results of range reads out of the native layer. When enabled, each batch returned by
+	 *  a range read is copied once into a buffer from a shared pool. Iterating with
+	 *  {@link RangeIterator#nextView()} then reads each key and value in place, while
+	 *  {@link RangeIterator#next()} copies them out of the buffer. The buffer is returned
+	 *  to the pool once the batch has been consumed, so iterators over range reads should be
+	 *  exhausted or {@link com.apple.foundationdb.async.AsyncIterator#cancel() cancelled}.
+	 *  If the pool is exhausted, range reads fall back to the default behavior. By default,
+	 *  this feature is disabled.
+	 *
+	 * @param enabled whether range reads should be marshalled through direct buffers
+	 *
+	 * @see #resizeDirectBufferPool(int, int)
+	 */
+	public void enableDirectBufferQuery(boolean enabled) {
+		this.enableDirectBufferQueries = enabled;
+	}
+
+	/**
+	 * Determines whether range reads are marshalled through pooled direct buffers.
+	 *
+	 * @return {@code true} if direct buffer queries are enabled and {@code false} otherwise
+	 *
+	 * @see #enableDirectBufferQuery(boolean)
+	 */
+	public boolean isDirectBufferQueriesEnabled() {
+		return enableDirectBufferQueries;
+	}
+
+	/**
+	 * Resizes the pool of direct buffers used by range reads when
+	 *  {@link #enableDirectBufferQuery(boolean) direct buffer queries} are enabled. A batch
+	 *  that does not fit in a single buffer is truncated and the remaining rows are picked
+	 *  up by the next read of the range, so the buffer size bounds the size of each batch.
+	 *  The default pool holds up to 128 buffers of 512 KiB each.
+	 *
+	 * @param poolSize the maximum number of buffers that may be in use at once
+	 * @param bufferSize the capacity of each buffer in bytes
+	 */
+	public void resizeDirectBufferPool(int poolSize, int bufferSize) {
+		DirectBufferPool.getInstance().resize(poolSize, bufferSize);
+	}
+
+	/**
+	 * Enables or disables caching of point reads within each transaction. When enabled,
+	 *  repeated calls to {@link ReadTransaction#get(byte[]) get()} for the same key through a
+	 *  transaction return the result of the first call, even while it is still outstanding,
+	 *  rather than reading the key again. Cached results are discarded when the transaction
+	 *  modifies the key, and a non-snapshot read is never served from the result of a
+	 *  snapshot read, so that it still adds a read conflict. This applies to transactions
+	 *  created after the call. By default, this feature is disabled.
+	 *
+	 * @param enabled whether point reads should be cached per transaction
+	 */
+	public void enableTransactionReadCache(boolean enabled) {
+		this.enableTransactionReadCache = enabled;
+	}
+
+	/**
+	 * Determines whether point reads are cached within each transaction.
+	 *
+	 * @return {@code true} if the per-transaction read cache is enabled and {@code false} otherwise
+	 *
+	 * @see #enableTransactionReadCache(boolean)
+	 */
+	public boolean isTransactionReadCacheEnabled() {
+		return enableTransactionReadCache;
+	}
+
+	/**
+	 * Sets the number of bytes of writes that a transaction buffers before passing them to
+	 *  the native client. When this is positive, calls such as
+	 *  {@link Transaction#set(byte[], byte[]) set()}, {@link Transaction#clear(byte[]) clear()}
+	 *  and {@link Transaction#mutate(MutationType, byte[], byte[]) mutate()} are recorded in a
+	 *  buffer that is applied in a single call once it reaches this size, or before any other
+	 *  use of the transaction (including reads and {@link Transaction#commit() commit()}), so
+	 *  reads still see the writes that preceded them. This reduces the cost of transactions
+	 *  that make many small writes. A size of 0, which is the default, disables buffering.
+	 *  This applies to transactions created after the call.
+	 *
+	 * @param bytes the size in bytes at which buffered writes are applied, or 0 to disable buffering
+	 */
+	public void setMutationBatchSize(int bytes) {
+		if(bytes < 0)
+			throw new IllegalArgumentException("Mutation batch size cannot be negative");
+		this.mutationBatchSize = bytes;
+	}
+
+	int getMutationBatchSize() {
+		return mutationBatchSize;
+	}
+
+	/**
+	 * Sets how far ahead of the consumer an iterator over a range read will fetch.
+	 *  Each batch of a range read starts after the last key of the batch before it, so
+	 *  batches are fetched one at a time, but an iterator will keep fetching in the
+	 *  background until it has {@code maxBatches} batches, or {@code maxBytes} bytes of
+	 *  keys and values, buffered that have not yet been reached by the consumer. The
+	 *  default is to buffer a single batch, with no limit on its size. Changes apply to
+	 *  iterators created afterwards.
+	 *
+	 * @param maxBatches the maximum number of batches to buffer ahead of the consumer
+	 * @param maxBytes the number of buffered bytes beyond which no more batches are fetched
+	 */
+	public void setRangePrefetch(int maxBatches, long maxBytes) {
+		if(maxBatches < 1)
+			throw new IllegalArgumentException("At least one batch must be prefetched");
+		if(maxBytes < 1)
+			throw new IllegalArgumentException("Prefetch byte limit must be positive");
+		this.rangePrefetchBatches = maxBatches;
+		this.rangePrefetchBytes = maxBytes;
+	}
+
+	int getRangePrefetchBatches() {
+		return rangePrefetchBatches;
+	}
+
+	long getRangePrefetchBytes() {
+		return rangePrefetchBytes;
+	}
+
 	/**
 	 * Returns the API version that was selected by the {@link #selectAPIVersion(int) selectAPIVersion()}
 	 *  call. This can be used to guard different parts of client code against different versions
@@ -332,13 +517,33 @@ public class FDB {
 	 * @return a {@code CompletableFuture} that will be set to a FoundationDB {@link Database}
 	 */
 	public Database open(String clusterFilePath, Executor e) throws FDBException {
+		return open(clusterFilePath, e, null);
+	}
+
+	/**
+	 * Initializes networking, connects to the cluster specified by {@code clusterFilePath}
+	 *  and opens the database, reporting the operations of its transactions to a
+	 *  {@link MetricsListener}. The database takes no measurements if {@code listener}
+	 *  is {@code null}.
+	 *
+	 * @param clusterFilePath the
+	 *  <a href="/foundationdb/administration.html#foundationdb-cluster-file" target="_blank">cluster file</a>
+	 *  defining the FoundationDB cluster. This can be {@code null} if the
+	 *  <a href="/foundationdb/administration.html#default-cluster-file" target="_blank">default fdb.cluster file</a>
+	 *  is to be used.
+	 * @param e the {@link Executor} to use to execute asynchronous callbacks
+	 * @param listener the {@link MetricsListener} to report operations to, or {@code null}
+	 *
+	 * @return a {@code CompletableFuture} that will be set to a FoundationDB {@link Database}
+	 */
+	public Database open(String clusterFilePath, Executor e, MetricsListener listener) throws FDBException {
 		synchronized(this) {
 			if(!isConnected()) {
 				startNetwork();
 			}
 		}
 
-		return new FDBDatabase(Database_create(clusterFilePath), e);
+		return new FDBDatabase(Database_create(clusterFilePath), e, listener);
 	}
 
 	/**
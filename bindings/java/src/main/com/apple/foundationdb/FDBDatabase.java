@@ -31,11 +31,24 @@ import com.apple.foundationdb.async.AsyncUtil;
 class FDBDatabase extends NativeObjectWrapper implements Database, OptionConsumer {
 	private DatabaseOptions options;
 	private final Executor executor;
+	// Returned by every call to getShardMapCache(), so that its users share what is cached
+	private final ShardMapCache shardMapCache;
+	private final MetricsListener metrics;
 
 	protected FDBDatabase(long cPtr, Executor executor) {
-		super(cPtr);
+		this(cPtr, executor, null);
+	}
+
+	protected FDBDatabase(long cPtr, Executor executor, MetricsListener metrics) {
+		super(cPtr, "Database", FDBDatabase::Database_dispose);
 		this.executor = executor;
 		this.options = new DatabaseOptions(this);
+		this.shardMapCache = new ShardMapCache(this);
+		this.metrics = metrics;
+	}
+
+	MetricsListener getMetricsListener() {
+		return metrics;
 	}
 
 	@Override
@@ -100,14 +113,8 @@ class FDBDatabase extends NativeObjectWrapper implements Database, OptionConsume
 	}
 
 	@Override
-	protected void finalize() throws Throwable {
-		try {
-			checkUnclosed("Database");
-			close();
-		}
-		finally {
-			super.finalize();
-		}
+	public ShardMapCache getShardMapCache() {
+		return shardMapCache;
 	}
 
 	@Override
@@ -150,6 +157,6 @@ class FDBDatabase extends NativeObjectWrapper implements Database, OptionConsume
 	}
 
 	private native long Database_createTransaction(long cPtr);
-	private native void Database_dispose(long cPtr);
+	private static native void Database_dispose(long cPtr);
 	private native void Database_setOption(long cPtr, int code, byte[] value) throws FDBException;
 }
\ No newline at end of file
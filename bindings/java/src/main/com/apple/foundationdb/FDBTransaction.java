@@ -20,10 +20,15 @@
 
 package com.apple.foundationdb;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 
 import com.apple.foundationdb.async.AsyncIterable;
@@ -31,11 +36,18 @@ import com.apple.foundationdb.async.AsyncUtil;
 import com.apple.foundationdb.tuple.ByteArrayUtil;
 
 class FDBTransaction extends NativeObjectWrapper implements Transaction, OptionConsumer {
+	private static final byte[] EMPTY = new byte[0];
+
 	private final Database database;
 	private final Executor executor;
 	private final TransactionOptions options;
 
 	private boolean transactionOwner;
+	private final ReadCache readCache;
+	private final MutationBuffer mutations;
+	private final MetricsListener metrics;
+	// Bytes of keys and values written, reported to the metrics listener once committed
+	private final AtomicLong bytesWritten;
 
 	public final ReadTransaction snapshot;
 
@@ -65,6 +77,24 @@ class FDBTransaction extends NativeObjectWrapper implements Transaction, OptionC
 			return get_internal(key, true);
 		}
 
+		@Override
+		public CompletableFuture<byte[]> get(byte[] key, int offset, int length) {
+			return getSlice_internal(key, offset, length, true);
+		}
+
+		@Override
+		public CompletableFuture<byte[]> get(ByteBuffer key) {
+			return getBuffer_internal(key, true);
+		}
+
+		@Override
+		public CompletableFuture<List<byte[]>> getAll(List<byte[]> keys) {
+			if(readCache != null) {
+				return ReadTransaction.super.getAll(keys);
+			}
+			return getAll_internal(keys, true);
+		}
+
 		@Override
 		public CompletableFuture<byte[]> getKey(KeySelector selector) {
 			return getKey_internal(selector, true);
@@ -117,6 +147,12 @@ class FDBTransaction extends NativeObjectWrapper implements Transaction, OptionC
 		public AsyncIterable<KeyValue> getRange(byte[] begin, byte[] end) {
 			return getRange(begin, end, ReadTransaction.ROW_LIMIT_UNLIMITED);
 		}
+		@Override
+		public AsyncIterable<KeyValue> getRange(byte[] begin, int beginOffset, int beginLength,
+				byte[] end, int endOffset, int endLength, int limit, boolean reverse, StreamingMode mode) {
+			return getRangeSlice_internal(begin, beginOffset, beginLength, end, endOffset, endLength,
+					limit, reverse, mode, true);
+		}
 
 		///////////////////
 		//  getRange (Range)
@@ -176,12 +212,17 @@ class FDBTransaction extends NativeObjectWrapper implements Transaction, OptionC
 	}
 
 	protected FDBTransaction(long cPtr, Database database, Executor executor) {
-		super(cPtr);
+		super(cPtr, "Transaction", FDBTransaction::Transaction_dispose);
 		this.database = database;
 		this.executor = executor;
 		snapshot = new ReadSnapshot();
 		options = new TransactionOptions(this);
 		transactionOwner = true;
+		FDB fdb = FDB.instance();
+		readCache = fdb.isTransactionReadCacheEnabled() ? new ReadCache() : null;
+		mutations = fdb.getMutationBatchSize() > 0 ? new MutationBuffer(fdb.getMutationBatchSize()) : null;
+		metrics = database instanceof FDBDatabase ? ((FDBDatabase)database).getMetricsListener() : null;
+		bytesWritten = metrics != null ? new AtomicLong() : null;
 	}
 
 	@Override
@@ -203,10 +244,12 @@ class FDBTransaction extends NativeObjectWrapper implements Transaction, OptionC
 	public void setReadVersion(long version) {
 		pointerReadLock.lock();
 		try {
+			flushMutations();
 			Transaction_setVersion(getPtr(), version);
 		} finally {
 			pointerReadLock.unlock();
 		}
+		clearReadCache();
 	}
 
 	/**
@@ -216,7 +259,9 @@ class FDBTransaction extends NativeObjectWrapper implements Transaction, OptionC
 	public CompletableFuture<Long> getReadVersion() {
 		pointerReadLock.lock();
 		try {
-			return new FutureInt64(Transaction_getReadVersion(getPtr()), executor);
+			flushMutations();
+			return measure(MetricsListener.Operation.GET_READ_VERSION,
+					new FutureInt64(Transaction_getReadVersion(getPtr()), executor));
 		} finally {
 			pointerReadLock.unlock();
 		}
@@ -231,9 +276,117 @@ class FDBTransaction extends NativeObjectWrapper implements Transaction, OptionC
 	}
 
 	private CompletableFuture<byte[]> get_internal(byte[] key, boolean isSnapshot) {
+		if(readCache != null && key != null) {
+			return readCache.get(key, isSnapshot, () -> getNative(key, isSnapshot));
+		}
+		return getNative(key, isSnapshot);
+	}
+
+	private CompletableFuture<byte[]> getNative(byte[] key, boolean isSnapshot) {
+		pointerReadLock.lock();
+		try {
+			flushMutations();
+			return measure(MetricsListener.Operation.GET,
+					new FutureResult(Transaction_get(getPtr(), key, isSnapshot), executor));
+		} finally {
+			pointerReadLock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public CompletableFuture<byte[]> get(byte[] key, int offset, int length) {
+		return getSlice_internal(key, offset, length, false);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public CompletableFuture<byte[]> get(ByteBuffer key) {
+		return getBuffer_internal(key, false);
+	}
+
+	private CompletableFuture<byte[]> getSlice_internal(byte[] key, int offset, int length, boolean isSnapshot) {
+		if(key == null)
+			throw new IllegalArgumentException("Key cannot be null");
+		checkRegion(key, offset, length);
+		// The cache is keyed by whole arrays
+		if(readCache != null) {
+			return get_internal(Arrays.copyOfRange(key, offset, offset + length), isSnapshot);
+		}
+
+		pointerReadLock.lock();
+		try {
+			flushMutations();
+			return measure(MetricsListener.Operation.GET,
+					new FutureResult(Transaction_getSlice(getPtr(), key, offset, length, isSnapshot), executor));
+		} finally {
+			pointerReadLock.unlock();
+		}
+	}
+
+	private CompletableFuture<byte[]> getBuffer_internal(ByteBuffer key, boolean isSnapshot) {
+		if(key == null)
+			throw new IllegalArgumentException("Key cannot be null");
+		if(key.hasArray()) {
+			return getSlice_internal(key.array(), key.arrayOffset() + key.position(), key.remaining(), isSnapshot);
+		}
+		if(!key.isDirect() || readCache != null) {
+			return get_internal(copyRemaining(key), isSnapshot);
+		}
+
+		pointerReadLock.lock();
+		try {
+			flushMutations();
+			return measure(MetricsListener.Operation.GET,
+					new FutureResult(Transaction_getDirect(getPtr(), key, key.position(), key.remaining(), isSnapshot), executor));
+		} finally {
+			pointerReadLock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public CompletableFuture<List<byte[]>> getAll(List<byte[]> keys) {
+		// Reads that go through the cache are issued one key at a time
+		if(readCache != null) {
+			return Transaction.super.getAll(keys);
+		}
+		return getAll_internal(keys, false);
+	}
+
+	private CompletableFuture<List<byte[]>> getAll_internal(List<byte[]> keys, boolean isSnapshot) {
+		if(keys.isEmpty()) {
+			return CompletableFuture.completedFuture(Collections.emptyList());
+		}
+
+		// Keys are passed to the native layer packed into a single array
+		int[] keyLengths = new int[keys.size()];
+		int totalLength = 0;
+		for(int i = 0; i < keyLengths.length; i++) {
+			byte[] key = keys.get(i);
+			if(key == null)
+				throw new IllegalArgumentException("Keys must be non-null");
+			keyLengths[i] = key.length;
+			totalLength += key.length;
+		}
+		byte[] packedKeys = new byte[totalLength];
+		int offset = 0;
+		for(byte[] key : keys) {
+			System.arraycopy(key, 0, packedKeys, offset, key.length);
+			offset += key.length;
+		}
+
 		pointerReadLock.lock();
 		try {
-			return new FutureResult(Transaction_get(getPtr(), key, isSnapshot), executor);
+			flushMutations();
+			return measure(MetricsListener.Operation.GET_ALL,
+					new FutureMultiResult(Transaction_getMulti(getPtr(), packedKeys, keyLengths, isSnapshot), executor));
 		} finally {
 			pointerReadLock.unlock();
 		}
@@ -250,8 +403,9 @@ class FDBTransaction extends NativeObjectWrapper implements Transaction, OptionC
 	private CompletableFuture<byte[]> getKey_internal(KeySelector selector, boolean isSnapshot) {
 		pointerReadLock.lock();
 		try {
-			return new FutureKey(Transaction_getKey(getPtr(),
-					selector.getKey(), selector.orEqual(), selector.getOffset(), isSnapshot), executor);
+			flushMutations();
+			return measure(MetricsListener.Operation.GET_KEY, new FutureKey(Transaction_getKey(getPtr(),
+					selector.getKey(), selector.orEqual(), selector.getOffset(), isSnapshot), executor));
 		} finally {
 			pointerReadLock.unlock();
 		}
@@ -304,6 +458,12 @@ class FDBTransaction extends NativeObjectWrapper implements Transaction, OptionC
 	public AsyncIterable<KeyValue> getRange(byte[] begin, byte[] end) {
 		return getRange(begin, end, ReadTransaction.ROW_LIMIT_UNLIMITED);
 	}
+	@Override
+	public AsyncIterable<KeyValue> getRange(byte[] begin, int beginOffset, int beginLength,
+			byte[] end, int endOffset, int endLength, int limit, boolean reverse, StreamingMode mode) {
+		return getRangeSlice_internal(begin, beginOffset, beginLength, end, endOffset, endLength,
+				limit, reverse, mode, false);
+	}
 
 	///////////////////
 	//  getRange (Range)
@@ -333,26 +493,80 @@ class FDBTransaction extends NativeObjectWrapper implements Transaction, OptionC
 		return database;
 	}
 
+	private AsyncIterable<KeyValue> getRangeSlice_internal(byte[] begin, int beginOffset, int beginLength,
+			byte[] end, int endOffset, int endLength,
+			int limit, boolean reverse, StreamingMode mode, boolean isSnapshot) {
+		if(begin == null || end == null)
+			throw new IllegalArgumentException("Keys cannot be null");
+		checkRegion(begin, beginOffset, beginLength);
+		checkRegion(end, endOffset, endLength);
+		return new RangeQuery(this, isSnapshot,
+				KeySelector.firstGreaterOrEqual(begin), beginOffset, beginLength,
+				KeySelector.firstGreaterOrEqual(end), endOffset, endLength,
+				limit, reverse, mode);
+	}
+
 	// Users of this function must close the returned FutureResults when finished
 	protected FutureResults getRange_internal(
-			KeySelector begin, KeySelector end,
+			KeySelector begin, int beginOffset, int beginLength,
+			KeySelector end, int endOffset, int endLength,
 			int rowLimit, int targetBytes, int streamingMode,
-			int iteration, boolean isSnapshot, boolean reverse) {
+			int iteration, boolean isSnapshot, boolean reverse, boolean enableDirectBufferQueries) {
 		pointerReadLock.lock();
 		try {
+			flushMutations();
 			/*System.out.println(String.format(
 					" -- range get: (%s, %s) limit: %d, bytes: %d, mode: %d, iteration: %d, snap: %s, reverse %s",
 				begin.toString(), end.toString(), rowLimit, targetBytes, streamingMode,
 				iteration, Boolean.toString(isSnapshot), Boolean.toString(reverse)));*/
-			return new FutureResults(Transaction_getRange(
-					getPtr(), begin.getKey(), begin.orEqual(), begin.getOffset(),
-					end.getKey(), end.orEqual(), end.getOffset(), rowLimit, targetBytes,
-					streamingMode, iteration, isSnapshot, reverse), executor);
+			long startNanos = metrics != null ? System.nanoTime() : 0;
+			FutureResults results = new FutureResults(Transaction_getRange(
+					getPtr(), begin.getKey(), beginOffset, beginLength, begin.orEqual(), begin.getOffset(),
+					end.getKey(), endOffset, endLength, end.orEqual(), end.getOffset(), rowLimit, targetBytes,
+					streamingMode, iteration, isSnapshot, reverse), enableDirectBufferQueries, executor);
+			results.startNanos = startNanos;
+			return results;
 		} finally {
 			pointerReadLock.unlock();
 		}
 	}
 
+	/**
+	 * Reports a batch of a range read, fetched with {@link #getRange_internal}, to the
+	 *  database's {@link MetricsListener}.
+	 *
+	 * @param batch the future the batch was fetched with
+	 * @param result the decoded batch
+	 * @return {@code result}
+	 */
+	RangeResult rangeBatchRead(FutureResults batch, RangeResult result) {
+		if(metrics != null) {
+			metrics.onOperation(MetricsListener.Operation.GET_RANGE, System.nanoTime() - batch.startNanos, true);
+			metrics.onRead(MetricsListener.Operation.GET_RANGE, result.size(), result.getDataSize());
+		}
+		return result;
+	}
+
+	void rangeBatchFailed(FutureResults batch) {
+		if(metrics != null) {
+			metrics.onOperation(MetricsListener.Operation.GET_RANGE, System.nanoTime() - batch.startNanos, false);
+		}
+	}
+
+	private <T> CompletableFuture<T> measure(MetricsListener.Operation operation, CompletableFuture<T> future) {
+		if(metrics != null) {
+			future.whenComplete(new OperationTimer(metrics, operation));
+		}
+		return future;
+	}
+
+	private void recordWrite(int bytes) {
+		if(metrics != null) {
+			metrics.onWrite(bytes);
+			bytesWritten.addAndGet(bytes);
+		}
+	}
+
 	@Override
 	public boolean addReadConflictRangeIfNotSnapshot(byte[] keyBegin, byte[] keyEnd) {
 		addReadConflictRange(keyBegin, keyEnd);
@@ -389,6 +603,7 @@ class FDBTransaction extends NativeObjectWrapper implements Transaction, OptionC
 			ConflictRangeType type) {
 		pointerReadLock.lock();
 		try {
+			flushMutations();
 			Transaction_addConflictRange(getPtr(), keyBegin, keyEnd, type.code());
 		} finally {
 			pointerReadLock.unlock();
@@ -421,11 +636,20 @@ class FDBTransaction extends NativeObjectWrapper implements Transaction, OptionC
 	public void set(byte[] key, byte[] value) {
 		if(key == null || value == null)
 			throw new IllegalArgumentException("Keys/Values must be non-null");
-		pointerReadLock.lock();
-		try {
-			Transaction_set(getPtr(), key, value);
-		} finally {
-			pointerReadLock.unlock();
+		if(mutations != null) {
+			bufferMutation(MutationBuffer.SET, key, value);
+		}
+		else {
+			pointerReadLock.lock();
+			try {
+				Transaction_set(getPtr(), key, value);
+			} finally {
+				pointerReadLock.unlock();
+			}
+		}
+		recordWrite(key.length + value.length);
+		if(readCache != null) {
+			readCache.invalidate(key);
 		}
 	}
 
@@ -433,11 +657,116 @@ class FDBTransaction extends NativeObjectWrapper implements Transaction, OptionC
 	public void clear(byte[] key) {
 		if(key == null)
 			throw new IllegalArgumentException("Key cannot be null");
-		pointerReadLock.lock();
-		try {
-			Transaction_clear(getPtr(), key);
-		} finally {
-			pointerReadLock.unlock();
+		if(mutations != null) {
+			bufferMutation(MutationBuffer.CLEAR, key, null);
+		}
+		else {
+			pointerReadLock.lock();
+			try {
+				Transaction_clear(getPtr(), key);
+			} finally {
+				pointerReadLock.unlock();
+			}
+		}
+		recordWrite(key.length);
+		if(readCache != null) {
+			readCache.invalidate(key);
+		}
+	}
+
+	@Override
+	public void set(byte[] key, int keyOffset, int keyLength, byte[] value, int valueOffset, int valueLength) {
+		if(key == null || value == null)
+			throw new IllegalArgumentException("Keys/Values must be non-null");
+		checkRegion(key, keyOffset, keyLength);
+		checkRegion(value, valueOffset, valueLength);
+		if(mutations != null) {
+			bufferMutation(MutationBuffer.SET, key, keyOffset, keyLength, value, valueOffset, valueLength);
+		}
+		else {
+			pointerReadLock.lock();
+			try {
+				Transaction_setSlice(getPtr(), key, keyOffset, keyLength, value, valueOffset, valueLength);
+			} finally {
+				pointerReadLock.unlock();
+			}
+		}
+		recordWrite(keyLength + valueLength);
+		if(readCache != null) {
+			readCache.invalidate(Arrays.copyOfRange(key, keyOffset, keyOffset + keyLength));
+		}
+	}
+
+	@Override
+	public void set(ByteBuffer key, ByteBuffer value) {
+		if(key == null || value == null)
+			throw new IllegalArgumentException("Keys/Values must be non-null");
+		if(key.isDirect() && value.isDirect() && mutations == null) {
+			pointerReadLock.lock();
+			try {
+				Transaction_setDirect(getPtr(), key, key.position(), key.remaining(),
+						value, value.position(), value.remaining());
+			} finally {
+				pointerReadLock.unlock();
+			}
+			recordWrite(key.remaining() + value.remaining());
+			if(readCache != null) {
+				readCache.invalidate(copyRemaining(key));
+			}
+		}
+		else {
+			// Buffered writes are copied into the mutation buffer anyway
+			byte[] keyArray = key.hasArray() ? key.array() : copyRemaining(key);
+			int keyOffset = key.hasArray() ? key.arrayOffset() + key.position() : 0;
+			byte[] valueArray = value.hasArray() ? value.array() : copyRemaining(value);
+			int valueOffset = value.hasArray() ? value.arrayOffset() + value.position() : 0;
+			set(keyArray, keyOffset, key.remaining(), valueArray, valueOffset, value.remaining());
+		}
+	}
+
+	@Override
+	public void clear(byte[] key, int offset, int length) {
+		if(key == null)
+			throw new IllegalArgumentException("Key cannot be null");
+		checkRegion(key, offset, length);
+		if(mutations != null) {
+			bufferMutation(MutationBuffer.CLEAR, key, offset, length, EMPTY, 0, 0);
+		}
+		else {
+			pointerReadLock.lock();
+			try {
+				Transaction_clearSlice(getPtr(), key, offset, length);
+			} finally {
+				pointerReadLock.unlock();
+			}
+		}
+		recordWrite(length);
+		if(readCache != null) {
+			readCache.invalidate(Arrays.copyOfRange(key, offset, offset + length));
+		}
+	}
+
+	@Override
+	public void clear(ByteBuffer key) {
+		if(key == null)
+			throw new IllegalArgumentException("Key cannot be null");
+		if(key.isDirect() && mutations == null) {
+			pointerReadLock.lock();
+			try {
+				Transaction_clearDirect(getPtr(), key, key.position(), key.remaining());
+			} finally {
+				pointerReadLock.unlock();
+			}
+			recordWrite(key.remaining());
+			if(readCache != null) {
+				readCache.invalidate(copyRemaining(key));
+			}
+		}
+		else if(key.hasArray()) {
+			clear(key.array(), key.arrayOffset() + key.position(), key.remaining());
+		}
+		else {
+			clear(copyRemaining(key));
 		}
 	}
 
@@ -445,11 +774,20 @@ class FDBTransaction extends NativeObjectWrapper implements Transaction, OptionC
 	public void clear(byte[] beginKey, byte[] endKey) {
 		if(beginKey == null || endKey == null)
 			throw new IllegalArgumentException("Keys cannot be null");
-		pointerReadLock.lock();
-		try {
-			Transaction_clear(getPtr(), beginKey, endKey);
-		} finally {
-			pointerReadLock.unlock();
+		if(mutations != null) {
+			bufferMutation(MutationBuffer.CLEAR_RANGE, beginKey, endKey);
+		}
+		else {
+			pointerReadLock.lock();
+			try {
+				Transaction_clear(getPtr(), beginKey, endKey);
+			} finally {
+				pointerReadLock.unlock();
+			}
+		}
+		recordWrite(beginKey.length + endKey.length);
+		if(readCache != null) {
+			readCache.invalidate(beginKey, endKey);
 		}
 	}
 
@@ -466,11 +804,82 @@ class FDBTransaction extends NativeObjectWrapper implements Transaction, OptionC
 
 	@Override
 	public void mutate(MutationType optype, byte[] key, byte[] value) {
-		pointerReadLock.lock();
-		try {
-			Transaction_mutate(getPtr(), optype.code(), key, value);
-		} finally {
-			pointerReadLock.unlock();
+		if(mutations != null) {
+			if(key == null || value == null)
+				throw new IllegalArgumentException("Argument cannot be null");
+			bufferMutation(optype.code(), key, value);
+		}
+		else {
+			pointerReadLock.lock();
+			try {
+				Transaction_mutate(getPtr(), optype.code(), key, value);
+			} finally {
+				pointerReadLock.unlock();
+			}
+		}
+		recordWrite(key.length + value.length);
+		if(readCache != null) {
+			invalidateMutated(optype, key);
+		}
+	}
+
+	@Override
+	public void mutate(MutationType optype, byte[] key, int keyOffset, int keyLength,
+			byte[] param, int paramOffset, int paramLength) {
+		if(key == null || param == null)
+			throw new IllegalArgumentException("Argument cannot be null");
+		checkRegion(key, keyOffset, keyLength);
+		checkRegion(param, paramOffset, paramLength);
+		if(mutations != null) {
+			bufferMutation(optype.code(), key, keyOffset, keyLength, param, paramOffset, paramLength);
+		}
+		else {
+			pointerReadLock.lock();
+			try {
+				Transaction_mutateSlice(getPtr(), optype.code(), key, keyOffset, keyLength, param, paramOffset, paramLength);
+			} finally {
+				pointerReadLock.unlock();
+			}
+		}
+		recordWrite(keyLength + paramLength);
+		if(readCache != null) {
+			invalidateMutated(optype, Arrays.copyOfRange(key, keyOffset, keyOffset + keyLength));
+		}
+	}
+
+	@Override
+	public void mutate(MutationType optype, ByteBuffer key, ByteBuffer param) {
+		if(key == null || param == null)
+			throw new IllegalArgumentException("Argument cannot be null");
+		if(key.isDirect() && param.isDirect() && mutations == null) {
+			pointerReadLock.lock();
+			try {
+				Transaction_mutateDirect(getPtr(), optype.code(), key, key.position(), key.remaining(),
+						param, param.position(), param.remaining());
+			} finally {
+				pointerReadLock.unlock();
+			}
+			recordWrite(key.remaining() + param.remaining());
+			if(readCache != null) {
+				invalidateMutated(optype, copyRemaining(key));
+			}
+		}
+		else {
+			byte[] keyArray = key.hasArray() ? key.array() : copyRemaining(key);
+			int keyOffset = key.hasArray() ? key.arrayOffset() + key.position() : 0;
+			byte[] paramArray = param.hasArray() ? param.array() : copyRemaining(param);
+			int paramOffset = param.hasArray() ? param.arrayOffset() + param.position() : 0;
+			mutate(optype, keyArray, keyOffset, key.remaining(), paramArray, paramOffset, param.remaining());
+		}
+	}
+
+	private void invalidateMutated(MutationType optype, byte[] key) {
+		// The key written by a versionstamped key mutation is not known until commit
+		if(optype == MutationType.SET_VERSIONSTAMPED_KEY) {
+			readCache.clear();
+		}
+		else {
+			readCache.invalidate(key);
 		}
 	}
 
@@ -478,17 +887,31 @@ class FDBTransaction extends NativeObjectWrapper implements Transaction, OptionC
 	public void setOption(int code, byte[] param) {
 		pointerReadLock.lock();
 		try {
+			flushMutations();
 			Transaction_setOption(getPtr(), code, param);
 		} finally {
 			pointerReadLock.unlock();
 		}
+		// Options such as disabling read-your-writes change what later reads return
+		clearReadCache();
 	}
 
 	@Override
 	public CompletableFuture<Void> commit() {
 		pointerReadLock.lock();
 		try {
-			return new FutureVoid(Transaction_commit(getPtr()), executor);
+			flushMutations();
+			CompletableFuture<Void> commit = measure(MetricsListener.Operation.COMMIT,
+					new FutureVoid(Transaction_commit(getPtr()), executor));
+			if(metrics != null) {
+				final long size = bytesWritten.get();
+				commit.whenComplete((v, error) -> {
+					if(error == null) {
+						metrics.onCommitSize(size);
+					}
+				});
+			}
+			return commit;
 		} finally {
 			pointerReadLock.unlock();
 		}
@@ -498,6 +921,7 @@ class FDBTransaction extends NativeObjectWrapper implements Transaction, OptionC
 	public Long getCommittedVersion() {
 		pointerReadLock.lock();
 		try {
+			flushMutations();
 			return Transaction_getCommittedVersion(getPtr());
 		} finally {
 			pointerReadLock.unlock();
@@ -508,6 +932,7 @@ class FDBTransaction extends NativeObjectWrapper implements Transaction, OptionC
 	public CompletableFuture<byte[]> getVersionstamp() {
 		pointerReadLock.lock();
 		try {
+			flushMutations();
 			return new FutureKey(Transaction_getVersionstamp(getPtr()), executor);
 		} finally {
 			pointerReadLock.unlock();
@@ -518,6 +943,7 @@ class FDBTransaction extends NativeObjectWrapper implements Transaction, OptionC
 	public CompletableFuture<Long> getApproximateSize() {
 		pointerReadLock.lock();
 		try {
+			flushMutations();
 			return new FutureInt64(Transaction_getApproximateSize(getPtr()), executor);
 		} finally {
 			pointerReadLock.unlock();
@@ -528,6 +954,7 @@ class FDBTransaction extends NativeObjectWrapper implements Transaction, OptionC
 	public CompletableFuture<Void> watch(byte[] key) throws FDBException {
 		pointerReadLock.lock();
 		try {
+			flushMutations();
 			return new FutureVoid(Transaction_watch(getPtr(), key), executor);
 		} finally {
 			pointerReadLock.unlock();
@@ -546,7 +973,13 @@ class FDBTransaction extends NativeObjectWrapper implements Transaction, OptionC
 		}
 		pointerReadLock.lock();
 		try {
-			CompletableFuture<Void> f = new FutureVoid(Transaction_onError(getPtr(), ((FDBException)e).getCode()), executor);
+			discardMutations();
+			int code = ((FDBException)e).getCode();
+			if(metrics != null && ((FDBException)e).isRetryable()) {
+				metrics.onRetry(code);
+			}
+			CompletableFuture<Void> f = measure(MetricsListener.Operation.ON_ERROR,
+					new FutureVoid(Transaction_onError(getPtr(), code), executor));
 			final Transaction tr = transfer();
 			return f.thenApply(v -> tr)
 				.whenComplete((v, t) -> {
@@ -566,6 +999,7 @@ class FDBTransaction extends NativeObjectWrapper implements Transaction, OptionC
 	public void cancel() {
 		pointerReadLock.lock();
 		try {
+			discardMutations();
 			Transaction_cancel(getPtr());
 		} finally {
 			pointerReadLock.unlock();
@@ -575,12 +1009,77 @@ class FDBTransaction extends NativeObjectWrapper implements Transaction, OptionC
 	public CompletableFuture<String[]> getAddressesForKey(byte[] key) {
 		pointerReadLock.lock();
 		try {
+			flushMutations();
 			return new FutureStrings(Transaction_getKeyLocations(getPtr(), key), executor);
 		} finally {
 			pointerReadLock.unlock();
 		}
 	}
 
+	private void bufferMutation(int op, byte[] key, byte[] value) {
+		if(value == null) {
+			value = EMPTY;
+		}
+		bufferMutation(op, key, 0, key.length, value, 0, value.length);
+	}
+
+	private void bufferMutation(int op, byte[] key, int keyOffset, int keyLength,
+			byte[] value, int valueOffset, int valueLength) {
+		pointerReadLock.lock();
+		try {
+			// Fail on a closed transaction just as an unbuffered write would
+			long cPtr = getPtr();
+			synchronized(mutations) {
+				if(mutations.add(op, key, keyOffset, keyLength, value, valueOffset, valueLength)) {
+					Transaction_applyMutations(cPtr, mutations.array(), mutations.size());
+					mutations.clear();
+				}
+			}
+		} finally {
+			pointerReadLock.unlock();
+		}
+	}
+
+	// Must hold pointerReadLock when calling. Every call into the native transaction other
+	//  than a write first applies any buffered writes, so that reads see them.
+	private void flushMutations() {
+		if(mutations != null) {
+			synchronized(mutations) {
+				if(!mutations.isEmpty()) {
+					Transaction_applyMutations(getPtr(), mutations.array(), mutations.size());
+					mutations.clear();
+				}
+			}
+		}
+	}
+
+	private void discardMutations() {
+		if(mutations != null) {
+			synchronized(mutations) {
+				mutations.clear();
+			}
+		}
+	}
+
+	private void clearReadCache() {
+		if(readCache != null) {
+			readCache.clear();
+		}
+	}
+
+	private static void checkRegion(byte[] array, int offset, int length) {
+		if(offset < 0 || length < 0 || offset > array.length - length)
+			throw new IndexOutOfBoundsException("Region [" + offset + ", " + offset + " + " + length
+					+ ") out of bounds for array of length " + array.length);
+	}
+
+	// Copies the bytes between the position and the limit without moving the position
+	private static byte[] copyRemaining(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.duplicate().get(bytes);
+		return bytes;
+	}
+
 	// Must hold pointerReadLock when calling
 	private FDBTransaction transfer() {
 		FDBTransaction tr = null;
@@ -609,17 +1108,6 @@ class FDBTransaction extends NativeObjectWrapper implements Transaction, OptionC
 		}
 	}
 
-	@Override
-	protected void finalize() throws Throwable {
-		try {
-			checkUnclosed("Transaction");
-			close();
-		}
-		finally {
-			super.finalize();
-		}
-	}
-
 	@Override
 	protected void closeInternal(long cPtr) {
 		if(transactionOwner) {
@@ -635,26 +1123,40 @@ class FDBTransaction extends NativeObjectWrapper implements Transaction, OptionC
 	private native long Transaction_getReadVersion(long cPtr);
 	private native  void Transaction_setVersion(long cPtr, long version);
 	private native long Transaction_get(long cPtr, byte[] key, boolean isSnapshot);
+	private native long Transaction_getSlice(long cPtr, byte[] key, int keyOffset, int keyLength, boolean isSnapshot);
+	private native long Transaction_getDirect(long cPtr, ByteBuffer key, int keyOffset, int keyLength, boolean isSnapshot);
+	private native long Transaction_getMulti(long cPtr, byte[] packedKeys, int[] keyLengths, boolean isSnapshot);
 	private native  long Transaction_getKey(long cPtr, byte[] key, boolean orEqual,
 			int offset, boolean isSnapshot);
 	private native long Transaction_getRange(long cPtr,
-			byte[] keyBegin, boolean orEqualBegin, int offsetBegin,
-			byte[] keyEnd, boolean orEqualEnd, int offsetEnd,
+			byte[] keyBegin, int keyBeginOffset, int keyBeginLength, boolean orEqualBegin, int offsetBegin,
+			byte[] keyEnd, int keyEndOffset, int keyEndLength, boolean orEqualEnd, int offsetEnd,
 			int rowLimit, int targetBytes, int streamingMode, int iteration,
 			boolean isSnapshot, boolean reverse);
 	private native void Transaction_addConflictRange(long cPtr,
 			byte[] keyBegin, byte[] keyEnd, int conflictRangeType);
 	private native void Transaction_set(long cPtr, byte[] key, byte[] value);
+	private native void Transaction_setSlice(long cPtr, byte[] key, int keyOffset, int keyLength,
+			byte[] value, int valueOffset, int valueLength);
+	private native void Transaction_setDirect(long cPtr, ByteBuffer key, int keyOffset, int keyLength,
+			ByteBuffer value, int valueOffset, int valueLength);
 	private native void Transaction_clear(long cPtr, byte[] key);
+	private native void Transaction_clearSlice(long cPtr, byte[] key, int keyOffset, int keyLength);
+	private native void Transaction_clearDirect(long cPtr, ByteBuffer key, int keyOffset, int keyLength);
 	private native void Transaction_clear(long cPtr, byte[] beginKey, byte[] endKey);
 	private native void Transaction_mutate(long ptr, int code, byte[] key, byte[] value);
+	private native void Transaction_mutateSlice(long cPtr, int code, byte[] key, int keyOffset, int keyLength,
+			byte[] param, int paramOffset, int paramLength);
+	private native void Transaction_mutateDirect(long cPtr, int code, ByteBuffer key, int keyOffset, int keyLength,
+			ByteBuffer param, int paramOffset, int paramLength);
+	private native void Transaction_applyMutations(long cPtr, byte[] mutations, int length);
 	private native void Transaction_setOption(long cPtr, int code, byte[] value) throws FDBException;
 	private native long Transaction_commit(long cPtr);
 	private native long Transaction_getCommittedVersion(long cPtr);
 	private native long Transaction_getVersionstamp(long cPtr);
 	private native long Transaction_getApproximateSize(long cPtr);
 	private native long Transaction_onError(long cPtr, int errorCode);
-	private native void Transaction_dispose(long cPtr);
+	private static native void Transaction_dispose(long cPtr);
 	private native void Transaction_reset(long cPtr);
 	private native long Transaction_watch(long ptr, byte[] key) throws FDBException;
 	private native void Transaction_cancel(long cPtr);
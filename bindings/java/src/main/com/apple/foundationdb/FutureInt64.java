@@ -28,6 +28,11 @@ class FutureInt64 extends NativeFuture<Long> {
 		registerMarshalCallback(executor);
 	}
 
+	@Override
+	protected boolean marshalOnNetworkThread() {
+		return true;
+	}
+
 	@Override
 	protected Long getIfDone_internal(long cPtr) throws FDBException {
 		return FutureInt64_get(cPtr);
@@ -0,0 +1,62 @@
+/*
+ * FutureMultiResult.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2018 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.apple.foundationdb;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * The result of reading several keys at once. The native object behind this future holds
+ *  one {@code FDBFuture} per key and calls back into Java once, after all of them are ready.
+ */
+class FutureMultiResult extends NativeFuture<List<byte[]>> {
+	FutureMultiResult(long cPtr, Executor executor) {
+		super(cPtr);
+		registerMarshalCallback(executor);
+	}
+
+	@Override
+	protected List<byte[]> getIfDone_internal(long cPtr) throws FDBException {
+		return Arrays.asList(FutureMultiResult_get(cPtr));
+	}
+
+	@Override
+	protected void registerCallback(long cPtr, Runnable callback) {
+		FutureMultiResult_registerCallback(cPtr, callback);
+	}
+
+	@Override
+	protected void dispose(long cPtr) {
+		FutureMultiResult_dispose(cPtr);
+	}
+
+	@Override
+	protected void cancel(long cPtr) {
+		FutureMultiResult_cancel(cPtr);
+	}
+
+	private native byte[][] FutureMultiResult_get(long cPtr) throws FDBException;
+	private native void FutureMultiResult_registerCallback(long cPtr, Runnable callback);
+	private native void FutureMultiResult_dispose(long cPtr);
+	private native void FutureMultiResult_cancel(long cPtr);
+}
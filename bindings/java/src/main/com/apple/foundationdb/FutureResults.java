@@ -20,11 +20,18 @@
 
 package com.apple.foundationdb;
 
+import java.nio.ByteBuffer;
 import java.util.concurrent.Executor;
 
 class FutureResults extends NativeFuture<RangeResultInfo> {
-	FutureResults(long cPtr, Executor executor) {
+	private final boolean enableDirectBufferQueries;
+
+	// When the fetch was started, if the transaction's database has a MetricsListener
+	long startNanos;
+
+	FutureResults(long cPtr, boolean enableDirectBufferQueries, Executor executor) {
 		super(cPtr);
+		this.enableDirectBufferQueries = enableDirectBufferQueries;
 		registerMarshalCallback(executor);
 	}
 
@@ -45,25 +52,43 @@ class FutureResults extends NativeFuture<RangeResultInfo> {
 	}
 
 	public RangeResultSummary getSummary() {
+		long ptr = acquirePtr();
 		try {
-			pointerReadLock.lock();
-			return FutureResults_getSummary(getPtr());
+			return FutureResults_getSummary(ptr);
 		}
 		finally {
-			pointerReadLock.unlock();
+			releasePtr();
 		}
 	}
 
 	public RangeResult getResults() {
+		DirectBufferPool.PooledBuffer pooled = enableDirectBufferQueries ? DirectBufferPool.getInstance().poll() : null;
 		try {
-			pointerReadLock.lock();
-			return FutureResults_get(getPtr());
+			long ptr = acquirePtr();
+			try {
+				if(pooled != null) {
+					if(FutureResults_getDirect(ptr, pooled.buffer, pooled.buffer.capacity())) {
+						RangeResult result = new RangeResult(pooled);
+						pooled = null;
+						return result;
+					}
+					// The first key-value pair alone does not fit in a pooled buffer
+				}
+				return FutureResults_get(ptr);
+			}
+			finally {
+				releasePtr();
+			}
 		}
 		finally {
-			pointerReadLock.unlock();
+			if(pooled != null) {
+				pooled.release();
+			}
 		}
 	}
 
 	private native RangeResultSummary FutureResults_getSummary(long ptr) throws FDBException;
 	private native RangeResult FutureResults_get(long cPtr) throws FDBException;
+	private native boolean FutureResults_getDirect(long cPtr, ByteBuffer buffer, int bufferCapacity)
+			throws FDBException;
 }
@@ -28,6 +28,11 @@ class FutureVoid extends NativeFuture<Void> {
 		registerMarshalCallback(executor);
 	}
 
+	@Override
+	protected boolean marshalOnNetworkThread() {
+		return true;
+	}
+
 	@Override
 	protected Void getIfDone_internal(long cPtr) throws FDBException {
 		// With "future-cleanup" we get rid of FutureVoid_get and replace instead
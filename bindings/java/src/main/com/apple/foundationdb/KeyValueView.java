@@ -0,0 +1,148 @@
+/*
+ * KeyValueView.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2018 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A view of one key-value pair of a range read, in the batch that it was read in. Unlike
+ *  a {@link KeyValue}, a view copies nothing until asked to. Views are returned by
+ *  {@link RangeIterator#nextView()}, which reuses the same view for every pair, so a view
+ *  is only valid until its iterator is next called.<br>
+ * <br>
+ * Besides slices of the key and value, a view offers accessors that allocate nothing:
+ *  the lengths of the key and value, their offsets within {@link #getBuffer()}, and
+ *  comparisons of the key with a caller's key or prefix.
+ */
+public final class KeyValueView {
+	private RangeResult batch;
+	private int index;
+
+	KeyValueView() {}
+
+	void set(RangeResult batch, int index) {
+		this.batch = batch;
+		this.index = index;
+	}
+
+	/**
+	 * Gets the key of the pair, as a read-only buffer over the batch it was read in. The
+	 *  buffer's position is zero and its limit is the length of the key. Its contents are
+	 *  only valid while this view is.
+	 *
+	 * @return the key, without copying it
+	 */
+	public ByteBuffer getKey() {
+		return batch.slice(batch.getKeyOffset(index), batch.getKeyLength(index));
+	}
+
+	/**
+	 * Gets the value of the pair, as a read-only buffer over the batch it was read in. The
+	 *  buffer's position is zero and its limit is the length of the value. Its contents
+	 *  are only valid while this view is.
+	 *
+	 * @return the value, without copying it
+	 */
+	public ByteBuffer getValue() {
+		return batch.slice(batch.getValueOffset(index), batch.getValueLength(index));
+	}
+
+	/**
+	 * Gets a read-only buffer over the whole batch that the pair was read in. Its contents
+	 *  are only valid while this view is. The same buffer is returned for every pair of
+	 *  the batch; its position and limit may be changed, as the view does not use them.
+	 *
+	 * @return the batch, in which {@link #getKeyOffset()} and {@link #getValueOffset()}
+	 *  are absolute indexes
+	 */
+	public ByteBuffer getBuffer() {
+		return batch.getData();
+	}
+
+	/**
+	 * Gets the offset of the key of the pair within {@link #getBuffer()}.
+	 *
+	 * @return the index of the first byte of the key
+	 */
+	public int getKeyOffset() {
+		return batch.getKeyOffset(index);
+	}
+
+	/**
+	 * Gets the offset of the value of the pair within {@link #getBuffer()}.
+	 *
+	 * @return the index of the first byte of the value
+	 */
+	public int getValueOffset() {
+		return batch.getValueOffset(index);
+	}
+
+	/**
+	 * Gets the length of the key of the pair.
+	 *
+	 * @return the length of the key in bytes
+	 */
+	public int getKeyLength() {
+		return batch.getKeyLength(index);
+	}
+
+	/**
+	 * Gets the length of the value of the pair.
+	 *
+	 * @return the length of the value in bytes
+	 */
+	public int getValueLength() {
+		return batch.getValueLength(index);
+	}
+
+	/**
+	 * Checks whether the key of the pair starts with the given prefix, without copying it.
+	 *
+	 * @param prefix the prefix to check for
+	 *
+	 * @return {@code true} if the key starts with {@code prefix}
+	 */
+	public boolean keyStartsWith(byte[] prefix) {
+		return batch.keyStartsWith(index, prefix);
+	}
+
+	/**
+	 * Compares the key of the pair to the given key, in the unsigned lexicographic order
+	 *  used by the database, without copying it.
+	 *
+	 * @param key the key to compare against
+	 *
+	 * @return a negative integer, zero, or a positive integer as the key of the pair
+	 *  sorts before, equal to, or after {@code key}
+	 */
+	public int compareKey(byte[] key) {
+		return batch.compareKey(index, key);
+	}
+
+	/**
+	 * Copies the pair into a {@link KeyValue} that remains valid once this view is not.
+	 *
+	 * @return a copy of the key and value
+	 */
+	public KeyValue toKeyValue() {
+		return batch.values.get(index);
+	}
+}
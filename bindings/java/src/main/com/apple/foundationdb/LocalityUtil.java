@@ -117,6 +117,13 @@ public class LocalityUtil {
 	}
 
 	static class BoundaryIterator implements CloseableAsyncIterator<byte[]> {
+		// The transaction is freed by its own cleanup if the iterator is not closed
+		private static final Runnable LEAK_WARNING = () -> {
+			if(FDB.instance().warnOnUnclosed) {
+				System.err.println("CloseableAsyncIterator not closed (getBoundaryKeys)");
+			}
+		};
+
 		Transaction tr;
 		byte[] begin;
 		byte[] lastBegin;
@@ -126,6 +133,7 @@ public class LocalityUtil {
 		AsyncIterator<KeyValue> block;
 		private CompletableFuture<Boolean> nextFuture;
 		private boolean closed;
+		private final NativeCleaner.Cleanable cleanable;
 
 		BoundaryIterator(Transaction tr, byte[] begin, byte[] end) {
 			this.tr = tr;
@@ -142,6 +150,7 @@ public class LocalityUtil {
 			nextFuture = AsyncUtil.composeHandleAsync(block.onHasNext(), handler, tr.getExecutor());
 
 			closed = false;
+			cleanable = NativeCleaner.register(this, LEAK_WARNING);
 		}
 
 		@Override
@@ -216,21 +225,7 @@ public class LocalityUtil {
 		public void close() {
 			BoundaryIterator.this.tr.close();
 			closed = true;
-		}
-
-		@Override
-		protected void finalize() throws Throwable {
-			try {
-				if(FDB.instance().warnOnUnclosed && !closed) {
-					System.err.println("CloseableAsyncIterator not closed (getBoundaryKeys)");
-				}
-				if(!closed) {
-					close();
-				}
-			}
-			finally {
-				super.finalize();
-			}
+			cleanable.cancel();
 		}
 	}
 
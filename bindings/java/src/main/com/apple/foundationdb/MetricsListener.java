@@ -0,0 +1,106 @@
+/*
+ * MetricsListener.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2018 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb;
+
+/**
+ * Receives measurements of the operations made by the {@link Transaction}s of a
+ *  {@link Database}. A listener is passed to {@link FDB#open(String, java.util.concurrent.Executor, MetricsListener)};
+ *  databases opened without one take no measurements at all. {@link ClientMetrics} is an
+ *  implementation that aggregates the measurements into counters and latency histograms.<br>
+ * <br>
+ * Measurements of completed operations, including committed sizes, are reported on the
+ *  {@link java.util.concurrent.Executor} of the transaction that made them, as that is
+ *  where the binding completes its futures, or on the thread that started the operation if
+ *  it had already completed by then. Writes and retries are reported on the thread that
+ *  made them, as part of the call. Listeners are therefore not called on the network
+ *  thread, unless the transaction's executor runs tasks on the thread that submits them.
+ *  As calls for several transactions, or for concurrent operations of one transaction, may
+ *  be made at once, listeners must be thread-safe, and as they delay the completion of
+ *  the operations they measure, they should return quickly and without blocking. All of
+ *  the methods do nothing by default, so an implementation need only override the ones
+ *  it is interested in.
+ */
+public interface MetricsListener {
+	/**
+	 * The operations whose latency is measured.
+	 */
+	enum Operation {
+		/** {@link ReadTransaction#getReadVersion()}. */
+		GET_READ_VERSION,
+		/** The point reads of {@link ReadTransaction#get(byte[])} and its variants. */
+		GET,
+		/** {@link ReadTransaction#getAll(java.util.List)}, measured as one operation. */
+		GET_ALL,
+		/** {@link ReadTransaction#getKey(KeySelector)}. */
+		GET_KEY,
+		/** The fetch of one batch of a range read. */
+		GET_RANGE,
+		/** {@link Transaction#commit()}. */
+		COMMIT,
+		/** The wait for a retryable error to be handled by {@link Transaction#onError(Throwable)}. */
+		ON_ERROR
+	}
+
+	/**
+	 * Called when an operation completes. Reads that are answered from the
+	 *  {@link FDB#enableTransactionReadCache(boolean) transaction read cache} are not reported.
+	 *
+	 * @param operation the operation
+	 * @param latencyNanos the time from starting the operation to its completion, in nanoseconds
+	 * @param succeeded {@code false} if the operation completed with an error
+	 */
+	default void onOperation(Operation operation, long latencyNanos, boolean succeeded) {}
+
+	/**
+	 * Called when the results of a read are delivered: once for each point read, and once
+	 *  for each batch of a range read.
+	 *
+	 * @param operation {@link Operation#GET}, {@link Operation#GET_ALL} or {@link Operation#GET_RANGE}
+	 * @param rows the number of key-value pairs (or, for point reads, present keys) read
+	 * @param bytes the number of bytes of keys and values read
+	 */
+	default void onRead(Operation operation, int rows, long bytes) {}
+
+	/**
+	 * Called for each set, clear or atomic mutation.
+	 *
+	 * @param bytes the number of bytes of keys and values in the mutation
+	 */
+	default void onWrite(long bytes) {}
+
+	/**
+	 * Called once a transaction has committed successfully, with the number of bytes of
+	 *  keys and values that it wrote, as reported to {@link #onWrite(long)}. Unlike
+	 *  {@link Transaction#getApproximateSize()}, this does not include conflict ranges,
+	 *  but it costs no request to the native client.
+	 *
+	 * @param bytesWritten the number of bytes of keys and values written by the transaction
+	 */
+	default void onCommitSize(long bytesWritten) {}
+
+	/**
+	 * Called when {@link Transaction#onError(Throwable)} is given a retryable error to
+	 *  handle, before the transaction is retried.
+	 *
+	 * @param errorCode the code of the {@link FDBException}
+	 */
+	default void onRetry(int errorCode) {}
+}
@@ -0,0 +1,130 @@
+/*
+ * MutationBuffer.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2018 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.apple.foundationdb;
+
+import java.util.Arrays;
+
+/**
+ * Accumulates the writes made through a transaction so that they can be handed to the
+ *  native layer in a single call. Each write is appended to a byte array as its type, the
+ *  lengths of its key and value (or of the beginning and end keys of a cleared range) and
+ *  then the bytes of both, with every integer written as four little-endian bytes. Atomic
+ *  operations are written with the code of their {@link MutationType}; the other kinds
+ *  of write use the negative codes defined here.<br>
+ * <br>
+ * This class is not thread-safe; callers synchronize on the buffer.
+ */
+class MutationBuffer {
+	static final int SET = -1;
+	static final int CLEAR = -2;
+	static final int CLEAR_RANGE = -3;
+
+	private static final byte[] EMPTY = new byte[0];
+
+	private final int flushBytes;
+	// The most capacity kept between flushes. The buffer only grows past this to hold a
+	//  write that would not otherwise fit, and is shrunk back when it is cleared.
+	private final int retainBytes;
+	private byte[] buffer;
+	private int size = 0;
+
+	/**
+	 * @param flushBytes the number of buffered bytes at which the buffer should be flushed
+	 */
+	MutationBuffer(int flushBytes) {
+		this.flushBytes = flushBytes;
+		this.retainBytes = (int)Math.min((long)flushBytes + 12, Integer.MAX_VALUE);
+		this.buffer = new byte[Math.min(flushBytes, 4096) + 12];
+	}
+
+	/**
+	 * Appends a write to the buffer.
+	 *
+	 * @param op {@link #SET}, {@link #CLEAR}, {@link #CLEAR_RANGE} or the code of an atomic operation
+	 * @param key the key written, or the beginning of the range cleared
+	 * @param value the value or parameter written, the end of the range cleared, or {@code null}
+	 *  for {@link #CLEAR}
+	 * @return whether the buffer has reached its size threshold and should be flushed
+	 */
+	boolean add(int op, byte[] key, byte[] value) {
+		if(value == null) {
+			value = EMPTY;
+		}
+		return add(op, key, 0, key.length, value, 0, value.length);
+	}
+
+	/**
+	 * Appends a write whose key and value are regions of larger arrays.
+	 *
+	 * @param op {@link #SET}, {@link #CLEAR}, {@link #CLEAR_RANGE} or the code of an atomic operation
+	 * @param key the array holding the key written
+	 * @param keyOffset the offset of the key within {@code key}
+	 * @param keyLength the length of the key
+	 * @param value the array holding the value or parameter written
+	 * @param valueOffset the offset of the value within {@code value}
+	 * @param valueLength the length of the value
+	 * @return whether the buffer has reached its size threshold and should be flushed
+	 */
+	boolean add(int op, byte[] key, int keyOffset, int keyLength, byte[] value, int valueOffset, int valueLength) {
+		int needed = size + 12 + keyLength + valueLength;
+		if(needed > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(needed, Math.min(buffer.length * 2, retainBytes)));
+		}
+
+		putInt(op);
+		putInt(keyLength);
+		putInt(valueLength);
+		System.arraycopy(key, keyOffset, buffer, size, keyLength);
+		size += keyLength;
+		System.arraycopy(value, valueOffset, buffer, size, valueLength);
+		size += valueLength;
+
+		return size >= flushBytes;
+	}
+
+	private void putInt(int v) {
+		buffer[size] = (byte)v;
+		buffer[size + 1] = (byte)(v >>> 8);
+		buffer[size + 2] = (byte)(v >>> 16);
+		buffer[size + 3] = (byte)(v >>> 24);
+		size += 4;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	byte[] array() {
+		return buffer;
+	}
+
+	int size() {
+		return size;
+	}
+
+	void clear() {
+		size = 0;
+		if(buffer.length > retainBytes) {
+			buffer = new byte[retainBytes];
+		}
+	}
+}
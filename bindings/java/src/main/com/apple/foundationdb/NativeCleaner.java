@@ -0,0 +1,100 @@
+/*
+ * NativeCleaner.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2018 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Runs cleanup actions for objects that have become unreachable, in place of
+ *  {@code finalize()}. Objects are tracked with {@link PhantomReference}s, so unlike
+ *  finalizable objects they are cheap to allocate and are reclaimed in a single GC cycle.
+ *  Actions are run on a single daemon thread, and must not refer to the object they
+ *  clean up after, or it will never become unreachable.
+ */
+class NativeCleaner {
+	private static final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+
+	// A reference must itself stay reachable until it has been enqueued
+	private static final Set<Cleanable> registered = ConcurrentHashMap.newKeySet();
+
+	static {
+		Thread thread = new Thread(NativeCleaner::processQueue, "fdb-native-cleaner");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Registers an action to be run once {@code referent} becomes phantom reachable.
+	 *
+	 * @param referent the object to track
+	 * @param action the action to run, which must not refer to {@code referent}
+	 * @return a handle with which the action may be run or cancelled early
+	 */
+	static Cleanable register(Object referent, Runnable action) {
+		Cleanable cleanable = new Cleanable(referent, action);
+		registered.add(cleanable);
+		return cleanable;
+	}
+
+	private static void processQueue() {
+		while(true) {
+			try {
+				((Cleanable)queue.remove()).clean();
+			}
+			catch(Throwable t) {
+				// Eat this error. There is no caller to report it to, and the
+				// thread must keep running for other objects to be cleaned up.
+			}
+		}
+	}
+
+	static class Cleanable extends PhantomReference<Object> {
+		private final Runnable action;
+
+		private Cleanable(Object referent, Runnable action) {
+			super(referent, queue);
+			this.action = action;
+		}
+
+		/**
+		 * Runs the action, unless it has already been run or cancelled.
+		 */
+		void clean() {
+			if(registered.remove(this)) {
+				action.run();
+			}
+		}
+
+		/**
+		 * Unregisters the action without running it.
+		 */
+		void cancel() {
+			if(registered.remove(this)) {
+				clear();
+			}
+		}
+	}
+
+	private NativeCleaner() {}
+}
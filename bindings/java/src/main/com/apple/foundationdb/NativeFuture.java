@@ -22,17 +22,36 @@ package com.apple.foundationdb;
 
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
+// A NativeFuture has a single completion callback: it is run first by the native layer
+//  when the C-future is ready, and then again on the executor to complete this future.
+//  This avoids allocating a separate task to hand the future to the executor.
 abstract class NativeFuture<T> extends CompletableFuture<T> implements AutoCloseable {
-	private final ReentrantReadWriteLock rwl = new ReentrantReadWriteLock();
-	protected final Lock pointerReadLock = rwl.readLock();
-
-	private long cPtr;
+	@SuppressWarnings("rawtypes")
+	private static final AtomicIntegerFieldUpdater<NativeFuture> STATE =
+			AtomicIntegerFieldUpdater.newUpdater(NativeFuture.class, "state");
+
+	// Set in state once the future has been closed. The remaining bits count the threads
+	//  using the pointer, and whichever of close() and releasePtr() leaves the state at
+	//  exactly CLOSED disposes of the C-future.
+	private static final int CLOSED = 0x80000000;
+
+	private final long cPtr;
+	private volatile int state;
+
+	// Written before the callback is registered and read by the network thread, which
+	//  clears it before handing this future to the executor
+	private Executor executor;
+	// Set once the result, or the error in reading it, has been taken from the C-future.
+	//  It is set on the network thread and may be read by close() on any thread.
+	private volatile boolean marshalled;
+	private T value;
+	private Throwable error;
 
 	protected NativeFuture(long cPtr) {
 		this.cPtr = cPtr;
+		this.state = cPtr != 0 ? 0 : CLOSED;
 	}
 
 	// Adds a callback to call marshalWhenDone when the C-future
@@ -46,33 +65,67 @@ abstract class NativeFuture<T> extends CompletableFuture<T> implements AutoClose
 	// cannot be called concurrently.
 	protected void registerMarshalCallback(Executor executor) {
 		if(cPtr != 0) {
-			Future_registerCallback(cPtr, () -> executor.execute(this::marshalWhenDone));
+			this.executor = executor;
+			registerCallback(cPtr, new Callback());
 		}
 	}
 
-	private void marshalWhenDone() {
-		try {
-			T val = null;
-			boolean shouldComplete = false;
-			try {
-				pointerReadLock.lock();
-				if(cPtr != 0) {
-					val = getIfDone_internal(cPtr);
-					shouldComplete = true;
+	// Kept private so that users of the future cannot run it themselves
+	private class Callback implements Runnable {
+		@Override
+		public void run() {
+			Executor e = executor;
+			if(e != null) {
+				executor = null;
+				if(marshalOnNetworkThread()) {
+					marshal();
 				}
+				// Completing this future runs dependent stages, which must not be run on the
+				//  network thread
+				e.execute(this);
 			}
-			finally {
-				pointerReadLock.unlock();
+			else {
+				marshalWhenDone();
 			}
+		}
+	}
+
+	// Whether the result is cheap enough to read on the network thread, which lets the
+	//  C-future be released without waiting for the executor
+	protected boolean marshalOnNetworkThread() {
+		return false;
+	}
+
+	private void marshalWhenDone() {
+		if(!marshalled) {
+			marshal();
+		}
+		if(error != null) {
+			completeExceptionally(error);
+		}
+		else if(marshalled) {
+			complete(value);
+		}
+	}
 
-			if(shouldComplete) {
-				complete(val);
+	private void marshal() {
+		try {
+			if(tryAcquirePtr()) {
+				try {
+					value = getIfDone_internal(cPtr);
+					marshalled = true;
+				}
+				finally {
+					releasePtr();
+				}
 			}
 		} catch(FDBException t) {
 			assert(t.getCode() != 1102 && t.getCode() != 2015); // future_released, future_not_set not possible
-			completeExceptionally(t);
+			error = t;
+			marshalled = true;
 		} catch(Throwable t) {
-			completeExceptionally(t);
+			error = t;
+			marshalled = true;
 		} finally {
 			postMarshal();
 		}
@@ -86,50 +139,77 @@ abstract class NativeFuture<T> extends CompletableFuture<T> implements AutoClose
 
 	@Override
 	public void close() {
-		long ptr = 0;
+		int s;
+		do {
+			s = state;
+			if((s & CLOSED) != 0) {
+				return;
+			}
+		} while(!STATE.compareAndSet(this, s, s | CLOSED));
 
-		rwl.writeLock().lock();
-		if(cPtr != 0) {
-			ptr = cPtr;
-			cPtr = 0;
+		// Any thread still using the pointer disposes of it when it is done
+		if(s == 0) {
+			dispose(cPtr);
 		}
-		rwl.writeLock().unlock();
-
-		if(ptr != 0) {
-			Future_dispose(ptr);
-			if(!isDone()) {
-				completeExceptionally(new IllegalStateException("Future has been closed"));
-			}
+		// A result that has already been marshalled is still delivered
+		if(!isDone() && !marshalled) {
+			completeExceptionally(new IllegalStateException("Future has been closed"));
 		}
 	}
 
 	@Override
 	public boolean cancel(boolean mayInterruptIfRunning) {
 		boolean result = super.cancel(mayInterruptIfRunning);
-		try {
-			rwl.readLock().lock();
-			if(cPtr != 0) {
-				Future_cancel(cPtr);
+		if(tryAcquirePtr()) {
+			try {
+				cancel(cPtr);
+			}
+			finally {
+				releasePtr();
 			}
-			return result;
-		}
-		finally {
-			rwl.readLock().unlock();
 		}
+		return result;
 	}
 
-	protected long getPtr() {
-		// we must have a read lock for this function to make sense, however it
-		//  does not make sense to take the lock here, since the code that uses
-		//  the result must inherently have the read lock itself.
-		assert(rwl.getReadHoldCount() > 0);
+	private boolean tryAcquirePtr() {
+		int s;
+		do {
+			s = state;
+			if((s & CLOSED) != 0) {
+				return false;
+			}
+		} while(!STATE.compareAndSet(this, s, s + 1));
+		return true;
+	}
 
-		if(cPtr == 0)
+	// Returns the pointer to the C-future, which remains valid until the matching call to
+	//  releasePtr(), even if the future is closed in the meantime.
+	protected long acquirePtr() {
+		if(!tryAcquirePtr())
 			throw new IllegalStateException("Cannot access closed object");
-
 		return cPtr;
 	}
 
+	protected void releasePtr() {
+		if(STATE.decrementAndGet(this) == CLOSED) {
+			dispose(cPtr);
+		}
+	}
+
+	// The native operations on the underlying future. These are overridden by futures
+	//  that wrap some other native object than a single FDBFuture.
+	protected void registerCallback(long cPtr, Runnable callback) {
+		Future_registerCallback(cPtr, callback);
+	}
+
+	protected void dispose(long cPtr) {
+		Future_dispose(cPtr);
+	}
+
+	protected void cancel(long cPtr) {
+		Future_cancel(cPtr);
+	}
+
 	private native void Future_registerCallback(long cPtr, Runnable callback);
 	private native void Future_blockUntilReady(long cPtr);
 	private native boolean Future_isReady(long cPtr);
@@ -22,6 +22,7 @@ package com.apple.foundationdb;
 
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongConsumer;
 
 abstract class NativeObjectWrapper implements AutoCloseable {
 	private final ReentrantReadWriteLock rwl = new ReentrantReadWriteLock();
@@ -29,11 +30,29 @@ abstract class NativeObjectWrapper implements AutoCloseable {
 
 	private boolean closed = false;
 	private long cPtr;
+	private final NativeCleaner.Cleanable cleanable;
 
 	NativeObjectWrapper(long cPtr) {
+		this(cPtr, null, null);
+	}
+
+	/**
+	 * @param cPtr the native object wrapped
+	 * @param resourceName the name with which to warn about the object if it is not closed
+	 * @param disposer frees the native object if this wrapper becomes unreachable without
+	 *  having been closed. It must not refer to this wrapper.
+	 */
+	NativeObjectWrapper(long cPtr, String resourceName, LongConsumer disposer) {
 		this.cPtr = cPtr;
 		if(this.cPtr == 0)
 			this.closed = true;
+
+		if(!closed && disposer != null) {
+			cleanable = NativeCleaner.register(this, new Leak(resourceName, cPtr, disposer, rwl));
+		}
+		else {
+			cleanable = null;
+		}
 	}
 
 	public boolean isClosed() {
@@ -45,18 +64,6 @@ abstract class NativeObjectWrapper implements AutoCloseable {
 		return closed;
 	}
 
-	public void checkUnclosed(String context) {
-		try {
-			if(FDB.instance().warnOnUnclosed && !closed) {
-				System.err.println(context + " not closed");
-			}
-		}
-		catch(Exception e) {
-			// Eat this error. This is called from the finalizer,
-			// so there isn't much we can do.
-		}
-	}
-
 	@Override
 	public void close() {
 		rwl.writeLock().lock();
@@ -72,6 +79,9 @@ abstract class NativeObjectWrapper implements AutoCloseable {
 			rwl.writeLock().unlock();
 		}
 
+		if(cleanable != null) {
+			cleanable.cancel();
+		}
 		closeInternal(ptr);
 	}
 
@@ -88,4 +98,41 @@ abstract class NativeObjectWrapper implements AutoCloseable {
 	}
 
 	protected abstract void closeInternal(long cPtr);
+
+	// Run by the NativeCleaner for a wrapper that was never closed. It shares the wrapper's
+	//  lock, but not the wrapper itself, so that the native object is not freed while a
+	//  method that has already read the pointer is still using it.
+	private static class Leak implements Runnable {
+		private final String resourceName;
+		private final long cPtr;
+		private final LongConsumer disposer;
+		private final ReentrantReadWriteLock rwl;
+
+		Leak(String resourceName, long cPtr, LongConsumer disposer, ReentrantReadWriteLock rwl) {
+			this.resourceName = resourceName;
+			this.cPtr = cPtr;
+			this.disposer = disposer;
+			this.rwl = rwl;
+		}
+
+		@Override
+		public void run() {
+			try {
+				if(FDB.instance().warnOnUnclosed) {
+					System.err.println(resourceName + " not closed");
+				}
+			}
+			catch(Exception e) {
+				// Eat this error. This is called from the cleaner thread,
+				// so there isn't much we can do.
+			}
+
+			rwl.writeLock().lock();
+			try {
+				disposer.accept(cPtr);
+			} finally {
+				rwl.writeLock().unlock();
+			}
+		}
+	}
 }
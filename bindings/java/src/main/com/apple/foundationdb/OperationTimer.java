@@ -0,0 +1,64 @@
+/*
+ * OperationTimer.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2018 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb;
+
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * Reports the latency of an operation, and the size of the results of a read, to a
+ *  {@link MetricsListener} when the operation's future completes. One is only created
+ *  for databases that have a listener.
+ */
+class OperationTimer implements BiConsumer<Object, Throwable> {
+	private final MetricsListener listener;
+	private final MetricsListener.Operation operation;
+	private final long startNanos;
+
+	OperationTimer(MetricsListener listener, MetricsListener.Operation operation) {
+		this.listener = listener;
+		this.operation = operation;
+		this.startNanos = System.nanoTime();
+	}
+
+	@Override
+	public void accept(Object result, Throwable error) {
+		listener.onOperation(operation, System.nanoTime() - startNanos, error == null);
+		if(error != null) {
+			return;
+		}
+		if(operation == MetricsListener.Operation.GET) {
+			byte[] value = (byte[])result;
+			listener.onRead(operation, value == null ? 0 : 1, value == null ? 0 : value.length);
+		}
+		else if(operation == MetricsListener.Operation.GET_ALL) {
+			int rows = 0;
+			long bytes = 0;
+			for(Object value : (List<?>)result) {
+				if(value != null) {
+					rows++;
+					bytes += ((byte[])value).length;
+				}
+			}
+			listener.onRead(operation, rows, bytes);
+		}
+	}
+}
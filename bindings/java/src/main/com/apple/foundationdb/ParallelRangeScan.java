@@ -0,0 +1,326 @@
+/*
+ * ParallelRangeScan.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2018 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.apple.foundationdb;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import com.apple.foundationdb.async.AsyncUtil;
+import com.apple.foundationdb.async.CloseableAsyncIterator;
+import com.apple.foundationdb.tuple.ByteArrayUtil;
+
+/**
+ * Reads a range by splitting it at the boundaries returned by the database's
+ *  {@link ShardMapCache} and reading each of the resulting shards with its own
+ *  transaction. Each shard is read in reads of a bounded number of rows, and when a
+ *  read fails with a retryable error (such as
+ *  {@code transaction_too_old}) the shard is resumed after the last key it returned, once
+ *  {@link Transaction#onError(Throwable)} has reset its transaction.<br>
+ * <br>
+ * Shards are started in key order, with no more than {@code parallelism} of them in
+ *  progress at once; a shard stops being in progress once it has been read to its end and
+ *  its buffered results have been consumed. When results are ordered, rows are returned
+ *  shard by shard in key order, otherwise the results of whichever shard has some
+ *  available are returned first.
+ */
+class ParallelRangeScan implements CloseableAsyncIterator<KeyValue> {
+	static final int ROWS_PER_READ = 1000;
+	static final int READS_BUFFERED_PER_SHARD = 2;
+
+	private final Database db;
+	private final byte[] end;
+	private final int parallelism;
+	private final boolean ordered;
+	private final Executor executor;
+
+	// Guarded by this
+	private List<Shard> shards = null;
+	private int nextToStart = 0;
+	private final List<Shard> running = new ArrayList<>();
+	private Throwable error = null;
+	private boolean closed = false;
+	private CompletableFuture<Boolean> waiter = null;
+
+	// Owned by the consumer
+	private List<KeyValue> batch = null;
+	private int index = 0;
+
+	private static class Shard {
+		byte[] begin;
+		final byte[] end;
+		Transaction tr = null;
+		boolean fetching = false;
+		boolean done = false;
+		final ArrayDeque<List<KeyValue>> batches = new ArrayDeque<>();
+
+		Shard(byte[] begin, byte[] end) {
+			this.begin = begin;
+			this.end = end;
+		}
+	}
+
+	ParallelRangeScan(Database db, byte[] begin, byte[] end, int parallelism, boolean ordered, Executor executor) {
+		if(parallelism < 1)
+			throw new IllegalArgumentException("Parallelism must be at least 1");
+
+		this.db = db;
+		this.end = end;
+		this.parallelism = parallelism;
+		this.ordered = ordered;
+		this.executor = executor;
+
+		db.getShardMapCache().getBoundaryKeys(begin, end).whenCompleteAsync((keys, e) -> {
+			CompletableFuture<Boolean> w;
+			synchronized(ParallelRangeScan.this) {
+				if(e != null) {
+					error = e;
+				}
+				else {
+					shards = split(begin, keys);
+					pump();
+				}
+				w = takeWaiter();
+			}
+			if(w != null) {
+				w.complete(Boolean.TRUE);
+			}
+		}, executor);
+	}
+
+	private List<Shard> split(byte[] begin, List<byte[]> boundaries) {
+		List<Shard> result = new ArrayList<>(boundaries.size() + 1);
+		byte[] shardBegin = begin;
+		for(byte[] boundary : boundaries) {
+			if(ByteArrayUtil.compareUnsigned(boundary, shardBegin) > 0 && ByteArrayUtil.compareUnsigned(boundary, end) < 0) {
+				result.add(new Shard(shardBegin, boundary));
+				shardBegin = boundary;
+			}
+		}
+		if(ByteArrayUtil.compareUnsigned(shardBegin, end) < 0) {
+			result.add(new Shard(shardBegin, end));
+		}
+		return result;
+	}
+
+	/**
+	 * Starts any shards for which there is room and any reads for which the running
+	 *  shards have room. Must be called while holding the lock on this object.
+	 */
+	private void pump() {
+		if(closed || error != null)
+			return;
+
+		Iterator<Shard> iter = running.iterator();
+		while(iter.hasNext()) {
+			Shard shard = iter.next();
+			if(shard.done && shard.batches.isEmpty()) {
+				iter.remove();
+			}
+		}
+
+		while(running.size() < parallelism && nextToStart < shards.size()) {
+			Shard shard = shards.get(nextToStart++);
+			shard.tr = db.createTransaction(executor);
+			running.add(shard);
+		}
+
+		for(Shard shard : running) {
+			if(!shard.done && !shard.fetching && shard.batches.size() < READS_BUFFERED_PER_SHARD) {
+				fetch(shard);
+			}
+		}
+	}
+
+	private void fetch(final Shard shard) {
+		shard.fetching = true;
+		shard.tr.getRange(shard.begin, shard.end, ROWS_PER_READ, false, StreamingMode.WANT_ALL).asList()
+				.whenCompleteAsync((kvs, e) -> {
+					if(e != null) {
+						retry(shard, e);
+					}
+					else {
+						fetched(shard, kvs);
+					}
+				}, executor);
+	}
+
+	private void fetched(Shard shard, List<KeyValue> kvs) {
+		CompletableFuture<Boolean> w;
+		synchronized(this) {
+			shard.fetching = false;
+			if(closed) {
+				shard.tr.close();
+				return;
+			}
+
+			if(!kvs.isEmpty()) {
+				shard.batches.add(kvs);
+				shard.begin = ByteArrayUtil.join(kvs.get(kvs.size() - 1).getKey(), new byte[] { (byte)0 });
+			}
+			if(kvs.size() < ROWS_PER_READ) {
+				shard.done = true;
+				shard.tr.close();
+			}
+
+			pump();
+			w = takeWaiter();
+		}
+		if(w != null) {
+			w.complete(Boolean.TRUE);
+		}
+	}
+
+	private void retry(Shard shard, Throwable e) {
+		Transaction tr;
+		synchronized(this) {
+			if(closed) {
+				shard.fetching = false;
+				shard.tr.close();
+				return;
+			}
+			tr = shard.tr;
+		}
+
+		// The reset transaction resumes from the key after the last one returned
+		tr.onError(e).whenCompleteAsync((newTr, err) -> {
+			CompletableFuture<Boolean> w;
+			synchronized(ParallelRangeScan.this) {
+				shard.fetching = false;
+				if(err != null) {
+					shard.done = true;
+					if(error == null) {
+						error = err;
+					}
+				}
+				else {
+					shard.tr = newTr;
+					if(closed) {
+						newTr.close();
+						return;
+					}
+				}
+
+				pump();
+				w = takeWaiter();
+			}
+			if(w != null) {
+				w.complete(Boolean.TRUE);
+			}
+		}, executor);
+	}
+
+	private CompletableFuture<Boolean> takeWaiter() {
+		CompletableFuture<Boolean> w = waiter;
+		waiter = null;
+		return w;
+	}
+
+	@Override
+	public CompletableFuture<Boolean> onHasNext() {
+		synchronized(this) {
+			if(closed)
+				throw new CancellationException();
+
+			if(batch != null && index < batch.size()) {
+				return AsyncUtil.READY_TRUE;
+			}
+			batch = null;
+
+			if(error != null) {
+				CompletableFuture<Boolean> failed = new CompletableFuture<>();
+				failed.completeExceptionally(error);
+				return failed;
+			}
+
+			if(shards != null) {
+				pump();
+				for(Shard shard : running) {
+					if(!shard.batches.isEmpty()) {
+						batch = shard.batches.poll();
+						index = 0;
+						pump();
+						return AsyncUtil.READY_TRUE;
+					}
+
+					// Rows must come from the first unfinished shard when they are ordered
+					if(ordered && !shard.done) {
+						break;
+					}
+				}
+
+				if(running.isEmpty() && nextToStart == shards.size()) {
+					return AsyncUtil.READY_FALSE;
+				}
+			}
+
+			waiter = new CompletableFuture<>();
+			return waiter.thenCompose(ignore -> onHasNext());
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		return onHasNext().join();
+	}
+
+	@Override
+	public KeyValue next() {
+		if(!onHasNext().join()) {
+			throw new NoSuchElementException();
+		}
+		synchronized(this) {
+			return batch.get(index++);
+		}
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("Parallel scans are read-only");
+	}
+
+	@Override
+	public void close() {
+		CompletableFuture<Boolean> w;
+		synchronized(this) {
+			if(closed)
+				return;
+			closed = true;
+			for(Shard shard : running) {
+				shard.batches.clear();
+				if(shard.tr != null && !shard.fetching && !shard.done) {
+					shard.tr.close();
+				}
+			}
+			running.clear();
+			w = takeWaiter();
+		}
+		if(w != null) {
+			w.cancel(true);
+		}
+	}
+}
@@ -0,0 +1,52 @@
+/*
+ * RangeIterator.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2018 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb;
+
+import java.util.NoSuchElementException;
+
+import com.apple.foundationdb.async.AsyncIterator;
+
+/**
+ * An iterator over the results of a range read that can also return each key-value pair
+ *  as a view of the batch it was read in, rather than as a copy. The iterators returned
+ *  by the range reads of a {@link ReadTransaction} implement this interface, so the
+ *  result of {@code getRange(...).iterator()} can be cast to it.<br>
+ * <br>
+ * When {@link FDB#enableDirectBufferQuery(boolean) direct buffer queries} are enabled,
+ *  a view reads the key and value in place from the pooled buffer that the batch was
+ *  marshalled into, so iterating with {@link #nextView()} copies nothing after the
+ *  native layer has filled the buffer.
+ */
+public interface RangeIterator extends AsyncIterator<KeyValue> {
+	/**
+	 * Moves to the next key-value pair in the range and returns a view of it. The view
+	 *  is reused, and is only valid until the next call to any method of this iterator;
+	 *  anything that needs to outlive that, including the buffers returned by the view,
+	 *  must be copied (for instance with {@link KeyValueView#toKeyValue()}). Like
+	 *  {@link #next()}, this blocks if no pair is ready. {@link #remove()} is not
+	 *  supported after this method.
+	 *
+	 * @return a view of the next key-value pair
+	 *
+	 * @throws NoSuchElementException if the range has been exhausted
+	 */
+	KeyValueView nextView();
+}
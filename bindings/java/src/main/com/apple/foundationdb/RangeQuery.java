@@ -20,10 +20,16 @@
 
 package com.apple.foundationdb;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiConsumer;
 
 import com.apple.foundationdb.async.AsyncIterable;
@@ -48,6 +54,11 @@ class RangeQuery implements AsyncIterable<KeyValue>, Iterable<KeyValue> {
 	private final FDBTransaction tr;
 	private final KeySelector begin;
 	private final KeySelector end;
+	// The keys of the selectors may be regions of larger arrays
+	private final int beginOffset;
+	private final int beginLength;
+	private final int endOffset;
+	private final int endLength;
 	private final boolean snapshot;
 	private final int rowLimit;
 	private final boolean reverse;
@@ -56,19 +67,41 @@ class RangeQuery implements AsyncIterable<KeyValue>, Iterable<KeyValue> {
 	RangeQuery(FDBTransaction transaction, boolean isSnapshot,
 			KeySelector begin, KeySelector end, int rowLimit,
 			boolean reverse, StreamingMode streamingMode) {
+		this(transaction, isSnapshot, begin, 0, keyLength(begin), end, 0, keyLength(end),
+				rowLimit, reverse, streamingMode);
+	}
+
+	/**
+	 * Creates a query whose begin and end selectors refer to regions of their key arrays.
+	 *  The regions are read each time a batch is fetched, so they are not copied.
+	 */
+	RangeQuery(FDBTransaction transaction, boolean isSnapshot,
+			KeySelector begin, int beginOffset, int beginLength,
+			KeySelector end, int endOffset, int endLength, int rowLimit,
+			boolean reverse, StreamingMode streamingMode) {
 		this.tr = transaction;
 		this.begin = begin;
+		this.beginOffset = beginOffset;
+		this.beginLength = beginLength;
 		this.end = end;
+		this.endOffset = endOffset;
+		this.endLength = endLength;
 		this.snapshot = isSnapshot;
 		this.rowLimit = rowLimit;
 		this.reverse = reverse;
 		this.streamingMode = streamingMode;
 	}
 
+	private static int keyLength(KeySelector selector) {
+		return selector.getKey() == null ? 0 : selector.getKey().length;
+	}
+
 	/**
 	 * Returns all the results from the range requested as a {@code List}. If there were no
 	 *  limits on the original query and there is a large amount of data in the database
-	 *  this call could use a very large amount of memory.
+	 *  this call could use a very large amount of memory. When the range is read as a
+	 *  single batch, in {@link StreamingMode#EXACT} mode, the list is a read-only view of
+	 *  the batch that copies each key-value pair out of it as it is requested.
 	 *
 	 * @return a {@code CompletableFuture} that will be set to the contents of the database
 	 *  constrained by the query parameters.
@@ -82,15 +115,30 @@ class RangeQuery implements AsyncIterable<KeyValue>, Iterable<KeyValue> {
 		// if the streaming mode is EXACT, try and grab things as one chunk
 		if(mode == StreamingMode.EXACT) {
 			FutureResults range = tr.getRange_internal(
-					this.begin, this.end, this.rowLimit, 0, StreamingMode.EXACT.code(),
-					1, this.snapshot, this.reverse);
-			return range.thenApply(result -> result.get().values)
-					.whenComplete((result, e) -> range.close());
+					this.begin, this.beginOffset, this.beginLength, this.end, this.endOffset, this.endLength,
+					this.rowLimit, 0, StreamingMode.EXACT.code(), 1, this.snapshot, this.reverse, false);
+			return range.thenApply(result -> {
+						RangeResult batch = tr.rangeBatchRead(range, result.get());
+						if(!batch.isPooled()) {
+							return batch.values;
+						}
+						// A view of a pooled batch would outlive the buffer, so only that is copied
+						List<KeyValue> values = new ArrayList<>(batch.values);
+						batch.close();
+						return values;
+					})
+					.whenComplete((result, e) -> {
+						if(e != null) {
+							tr.rangeBatchFailed(range);
+						}
+						range.close();
+					});
 		}
 
 		// If the streaming mode is not EXACT, simply collect the results of an iteration into a list
 		return AsyncUtil.collect(
-				new RangeQuery(tr, snapshot, begin, end, rowLimit, reverse, mode), tr.getExecutor());
+				new RangeQuery(tr, snapshot, begin, beginOffset, beginLength, end, endOffset, endLength,
+						rowLimit, reverse, mode), tr.getExecutor());
 	}
 
 	/**
@@ -99,63 +147,133 @@ class RangeQuery implements AsyncIterable<KeyValue>, Iterable<KeyValue> {
 	 *  @return an {@code Iterator} over type {@code KeyValue}.
 	 */
 	@Override
-	public AsyncRangeIterator iterator() {
+	public RangeIterator iterator() {
 		return new AsyncRangeIterator(this.rowLimit, this.reverse, this.streamingMode);
 	}
 
-	private class AsyncRangeIterator implements AsyncIterator<KeyValue> {
+	/**
+	 * Iterates over a range, fetching batches in the background. Each batch starts after the
+	 *  last key of the batch before it, so only one fetch is ever outstanding, but completed
+	 *  batches are queued until the consumer reaches them, up to the limits set through
+	 *  {@link FDB#setRangePrefetch(int, long)}. The queue and counters are shared with the
+	 *  network thread through atomics; the current chunk is touched only by the (single)
+	 *  consumer, so neither {@link #next()} nor {@link #onHasNext()} take a lock. For the
+	 *  same reason {@link #cancel()}, which may be called from any thread, releases only the
+	 *  queued batches, and the current chunk is released by the consumer the next time it
+	 *  calls into the iterator (or, if it never does, once the chunk is unreachable).
+	 */
+	private class AsyncRangeIterator implements RangeIterator {
 		// immutable aspects of this iterator
 		private final boolean rowsLimited;
 		private final boolean reverse;
 		private final StreamingMode streamingMode;
+		private final boolean enableDirectBufferQueries;
+		private final int prefetchBatches;
+		private final long prefetchBytes;
 
-		// There is the chance for parallelism in the two "chunks" for fetched data
+		// Owned by the consumer
 		private RangeResult chunk = null;
-		private RangeResult nextChunk = null;
-		private boolean fetchOutstanding = false;
-		private byte[] prevKey = null;
 		private int index = 0;
+		private byte[] prevKey = null;
+		private KeyValueView view = null;
+
+		// Batches that have been fetched but not yet reached by the consumer
+		private final ConcurrentLinkedQueue<RangeResult> ready = new ConcurrentLinkedQueue<>();
+		private final AtomicInteger bufferedBatches = new AtomicInteger();
+		private final AtomicLong bufferedBytes = new AtomicLong();
+
+		// Owned by whichever thread has set fetchOutstanding
+		private final AtomicBoolean fetchOutstanding = new AtomicBoolean(false);
 		private int iteration = 0;
 		private KeySelector begin;
+		private int beginOffset;
+		private int beginLength;
 		private KeySelector end;
-
+		private int endOffset;
+		private int endLength;
 		private int rowsRemaining;
 
-		private FutureResults fetchingChunk;
-		private CompletableFuture<Boolean> nextFuture;
-		private boolean isCancelled = false;
+		// Set once no more batches will be added to the queue. Any error is
+		//  written before this flag and any final batch is queued before it.
+		private volatile boolean fetchDone = false;
+		private volatile Throwable error = null;
+		private volatile boolean isCancelled = false;
+
+		private volatile FutureResults fetchingChunk;
+		private final AtomicReference<CompletableFuture<Boolean>> waiter = new AtomicReference<>();
 
 		private AsyncRangeIterator(int rowLimit, boolean reverse, StreamingMode streamingMode) {
 			this.begin = RangeQuery.this.begin;
+			this.beginOffset = RangeQuery.this.beginOffset;
+			this.beginLength = RangeQuery.this.beginLength;
 			this.end = RangeQuery.this.end;
+			this.endOffset = RangeQuery.this.endOffset;
+			this.endLength = RangeQuery.this.endLength;
 			this.rowsLimited = rowLimit != 0;
 			this.rowsRemaining = rowLimit;
 			this.reverse = reverse;
 			this.streamingMode = streamingMode;
 
-			startNextFetch();
+			FDB fdb = FDB.instance();
+			this.enableDirectBufferQueries = fdb.isDirectBufferQueriesEnabled();
+			this.prefetchBatches = fdb.getRangePrefetchBatches();
+			this.prefetchBytes = fdb.getRangePrefetchBytes();
+
+			maybeFetch();
 		}
 
-		private synchronized boolean mainChunkIsTheLast() {
-			return !chunk.more || (rowsLimited && rowsRemaining < 1);
+		private boolean hasRoom() {
+			return bufferedBatches.get() < prefetchBatches && bufferedBytes.get() < prefetchBytes;
+		}
+
+		/**
+		 * Starts fetching the next batch if none is outstanding and the queue has room. This
+		 *  is called after every change that could allow a fetch, by both the consumer and
+		 *  the completion of the previous fetch, so whichever runs last will issue it.
+		 */
+		private void maybeFetch() {
+			while(!isCancelled && !fetchDone && hasRoom()) {
+				if(!fetchOutstanding.compareAndSet(false, true))
+					return;
+
+				// Re-check now that we own the fetch state
+				if(!isCancelled && !fetchDone && hasRoom()) {
+					startFetch();
+					return;
+				}
+
+				fetchOutstanding.set(false);
+			}
+		}
+
+		private void startFetch() {
+			FutureResults fetch = tr.getRange_internal(begin, beginOffset, beginLength, end, endOffset, endLength,
+					rowsLimited ? rowsRemaining : 0, 0, streamingMode.code(),
+					++iteration, snapshot, reverse, enableDirectBufferQueries);
+
+			fetchingChunk = fetch;
+			if(isCancelled) {
+				fetch.cancel(true);
+			}
+			fetch.whenComplete(new FetchComplete(fetch));
 		}
 
 		class FetchComplete implements BiConsumer<RangeResultInfo, Throwable> {
 			final FutureResults fetchingChunk;
-			final CompletableFuture<Boolean> promise;
 
-			FetchComplete(FutureResults fetch, CompletableFuture<Boolean> promise) {
+			FetchComplete(FutureResults fetch) {
 				this.fetchingChunk = fetch;
-				this.promise = promise;
 			}
 
 			@Override
 			public void accept(RangeResultInfo data, Throwable error) {
 				try {
-					final RangeResultSummary summary;
-
 					if(error != null) {
-						promise.completeExceptionally(error);
+						tr.rangeBatchFailed(fetchingChunk);
+						AsyncRangeIterator.this.error = error;
+						fetchDone = true;
+						fetchOutstanding.set(false);
+						signal();
 						if(error instanceof Error) {
 							throw (Error) error;
 						}
@@ -163,38 +281,44 @@ class RangeQuery implements AsyncIterable<KeyValue>, Iterable<KeyValue> {
 						return;
 					}
 
-					summary = data.getSummary();
+					final RangeResult result = tr.rangeBatchRead(fetchingChunk, data.get());
+					final RangeResultSummary summary = result.getSummary();
+
 					if(summary.lastKey == null) {
-						promise.complete(Boolean.FALSE);
-						return;
+						result.close();
+						fetchDone = true;
 					}
-
-					synchronized(AsyncRangeIterator.this) {
-						fetchOutstanding = false;
-
+					else {
 						// adjust the total number of rows we should ever fetch
 						rowsRemaining -= summary.keyCount;
 
 						// set up the next fetch
 						if(reverse) {
 							end = KeySelector.firstGreaterOrEqual(summary.lastKey);
+							endOffset = 0;
+							endLength = summary.lastKey.length;
 						}
 						else {
 							begin = KeySelector.firstGreaterThan(summary.lastKey);
+							beginOffset = 0;
+							beginLength = summary.lastKey.length;
 						}
 
-						// If this is the first fetch or the main chunk is exhausted
-						if(chunk == null || index == chunk.values.size()) {
-							nextChunk = null;
-							chunk = data.get();
-							index = 0;
+						bufferedBatches.incrementAndGet();
+						bufferedBytes.addAndGet(result.byteSize);
+						ready.add(result);
+
+						if(!summary.more || (rowsLimited && rowsRemaining < 1)) {
+							fetchDone = true;
 						}
-						else {
-							nextChunk = data.get();
+						if(isCancelled) {
+							drain();
 						}
 					}
 
-					promise.complete(Boolean.TRUE);
+					fetchOutstanding.set(false);
+					signal();
+					maybeFetch();
 				}
 				finally {
 					fetchingChunk.close();
@@ -202,47 +326,75 @@ class RangeQuery implements AsyncIterable<KeyValue>, Iterable<KeyValue> {
 			}
 		}
 
-		private synchronized void startNextFetch() {
-			if(fetchOutstanding)
-				throw new IllegalStateException("Reentrant call not allowed"); // This can not be called reentrantly
-			if(isCancelled)
-				return;
-
-			if(chunk != null && mainChunkIsTheLast())
-				return;
-
-			fetchOutstanding = true;
-			nextChunk = null;
+		private void signal() {
+			CompletableFuture<Boolean> w = waiter.getAndSet(null);
+			if(w != null) {
+				w.complete(Boolean.TRUE);
+			}
+		}
 
-			fetchingChunk = tr.getRange_internal(begin, end,
-					rowsLimited ? rowsRemaining : 0, 0, streamingMode.code(),
-					++iteration, snapshot, reverse);
+		private void drain() {
+			RangeResult result;
+			while((result = ready.poll()) != null) {
+				result.close();
+			}
+		}
 
-			nextFuture = new CompletableFuture<>();
-			fetchingChunk.whenComplete(new FetchComplete(fetchingChunk, nextFuture));
+		// Must only be called by the consumer
+		private void checkCancelled() {
+			if(isCancelled) {
+				if(chunk != null) {
+					chunk.close();
+					chunk = null;
+				}
+				throw new CancellationException();
+			}
 		}
 
 		@Override
-		public synchronized CompletableFuture<Boolean> onHasNext() {
-			if(isCancelled)
-				throw new CancellationException();
+		public CompletableFuture<Boolean> onHasNext() {
+			checkCancelled();
+
+			// We have a chunk and are still working though it
+			if(chunk != null && index < chunk.size()) {
+				return AsyncUtil.READY_TRUE;
+			}
 
-			// This will only happen before the first fetch has completed
-			if(chunk == null) {
-				return nextFuture;
+			if(chunk != null) {
+				chunk.close();
+				chunk = null;
 			}
 
-			// We have a chunk and are still working though it
-			if(index < chunk.values.size()) {
-			    return AsyncUtil.READY_TRUE;
+			// Read the flag before the queue, since the last batch is queued before it is set
+			boolean done = fetchDone;
+			RangeResult next = ready.poll();
+			if(next != null) {
+				bufferedBatches.decrementAndGet();
+				bufferedBytes.addAndGet(-next.byteSize);
+				chunk = next;
+				index = 0;
+				maybeFetch();
+				return AsyncUtil.READY_TRUE;
+			}
+
+			if(done) {
+				Throwable t = error;
+				if(t != null) {
+					CompletableFuture<Boolean> failed = new CompletableFuture<>();
+					failed.completeExceptionally(t);
+					return failed;
+				}
+				return AsyncUtil.READY_FALSE;
 			}
 
-			// If we are at the end of the current chunk there is either:
-			//   - no more data -or-
-			//   - we are already fetching the next block
-			return mainChunkIsTheLast() ?
-					AsyncUtil.READY_FALSE :
-					nextFuture;
+			// Nothing is ready, so wait to be signalled by the outstanding fetch. The check
+			//  after publishing the waiter catches a fetch that completed in between.
+			CompletableFuture<Boolean> w = new CompletableFuture<>();
+			waiter.set(w);
+			if(fetchDone || !ready.isEmpty() || isCancelled) {
+				signal();
+			}
+			return w.thenCompose(ignore -> onHasNext());
 		}
 
 		@Override
@@ -252,66 +404,65 @@ class RangeQuery implements AsyncIterable<KeyValue>, Iterable<KeyValue> {
 
 		@Override
 		public KeyValue next() {
-			CompletableFuture<Boolean> nextFuture;
-			synchronized(this) {
-				if(isCancelled)
-					throw new CancellationException();
-
-				// at least the first chunk has been fetched and there is at least one
-				//  available result
-				if(chunk != null && index < chunk.values.size()) {
-					// If this is the first call to next() on a chunk, then we will want to
-					//  start fetching the data for the next block
-					boolean initialNext = index == 0;
-
-					KeyValue result = chunk.values.get(index);
-					prevKey = result.getKey();
-					index++;
-
-					// If this is the first call to next() on a chunk there cannot
-					//  be another waiting, since we could not have issued a request
-					assert(!(initialNext && nextChunk != null));
-
-					// we are at the end of the current chunk and there is more to be had already
-					if(index == chunk.values.size() && nextChunk != null) {
-						index = 0;
-						chunk = nextChunk;
-						nextChunk = null;
-					}
+			advance();
 
-					if(initialNext) {
-						startNextFetch();
-					}
+			KeyValue result = chunk.values.get(index);
+			prevKey = result.getKey();
+			index++;
 
-					return result;
-				}
+			// Release any pooled buffer as soon as the last row has been read from it
+			if(index == chunk.size()) {
+				chunk.close();
+			}
+
+			return result;
+		}
 
-				nextFuture = onHasNext();
+		/**
+		 * Unlike {@link #next()}, this leaves the chunk open after its last row, so that
+		 *  the view stays valid until the consumer next calls the iterator.
+		 */
+		@Override
+		public KeyValueView nextView() {
+			advance();
+
+			if(view == null) {
+				view = new KeyValueView();
 			}
+			view.set(chunk, index);
+			prevKey = null;
+			index++;
+			return view;
+		}
 
-			// If there was no result ready then we need to wait on the future
-			//  and return the proper result, throwing if there are no more elements
-			return nextFuture.thenApply(hasNext -> {
-				if(hasNext) {
-					return next();
-				}
+		private void advance() {
+			checkCancelled();
+
+			if((chunk == null || index >= chunk.size()) && !onHasNext().join()) {
 				throw new NoSuchElementException();
-			}).join();
+			}
 		}
 
 		@Override
-		public synchronized void remove() {
+		public void remove() {
 			if(prevKey == null)
-				throw new IllegalStateException("No value has been fetched from database");
+				throw new IllegalStateException("No value has been fetched from database, or it was read as a view");
 
 			tr.clear(prevKey);
 		}
 
 		@Override
-		public synchronized void cancel() {
+		public void cancel() {
 			isCancelled = true;
-			nextFuture.cancel(true);
-			fetchingChunk.cancel(true);
+			CompletableFuture<Boolean> w = waiter.getAndSet(null);
+			if(w != null) {
+				w.cancel(true);
+			}
+			FutureResults fetch = fetchingChunk;
+			if(fetch != null) {
+				fetch.cancel(true);
+			}
+			drain();
 		}
 	}
 }
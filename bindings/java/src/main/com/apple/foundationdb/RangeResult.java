@@ -20,12 +20,37 @@
 
 package com.apple.foundationdb;
 
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
 import java.util.List;
+import java.util.RandomAccess;
 
-class RangeResult {
+/**
+ * One batch of a range read. The keys and values are kept packed in the array (or
+ *  pooled direct buffer) they were marshalled into, together with the offset of each,
+ *  and a {@link KeyValue} is only copied out when it is requested from {@link #values}.
+ *  A {@link KeyValueView} reads them in place instead.
+ */
+class RangeResult implements AutoCloseable {
 	final List<KeyValue> values;
 	final boolean more;
+	final int byteSize;
+
+	// Exactly one of these backs the results
+	private final byte[] keyValues;
+	private final ByteBuffer buffer;
+	// A read-only view of whichever backs the results, from which views are sliced
+	private final ByteBuffer data;
+
+	// In an array, the offset of each key, with the lengths given separately. In a
+	//  buffer, the offset of the lengths that precede each key, which are read from there.
+	private final int[] offsets;
+	private final int[] lengths;
+	private volatile boolean closed = false;
+
+	// Returns a pooled buffer to the pool when this is closed, or if it never is, once it
+	//  is no longer reachable
+	private final NativeCleaner.Cleanable cleanable;
 
 	RangeResult(byte[] keyValues, int[] lengths, boolean more) {
 		if(lengths.length % 2 != 0) {
@@ -33,22 +58,235 @@ class RangeResult {
 		}
 
 		int count = lengths.length / 2;
-		values = new ArrayList<KeyValue>(count);
+		this.offsets = new int[count];
 
 		int offset = 0;
 		for(int i = 0; i < count; i++) {
-			int keyLength = lengths[i * 2];
-			int valueLength = lengths[(i * 2) + 1];
+			offsets[i] = offset;
+			offset += lengths[i * 2] + lengths[(i * 2) + 1];
+		}
+		if(offset > keyValues.length) {
+			throw new IllegalArgumentException("Lengths exceed the size of the packed key-value array");
+		}
 
-			byte[] k = new byte[keyLength];
-			System.arraycopy(keyValues, offset, k, 0, keyLength);
+		this.keyValues = keyValues;
+		this.buffer = null;
+		this.data = ByteBuffer.wrap(keyValues).asReadOnlyBuffer();
+		this.cleanable = null;
+		this.byteSize = offset;
+		this.lengths = lengths;
+		this.more = more;
+		this.values = new Values();
+	}
 
-			byte[] v = new byte[valueLength];
-			System.arraycopy(keyValues, offset + keyLength, v, 0, valueLength);
+	/**
+	 * Decodes the results written into a pooled buffer by the native layer, taking
+	 *  ownership of the buffer.
+	 */
+	RangeResult(DirectBufferPool.PooledBuffer pooled) {
+		this(pooled.buffer, pooled);
+	}
+
+	/**
+	 * Decodes results in the layout written by the native layer from a buffer that is
+	 *  not pooled.
+	 */
+	RangeResult(ByteBuffer buffer) {
+		this(buffer, null);
+	}
+
+	/**
+	 * The buffer starts with the number of key-value pairs and the "more" flag, followed
+	 *  by each pair as its key length, value length, key bytes and value bytes. Only the
+	 *  layout is decoded here; keys and values are copied out as they are requested.
+	 */
+	private RangeResult(ByteBuffer buffer, DirectBufferPool.PooledBuffer pooled) {
+		int count = buffer.getInt(0);
+		this.offsets = new int[count];
+		this.lengths = null;
 
-			offset += keyLength + valueLength;
-			values.add(new KeyValue(k, v));
+		int offset = 8;
+		for(int i = 0; i < count; i++) {
+			offsets[i] = offset;
+			offset += 8 + buffer.getInt(offset) + buffer.getInt(offset + 4);
+		}
+
+		this.keyValues = null;
+		this.buffer = buffer;
+		this.data = buffer.asReadOnlyBuffer();
+		this.cleanable = pooled == null ? null : NativeCleaner.register(this, pooled);
+		this.byteSize = offset;
+		this.more = buffer.getInt(4) != 0;
+		this.values = new Values();
+	}
+
+	/**
+	 * Gets the summary of this batch that is used to continue a range read past it.
+	 *  Unlike {@link FutureResults#getSummary()}, this reflects any truncation of the
+	 *  batch that was needed to fit it into a pooled buffer.
+	 *
+	 * @return the last key, number of pairs and "more" flag of this batch
+	 */
+	RangeResultSummary getSummary() {
+		int count = size();
+		byte[] lastKey = count == 0 ? null : copy(getKeyOffset(count - 1), getKeyLength(count - 1));
+		return new RangeResultSummary(lastKey, count, more);
+	}
+
+	int size() {
+		return offsets.length;
+	}
+
+	boolean isPooled() {
+		return cleanable != null;
+	}
+
+	/**
+	 * Gets the number of bytes of keys and values in this batch, which unlike
+	 *  {@link #byteSize} excludes the lengths stored with them in a pooled buffer.
+	 *
+	 * @return the total length of the keys and values
+	 */
+	int getDataSize() {
+		return buffer == null ? byteSize : byteSize - 8 - 8 * size();
+	}
+
+	// Lengths in a buffer are read with absolute gets, which do not move its position
+	int getKeyOffset(int index) {
+		return buffer == null ? offsets[index] : offsets[index] + 8;
+	}
+
+	int getKeyLength(int index) {
+		return buffer == null ? lengths[index * 2] : buffer.getInt(offsets[index]);
+	}
+
+	int getValueOffset(int index) {
+		return getKeyOffset(index) + getKeyLength(index);
+	}
+
+	int getValueLength(int index) {
+		return buffer == null ? lengths[(index * 2) + 1] : buffer.getInt(offsets[index] + 4);
+	}
+
+	/**
+	 * Checks whether a key in this batch starts with the given prefix without
+	 *  copying the key.
+	 *
+	 * @param index the index of the key-value pair
+	 * @param prefix the prefix to check for
+	 * @return {@code true} if the key of the pair starts with {@code prefix}
+	 */
+	boolean keyStartsWith(int index, byte[] prefix) {
+		if(prefix.length > getKeyLength(index)) {
+			return false;
+		}
+		return compareRegion(getKeyOffset(index), prefix.length, prefix) == 0;
+	}
+
+	/**
+	 * Compares a key in this batch to the given key, in the unsigned lexicographic
+	 *  order used by the database, without copying it.
+	 *
+	 * @param index the index of the key-value pair
+	 * @param key the key to compare against
+	 * @return a negative integer, zero, or a positive integer as the key of the pair
+	 *  sorts before, equal to, or after {@code key}
+	 */
+	int compareKey(int index, byte[] key) {
+		return compareRegion(getKeyOffset(index), getKeyLength(index), key);
+	}
+
+	private int compareRegion(int offset, int length, byte[] other) {
+		checkOpen();
+		int common = Math.min(length, other.length);
+		for(int i = 0; i < common; i++) {
+			int l = byteAt(offset + i) & 0xFF;
+			int r = other[i] & 0xFF;
+			if(l != r) {
+				return l < r ? -1 : 1;
+			}
+		}
+		return Integer.compare(length, other.length);
+	}
+
+	// An absolute get, which does not move the position of a buffer
+	private byte byteAt(int offset) {
+		return keyValues != null ? keyValues[offset] : buffer.get(offset);
+	}
+
+	/**
+	 * Gets a read-only buffer over the whole of this batch, in which the offsets of keys
+	 *  and values are absolute indexes. Callers may move its position and limit, as
+	 *  nothing here depends on them.
+	 */
+	ByteBuffer getData() {
+		checkOpen();
+		return data;
+	}
+
+	/**
+	 * Returns a read-only buffer over part of this batch, without copying it. The buffer
+	 *  is only valid until this result is closed.
+	 */
+	ByteBuffer slice(int offset, int length) {
+		checkOpen();
+		ByteBuffer view = data.duplicate();
+		view.limit(offset + length);
+		view.position(offset);
+		return view.slice();
+	}
+
+	private byte[] copy(int offset, int length) {
+		checkOpen();
+		byte[] bytes = new byte[length];
+		if(keyValues != null) {
+			System.arraycopy(keyValues, offset, bytes, 0, length);
+		}
+		else {
+			// Read through a duplicate, so that readers do not share the buffer's position
+			ByteBuffer source = buffer.duplicate();
+			source.position(offset);
+			source.get(bytes);
+		}
+		return bytes;
+	}
+
+	private void checkOpen() {
+		if(closed) {
+			throw new IllegalStateException("Range result has been closed");
+		}
+	}
+
+	/**
+	 * Returns the pooled buffer that backs this result, if there is one. Keys and values
+	 *  that have already been read remain valid, but no more can be read from this result.
+	 *  This must only be called by the thread reading the result, as the buffer may be
+	 *  handed to another read as soon as it is returned.
+	 */
+	@Override
+	public void close() {
+		if(buffer != null && !closed) {
+			closed = true;
+			if(cleanable != null) {
+				cleanable.clean();
+			}
+		}
+	}
+
+	private class Values extends AbstractList<KeyValue> implements RandomAccess {
+		@Override
+		public KeyValue get(int index) {
+			if(index < 0 || index >= size()) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+			}
+			byte[] k = copy(getKeyOffset(index), getKeyLength(index));
+			byte[] v = copy(getValueOffset(index), getValueLength(index));
+			return new KeyValue(k, v);
+		}
+
+		@Override
+		public int size() {
+			return RangeResult.this.size();
 		}
-		this.more = more;
 	}
 }
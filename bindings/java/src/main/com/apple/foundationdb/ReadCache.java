@@ -0,0 +1,113 @@
+/*
+ * ReadCache.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2018 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.apple.foundationdb;
+
+import java.util.Arrays;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import com.apple.foundationdb.tuple.ByteArrayUtil;
+
+/**
+ * Caches the results of point reads made through a single transaction, so that repeated
+ *  reads of a key do not go back through the native layer. Reads that are still in flight
+ *  are shared as well. Entries are dropped when the transaction writes to the key, and
+ *  whenever a read fails, so that the error is seen only by the reads that were
+ *  waiting on it.<br>
+ * <br>
+ * A non-snapshot read also adds a read conflict range, so it is only served from the
+ *  result of an earlier non-snapshot read; snapshot reads may be served from either kind.
+ *  Values are copied as they are handed out, since callers are free to modify them.
+ */
+class ReadCache {
+	private static class Entry {
+		final CompletableFuture<byte[]> future;
+		final boolean snapshot;
+
+		Entry(CompletableFuture<byte[]> future, boolean snapshot) {
+			this.future = future;
+			this.snapshot = snapshot;
+		}
+	}
+
+	private final TreeMap<byte[], Entry> entries = new TreeMap<>(ByteArrayUtil::compareUnsigned);
+
+	/**
+	 * Returns the cached result of reading {@code key}, or starts a read if there is none.
+	 *
+	 * @param key the key to read
+	 * @param snapshot whether this is a snapshot read
+	 * @param read starts a read of {@code key} in the native layer
+	 * @return a future that will be set to a copy of the value of {@code key}
+	 */
+	CompletableFuture<byte[]> get(byte[] key, boolean snapshot, Supplier<CompletableFuture<byte[]>> read) {
+		final byte[] storedKey;
+		final Entry entry;
+		final CompletableFuture<byte[]> result;
+		synchronized(this) {
+			Entry cached = entries.get(key);
+			if(cached != null && (snapshot || !cached.snapshot)) {
+				CompletableFuture<byte[]> future = cached.future;
+				if(future.isDone() && !future.isCompletedExceptionally()) {
+					return CompletableFuture.completedFuture(copy(future.getNow(null)));
+				}
+				return future.thenApply(ReadCache::copy);
+			}
+
+			// The cache keeps its own copy of the value, separate from the one given to this caller
+			result = read.get();
+			entry = new Entry(result.thenApply(ReadCache::copy), snapshot);
+			// The caller may modify its key once this returns
+			storedKey = Arrays.copyOf(key, key.length);
+			entries.put(storedKey, entry);
+		}
+
+		entry.future.whenComplete((v, e) -> {
+			if(e != null) {
+				synchronized(ReadCache.this) {
+					entries.remove(storedKey, entry);
+				}
+			}
+		});
+
+		return result;
+	}
+
+	synchronized void invalidate(byte[] key) {
+		entries.remove(key);
+	}
+
+	synchronized void invalidate(byte[] begin, byte[] end) {
+		if(ByteArrayUtil.compareUnsigned(begin, end) < 0) {
+			entries.subMap(begin, end).clear();
+		}
+	}
+
+	synchronized void clear() {
+		entries.clear();
+	}
+
+	private static byte[] copy(byte[] value) {
+		return value == null ? null : Arrays.copyOf(value, value.length);
+	}
+}
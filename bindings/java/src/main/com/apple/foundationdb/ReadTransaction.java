@@ -20,10 +20,15 @@
 
 package com.apple.foundationdb;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
 import com.apple.foundationdb.async.AsyncIterable;
 import com.apple.foundationdb.async.AsyncIterator;
+import com.apple.foundationdb.async.AsyncUtil;
 import com.apple.foundationdb.tuple.Tuple;
 
 /**
@@ -121,6 +126,61 @@ public interface ReadTransaction extends ReadTransactionContext {
 	 */
 	CompletableFuture<byte[]> get(byte[] key);
 
+	/**
+	 * Gets a value from the database, with the key given as a region of an array. This
+	 *  avoids having to copy a key that was built in a larger buffer into an array of its own.
+	 *
+	 * @param key the array holding the key whose value to fetch from the database
+	 * @param offset the offset of the key within {@code key}
+	 * @param length the length of the key
+	 *
+	 * @return a {@code CompletableFuture} which will be set to the value corresponding to
+	 *  the key or to null if the key does not exist.
+	 *
+	 * @see #get(byte[])
+	 */
+	default CompletableFuture<byte[]> get(byte[] key, int offset, int length) {
+		return get(Arrays.copyOfRange(key, offset, offset + length));
+	}
+
+	/**
+	 * Gets a value from the database, with the key given as the bytes between the
+	 *  position and the limit of a {@link ByteBuffer}. The position of the buffer is not
+	 *  changed. When the buffer is direct, the key is read in place by the native client.
+	 *
+	 * @param key the buffer holding the key whose value to fetch from the database
+	 *
+	 * @return a {@code CompletableFuture} which will be set to the value corresponding to
+	 *  the key or to null if the key does not exist.
+	 *
+	 * @see #get(byte[])
+	 */
+	default CompletableFuture<byte[]> get(ByteBuffer key) {
+		byte[] bytes = new byte[key.remaining()];
+		key.duplicate().get(bytes);
+		return get(bytes);
+	}
+
+	/**
+	 * Gets the values of several keys from the database. This is equivalent to calling
+	 *  {@link #get(byte[])} for each key, but the reads are issued together and a single
+	 *  future is returned, which is cheaper than waiting on many futures when reading a
+	 *  large number of keys. If any of the reads fails, the returned future fails with
+	 *  the error of that read.
+	 *
+	 * @param keys the keys whose values to fetch from the database
+	 *
+	 * @return a {@code CompletableFuture} which will be set to a list holding, in the order
+	 *  of {@code keys}, the value corresponding to each key or null if the key does not exist.
+	 */
+	default CompletableFuture<List<byte[]>> getAll(List<byte[]> keys) {
+		List<CompletableFuture<byte[]>> futures = new ArrayList<>(keys.size());
+		for(byte[] key : keys) {
+			futures.add(get(key));
+		}
+		return AsyncUtil.getAll(futures);
+	}
+
 	/**
 	 * Returns the key referenced by the specified {@code KeySelector}.
 	 *  By default, the key is cached for the duration of the transaction, providing
@@ -294,6 +354,104 @@ public interface ReadTransaction extends ReadTransactionContext {
 	AsyncIterable<KeyValue> getRange(byte[] begin, byte[] end,
 			int limit, boolean reverse, StreamingMode mode);
 
+	/**
+	 * Gets an ordered range of keys and values from the database, with the begin and end
+	 *  keys given as the bytes between the position and the limit of each
+	 *  {@link ByteBuffer}. The positions of the buffers are not changed. Since a range read
+	 *  refers back to its bounds each time it fetches more results, the keys are copied,
+	 *  and the buffers may be reused as soon as this returns.
+	 *
+	 * @param begin the beginning of the range (inclusive)
+	 * @param end the end of the range (exclusive)
+	 *
+	 * @return a handle to access the results of the asynchronous call
+	 *
+	 * @see #getRange(byte[], byte[])
+	 */
+	default AsyncIterable<KeyValue> getRange(ByteBuffer begin, ByteBuffer end) {
+		return getRange(begin, end, ROW_LIMIT_UNLIMITED, false, StreamingMode.ITERATOR);
+	}
+
+	/**
+	 * Gets an ordered range of keys and values from the database, with the begin and end
+	 *  keys given as the bytes between the position and the limit of each
+	 *  {@link ByteBuffer}. The positions of the buffers are not changed, and the keys are
+	 *  copied, so the buffers may be reused as soon as this returns.
+	 *
+	 * @param begin the beginning of the range (inclusive)
+	 * @param end the end of the range (exclusive)
+	 * @param limit the maximum number of results to return. Limits results to the
+	 *  <i>first</i> keys in the range. Pass {@link #ROW_LIMIT_UNLIMITED} if this query
+	 *  should not limit the number of results. If {@code reverse} is {@code true} rows
+	 *  will be limited starting at the end of the range.
+	 * @param reverse return results starting at the end of the range in reverse order
+	 * @param mode provide a hint about how the results are to be used.
+	 *
+	 * @return a handle to access the results of the asynchronous call
+	 *
+	 * @see #getRange(byte[], byte[], int, boolean, StreamingMode)
+	 */
+	default AsyncIterable<KeyValue> getRange(ByteBuffer begin, ByteBuffer end,
+			int limit, boolean reverse, StreamingMode mode) {
+		byte[] beginBytes = new byte[begin.remaining()];
+		begin.duplicate().get(beginBytes);
+		byte[] endBytes = new byte[end.remaining()];
+		end.duplicate().get(endBytes);
+		return getRange(beginBytes, endBytes, limit, reverse, mode);
+	}
+
+	/**
+	 * Gets an ordered range of keys and values from the database, with the begin and end
+	 *  keys given as regions of arrays. This avoids having to copy keys that were built in
+	 *  larger buffers into arrays of their own. Since a range read refers back to its bounds
+	 *  each time it fetches more results, the regions must not be modified until the read
+	 *  is complete.
+	 *
+	 * @param begin the array holding the beginning of the range (inclusive)
+	 * @param beginOffset the offset of the beginning of the range within {@code begin}
+	 * @param beginLength the length of the beginning of the range
+	 * @param end the array holding the end of the range (exclusive)
+	 * @param endOffset the offset of the end of the range within {@code end}
+	 * @param endLength the length of the end of the range
+	 *
+	 * @return a handle to access the results of the asynchronous call
+	 *
+	 * @see #getRange(byte[], byte[])
+	 */
+	default AsyncIterable<KeyValue> getRange(byte[] begin, int beginOffset, int beginLength,
+			byte[] end, int endOffset, int endLength) {
+		return getRange(begin, beginOffset, beginLength, end, endOffset, endLength,
+				ROW_LIMIT_UNLIMITED, false, StreamingMode.ITERATOR);
+	}
+
+	/**
+	 * Gets an ordered range of keys and values from the database, with the begin and end
+	 *  keys given as regions of arrays. The regions must not be modified until the read
+	 *  is complete.
+	 *
+	 * @param begin the array holding the beginning of the range (inclusive)
+	 * @param beginOffset the offset of the beginning of the range within {@code begin}
+	 * @param beginLength the length of the beginning of the range
+	 * @param end the array holding the end of the range (exclusive)
+	 * @param endOffset the offset of the end of the range within {@code end}
+	 * @param endLength the length of the end of the range
+	 * @param limit the maximum number of results to return. Limits results to the
+	 *  <i>first</i> keys in the range. Pass {@link #ROW_LIMIT_UNLIMITED} if this query
+	 *  should not limit the number of results. If {@code reverse} is {@code true} rows
+	 *  will be limited starting at the end of the range.
+	 * @param reverse return results starting at the end of the range in reverse order
+	 * @param mode provide a hint about how the results are to be used.
+	 *
+	 * @return a handle to access the results of the asynchronous call
+	 *
+	 * @see #getRange(byte[], byte[], int, boolean, StreamingMode)
+	 */
+	default AsyncIterable<KeyValue> getRange(byte[] begin, int beginOffset, int beginLength,
+			byte[] end, int endOffset, int endLength, int limit, boolean reverse, StreamingMode mode) {
+		return getRange(Arrays.copyOfRange(begin, beginOffset, beginOffset + beginLength),
+				Arrays.copyOfRange(end, endOffset, endOffset + endLength), limit, reverse, mode);
+	}
+
 	/**
 	 * Gets an ordered range of keys and values from the database.  The begin
 	 *  and end keys are specified by {@code byte[]} arrays, with the begin
@@ -0,0 +1,314 @@
+/*
+ * ShardMapCache.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2018 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.apple.foundationdb.tuple.ByteArrayUtil;
+
+/**
+ * A client-side cache of the cluster's shard map, that is, of which contiguous ranges of
+ *  keys are stored together on the same team of storage servers. It answers the same
+ *  questions as {@link LocalityUtil}, but from memory once the relevant part of the map has
+ *  been read, so that callers that repeatedly partition work by shard do not have to scan
+ *  the system keys each time.<br>
+ * <br>
+ * The map is loaded lazily, only for the ranges that are asked about, and each shard is
+ *  read again once it is older than the refresh interval. When a shard is read again its
+ *  servers are compared with those cached, and the addresses cached for it are dropped if
+ *  it has moved. Callers that learn of a move some other way, for instance because reads
+ *  of a range have become slow, can drop part of the map with {@link #invalidate(byte[], byte[])}.<br>
+ * <br>
+ * Like {@link LocalityUtil}, this is not transactional: the returned shards are an estimate
+ *  and may not represent the exact shard map at any database version. Each part of the map
+ *  is read with its own short transaction, so loading a large range of the map is not
+ *  limited by the lifetime of a transaction. This class is thread-safe.
+ */
+public class ShardMapCache {
+	/**
+	 * The interval after which a cached shard is read again, if none is given.
+	 */
+	public static final long DEFAULT_REFRESH_MILLIS = 60_000;
+
+	static final int ROWS_PER_READ = 1000;
+
+	private static final byte[] KEY_SERVERS_PREFIX = LocalityUtil.keyServersForKey(new byte[0]);
+	private static final byte[] END_OF_KEYSPACE = new byte[] { (byte)0xff, (byte)0xff };
+
+	private static class Shard {
+		final byte[] begin;
+		final byte[] end;
+		// The encoded servers of the shard, which change when it moves
+		final byte[] servers;
+		final long loadedAt;
+		CompletableFuture<String[]> addresses = null;
+
+		Shard(byte[] begin, byte[] end, byte[] servers, long loadedAt) {
+			this.begin = begin;
+			this.end = end;
+			this.servers = servers;
+			this.loadedAt = loadedAt;
+		}
+	}
+
+	private final Database db;
+	private final long refreshNanos;
+
+	// Keyed by the beginning of each shard. Guarded by this.
+	private final TreeMap<byte[], Shard> shards = new TreeMap<>(ByteArrayUtil::compareUnsigned);
+
+	/**
+	 * Creates a cache of the shard map of {@code db} that reads shards again after
+	 *  {@link #DEFAULT_REFRESH_MILLIS}. Most callers should use the cache returned by
+	 *  {@link Database#getShardMapCache()}, which is shared by all users of the database.
+	 *
+	 * @param db the database whose shard map to cache
+	 */
+	public ShardMapCache(Database db) {
+		this(db, DEFAULT_REFRESH_MILLIS);
+	}
+
+	/**
+	 * Creates a cache of the shard map of {@code db}.
+	 *
+	 * @param db the database whose shard map to cache
+	 * @param refreshMillis the age in milliseconds after which a cached shard is read again
+	 */
+	public ShardMapCache(Database db, long refreshMillis) {
+		if(refreshMillis < 0)
+			throw new IllegalArgumentException("Refresh interval cannot be negative");
+		this.db = db;
+		this.refreshNanos = TimeUnit.MILLISECONDS.toNanos(refreshMillis);
+	}
+
+	/**
+	 * Returns the keys {@code k} such that {@code begin <= k < end} and {@code k} is
+	 *  located at the start of a contiguous range stored on a single team of servers. This
+	 *  returns the same keys as {@link LocalityUtil#getBoundaryKeys(Database, byte[], byte[])}.
+	 *
+	 * @param begin the inclusive start of the range
+	 * @param end the exclusive end of the range
+	 *
+	 * @return a future that will be set to the boundary keys in order
+	 */
+	public CompletableFuture<List<byte[]>> getBoundaryKeys(byte[] begin, byte[] end) {
+		if(ByteArrayUtil.compareUnsigned(begin, end) >= 0) {
+			return CompletableFuture.completedFuture(Collections.emptyList());
+		}
+		return getShards(begin, end).thenApply(found -> {
+			List<byte[]> keys = new ArrayList<>(found.size());
+			for(Shard shard : found) {
+				if(ByteArrayUtil.compareUnsigned(shard.begin, begin) >= 0) {
+					keys.add(Arrays.copyOf(shard.begin, shard.begin.length));
+				}
+			}
+			return keys;
+		});
+	}
+
+	/**
+	 * Returns the range of keys stored together with {@code key}.
+	 *
+	 * @param key the key to look up
+	 *
+	 * @return a future that will be set to the shard containing {@code key}
+	 */
+	public CompletableFuture<Range> getShard(byte[] key) {
+		return getShards(key, keyAfter(key)).thenApply(found -> {
+			Shard shard = found.get(0);
+			return new Range(Arrays.copyOf(shard.begin, shard.begin.length), Arrays.copyOf(shard.end, shard.end.length));
+		});
+	}
+
+	/**
+	 * Returns the public network addresses of the storage servers responsible for
+	 *  {@code key}, as {@link LocalityUtil#getAddressesForKey(Transaction, byte[])} does.
+	 *  Addresses are looked up once per shard and kept until the shard is found to have
+	 *  moved.
+	 *
+	 * @param key the key for which to gather location information
+	 *
+	 * @return a future that will be set to the addresses in string form
+	 */
+	public CompletableFuture<String[]> getAddressesForKey(byte[] key) {
+		return getShards(key, keyAfter(key)).thenCompose(found -> {
+			final Shard shard = found.get(0);
+			final CompletableFuture<String[]> addresses;
+			synchronized(ShardMapCache.this) {
+				if(shard.addresses == null) {
+					shard.addresses = db.runAsync(tr -> LocalityUtil.getAddressesForKey(tr, key));
+					final CompletableFuture<String[]> lookup = shard.addresses;
+					lookup.whenComplete((v, e) -> {
+						if(e != null) {
+							synchronized(ShardMapCache.this) {
+								if(shard.addresses == lookup) {
+									shard.addresses = null;
+								}
+							}
+						}
+					});
+				}
+				addresses = shard.addresses;
+			}
+			return addresses.thenApply(String[]::clone);
+		});
+	}
+
+	/**
+	 * Drops the cached shards that overlap a range of keys, so that they are read again
+	 *  the next time they are needed.
+	 *
+	 * @param begin the inclusive start of the range
+	 * @param end the exclusive end of the range
+	 */
+	public synchronized void invalidate(byte[] begin, byte[] end) {
+		if(ByteArrayUtil.compareUnsigned(begin, end) >= 0) {
+			return;
+		}
+		byte[] from = shards.floorKey(begin);
+		if(from == null || ByteArrayUtil.compareUnsigned(shards.get(from).end, begin) <= 0) {
+			from = begin;
+		}
+		shards.subMap(from, true, end, false).clear();
+	}
+
+	/**
+	 * Drops the whole of the cached shard map.
+	 */
+	public synchronized void invalidate() {
+		shards.clear();
+	}
+
+	// Returns the shards covering [begin, end), in order, reading any part of the map that
+	//  is not cached or has become stale
+	private CompletableFuture<List<Shard>> getShards(byte[] begin, byte[] end) {
+		List<Shard> cached = getCached(begin, end);
+		if(cached != null) {
+			return CompletableFuture.completedFuture(cached);
+		}
+
+		List<KeyValue> rows = new ArrayList<>();
+		return readRows(KeySelector.lastLessOrEqual(LocalityUtil.keyServersForKey(begin)), LocalityUtil.keyServersForKey(end), rows)
+			.thenApply(ignore -> {
+				List<Shard> loaded = toShards(rows, end);
+				store(loaded);
+				return loaded;
+			});
+	}
+
+	private synchronized List<Shard> getCached(byte[] begin, byte[] end) {
+		long now = System.nanoTime();
+		List<Shard> result = new ArrayList<>();
+		Map.Entry<byte[], Shard> entry = shards.floorEntry(begin);
+		byte[] position = begin;
+		while(entry != null && ByteArrayUtil.compareUnsigned(entry.getKey(), position) <= 0) {
+			Shard shard = entry.getValue();
+			if(ByteArrayUtil.compareUnsigned(shard.end, position) <= 0 || now - shard.loadedAt > refreshNanos) {
+				return null;
+			}
+			result.add(shard);
+			if(ByteArrayUtil.compareUnsigned(shard.end, end) >= 0) {
+				return result;
+			}
+			position = shard.end;
+			entry = shards.ceilingEntry(position);
+		}
+		return null;
+	}
+
+	// Reads the rows of the key servers map from the one selected by cursor up to and
+	//  including the first at or after end, a bounded number of rows per transaction
+	private CompletableFuture<Void> readRows(KeySelector cursor, byte[] end, List<KeyValue> rows) {
+		KeySelector last = KeySelector.firstGreaterOrEqual(end).add(1);
+		return db.runAsync(tr -> {
+			tr.options().setReadSystemKeys();
+			tr.options().setLockAware();
+			return tr.getRange(cursor, last, ROWS_PER_READ).asList();
+		}).thenCompose(batch -> {
+			for(KeyValue kv : batch) {
+				if(ByteArrayUtil.startsWith(kv.getKey(), KEY_SERVERS_PREFIX)) {
+					rows.add(kv);
+				}
+			}
+			if(batch.size() < ROWS_PER_READ || ByteArrayUtil.compareUnsigned(batch.get(batch.size() - 1).getKey(), end) >= 0) {
+				return CompletableFuture.completedFuture(null);
+			}
+			return readRows(KeySelector.firstGreaterThan(batch.get(batch.size() - 1).getKey()), end, rows);
+		});
+	}
+
+	// Each row of the key servers map begins a shard that ends where the next row begins.
+	//  A last row at or after end only marks the end of the shard before it.
+	private static List<Shard> toShards(List<KeyValue> rows, byte[] end) {
+		long now = System.nanoTime();
+		List<Shard> result = new ArrayList<>(rows.size());
+		for(int i = 0; i < rows.size(); i++) {
+			KeyValue row = rows.get(i);
+			byte[] shardBegin = Arrays.copyOfRange(row.getKey(), KEY_SERVERS_PREFIX.length, row.getKey().length);
+			if(ByteArrayUtil.compareUnsigned(shardBegin, end) >= 0) {
+				break;
+			}
+			byte[] shardEnd = i + 1 < rows.size()
+					? Arrays.copyOfRange(rows.get(i + 1).getKey(), KEY_SERVERS_PREFIX.length, rows.get(i + 1).getKey().length)
+					: END_OF_KEYSPACE;
+			result.add(new Shard(shardBegin, shardEnd, row.getValue(), now));
+		}
+		if(result.isEmpty()) {
+			throw new FDBException("locality_information_unavailable", 1033);
+		}
+		return result;
+	}
+
+	// Replaces the cached shards that overlap the loaded ones, keeping the addresses of any
+	//  shard whose bounds and servers are unchanged
+	private synchronized void store(List<Shard> loaded) {
+		byte[] begin = loaded.get(0).begin;
+		byte[] end = loaded.get(loaded.size() - 1).end;
+
+		byte[] from = shards.floorKey(begin);
+		if(from == null || ByteArrayUtil.compareUnsigned(shards.get(from).end, begin) <= 0) {
+			from = begin;
+		}
+		NavigableMap<byte[], Shard> replaced = shards.subMap(from, true, end, false);
+		TreeMap<byte[], Shard> previous = new TreeMap<>(replaced);
+		replaced.clear();
+
+		for(Shard shard : loaded) {
+			Shard old = previous.get(shard.begin);
+			if(old != null && Arrays.equals(old.end, shard.end) && Arrays.equals(old.servers, shard.servers)) {
+				shard.addresses = old.addresses;
+			}
+			shards.put(shard.begin, shard);
+		}
+	}
+
+	private static byte[] keyAfter(byte[] key) {
+		return ByteArrayUtil.join(key, new byte[] { 0 });
+	}
+}
@@ -20,6 +20,8 @@
 
 package com.apple.foundationdb;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.Function;
 
@@ -126,6 +128,51 @@ public interface Transaction extends AutoCloseable, ReadTransaction, Transaction
 	 */
 	void set(byte[] key, byte[] value);
 
+	/**
+	 * Sets the value for a given key, with the key and value given as regions of arrays.
+	 *  This avoids having to copy a key or value that was built in a larger buffer into an
+	 *  array of its own. This will not affect the database until {@link #commit} is called.
+	 *
+	 * @param key the array holding the key whose value is to be set
+	 * @param keyOffset the offset of the key within {@code key}
+	 * @param keyLength the length of the key
+	 * @param value the array holding the value to set in the database
+	 * @param valueOffset the offset of the value within {@code value}
+	 * @param valueLength the length of the value
+	 *
+	 * @throws IllegalArgumentException if {@code key} or {@code value} is {@code null}
+	 * @throws IndexOutOfBoundsException if either region does not lie within its array
+	 * @throws FDBException if the set operation otherwise fails
+	 */
+	default void set(byte[] key, int keyOffset, int keyLength, byte[] value, int valueOffset, int valueLength) {
+		if(key == null || value == null)
+			throw new IllegalArgumentException("Keys/Values must be non-null");
+		set(Arrays.copyOfRange(key, keyOffset, keyOffset + keyLength),
+				Arrays.copyOfRange(value, valueOffset, valueOffset + valueLength));
+	}
+
+	/**
+	 * Sets the value for a given key, with the key and value given as the bytes between
+	 *  the position and the limit of each {@link ByteBuffer}. The positions of the buffers
+	 *  are not changed. When the buffers are direct, they are read in place by the native
+	 *  client. This will not affect the database until {@link #commit} is called.
+	 *
+	 * @param key the buffer holding the key whose value is to be set
+	 * @param value the buffer holding the value to set in the database
+	 *
+	 * @throws IllegalArgumentException if {@code key} or {@code value} is {@code null}
+	 * @throws FDBException if the set operation otherwise fails
+	 */
+	default void set(ByteBuffer key, ByteBuffer value) {
+		if(key == null || value == null)
+			throw new IllegalArgumentException("Keys/Values must be non-null");
+		byte[] keyBytes = new byte[key.remaining()];
+		key.duplicate().get(keyBytes);
+		byte[] valueBytes = new byte[value.remaining()];
+		value.duplicate().get(valueBytes);
+		set(keyBytes, valueBytes);
+	}
+
 	/**
 	 * Clears a given key from the database. This will not affect the
 	 * database until {@link #commit} is called.
@@ -137,6 +184,42 @@ public interface Transaction extends AutoCloseable, ReadTransaction, Transaction
 	 */
 	void clear(byte[] key);
 
+	/**
+	 * Clears a given key from the database, with the key given as a region of an array.
+	 *  This will not affect the database until {@link #commit} is called.
+	 *
+	 * @param key the array holding the key whose value is to be cleared
+	 * @param offset the offset of the key within {@code key}
+	 * @param length the length of the key
+	 *
+	 * @throws IllegalArgumentException if {@code key} is {@code null}
+	 * @throws IndexOutOfBoundsException if the region does not lie within {@code key}
+	 * @throws FDBException if clear operation otherwise fails
+	 */
+	default void clear(byte[] key, int offset, int length) {
+		if(key == null)
+			throw new IllegalArgumentException("Key cannot be null");
+		clear(Arrays.copyOfRange(key, offset, offset + length));
+	}
+
+	/**
+	 * Clears a given key from the database, with the key given as the bytes between the
+	 *  position and the limit of a {@link ByteBuffer}. The position of the buffer is not
+	 *  changed. This will not affect the database until {@link #commit} is called.
+	 *
+	 * @param key the buffer holding the key whose value is to be cleared
+	 *
+	 * @throws IllegalArgumentException if {@code key} is {@code null}
+	 * @throws FDBException if clear operation otherwise fails
+	 */
+	default void clear(ByteBuffer key) {
+		if(key == null)
+			throw new IllegalArgumentException("Key cannot be null");
+		byte[] keyBytes = new byte[key.remaining()];
+		key.duplicate().get(keyBytes);
+		clear(keyBytes);
+	}
+
 	/**
 	 * Clears a range of keys in the database.  The upper bound of the range is
 	 *  exclusive; that is, the key (if one exists) that is specified as the end
@@ -207,6 +290,49 @@ public interface Transaction extends AutoCloseable, ReadTransaction, Transaction
 	 */
 	void mutate(MutationType optype, byte[] key, byte[] param);
 
+	/**
+	 * Performs an atomic operation, with the key and parameter given as regions of arrays.
+	 *
+	 * @param optype the operation to perform
+	 * @param key the array holding the target of the operation
+	 * @param keyOffset the offset of the key within {@code key}
+	 * @param keyLength the length of the key
+	 * @param param the array holding the value with which to modify the key
+	 * @param paramOffset the offset of the parameter within {@code param}
+	 * @param paramLength the length of the parameter
+	 *
+	 * @see #mutate(MutationType, byte[], byte[])
+	 */
+	default void mutate(MutationType optype, byte[] key, int keyOffset, int keyLength,
+			byte[] param, int paramOffset, int paramLength) {
+		if(key == null || param == null)
+			throw new IllegalArgumentException("Argument cannot be null");
+		mutate(optype, Arrays.copyOfRange(key, keyOffset, keyOffset + keyLength),
+				Arrays.copyOfRange(param, paramOffset, paramOffset + paramLength));
+	}
+
+	/**
+	 * Performs an atomic operation, with the key and parameter given as the bytes between
+	 *  the position and the limit of each {@link ByteBuffer}. The positions of the buffers
+	 *  are not changed. When the buffers are direct, they are read in place by the native
+	 *  client.
+	 *
+	 * @param optype the operation to perform
+	 * @param key the buffer holding the target of the operation
+	 * @param param the buffer holding the value with which to modify the key
+	 *
+	 * @see #mutate(MutationType, byte[], byte[])
+	 */
+	default void mutate(MutationType optype, ByteBuffer key, ByteBuffer param) {
+		if(key == null || param == null)
+			throw new IllegalArgumentException("Argument cannot be null");
+		byte[] keyBytes = new byte[key.remaining()];
+		key.duplicate().get(keyBytes);
+		byte[] paramBytes = new byte[param.remaining()];
+		param.duplicate().get(paramBytes);
+		mutate(optype, keyBytes, paramBytes);
+	}
+
 	/**
 	 * Commit this {@code Transaction}. See notes in class description. Consider using
 	 *  {@code Database}'s {@link Database#run(Function) run()} calls for managing
@@ -26,11 +26,17 @@ import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Random;
+import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.function.Function;
 
+import com.apple.foundationdb.Database;
 import com.apple.foundationdb.KeyValue;
 import com.apple.foundationdb.MutationType;
 import com.apple.foundationdb.Range;
@@ -72,9 +78,15 @@ public class DirectoryLayer implements Directory {
 	private static final byte[] HIGH_CONTENTION_KEY = "hca".getBytes(UTF_8);
 	private static final byte[] LAYER_KEY = "layer".getBytes(UTF_8);
 	private static final byte[] VERSION_KEY = "version".getBytes(UTF_8);
+	private static final byte[] CHANGE_COUNTER_KEY = "changes".getBytes(UTF_8);
 	private static final long SUB_DIR_KEY = 0;
 	private static final Integer[] VERSION = { 1, 0, 0 };
 
+	/**
+	 * The number of directories kept by the cache enabled with {@link #enableCache(boolean)}.
+	 */
+	public static final int DEFAULT_CACHE_SIZE = 10000;
+
 	static final byte[] EMPTY_BYTES = new byte[0];
 	static final List<String> EMPTY_PATH = Collections.emptyList();
 	static final byte[] DEFAULT_NODE_SUBSPACE_PREFIX =	{ (byte)0xFE };
@@ -96,6 +108,7 @@ public class DirectoryLayer implements Directory {
 	private final boolean allowManualPrefixes;
 
 	private List<String> path = EMPTY_PATH;
+	private volatile DirectoryCache cache;
 	/**
 	 * The layer string to pass to {@link Directory#createOrOpen(TransactionContext, List, byte[])} or
 	 * {@link Directory#create(TransactionContext, List, byte[])} to create a {@code DirectoryPartition}.
@@ -288,6 +301,75 @@ public class DirectoryLayer implements Directory {
 		return this;
 	}
 
+	/**
+	 * Enables or disables caching of the directories opened through this {@code DirectoryLayer}.
+	 *  Without the cache, opening a directory reads the node of each element of its path in
+	 *  turn. With it, a directory that has been opened before is resolved with a read of the
+	 *  layer's version and of a change counter that this layer increments whenever it creates,
+	 *  moves, or removes a directory; if the counter has not changed since the directory was
+	 *  cached, the cached {@link DirectorySubspace} is returned. Reading the counter adds it to
+	 *  the transaction's read conflict ranges, so a transaction that uses the cache conflicts
+	 *  with any concurrent change to this directory layer. The counter is only maintained
+	 *  while the cache is enabled. Up to {@value #DEFAULT_CACHE_SIZE} directories are cached,
+	 *  and the least recently used are discarded beyond that.<br>
+	 * <br>
+	 * The cache is only consistent if every client that modifies this directory layer
+	 *  increments the counter, so it should only be enabled if every client that creates,
+	 *  moves or removes directories in this layer enables it too, and none of them are of older
+	 *  versions or of other bindings. Directories inside a {@link DirectoryPartition} are not
+	 *  cached, although the partition itself is. This is disabled by default.
+	 *
+	 * @param enabled whether to cache opened directories
+	 */
+	public void enableCache(boolean enabled) {
+		cache = enabled ? new DirectoryCache(DEFAULT_CACHE_SIZE) : null;
+	}
+
+	/**
+	 * Enables caching of the directories opened through this {@code DirectoryLayer}, keeping
+	 *  at most the given number of directories. See {@link #enableCache(boolean)}.
+	 *
+	 * @param maxDirectories the most directories to cache, which must be positive
+	 */
+	public void enableCache(int maxDirectories) {
+		if(maxDirectories < 1)
+			throw new IllegalArgumentException("Directory cache size must be positive");
+		cache = new DirectoryCache(maxDirectories);
+	}
+
+	/**
+	 * Sets the number of prefixes that this {@code DirectoryLayer} reserves at a time for
+	 *  new directories. By default, the prefix of each new directory is allocated within the
+	 *  transaction creating it, and concurrent creations may conflict with each other on the
+	 *  allocator's counters. With a batch size greater than one, prefixes are instead
+	 *  reserved in batches by separate transactions, and each creation takes a reserved
+	 *  prefix without reading or writing the allocator's keys. Prefixes that are reserved but
+	 *  never used, for example because the creating transaction does not commit, are not
+	 *  reclaimed, so directory prefixes may be somewhat longer than they would otherwise be.
+	 *  Reservations are kept separately for each {@link Database} that the layer is used
+	 *  with, and are made by transactions with the database's default options (see
+	 *  {@link com.apple.foundationdb.DatabaseOptions}), not those of the creating transaction.
+	 *  Directories created inside a {@link DirectoryPartition} always use the default.
+	 *
+	 * @param batchSize the number of prefixes to reserve at a time, from 1 to 16
+	 */
+	public void setPrefixBatchSize(int batchSize) {
+		if(batchSize < 1 || batchSize > HighContentionAllocator.MAX_BATCH_SIZE)
+			throw new IllegalArgumentException("Prefix batch size must be between 1 and " + HighContentionAllocator.MAX_BATCH_SIZE);
+		allocator.batchSize = batchSize;
+	}
+
+	/**
+	 * Discards every directory cached by this {@code DirectoryLayer}. This is never needed
+	 *  for consistency, but can be used to free the memory used by the cache.
+	 */
+	public void invalidateCache() {
+		DirectoryCache current = cache;
+		if(current != null) {
+			current.clear();
+		}
+	}
+
 	/**
 	 * Creates or opens the directory located at {@code path}(creating parent directories, if necessary).
 	 * If the directory is new, then the {@code layer} byte string will be recorded as its layer.
@@ -440,6 +522,7 @@ public class DirectoryLayer implements Directory {
 				if(!parentNode.exists())
 					throw new NoSuchDirectoryException(toAbsolutePath(parentPath));
 
+				recordChange(tr);
 				tr.set(
 					parentNode.subspace.get(SUB_DIR_KEY).get(getLast(newPathCopy)).getKey(),
 					contentsOfNode(oldNode.subspace, EMPTY_PATH, EMPTY_BYTES).getKey()
@@ -638,6 +721,7 @@ public class DirectoryLayer implements Directory {
 			if(node.isInPartition(false))
 				return node.getContents().getDirectoryLayer().removeInternal(tr, node.getPartitionSubpath(), mustExist);
 			else {
+				recordChange(tr);
 				ArrayList<CompletableFuture<Void>> futures = new ArrayList<>();
 				futures.add(removeRecursive(tr, node.subspace));
 				futures.add(removeFromParent(tr, pathCopy));
@@ -697,6 +781,17 @@ public class DirectoryLayer implements Directory {
 		return getVersionValue(tr).thenApply(new VersionCheck());
 	}
 
+	private CompletableFuture<byte[]> getChangeCounter(final ReadTransaction tr) {
+		return tr.get(rootNode.pack(CHANGE_COUNTER_KEY));
+	}
+
+	private void recordChange(final Transaction tr) {
+		if(cache != null) {
+			tr.mutate(MutationType.ADD, rootNode.pack(CHANGE_COUNTER_KEY), LITTLE_ENDIAN_LONG_ONE);
+			DirectoryCache.markChanged(tr);
+		}
+	}
+
 	private CompletableFuture<DirectorySubspace> createOrOpenInternal(final ReadTransaction rtr,
 																   final Transaction tr,
 																   final List<String> path,
@@ -718,6 +813,32 @@ public class DirectoryLayer implements Directory {
 			return future;
 		}
 
+		// A transaction that has changed the directory layer sees its own increments of the
+		// counter, which must not be cached in case it does not commit
+		final DirectoryCache cache = this.cache;
+		if(cache == null || pathCopy.size() == 0 || DirectoryCache.isChangedBy(rtr)) {
+			return resolveInternal(rtr, tr, pathCopy, layer, prefix, allowCreate, allowOpen, null, null);
+		}
+
+		final CompletableFuture<byte[]> counterFuture = getChangeCounter(rtr);
+		return checkVersion(rtr).thenCombine(counterFuture, (ignore, counter) -> counter).thenComposeAsync(counter -> {
+			CachedDirectory cached = cache.get(pathCopy, counter);
+			if(cached != null) {
+				return CompletableFuture.completedFuture(openInternal(pathCopy, layer, cached.layer, cached.contents, allowOpen));
+			}
+			return resolveInternal(rtr, tr, pathCopy, layer, prefix, allowCreate, allowOpen, cache, counter);
+		}, rtr.getExecutor());
+	}
+
+	private CompletableFuture<DirectorySubspace> resolveInternal(final ReadTransaction rtr,
+																 final Transaction tr,
+																 final List<String> pathCopy,
+																 final byte[] layer,
+																 final byte[] prefix,
+																 final boolean allowCreate,
+																 final boolean allowOpen,
+																 final DirectoryCache cache,
+																 final byte[] counter) {
 		return checkVersion(rtr).thenComposeAsync(ignore -> {
 			// Root directory contains node metadata and so may not be opened.
 			if(pathCopy.size() == 0) {
@@ -735,7 +856,11 @@ public class DirectoryLayer implements Directory {
 							rtr, tr, subpath, layer, prefix, allowCreate, allowOpen);
 				}
 
-				DirectorySubspace opened = openInternal(pathCopy, layer, existingNode, allowOpen);
+				DirectorySubspace contents = existingNode.getContents();
+				if(cache != null) {
+					cache.put(pathCopy, counter, existingNode.layer, contents);
+				}
+				DirectorySubspace opened = openInternal(pathCopy, layer, existingNode.layer, contents, allowOpen);
 				return CompletableFuture.completedFuture(opened);
 			}
 			else
@@ -745,17 +870,18 @@ public class DirectoryLayer implements Directory {
 
 	private DirectorySubspace openInternal(final List<String> path,
 															final byte[] layer,
-															final Node existingNode,
+															final byte[] existingLayer,
+															final DirectorySubspace existingContents,
 															final boolean allowOpen) {
 		if(!allowOpen) {
 			throw new DirectoryAlreadyExistsException(toAbsolutePath(path));
 		}
 		else {
-			if(layer.length > 0 && !Arrays.equals(layer, existingNode.layer)) {
-				throw new MismatchedLayerException(toAbsolutePath(path), existingNode.layer, layer);
+			if(layer.length > 0 && !Arrays.equals(layer, existingLayer)) {
+				throw new MismatchedLayerException(toAbsolutePath(path), existingLayer, layer);
 			}
 
-			return existingNode.getContents();
+			return existingContents;
 		}
 	}
 
@@ -804,6 +930,7 @@ public class DirectoryLayer implements Directory {
 				if(parentNode == null)
 					throw new IllegalStateException("The parent directory does not exist."); //Shouldn't happen
 				Subspace node = nodeWithPrefix(actualPrefix);
+				recordChange(tr);
 				tr.set(parentNode.get(SUB_DIR_KEY).get(getLast(path)).getKey(), actualPrefix);
 				tr.set(node.get(LAYER_KEY).getKey(), layer);
 				return contentsOfNode(node, path, layer);
@@ -996,8 +1123,6 @@ public class DirectoryLayer implements Directory {
 	}
 
 	private static class PrefixFinder {
-		private final Random random;
-
 		private long windowStart;
 		private int windowSize;
 
@@ -1005,7 +1130,6 @@ public class DirectoryLayer implements Directory {
 		private boolean restart;
 
 		PrefixFinder() {
-			this.random = new Random();
 			this.windowStart = 0;
 		}
 
@@ -1035,11 +1159,7 @@ public class DirectoryLayer implements Directory {
 				Range oldAllocations = new Range(allocator.recent.getKey(), allocator.recent.get(windowStart).getKey());
 
 				CompletableFuture<byte[]> newCountRead;
-				// SOMEDAY: this code would work as written if synchronized on something transaction local.
-				// The reason we don't synchronize on the Transaction tr itself is that the user could also be using it 
-				// for synchronization. If they did, then synchronizing on tr here could lead to performance issues or 
-				// deadlocks.
-				synchronized(HighContentionAllocator.class) {
+				synchronized(allocator.lockFor(tr)) {
 					if(windowStart > initialWindowStart) {
 						tr.clear(oldCounters);
 						tr.options().setNextWriteNoWriteConflictRange();
@@ -1070,17 +1190,13 @@ public class DirectoryLayer implements Directory {
 				// full, so this should be expected to take 2 tries.  Under high
 				// contention (and when the window advances), there is an additional
 				// subsequent risk of conflict for this transaction.
-				candidate = windowStart + random.nextInt(windowSize);
+				candidate = windowStart + ThreadLocalRandom.current().nextInt(windowSize);
 				final byte[] allocationKey = allocator.recent.get(candidate).getKey();
 				Range countersRange = allocator.counters.range();
 
 				AsyncIterable<KeyValue> counterRange;
 				CompletableFuture<byte[]> allocationTemp;
-				// SOMEDAY: this code would work as written if synchronized on something transaction local.
-				// The reason we don't synchronize on the Transaction tr itself is that the user could also be using it 
-				// for synchronization. If they did, then synchronizing on tr here could lead to performance issues or 
-				// deadlocks.
-				synchronized(HighContentionAllocator.class) {
+				synchronized(allocator.lockFor(tr)) {
 					counterRange = tr.snapshot().getRange(countersRange, 1, true);
 					allocationTemp = tr.get(allocationKey);
 					tr.options().setNextWriteNoWriteConflictRange();
@@ -1129,9 +1245,26 @@ public class DirectoryLayer implements Directory {
 	}
 
 	private static class HighContentionAllocator {
+		// Small enough that a batch always fits in half of the smallest window
+		static final int MAX_BATCH_SIZE = 16;
+
+		// Allocations that are running on each transaction. Several allocations may run
+		// concurrently on one transaction, and the operations on the transaction that must
+		// not be interleaved with those of another allocation are done while holding the
+		// transaction's lock. The transaction itself is not used as the lock because the
+		// user could also be using it for synchronization.
+		private static final ConcurrentHashMap<Transaction, AllocationLock> locks = new ConcurrentHashMap<>();
+
 		public final Subspace counters;
 		public final Subspace recent;
 
+		volatile int batchSize = 1;
+
+		// Prefixes reserved on each database. A prefix is only known to be unused on the
+		// cluster whose allocator reserved it, and one DirectoryLayer (such as the default)
+		// may be used with several databases.
+		private final Map<Database, ConcurrentLinkedQueue<byte[]>> reserved = Collections.synchronizedMap(new WeakHashMap<>());
+
 		HighContentionAllocator(Subspace subspace) {
 			this.counters = subspace.get(0);
 			this.recent = subspace.get(1);
@@ -1145,7 +1278,121 @@ public class DirectoryLayer implements Directory {
 		 * </ol>
 		 */
 		public CompletableFuture<byte[]> allocate(final Transaction tr) {
-			return new PrefixFinder().find(tr, this);
+			final int batch = batchSize;
+			if(batch <= 1) {
+				return allocateIn(tr);
+			}
+
+			final Database database = tr.getDatabase();
+			final ConcurrentLinkedQueue<byte[]> queue = reserved.computeIfAbsent(database, ignore -> new ConcurrentLinkedQueue<>());
+			byte[] prefix = queue.poll();
+			if(prefix != null) {
+				return CompletableFuture.completedFuture(prefix);
+			}
+
+			// Reserved prefixes must be committed before they are handed out, so they are
+			// allocated by a transaction of their own, which has the database's defaults
+			return database.runAsync(reserveTr -> {
+				final List<byte[]> prefixes = new ArrayList<>(batch);
+				return AsyncUtil.whileTrue(() -> allocateIn(reserveTr).thenApply(allocated -> {
+					prefixes.add(allocated);
+					return prefixes.size() < batch;
+				}), reserveTr.getExecutor())
+				.thenApply(ignore -> prefixes);
+			}, tr.getExecutor())
+			.thenApply(prefixes -> {
+				queue.addAll(prefixes.subList(1, prefixes.size()));
+				return prefixes.get(0);
+			});
+		}
+
+		private CompletableFuture<byte[]> allocateIn(final Transaction tr) {
+			locks.compute(tr, (ignore, lock) -> lock == null ? new AllocationLock() : lock.acquire());
+			final CompletableFuture<byte[]> prefix;
+			try {
+				prefix = new PrefixFinder().find(tr, this);
+			}
+			catch(RuntimeException e) {
+				release(tr);
+				throw e;
+			}
+			return prefix.whenComplete((ignore, error) -> release(tr));
+		}
+
+		private static void release(Transaction tr) {
+			locks.computeIfPresent(tr, (ignore, lock) -> lock.release());
+		}
+
+		Object lockFor(Transaction tr) {
+			return locks.get(tr);
+		}
+	}
+
+	private static class AllocationLock {
+		private int users = 1;
+
+		// Only called from within ConcurrentHashMap.compute, which excludes other updates
+		AllocationLock acquire() {
+			users++;
+			return this;
+		}
+
+		AllocationLock release() {
+			return --users == 0 ? null : this;
+		}
+	}
+
+	private static class CachedDirectory {
+		final byte[] counter;
+		final byte[] layer;
+		final DirectorySubspace contents;
+
+		CachedDirectory(byte[] counter, byte[] layer, DirectorySubspace contents) {
+			this.counter = counter;
+			this.layer = layer;
+			this.contents = contents;
+		}
+	}
+
+	private static class DirectoryCache {
+		// Transactions that have changed some directory layer that has a cache. This is shared
+		// by all instances, as more than one may be used for the same node subspace. Each is
+		// keyed by its snapshot view, which a transaction and its snapshot view have in common.
+		private static final Map<ReadTransaction, Boolean> changed = Collections.synchronizedMap(new WeakHashMap<>());
+
+		private final Map<List<String>, CachedDirectory> directories;
+
+		DirectoryCache(final int maxDirectories) {
+			directories = Collections.synchronizedMap(new LinkedHashMap<List<String>, CachedDirectory>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<List<String>, CachedDirectory> eldest) {
+					return size() > maxDirectories;
+				}
+			});
+		}
+
+		static void markChanged(Transaction tr) {
+			changed.put(tr.snapshot(), Boolean.TRUE);
+		}
+
+		static boolean isChangedBy(ReadTransaction tr) {
+			return !changed.isEmpty() && changed.containsKey(tr.snapshot());
+		}
+
+		CachedDirectory get(List<String> path, byte[] counter) {
+			CachedDirectory cached = directories.get(path);
+			if(cached != null && Arrays.equals(cached.counter, counter)) {
+				return cached;
+			}
+			return null;
+		}
+
+		void put(List<String> path, byte[] counter, byte[] layer, DirectorySubspace contents) {
+			directories.put(path, new CachedDirectory(counter, layer, contents));
+		}
+
+		void clear() {
+			directories.clear();
 		}
 	}
 }
@@ -28,6 +28,8 @@ import java.util.Arrays;
 import com.apple.foundationdb.Range;
 import com.apple.foundationdb.tuple.ByteArrayUtil;
 import com.apple.foundationdb.tuple.Tuple;
+import com.apple.foundationdb.tuple.TupleReader;
+import com.apple.foundationdb.tuple.TupleWriter;
 import com.apple.foundationdb.tuple.Versionstamp;
 
 /**
@@ -217,6 +219,29 @@ public class Subspace {
 		return tuple.packWithVersionstamp(rawPrefix);
 	}
 
+	/**
+	 * Gets a {@link TupleWriter} whose output starts with this {@code Subspace}'s prefix.
+	 * Keys built with the writer are the same as those returned by {@link #pack(Tuple)}
+	 * for the elements written, but no {@link Tuple} is created.
+	 *
+	 * @return a writer positioned just after this {@code Subspace}'s prefix
+	 */
+	public TupleWriter packWriter() {
+		return new TupleWriter(rawPrefix);
+	}
+
+	/**
+	 * Resets a {@link TupleWriter} to start writing keys in this {@code Subspace}. The
+	 * writer's buffer is reused, so building many keys with one writer allocates only
+	 * the returned keys.
+	 *
+	 * @param writer the writer to reset
+	 * @return {@code writer}, positioned just after this {@code Subspace}'s prefix
+	 */
+	public TupleWriter packWriter(TupleWriter writer) {
+		return writer.reset(rawPrefix);
+	}
+
 	/**
 	 * Gets the {@link Tuple} encoded by the given key, with this {@code Subspace}'s prefix {@link Tuple} and
 	 * {@code raw prefix} removed.
@@ -231,6 +256,33 @@ public class Subspace {
 		return Tuple.fromBytes(key, rawPrefix.length, key.length - rawPrefix.length);
 	}
 
+	/**
+	 * Gets a {@link TupleReader} over the {@link Tuple} encoded by the given key, with this
+	 * {@code Subspace}'s prefix removed. The key is read in place rather than copied.
+	 *
+	 * @param key The key being decoded
+	 * @return a reader over the elements encoded by {@code key} after the prefix
+	 */
+	public TupleReader unpackReader(byte[] key) {
+		return unpackReader(key, new TupleReader());
+	}
+
+	/**
+	 * Resets a {@link TupleReader} to read the {@link Tuple} encoded by the given key, with
+	 * this {@code Subspace}'s prefix removed. The key is read in place rather than copied,
+	 * so reusing one reader across many keys allocates nothing.
+	 *
+	 * @param key The key being decoded
+	 * @param reader the reader to reset
+	 * @return {@code reader}, positioned at the first element after the prefix
+	 */
+	public TupleReader unpackReader(byte[] key, TupleReader reader) {
+		if(!contains(key))
+			throw new IllegalArgumentException("Cannot unpack key that is not contained in subspace.");
+
+		return reader.reset(key, rawPrefix.length, key.length - rawPrefix.length);
+	}
+
 	/**
 	 * Gets a {@link Range} respresenting all keys strictly in the {@code Subspace}.
 	 *
@@ -0,0 +1,625 @@
+/*
+ * TupleReader.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2018 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.tuple;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the elements of a packed {@link Tuple} one at a time, without decoding the
+ *  elements that are not needed. Where {@link Tuple#fromBytes(byte[])} copies the encoded
+ *  tuple and creates an object for every element, a {@code TupleReader} works directly on
+ *  the encoded bytes: elements can be skipped, integers, floating point numbers and
+ *  booleans are returned as primitives, and strings and byte strings can be compared with
+ *  expected values in place. None of these allocate. A reader can be {@link #reset reset}
+ *  to read another tuple, so one reader can be used for every key returned by a range read.<br>
+ * <br>
+ * For example, to read the second element of keys packed as {@code (String, long)} within
+ *  a {@link com.apple.foundationdb.subspace.Subspace Subspace}:
+ * <pre>
+ * {@code
+ * TupleReader reader = new TupleReader();
+ * for(KeyValue kv : tr.getRange(subspace.range())) {
+ *     subspace.unpackReader(kv.getKey(), reader);
+ *     if(reader.nextStringEquals("visits")) {
+ *         total += reader.nextLong();
+ *     }
+ * }
+ * }
+ * </pre>
+ * A {@code TupleReader} is not thread-safe.
+ */
+public class TupleReader {
+	/** The type code of a {@code null} element. */
+	public static final int NULL_CODE = TupleUtil.nil;
+	/** The type code of a byte string element. */
+	public static final int BYTES_CODE = TupleUtil.BYTES_CODE;
+	/** The type code of a {@link String} element. */
+	public static final int STRING_CODE = TupleUtil.STRING_CODE;
+	/** The type code of a nested tuple element. */
+	public static final int NESTED_CODE = TupleUtil.NESTED_CODE;
+	/** The type code of a {@code float} element. */
+	public static final int FLOAT_CODE = TupleUtil.FLOAT_CODE;
+	/** The type code of a {@code double} element. */
+	public static final int DOUBLE_CODE = TupleUtil.DOUBLE_CODE;
+	/** The type code of a {@code false} element. */
+	public static final int FALSE_CODE = TupleUtil.FALSE_CODE;
+	/** The type code of a {@code true} element. */
+	public static final int TRUE_CODE = TupleUtil.TRUE_CODE;
+	/** The type code of a {@link java.util.UUID UUID} element. */
+	public static final int UUID_CODE = TupleUtil.UUID_CODE;
+	/** The type code of a {@link Versionstamp} element. */
+	public static final int VERSIONSTAMP_CODE = TupleUtil.VERSIONSTAMP_CODE;
+
+	private static final byte[] EMPTY = new byte[0];
+
+	// Exactly one of array and buffer is used
+	private byte[] array;
+	private ByteBuffer buffer;
+	private int position;
+	private int end;
+
+	/**
+	 * Creates a reader with no tuple to read. Call one of the {@code reset} methods to
+	 *  give it one.
+	 */
+	public TupleReader() {
+		reset(EMPTY, 0, 0);
+	}
+
+	/**
+	 * Creates a reader over a packed tuple.
+	 *
+	 * @param packed the packed tuple
+	 */
+	public TupleReader(byte[] packed) {
+		reset(packed, 0, packed.length);
+	}
+
+	/**
+	 * Creates a reader over a packed tuple held in a region of an array.
+	 *
+	 * @param packed the array holding the packed tuple
+	 * @param offset the offset of the tuple within {@code packed}
+	 * @param length the length of the tuple
+	 */
+	public TupleReader(byte[] packed, int offset, int length) {
+		reset(packed, offset, length);
+	}
+
+	/**
+	 * Creates a reader over the packed tuple held between the position and the limit of a
+	 *  buffer. The position of the buffer is not changed.
+	 *
+	 * @param packed the buffer holding the packed tuple
+	 */
+	public TupleReader(ByteBuffer packed) {
+		reset(packed);
+	}
+
+	/**
+	 * Starts reading another packed tuple held in a region of an array.
+	 *
+	 * @param packed the array holding the packed tuple
+	 * @param offset the offset of the tuple within {@code packed}
+	 * @param length the length of the tuple
+	 * @return this reader
+	 */
+	public TupleReader reset(byte[] packed, int offset, int length) {
+		if(offset < 0 || offset > packed.length) {
+			throw new IllegalArgumentException("Invalid offset for Tuple deserialization");
+		}
+		if(length < 0 || offset + length > packed.length) {
+			throw new IllegalArgumentException("Invalid length for Tuple deserialization");
+		}
+		this.array = packed;
+		this.buffer = null;
+		this.position = offset;
+		this.end = offset + length;
+		return this;
+	}
+
+	/**
+	 * Starts reading another packed tuple held between the position and the limit of a
+	 *  buffer. The position of the buffer is not changed.
+	 *
+	 * @param packed the buffer holding the packed tuple
+	 * @return this reader
+	 */
+	public TupleReader reset(ByteBuffer packed) {
+		if(packed.hasArray()) {
+			return reset(packed.array(), packed.arrayOffset() + packed.position(), packed.remaining());
+		}
+		this.array = null;
+		this.buffer = packed;
+		this.position = packed.position();
+		this.end = packed.limit();
+		return this;
+	}
+
+	/**
+	 * Returns whether there are any more elements to read.
+	 *
+	 * @return {@code true} if there is another element
+	 */
+	public boolean hasNext() {
+		return position < end;
+	}
+
+	/**
+	 * Returns the type code of the next element without reading it. Integers have codes
+	 *  from {@code 0x0b} to {@code 0x1d}; see {@link #isIntegerCode(int)}. The codes of the
+	 *  other types are the constants of this class.
+	 *
+	 * @return the type code of the next element
+	 * @throws IllegalStateException if there are no more elements
+	 */
+	public int peekTypeCode() {
+		checkHasNext();
+		return get(position) & 0xff;
+	}
+
+	/**
+	 * Returns whether a type code is that of an integer.
+	 *
+	 * @param code a type code returned by {@link #peekTypeCode()}
+	 * @return {@code true} if {@code code} is used for integers
+	 */
+	public static boolean isIntegerCode(int code) {
+		return code >= TupleUtil.NEG_INT_START && code <= TupleUtil.POS_INT_END;
+	}
+
+	/**
+	 * Skips over the next element, whatever its type.
+	 *
+	 * @return this reader
+	 * @throws IllegalStateException if there are no more elements
+	 */
+	public TupleReader skip() {
+		checkHasNext();
+		position = elementEnd(position);
+		return this;
+	}
+
+	/**
+	 * Skips over the next {@code count} elements.
+	 *
+	 * @param count the number of elements to skip
+	 * @return this reader
+	 * @throws IllegalStateException if there are fewer than {@code count} elements left
+	 */
+	public TupleReader skip(int count) {
+		for(int i = 0; i < count; i++) {
+			skip();
+		}
+		return this;
+	}
+
+	/**
+	 * Reads the next element, which must be an integer that fits in a {@code long}.
+	 *
+	 * @return the value of the next element
+	 * @throws IllegalArgumentException if the next element is not an integer, or is out of
+	 *  the range of a {@code long}
+	 */
+	public long nextLong() {
+		checkHasNext();
+		int code = get(position) & 0xff;
+		if(code <= TupleUtil.NEG_INT_START || code >= TupleUtil.POS_INT_END) {
+			throw new IllegalArgumentException(isIntegerCode(code)
+					? "Integer is out of the range of a long" : typeError("an integer", code));
+		}
+		boolean positive = code >= TupleUtil.INT_ZERO_CODE;
+		int n = positive ? code - TupleUtil.INT_ZERO_CODE : TupleUtil.INT_ZERO_CODE - code;
+		int start = position + 1;
+		checkLength(start + n);
+
+		long raw = 0L;
+		for(int i = start; i < start + n; i++) {
+			raw = (raw << 8) | (get(i) & 0xff);
+		}
+
+		long value;
+		if(positive) {
+			if(raw < 0) {
+				throw new IllegalArgumentException("Integer is out of the range of a long");
+			}
+			value = raw;
+		}
+		else if(n < Long.BYTES) {
+			value = raw - ((1L << (n * 8)) - 1);
+		}
+		else if(raw < 0) {
+			value = raw + 1;
+		}
+		else if(raw == Long.MAX_VALUE) {
+			// The only 8 byte negative value without its top bit set after encoding
+			value = Long.MIN_VALUE;
+		}
+		else {
+			throw new IllegalArgumentException("Integer is out of the range of a long");
+		}
+		position = start + n;
+		return value;
+	}
+
+	/**
+	 * Reads the next element, which must be an integer that fits in an {@code int}.
+	 *
+	 * @return the value of the next element
+	 * @throws IllegalArgumentException if the next element is not an integer, or is out of
+	 *  the range of an {@code int}
+	 */
+	public int nextInt() {
+		int saved = position;
+		long value = nextLong();
+		if(value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+			position = saved;
+			throw new IllegalArgumentException("Integer is out of the range of an int");
+		}
+		return (int)value;
+	}
+
+	/**
+	 * Reads the next element, which must be a {@code double}.
+	 *
+	 * @return the value of the next element
+	 * @throws IllegalArgumentException if the next element is not a {@code double}
+	 */
+	public double nextDouble() {
+		checkType(TupleUtil.DOUBLE_CODE, "a double");
+		int start = position + 1;
+		checkLength(start + Double.BYTES);
+		double value = TupleUtil.decodeDoubleBits(readLong(start, Double.BYTES));
+		position = start + Double.BYTES;
+		return value;
+	}
+
+	/**
+	 * Reads the next element, which must be a {@code float}.
+	 *
+	 * @return the value of the next element
+	 * @throws IllegalArgumentException if the next element is not a {@code float}
+	 */
+	public float nextFloat() {
+		checkType(TupleUtil.FLOAT_CODE, "a float");
+		int start = position + 1;
+		checkLength(start + Float.BYTES);
+		float value = TupleUtil.decodeFloatBits((int)readLong(start, Float.BYTES));
+		position = start + Float.BYTES;
+		return value;
+	}
+
+	/**
+	 * Reads the next element, which must be a boolean.
+	 *
+	 * @return the value of the next element
+	 * @throws IllegalArgumentException if the next element is not a boolean
+	 */
+	public boolean nextBoolean() {
+		checkHasNext();
+		int code = get(position);
+		if(code != TupleUtil.TRUE_CODE && code != TupleUtil.FALSE_CODE) {
+			throw new IllegalArgumentException(typeError("a boolean", code & 0xff));
+		}
+		position++;
+		return code == TupleUtil.TRUE_CODE;
+	}
+
+	/**
+	 * Reads the next element if it is {@code null}.
+	 *
+	 * @return {@code true} if the next element was {@code null} and has been read, or
+	 *  {@code false} if it is of another type and has not been
+	 * @throws IllegalStateException if there are no more elements
+	 */
+	public boolean nextIsNull() {
+		checkHasNext();
+		if(get(position) == TupleUtil.nil) {
+			position++;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Reads the next element and compares it with a string. The element is read whatever
+	 *  its type, and elements that are not strings are not equal to any string.
+	 *
+	 * @param value the string with which to compare the next element
+	 * @return {@code true} if the next element is a string equal to {@code value}
+	 * @throws IllegalStateException if there are no more elements
+	 */
+	public boolean nextStringEquals(String value) {
+		checkHasNext();
+		int start = position;
+		position = elementEnd(start);
+		if(get(start) != TupleUtil.STRING_CODE) {
+			return false;
+		}
+
+		// Compare the UTF-8 encoding of value, computed a code point at a time, with the
+		//  unescaped contents of the element
+		int p = start + 1;
+		int last = position - 1;
+		int i = 0;
+		while(i < value.length()) {
+			int cp = value.codePointAt(i);
+			if(Character.isSurrogate(value.charAt(i)) && cp == value.charAt(i)) {
+				// An unpaired surrogate cannot have been encoded
+				return false;
+			}
+			i += Character.charCount(cp);
+			if(cp < 0x80) {
+				p = match(p, last, cp);
+			}
+			else if(cp < 0x800) {
+				p = match(p, last, 0xc0 | (cp >> 6));
+				p = match(p, last, 0x80 | (cp & 0x3f));
+			}
+			else if(cp < 0x10000) {
+				p = match(p, last, 0xe0 | (cp >> 12));
+				p = match(p, last, 0x80 | ((cp >> 6) & 0x3f));
+				p = match(p, last, 0x80 | (cp & 0x3f));
+			}
+			else {
+				p = match(p, last, 0xf0 | (cp >> 18));
+				p = match(p, last, 0x80 | ((cp >> 12) & 0x3f));
+				p = match(p, last, 0x80 | ((cp >> 6) & 0x3f));
+				p = match(p, last, 0x80 | (cp & 0x3f));
+			}
+			if(p < 0) {
+				return false;
+			}
+		}
+		return p == last;
+	}
+
+	/**
+	 * Reads the next element and compares it with a byte string. The element is read
+	 *  whatever its type, and elements that are not byte strings are not equal to any byte
+	 *  string.
+	 *
+	 * @param value the bytes with which to compare the next element
+	 * @return {@code true} if the next element is a byte string equal to {@code value}
+	 * @throws IllegalStateException if there are no more elements
+	 */
+	public boolean nextBytesEquals(byte[] value) {
+		checkHasNext();
+		int start = position;
+		position = elementEnd(start);
+		if(get(start) != TupleUtil.BYTES_CODE) {
+			return false;
+		}
+
+		int p = start + 1;
+		int last = position - 1;
+		for(int i = 0; i < value.length && p >= 0; i++) {
+			p = match(p, last, value[i] & 0xff);
+		}
+		return p == last;
+	}
+
+	/**
+	 * Reads the next element, which must be a string.
+	 *
+	 * @return the value of the next element
+	 * @throws IllegalArgumentException if the next element is not a string or is not
+	 *  valid UTF-8
+	 */
+	public String nextString() {
+		checkType(TupleUtil.STRING_CODE, "a string");
+		int elementEnd = elementEnd(position);
+		byte[] bytes = unescape(position + 1, elementEnd - 1);
+		position = elementEnd;
+		try {
+			CharBuffer chars = StandardCharsets.UTF_8.newDecoder()
+					.onMalformedInput(CodingErrorAction.REPORT)
+					.decode(ByteBuffer.wrap(bytes));
+			return chars.toString();
+		}
+		catch(CharacterCodingException e) {
+			throw new IllegalArgumentException("malformed UTF-8 string", e);
+		}
+	}
+
+	/**
+	 * Reads the next element, which must be a byte string.
+	 *
+	 * @return the value of the next element
+	 * @throws IllegalArgumentException if the next element is not a byte string
+	 */
+	public byte[] nextBytes() {
+		checkType(TupleUtil.BYTES_CODE, "a byte string");
+		int elementEnd = elementEnd(position);
+		byte[] bytes = unescape(position + 1, elementEnd - 1);
+		position = elementEnd;
+		return bytes;
+	}
+
+	/**
+	 * Reads the next element, whatever its type, decoding it as {@link Tuple#get(int)}
+	 *  would.
+	 *
+	 * @return the value of the next element
+	 * @throws IllegalStateException if there are no more elements
+	 */
+	public Object next() {
+		checkHasNext();
+		int elementEnd = elementEnd(position);
+		byte[] rep;
+		int start;
+		if(array != null) {
+			rep = array;
+			start = position;
+		}
+		else {
+			rep = new byte[elementEnd - position];
+			for(int i = 0; i < rep.length; i++) {
+				rep[i] = buffer.get(position + i);
+			}
+			start = 0;
+		}
+		TupleUtil.DecodeState state = new TupleUtil.DecodeState();
+		TupleUtil.decode(state, rep, start, start + elementEnd - position);
+		position = elementEnd;
+		return state.values.get(0);
+	}
+
+	private byte get(int i) {
+		return array != null ? array[i] : buffer.get(i);
+	}
+
+	private long readLong(int start, int n) {
+		long raw = 0L;
+		for(int i = start; i < start + n; i++) {
+			raw = (raw << 8) | (get(i) & 0xff);
+		}
+		return raw;
+	}
+
+	private void checkHasNext() {
+		if(position >= end) {
+			throw new IllegalStateException("No more elements in tuple");
+		}
+	}
+
+	private void checkType(byte code, String description) {
+		checkHasNext();
+		if(get(position) != code) {
+			throw new IllegalArgumentException(typeError(description, get(position) & 0xff));
+		}
+	}
+
+	private void checkLength(int elementEnd) {
+		if(elementEnd > end) {
+			throw new IllegalArgumentException("Invalid tuple (possible truncation)");
+		}
+	}
+
+	private static String typeError(String expected, int code) {
+		return "Expected " + expected + " but found tuple data type " + code;
+	}
+
+	// Matches one unescaped byte of a string or byte string element against b, returning
+	//  the position after it, or -1 if it does not match
+	private int match(int p, int last, int b) {
+		if(p < 0 || p >= last) {
+			return -1;
+		}
+		if(b == 0) {
+			return get(p) == TupleUtil.nil ? p + 2 : -1;
+		}
+		return (get(p) & 0xff) == b ? p + 1 : -1;
+	}
+
+	private byte[] unescape(int start, int last) {
+		int length = 0;
+		for(int p = start; p < last; p += get(p) == TupleUtil.nil ? 2 : 1) {
+			length++;
+		}
+		byte[] bytes = new byte[length];
+		int i = 0;
+		for(int p = start; p < last; p += get(p) == TupleUtil.nil ? 2 : 1) {
+			bytes[i++] = get(p);
+		}
+		return bytes;
+	}
+
+	// Returns the position just after the element starting at pos
+	private int elementEnd(int pos) {
+		int code = get(pos) & 0xff;
+		int start = pos + 1;
+		int elementEnd;
+		if(code == TupleUtil.nil || code == TupleUtil.FALSE_CODE || code == TupleUtil.TRUE_CODE) {
+			elementEnd = start;
+		}
+		else if(code == TupleUtil.BYTES_CODE || code == TupleUtil.STRING_CODE) {
+			elementEnd = findTerminator(start) + 1;
+		}
+		else if(code == TupleUtil.FLOAT_CODE) {
+			elementEnd = start + Float.BYTES;
+		}
+		else if(code == TupleUtil.DOUBLE_CODE) {
+			elementEnd = start + Double.BYTES;
+		}
+		else if(code == TupleUtil.UUID_CODE) {
+			elementEnd = start + TupleUtil.UUID_BYTES;
+		}
+		else if(code == TupleUtil.VERSIONSTAMP_CODE) {
+			elementEnd = start + Versionstamp.LENGTH;
+		}
+		else if(code == TupleUtil.POS_INT_END || code == TupleUtil.NEG_INT_START) {
+			checkLength(start + 1);
+			int n = code == TupleUtil.POS_INT_END ? get(start) & 0xff : (get(start) ^ 0xff) & 0xff;
+			elementEnd = start + 1 + n;
+		}
+		else if(isIntegerCode(code)) {
+			elementEnd = start + Math.abs(code - TupleUtil.INT_ZERO_CODE);
+		}
+		else if(code == TupleUtil.NESTED_CODE) {
+			int p = start;
+			while(true) {
+				if(p >= end) {
+					throw new IllegalArgumentException("No terminator found for nested tuple starting at " + start);
+				}
+				if(get(p) == TupleUtil.nil) {
+					if(p + 1 < end && get(p + 1) == (byte)0xff) {
+						// A null element within the nested tuple
+						p += 2;
+					}
+					else {
+						elementEnd = p + 1;
+						break;
+					}
+				}
+				else {
+					p = elementEnd(p);
+				}
+			}
+		}
+		else {
+			throw new IllegalArgumentException("Unknown tuple data type " + code + " at index " + pos);
+		}
+		checkLength(elementEnd);
+		return elementEnd;
+	}
+
+	// Returns the position of the null byte ending a string or byte string element
+	private int findTerminator(int from) {
+		int p = from;
+		while(p < end) {
+			if(get(p) == TupleUtil.nil) {
+				if(p + 1 >= end || get(p + 1) != (byte)0xff) {
+					return p;
+				}
+				p += 2;
+			}
+			else {
+				p++;
+			}
+		}
+		throw new IllegalArgumentException("No terminator found for bytes starting at " + from);
+	}
+}
@@ -40,25 +40,25 @@ import java.util.stream.Stream;
 import com.apple.foundationdb.FDB;
 
 class TupleUtil {
-	private static final byte nil = 0x00;
+	static final byte nil = 0x00;
 	private static final Charset UTF8 = StandardCharsets.UTF_8;
 	private static final BigInteger LONG_MIN_VALUE = BigInteger.valueOf(Long.MIN_VALUE);
 	private static final BigInteger LONG_MAX_VALUE = BigInteger.valueOf(Long.MAX_VALUE);
-	private static final int UUID_BYTES = 2 * Long.BYTES;
+	static final int UUID_BYTES = 2 * Long.BYTES;
 	private static final IterableComparator iterableComparator = new IterableComparator();
 
-	private static final byte BYTES_CODE            = 0x01;
-	private static final byte STRING_CODE           = 0x02;
-	private static final byte NESTED_CODE           = 0x05;
-	private static final byte INT_ZERO_CODE         = 0x14;
-	private static final byte POS_INT_END           = 0x1d;
-	private static final byte NEG_INT_START         = 0x0b;
-	private static final byte FLOAT_CODE            = 0x20;
-	private static final byte DOUBLE_CODE           = 0x21;
-	private static final byte FALSE_CODE            = 0x26;
-	private static final byte TRUE_CODE             = 0x27;
-	private static final byte UUID_CODE             = 0x30;
-	private static final byte VERSIONSTAMP_CODE     = 0x33;
+	static final byte BYTES_CODE            = 0x01;
+	static final byte STRING_CODE           = 0x02;
+	static final byte NESTED_CODE           = 0x05;
+	static final byte INT_ZERO_CODE         = 0x14;
+	static final byte POS_INT_END           = 0x1d;
+	static final byte NEG_INT_START         = 0x0b;
+	static final byte FLOAT_CODE            = 0x20;
+	static final byte DOUBLE_CODE           = 0x21;
+	static final byte FALSE_CODE            = 0x26;
+	static final byte TRUE_CODE             = 0x27;
+	static final byte UUID_CODE             = 0x30;
+	static final byte VERSIONSTAMP_CODE     = 0x33;
 
 	private static final byte[] NULL_ARR           = new byte[] {nil};
 	private static final byte[] NULL_ESCAPED_ARR   = new byte[] {nil, (byte)0xFF};
@@ -164,7 +164,7 @@ class TupleUtil {
 		}
 	}
 
-	private static boolean useOldVersionOffsetFormat() {
+	static boolean useOldVersionOffsetFormat() {
 		return FDB.instance().getAPIVersion() < 520;
 	}
 
@@ -176,28 +176,28 @@ class TupleUtil {
 	// in the case that the number is positive. For these purposes, 0.0 is positive and -0.0
 	// is negative.
 
-	private static int encodeFloatBits(float f) {
+	static int encodeFloatBits(float f) {
 		int intBits = Float.floatToRawIntBits(f);
 		return (intBits < 0) ? (~intBits) : (intBits ^ Integer.MIN_VALUE);
 	}
 
-	private static long encodeDoubleBits(double d) {
+	static long encodeDoubleBits(double d) {
 		long longBits = Double.doubleToRawLongBits(d);
 		return (longBits < 0L) ? (~longBits) : (longBits ^ Long.MIN_VALUE);
 	}
 
-	private static float decodeFloatBits(int i) {
+	static float decodeFloatBits(int i) {
 		int origBits = (i >= 0) ? (~i) : (i ^ Integer.MIN_VALUE);
 		return Float.intBitsToFloat(origBits);
 	}
 
-	private static double decodeDoubleBits(long l) {
+	static double decodeDoubleBits(long l) {
 		long origBits = (l >= 0) ? (~l) : (l ^ Long.MIN_VALUE);
 		return Double.longBitsToDouble(origBits);
 	}
 
 	// Get the minimal number of bytes in the representation of a long.
-	private static int minimalByteCount(long i) {
+	static int minimalByteCount(long i) {
 		return (Long.SIZE + 7 - Long.numberOfLeadingZeros(i >= 0 ? i : -i)) / 8;
 	}
 
@@ -0,0 +1,513 @@
+/*
+ * TupleWriter.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2018 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.tuple;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Encodes tuple elements directly into a growable byte array, producing the same bytes as
+ *  {@link Tuple#pack()} without creating a {@link Tuple}. Each call to {@link Tuple#add(long) Tuple.add()}
+ *  copies every element added so far into a new {@code Tuple}, and packing it then measures
+ *  and encodes all of the elements; a {@code TupleWriter} instead appends each element's
+ *  encoding as it is added, so building a key costs one copy of its bytes. A writer can
+ *  start from a raw prefix, such as that of a {@link com.apple.foundationdb.subspace.Subspace Subspace},
+ *  and be {@link #reset() reset} to that prefix so that its buffer is reused for the next key.<br>
+ * <br>
+ * For example, to write keys of the form {@code (String, long)} within a
+ *  {@link com.apple.foundationdb.subspace.Subspace Subspace}:
+ * <pre>
+ * {@code
+ * TupleWriter writer = subspace.packWriter();
+ * for(Map.Entry<String, Long> entry : counts.entrySet()) {
+ *     tr.set(writer.reset().add(entry.getKey()).add(entry.getValue()).pack(), value);
+ * }
+ * }
+ * </pre>
+ * Elements of types without a dedicated {@code add} method, such as {@link BigInteger}s,
+ *  {@link Versionstamp}s and nested {@link List}s, can be written with {@link #addObject(Object)}.
+ *  Nested tuples can also be written element by element between calls to {@link #beginNested()}
+ *  and {@link #endNested()}.<br>
+ * <br>
+ * A {@code TupleWriter} is not thread-safe.
+ */
+public class TupleWriter {
+	private static final int DEFAULT_CAPACITY = 64;
+	private static final byte ESCAPE = (byte)0xff;
+
+	private byte[] buffer;
+	private int length;
+	private int prefixLength;
+	private int size;
+	private int depth;
+	private int versionPos;
+
+	/**
+	 * Creates a writer with no prefix.
+	 */
+	public TupleWriter() {
+		this(null, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a writer whose output starts with the given raw prefix.
+	 *
+	 * @param prefix the bytes to write before the first element, or {@code null} for none
+	 */
+	public TupleWriter(byte[] prefix) {
+		this(prefix, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a writer whose output starts with the given raw prefix, with room for
+	 *  {@code capacity} bytes of elements before its buffer has to grow.
+	 *
+	 * @param prefix the bytes to write before the first element, or {@code null} for none
+	 * @param capacity the initial number of bytes available for elements
+	 */
+	public TupleWriter(byte[] prefix, int capacity) {
+		if(capacity < 0) {
+			throw new IllegalArgumentException("Capacity cannot be negative");
+		}
+		buffer = new byte[(prefix == null ? 0 : prefix.length) + capacity];
+		reset(prefix);
+	}
+
+	/**
+	 * Discards the elements written so far, keeping the prefix.
+	 *
+	 * @return this writer
+	 */
+	public TupleWriter reset() {
+		length = prefixLength;
+		size = 0;
+		depth = 0;
+		versionPos = -1;
+		return this;
+	}
+
+	/**
+	 * Discards the prefix and the elements written so far, and starts writing after a
+	 *  new raw prefix.
+	 *
+	 * @param prefix the bytes to write before the first element, or {@code null} for none
+	 * @return this writer
+	 */
+	public TupleWriter reset(byte[] prefix) {
+		prefixLength = 0;
+		length = 0;
+		if(prefix != null) {
+			ensureCapacity(prefix.length);
+			System.arraycopy(prefix, 0, buffer, 0, prefix.length);
+			prefixLength = prefix.length;
+		}
+		return reset();
+	}
+
+	/**
+	 * Gets the number of top-level elements written since the last reset. The elements of
+	 *  nested tuples are not counted separately.
+	 *
+	 * @return the number of elements written
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the number of bytes written so far, including the prefix.
+	 *
+	 * @return the length of the output
+	 */
+	public int getPackedSize() {
+		return length;
+	}
+
+	/**
+	 * Writes a {@code null} element.
+	 *
+	 * @return this writer
+	 */
+	public TupleWriter addNull() {
+		ensureCapacity(2);
+		buffer[length++] = TupleUtil.nil;
+		if(depth > 0) {
+			buffer[length++] = ESCAPE;
+		}
+		return added();
+	}
+
+	/**
+	 * Writes a {@code String} element.
+	 *
+	 * @param s the string to write
+	 * @return this writer
+	 * @throws IllegalArgumentException if {@code s} is not well-formed UTF-16
+	 */
+	public TupleWriter add(String s) {
+		if(s == null) {
+			return addNull();
+		}
+		final int strLength = s.length();
+		// Every char takes at most three bytes, as do null chars once escaped
+		ensureCapacity(2 + 3 * strLength);
+		int start = length;
+		byte[] b = buffer;
+		int pos = length;
+		b[pos++] = TupleUtil.STRING_CODE;
+		for(int i = 0; i < strLength; i++) {
+			char c = s.charAt(i);
+			if(c == 0) {
+				b[pos++] = TupleUtil.nil;
+				b[pos++] = ESCAPE;
+			}
+			else if(c < 0x80) {
+				b[pos++] = (byte)c;
+			}
+			else if(c < 0x800) {
+				b[pos++] = (byte)(0xc0 | (c >> 6));
+				b[pos++] = (byte)(0x80 | (c & 0x3f));
+			}
+			else if(Character.isSurrogate(c)) {
+				if(!Character.isHighSurrogate(c) || i + 1 >= strLength || !Character.isLowSurrogate(s.charAt(i + 1))) {
+					// Produce the same error as the other encoders
+					length = start;
+					StringUtil.validate(s);
+				}
+				int cp = Character.toCodePoint(c, s.charAt(++i));
+				b[pos++] = (byte)(0xf0 | (cp >> 18));
+				b[pos++] = (byte)(0x80 | ((cp >> 12) & 0x3f));
+				b[pos++] = (byte)(0x80 | ((cp >> 6) & 0x3f));
+				b[pos++] = (byte)(0x80 | (cp & 0x3f));
+			}
+			else {
+				b[pos++] = (byte)(0xe0 | (c >> 12));
+				b[pos++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+				b[pos++] = (byte)(0x80 | (c & 0x3f));
+			}
+		}
+		b[pos++] = TupleUtil.nil;
+		length = pos;
+		return added();
+	}
+
+	/**
+	 * Writes a byte string element.
+	 *
+	 * @param b the bytes to write
+	 * @return this writer
+	 */
+	public TupleWriter add(byte[] b) {
+		if(b == null) {
+			return addNull();
+		}
+		return add(b, 0, b.length);
+	}
+
+	/**
+	 * Writes a region of an array as a byte string element.
+	 *
+	 * @param b the array holding the bytes to write
+	 * @param offset the offset of the bytes within {@code b}
+	 * @param length the number of bytes to write
+	 * @return this writer
+	 */
+	public TupleWriter add(byte[] b, int offset, int length) {
+		if(offset < 0 || length < 0 || offset > b.length - length) {
+			throw new IndexOutOfBoundsException("Invalid region of byte array");
+		}
+		// In the worst case, every byte is a null that has to be escaped
+		ensureCapacity(2 + 2 * length);
+		byte[] dest = buffer;
+		int pos = this.length;
+		dest[pos++] = TupleUtil.BYTES_CODE;
+		int end = offset + length;
+		int from = offset;
+		for(int i = offset; i < end; i++) {
+			if(b[i] == TupleUtil.nil) {
+				System.arraycopy(b, from, dest, pos, i + 1 - from);
+				pos += i + 1 - from;
+				dest[pos++] = ESCAPE;
+				from = i + 1;
+			}
+		}
+		System.arraycopy(b, from, dest, pos, end - from);
+		pos += end - from;
+		dest[pos++] = TupleUtil.nil;
+		this.length = pos;
+		return added();
+	}
+
+	/**
+	 * Writes an integer element.
+	 *
+	 * @param l the integer to write
+	 * @return this writer
+	 */
+	public TupleWriter add(long l) {
+		ensureCapacity(1 + Long.BYTES);
+		if(l == 0L) {
+			buffer[length++] = TupleUtil.INT_ZERO_CODE;
+			return added();
+		}
+		int n = TupleUtil.minimalByteCount(l);
+		// As in TupleUtil, negative values are written as the bytes of their one's complement
+		buffer[length++] = (byte)(TupleUtil.INT_ZERO_CODE + (l >= 0 ? n : -n));
+		long val = (l >= 0) ? l : (l - 1);
+		for(int shift = 8 * (n - 1); shift >= 0; shift -= 8) {
+			buffer[length++] = (byte)(val >> shift);
+		}
+		return added();
+	}
+
+	/**
+	 * Writes a {@code boolean} element.
+	 *
+	 * @param b the value to write
+	 * @return this writer
+	 */
+	public TupleWriter add(boolean b) {
+		ensureCapacity(1);
+		buffer[length++] = b ? TupleUtil.TRUE_CODE : TupleUtil.FALSE_CODE;
+		return added();
+	}
+
+	/**
+	 * Writes a {@code float} element.
+	 *
+	 * @param f the value to write
+	 * @return this writer
+	 */
+	public TupleWriter add(float f) {
+		ensureCapacity(1 + Float.BYTES);
+		buffer[length++] = TupleUtil.FLOAT_CODE;
+		putInt(TupleUtil.encodeFloatBits(f));
+		return added();
+	}
+
+	/**
+	 * Writes a {@code double} element.
+	 *
+	 * @param d the value to write
+	 * @return this writer
+	 */
+	public TupleWriter add(double d) {
+		ensureCapacity(1 + Double.BYTES);
+		buffer[length++] = TupleUtil.DOUBLE_CODE;
+		putLong(TupleUtil.encodeDoubleBits(d));
+		return added();
+	}
+
+	/**
+	 * Writes a {@link UUID} element.
+	 *
+	 * @param uuid the value to write
+	 * @return this writer
+	 */
+	public TupleWriter add(UUID uuid) {
+		if(uuid == null) {
+			return addNull();
+		}
+		ensureCapacity(1 + TupleUtil.UUID_BYTES);
+		buffer[length++] = TupleUtil.UUID_CODE;
+		putLong(uuid.getMostSignificantBits());
+		putLong(uuid.getLeastSignificantBits());
+		return added();
+	}
+
+	/**
+	 * Writes an element of any type supported by {@link Tuple}, including
+	 *  {@link BigInteger}s, {@link Versionstamp}s, nested {@link List}s and nested
+	 *  {@link Tuple}s. Types with a dedicated {@code add} method are written without
+	 *  allocating; other types are encoded as {@link Tuple#pack()} would encode them.
+	 *
+	 * @param o the element to write
+	 * @return this writer
+	 * @throws IllegalArgumentException if {@code o} is of an unsupported type, or if it
+	 *  would make this the second incomplete {@link Versionstamp} in the output
+	 */
+	public TupleWriter addObject(Object o) {
+		if(o == null)
+			return addNull();
+		else if(o instanceof String)
+			return add((String)o);
+		else if(o instanceof byte[])
+			return add((byte[])o);
+		else if(o instanceof Boolean)
+			return add(((Boolean)o).booleanValue());
+		else if(o instanceof Float)
+			return add(((Float)o).floatValue());
+		else if(o instanceof Double)
+			return add(((Double)o).doubleValue());
+		else if(o instanceof UUID)
+			return add((UUID)o);
+		else if(o instanceof Number && !(o instanceof BigInteger))
+			return add(((Number)o).longValue());
+
+		boolean nested = depth > 0;
+		int encodedSize = TupleUtil.getPackedSize(Collections.singletonList(o), nested);
+		ensureCapacity(encodedSize);
+		TupleUtil.EncodeState state = new TupleUtil.EncodeState(ByteBuffer.wrap(buffer, length, encodedSize));
+		TupleUtil.encode(state, o, nested);
+		if(state.versionPos >= 0) {
+			if(versionPos >= 0) {
+				throw new IllegalArgumentException("Multiple incomplete Versionstamps included in Tuple");
+			}
+			versionPos = length + state.versionPos;
+		}
+		length += state.totalLength;
+		return added();
+	}
+
+	/**
+	 * Starts writing a nested tuple. The elements written until the matching call to
+	 *  {@link #endNested()} are the elements of the nested tuple.
+	 *
+	 * @return this writer
+	 */
+	public TupleWriter beginNested() {
+		ensureCapacity(1);
+		buffer[length++] = TupleUtil.NESTED_CODE;
+		depth++;
+		return this;
+	}
+
+	/**
+	 * Finishes writing the nested tuple started by the last unmatched call to
+	 *  {@link #beginNested()}.
+	 *
+	 * @return this writer
+	 * @throws IllegalStateException if no nested tuple has been started
+	 */
+	public TupleWriter endNested() {
+		if(depth == 0) {
+			throw new IllegalStateException("No nested tuple to end");
+		}
+		ensureCapacity(1);
+		buffer[length++] = TupleUtil.nil;
+		depth--;
+		return added();
+	}
+
+	/**
+	 * Gets a copy of the bytes written so far, starting with the prefix. This is the same
+	 *  as the result of {@link Tuple#pack(byte[])} for the elements written.
+	 *
+	 * @return the packed elements preceded by the prefix
+	 * @throws IllegalArgumentException if an incomplete {@link Versionstamp} has been written
+	 * @throws IllegalStateException if a nested tuple has not been ended
+	 */
+	public byte[] pack() {
+		checkComplete();
+		if(versionPos >= 0) {
+			throw new IllegalArgumentException("Incomplete Versionstamp included in vanilla tuple pack");
+		}
+		return Arrays.copyOf(buffer, length);
+	}
+
+	/**
+	 * Gets a copy of the bytes written so far followed by the position of the incomplete
+	 *  {@link Versionstamp}, for use with
+	 *  {@link com.apple.foundationdb.MutationType#SET_VERSIONSTAMPED_KEY MutationType.SET_VERSIONSTAMPED_KEY}.
+	 *  This is the same as the result of {@link Tuple#packWithVersionstamp(byte[])} for the
+	 *  elements written.
+	 *
+	 * @return the packed elements preceded by the prefix and followed by the versionstamp position
+	 * @throws IllegalArgumentException if no incomplete {@link Versionstamp} has been written
+	 * @throws IllegalStateException if a nested tuple has not been ended
+	 */
+	public byte[] packWithVersionstamp() {
+		checkComplete();
+		if(versionPos < 0) {
+			throw new IllegalArgumentException("No incomplete Versionstamp included in tuple pack with versionstamp");
+		}
+		boolean oldFormat = TupleUtil.useOldVersionOffsetFormat();
+		if(oldFormat && versionPos > 0xffff) {
+			throw new IllegalArgumentException("Tuple has incomplete version at position " + versionPos + " which is greater than the maximum " + 0xffff);
+		}
+		ByteBuffer dest = ByteBuffer.allocate(length + (oldFormat ? Short.BYTES : Integer.BYTES));
+		dest.put(buffer, 0, length).order(ByteOrder.LITTLE_ENDIAN);
+		if(oldFormat) {
+			dest.putShort((short)versionPos);
+		}
+		else {
+			dest.putInt(versionPos);
+		}
+		return dest.array();
+	}
+
+	/**
+	 * Writes the bytes written so far, starting with the prefix, into a buffer.
+	 *
+	 * @param dest the buffer to write to
+	 * @throws java.nio.BufferOverflowException if {@code dest} does not have {@link #getPackedSize()} bytes remaining
+	 * @throws IllegalArgumentException if an incomplete {@link Versionstamp} has been written
+	 * @throws IllegalStateException if a nested tuple has not been ended
+	 */
+	public void packInto(ByteBuffer dest) {
+		checkComplete();
+		if(versionPos >= 0) {
+			throw new IllegalArgumentException("Incomplete Versionstamp included in vanilla tuple pack");
+		}
+		dest.put(buffer, 0, length);
+	}
+
+	private TupleWriter added() {
+		if(depth == 0) {
+			size++;
+		}
+		return this;
+	}
+
+	private void checkComplete() {
+		if(depth > 0) {
+			throw new IllegalStateException("Nested tuple has not been ended");
+		}
+	}
+
+	private void ensureCapacity(int needed) {
+		if(needed > buffer.length - length) {
+			long required = (long)length + needed;
+			if(required > Integer.MAX_VALUE - 8) {
+				throw new OutOfMemoryError("Tuple is too large to pack");
+			}
+			int newCapacity = (int)Math.min(Integer.MAX_VALUE - 8, Math.max(required, 2L * buffer.length));
+			buffer = Arrays.copyOf(buffer, newCapacity);
+		}
+	}
+
+	private void putInt(int i) {
+		buffer[length++] = (byte)(i >> 24);
+		buffer[length++] = (byte)(i >> 16);
+		buffer[length++] = (byte)(i >> 8);
+		buffer[length++] = (byte)i;
+	}
+
+	private void putLong(long l) {
+		putInt((int)(l >> 32));
+		putInt((int)l);
+	}
+}
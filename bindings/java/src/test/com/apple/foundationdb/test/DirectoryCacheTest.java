@@ -0,0 +1,136 @@
+/*
+ * DirectoryCacheTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2018 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+
+import com.apple.foundationdb.Database;
+import com.apple.foundationdb.FDB;
+import com.apple.foundationdb.ReadTransactionContext;
+import com.apple.foundationdb.Transaction;
+import com.apple.foundationdb.directory.DirectoryLayer;
+import com.apple.foundationdb.directory.NoSuchDirectoryException;
+import com.apple.foundationdb.subspace.Subspace;
+import com.apple.foundationdb.tuple.ByteArrayUtil;
+import com.apple.foundationdb.tuple.Tuple;
+
+/**
+ * Tests that directories cached by a {@link DirectoryLayer} are not returned once they
+ *  have been created, moved or removed by another client, or by the same transaction.
+ */
+public class DirectoryCacheTest {
+	private static final Subspace SUBSPACE = new Subspace(Tuple.from("test", "directory_cache"));
+	private static final Subspace NODES = SUBSPACE.get("nodes");
+	private static final Subspace CONTENTS = SUBSPACE.get("contents");
+
+	private static final List<String> A = Collections.singletonList("a");
+	private static final List<String> B = Collections.singletonList("b");
+	private static final List<String> C = Collections.singletonList("c");
+
+	public static void main(String[] args) {
+		FDB fdb = FDB.selectAPIVersion(620);
+		try(Database db = fdb.open()) {
+			db.run(tr -> {
+				tr.clear(SUBSPACE.range());
+				return null;
+			});
+
+			// Both layers count changes, as every client of a cached layer must
+			DirectoryLayer cached = new DirectoryLayer(NODES, CONTENTS, true);
+			cached.enableCache(true);
+			DirectoryLayer other = new DirectoryLayer(NODES, CONTENTS, true);
+			other.enableCache(true);
+
+			invalidatedByMove(db, cached, other);
+			invalidatedByCreate(db, cached, other);
+			invalidatedByRemove(db, cached, other);
+			notCachedFromSnapshot(db, cached, other);
+			System.out.println("Directory cache tests passed");
+		}
+	}
+
+	private static void invalidatedByMove(Database db, DirectoryLayer cached, DirectoryLayer other) {
+		byte[] prefix = cached.create(db, A).join().getKey();
+		checkPrefix(prefix, cached.open(db, A).join().getKey(), "cached open of a");
+
+		other.move(db, A, B).join();
+		checkMissing(db, cached, A, "a after it was moved");
+		checkPrefix(prefix, cached.open(db, B).join().getKey(), "b after a was moved to it");
+	}
+
+	private static void invalidatedByCreate(Database db, DirectoryLayer cached, DirectoryLayer other) {
+		byte[] prefix = other.create(db, A).join().getKey();
+		checkPrefix(prefix, cached.open(db, A).join().getKey(), "a after it was created again");
+	}
+
+	private static void invalidatedByRemove(Database db, DirectoryLayer cached, DirectoryLayer other) {
+		cached.open(db, A).join();
+		other.remove(db, A).join();
+		checkMissing(db, cached, A, "a after it was removed");
+	}
+
+	private static void notCachedFromSnapshot(Database db, DirectoryLayer cached, DirectoryLayer other) {
+		byte[] uncommitted = CONTENTS.pack(Tuple.from("uncommitted"));
+		byte[] committed = CONTENTS.pack(Tuple.from("committed"));
+
+		// A directory opened through the snapshot view of a transaction that changed the
+		// layer must not be cached, as the transaction may not commit
+		try(Transaction tr = db.createTransaction()) {
+			cached.create(tr, C, null, uncommitted).join();
+			checkPrefix(uncommitted, cached.open(tr.snapshot(), C).join().getKey(), "c in its creating transaction");
+			tr.cancel();
+		}
+
+		other.create(db, C, null, committed).join();
+		checkPrefix(committed, cached.open(db, C).join().getKey(), "c after an uncommitted creation");
+
+		// Nor should the snapshot view see entries cached before the transaction's own change
+		try(Transaction tr = db.createTransaction()) {
+			cached.remove(tr, C).join();
+			checkMissing(tr.snapshot(), cached, C, "c through the snapshot view after it was removed");
+			tr.cancel();
+		}
+	}
+
+	private static void checkPrefix(byte[] expected, byte[] actual, String description) {
+		if(!Arrays.equals(expected, actual)) {
+			throw new IllegalStateException("Wrong prefix for " + description + ": expected "
+					+ ByteArrayUtil.printable(expected) + ", got " + ByteArrayUtil.printable(actual));
+		}
+	}
+
+	private static void checkMissing(ReadTransactionContext tcx, DirectoryLayer layer, List<String> path, String description) {
+		try {
+			layer.open(tcx, path).join();
+			throw new IllegalStateException("Opened " + description);
+		}
+		catch(CompletionException e) {
+			if(!(e.getCause() instanceof NoSuchDirectoryException)) {
+				throw e;
+			}
+		}
+	}
+
+	private DirectoryCacheTest() {}
+}
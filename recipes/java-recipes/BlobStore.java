@@ -0,0 +1,482 @@
+/*
+ * BlobStore.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2018 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import com.apple.foundationdb.Database;
+import com.apple.foundationdb.FDB;
+import com.apple.foundationdb.KeyValue;
+import com.apple.foundationdb.subspace.Subspace;
+import com.apple.foundationdb.tuple.Tuple;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A store of named binary blobs of any size, built from the {@code MicroBlob} recipe.
+ *  Blobs are stored as raw chunks of bytes, and are written and read as streams.<br>
+ * <br>
+ * A blob is written across as many transactions as it needs, several of which are
+ *  committed at once, under an identifier of its own. Readers only see a blob once the
+ *  stream that wrote it has been closed, which commits a marker giving its identifier and
+ *  length, and removes the chunks of the blob it replaces. Each write also records when
+ *  it started under a pending marker, until it is committed. A writer that fails before
+ *  closing leaves its chunks and its marker behind, and these are removed either when the
+ *  blob is deleted or by {@link #removeAbandoned(long)} once the write is old enough to
+ *  have been given up on. A stream whose write has been removed in either way fails when it
+ *  is closed, rather than committing a blob with missing chunks.<br>
+ * <br>
+ * Reads fetch ranges of chunks in their own transactions, and keep a bounded number of
+ *  them in flight ahead of the position being read, so that no more than
+ *  {@code parallelism * chunksPerTransaction} chunks are held in memory at once. Streams
+ *  support seeking to any position. As a blob's chunks never change once written, a
+ *  stream sees the same blob throughout, unless the blob is replaced or deleted while it
+ *  is being read, in which case reading fails.
+ */
+public class BlobStore {
+	public static final int DEFAULT_CHUNK_SIZE = 16 * 1024;
+	public static final int DEFAULT_CHUNKS_PER_TRANSACTION = 64;
+	public static final int DEFAULT_PARALLELISM = 4;
+
+	// The largest value that the database will store
+	private static final int MAX_CHUNK_SIZE = 100_000;
+	// The limit on the size of a transaction, and an allowance for the key of each chunk
+	// and the other bytes that writing it adds to a transaction
+	private static final long TRANSACTION_SIZE_LIMIT = 10_000_000;
+	private static final int CHUNK_OVERHEAD = 200;
+
+	private final Database db;
+	private final Subspace data;
+	private final Subspace meta;
+	private final Subspace pending;
+	private final int chunkSize;
+	private final int chunksPerTransaction;
+	private final int parallelism;
+
+	public BlobStore(Database db, Subspace subspace) {
+		this(db, subspace, DEFAULT_CHUNK_SIZE, DEFAULT_CHUNKS_PER_TRANSACTION, DEFAULT_PARALLELISM);
+	}
+
+	// Chunks of a blob are written, and prefetched, chunksPerTransaction at a time,
+	// with up to parallelism transactions in flight.
+	public BlobStore(Database db, Subspace subspace, int chunkSize, int chunksPerTransaction, int parallelism) {
+		if(chunkSize < 1 || chunkSize > MAX_CHUNK_SIZE) {
+			throw new IllegalArgumentException("Chunk size must be between 1 and " + MAX_CHUNK_SIZE);
+		}
+		if(chunksPerTransaction < 1 || parallelism < 1) {
+			throw new IllegalArgumentException("Chunks per transaction and parallelism must be at least 1");
+		}
+		if((long)(chunkSize + CHUNK_OVERHEAD) * chunksPerTransaction > TRANSACTION_SIZE_LIMIT) {
+			throw new IllegalArgumentException("Chunks of " + chunkSize + " bytes, " + chunksPerTransaction
+					+ " at a time, exceed the limit of " + TRANSACTION_SIZE_LIMIT + " bytes on the size of a transaction");
+		}
+		this.db = db;
+		this.data = subspace.get("data");
+		this.meta = subspace.get("meta");
+		this.pending = subspace.get("pending");
+		this.chunkSize = chunkSize;
+		this.chunksPerTransaction = chunksPerTransaction;
+		this.parallelism = parallelism;
+	}
+
+	// Starts writing a blob, which replaces any blob of the same name once the stream is closed.
+	public OutputStream create(String name) {
+		return new BlobOutputStream(name);
+	}
+
+	// Opens a blob for reading.
+	public BlobInputStream open(String name) throws FileNotFoundException {
+		byte[] marker = db.read(tr -> tr.get(meta.pack(Tuple.from(name))).join());
+		if(marker == null) {
+			throw new FileNotFoundException("No blob named " + name);
+		}
+		Tuple t = Tuple.fromBytes(marker);
+		return new BlobInputStream(name, t.getUUID(0), t.getLong(1), (int)t.getLong(2));
+	}
+
+	// Removes a blob, along with the chunks of any writes to it that were never committed.
+	public void delete(String name) {
+		db.run(tr -> {
+			tr.clear(meta.pack(Tuple.from(name)));
+			tr.clear(data.range(Tuple.from(name)));
+			tr.clear(pending.range(Tuple.from(name)));
+			return null;
+		});
+	}
+
+	// Removes the chunks and pending markers of writes that started more than maxAgeMillis
+	// ago and have not been committed, and returns how many writes were removed. The age
+	// should be longer than any write takes, as a write that is removed while it is still
+	// in progress fails.
+	public int removeAbandoned(long maxAgeMillis) {
+		long cutoff = System.currentTimeMillis() - maxAgeMillis;
+		List<KeyValue> markers = db.read(tr -> tr.getRange(pending.range()).asList().join());
+		int removed = 0;
+		for(KeyValue marker : markers) {
+			if(Tuple.fromBytes(marker.getValue()).getLong(0) > cutoff) {
+				continue;
+			}
+			Tuple write = pending.unpack(marker.getKey());
+			boolean cleared = db.run(tr -> {
+				// The write may have been committed, or removed, since the markers were read
+				if(tr.get(marker.getKey()).join() == null) {
+					return false;
+				}
+				tr.clear(data.range(write));
+				tr.clear(marker.getKey());
+				return true;
+			});
+			if(cleared) {
+				removed++;
+			}
+		}
+		return removed;
+	}
+
+	public void write(String name, byte[] value) throws IOException {
+		try(OutputStream out = create(name)) {
+			out.write(value);
+		}
+	}
+
+	public byte[] read(String name) throws IOException {
+		try(BlobInputStream in = open(name)) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream((int)Math.min(in.length(), Integer.MAX_VALUE));
+			byte[] buffer = new byte[chunkSize];
+			int n;
+			while((n = in.read(buffer)) >= 0) {
+				out.write(buffer, 0, n);
+			}
+			return out.toByteArray();
+		}
+	}
+
+	private static IOException ioException(Throwable t) {
+		Throwable cause = t.getCause() != null ? t.getCause() : t;
+		return cause instanceof IOException ? (IOException)cause : new IOException(cause);
+	}
+
+	private class BlobOutputStream extends OutputStream {
+		private final String name;
+		private final UUID writeId = UUID.randomUUID();
+		private final long started = System.currentTimeMillis();
+		private final ArrayDeque<CompletableFuture<Void>> inFlight = new ArrayDeque<>();
+		private byte[] buffer = new byte[chunkSize * chunksPerTransaction];
+		private int filled = 0;
+		private long nextChunk = 0;
+		private long length = 0;
+		private boolean closed = false;
+
+		BlobOutputStream(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte)b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if(closed) {
+				throw new IOException("Stream is closed");
+			}
+			while(len > 0) {
+				int n = Math.min(len, buffer.length - filled);
+				System.arraycopy(b, off, buffer, filled, n);
+				filled += n;
+				length += n;
+				off += n;
+				len -= n;
+				if(filled == buffer.length) {
+					writeBuffer();
+				}
+			}
+		}
+
+		private void writeBuffer() throws IOException {
+			final byte[] full = buffer;
+			final int size = filled;
+			final long firstChunk = nextChunk;
+			final boolean first = firstChunk == 0;
+			CompletableFuture<Void> written = db.runAsync(tr -> {
+				// Mark the write as pending, so that it can be found if it is never committed
+				if(first) {
+					tr.set(pending.pack(Tuple.from(name, writeId)), Tuple.from(started).pack());
+				}
+				for(int i = 0; i * chunkSize < size; i++) {
+					tr.set(data.pack(Tuple.from(name, writeId, firstChunk + i)),
+							Arrays.copyOfRange(full, i * chunkSize, Math.min((i + 1) * chunkSize, size)));
+				}
+				return CompletableFuture.completedFuture(null);
+			});
+			inFlight.add(written);
+			nextChunk += (size + chunkSize - 1) / chunkSize;
+			buffer = new byte[buffer.length];
+			filled = 0;
+			while(inFlight.size() >= parallelism) {
+				await(inFlight.poll());
+			}
+		}
+
+		private void await(CompletableFuture<Void> f) throws IOException {
+			try {
+				f.join();
+			}
+			catch(RuntimeException e) {
+				closed = true;
+				throw ioException(e);
+			}
+		}
+
+		// Writes the remaining chunks and then commits the blob.
+		@Override
+		public void close() throws IOException {
+			if(closed) {
+				return;
+			}
+			if(filled > 0 || nextChunk == 0) {
+				writeBuffer();
+			}
+			while(!inFlight.isEmpty()) {
+				await(inFlight.poll());
+			}
+			closed = true;
+			boolean committed;
+			try {
+				committed = db.run(tr -> {
+					byte[] pendingKey = pending.pack(Tuple.from(name, writeId));
+					if(tr.get(pendingKey).join() == null) {
+						// The write was removed as abandoned, so clear any chunks written since
+						tr.clear(data.range(Tuple.from(name, writeId)));
+						return false;
+					}
+					byte[] metaKey = meta.pack(Tuple.from(name));
+					byte[] previous = tr.get(metaKey).join();
+					if(previous != null) {
+						tr.clear(data.range(Tuple.from(name, Tuple.fromBytes(previous).getUUID(0))));
+					}
+					tr.set(metaKey, Tuple.from(writeId, length, chunkSize).pack());
+					tr.clear(pendingKey);
+					return true;
+				});
+			}
+			catch(RuntimeException e) {
+				throw ioException(e);
+			}
+			if(!committed) {
+				throw new IOException("Write of blob " + name + " was removed as abandoned before it was committed");
+			}
+		}
+	}
+
+	public class BlobInputStream extends InputStream {
+		private final String name;
+		private final UUID writeId;
+		private final long length;
+		private final int blobChunkSize;
+		private final long chunkCount;
+
+		// Fetches of consecutive ranges of chunks, in order
+		private final ArrayDeque<Fetch> window = new ArrayDeque<>();
+		private long nextFetch = 0;
+
+		private long position = 0;
+		private byte[] chunk = null;
+		private long chunkStart = 0;
+		private boolean closed = false;
+
+		private class Fetch {
+			final long firstChunk;
+			final long count;
+			final CompletableFuture<List<KeyValue>> rows;
+
+			Fetch(long firstChunk, long count) {
+				this.firstChunk = firstChunk;
+				this.count = count;
+				this.rows = db.readAsync(tr -> tr.getRange(
+						data.pack(Tuple.from(name, writeId, firstChunk)),
+						data.pack(Tuple.from(name, writeId, firstChunk + count))).asList());
+			}
+		}
+
+		BlobInputStream(String name, UUID writeId, long length, int chunkSize) {
+			this.name = name;
+			this.writeId = writeId;
+			this.length = length;
+			this.blobChunkSize = chunkSize;
+			this.chunkCount = (length + chunkSize - 1) / chunkSize;
+		}
+
+		public long length() {
+			return length;
+		}
+
+		public long position() {
+			return position;
+		}
+
+		// Moves to a position in the blob, from which the next read will start.
+		public void seek(long newPosition) throws IOException {
+			if(closed) {
+				throw new IOException("Stream is closed");
+			}
+			if(newPosition < 0 || newPosition > length) {
+				throw new EOFException("Position " + newPosition + " is outside blob of length " + length);
+			}
+			position = newPosition;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long target = Math.max(position, Math.min(length, position + n));
+			long skipped = target - position;
+			seek(target);
+			return skipped;
+		}
+
+		@Override
+		public int available() {
+			if(chunk == null || position < chunkStart || position >= chunkStart + chunk.length) {
+				return 0;
+			}
+			return (int)(chunkStart + chunk.length - position);
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if(closed) {
+				throw new IOException("Stream is closed");
+			}
+			if(len == 0) {
+				return 0;
+			}
+			if(position >= length) {
+				return -1;
+			}
+			if(available() == 0) {
+				loadChunk(position / blobChunkSize);
+			}
+			int n = Math.min(len, available());
+			System.arraycopy(chunk, (int)(position - chunkStart), b, off, n);
+			position += n;
+			return n;
+		}
+
+		private void loadChunk(long index) throws IOException {
+			// Drop fetches that are behind the position, and start again if it is not ahead
+			while(!window.isEmpty() && window.peek().firstChunk + window.peek().count <= index) {
+				window.poll().rows.cancel(false);
+			}
+			if(window.isEmpty() || window.peek().firstChunk > index) {
+				cancelAll();
+				nextFetch = index;
+			}
+			while(window.size() < parallelism && nextFetch < chunkCount) {
+				long count = Math.min(chunksPerTransaction, chunkCount - nextFetch);
+				window.add(new Fetch(nextFetch, count));
+				nextFetch += count;
+			}
+
+			Fetch fetch = window.peek();
+			List<KeyValue> rows;
+			try {
+				rows = fetch.rows.join();
+			}
+			catch(RuntimeException e) {
+				throw ioException(e);
+			}
+			int offset = (int)(index - fetch.firstChunk);
+			if(rows.size() != fetch.count
+					|| data.unpack(rows.get(offset).getKey()).getLong(2) != index) {
+				throw new IOException("Blob " + name + " was replaced or deleted while it was being read");
+			}
+			chunk = rows.get(offset).getValue();
+			chunkStart = index * blobChunkSize;
+		}
+
+		private void cancelAll() {
+			for(Fetch fetch : window) {
+				fetch.rows.cancel(false);
+			}
+			window.clear();
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+			cancelAll();
+			chunk = null;
+		}
+	}
+
+	// Writes a blob, reads it back whole and at random positions, and reports the rates.
+	//
+	// Usage: BlobStore [megabytes]
+	public static void main(String[] args) throws IOException {
+		int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+
+		FDB fdb = FDB.selectAPIVersion(620);
+		try(Database db = fdb.open()) {
+			BlobStore store = new BlobStore(db, new Subspace(Tuple.from("B")));
+			byte[] value = new byte[megabytes * 1024 * 1024];
+			Random random = new Random(0);
+			random.nextBytes(value);
+
+			long start = System.nanoTime();
+			store.write("artifact", value);
+			double writeSeconds = (System.nanoTime() - start) / 1e9;
+
+			start = System.nanoTime();
+			byte[] read = store.read("artifact");
+			double readSeconds = (System.nanoTime() - start) / 1e9;
+			System.out.printf("Wrote %d MB at %.1f MB/s, read at %.1f MB/s, %s%n", megabytes,
+					megabytes / writeSeconds, megabytes / readSeconds, Arrays.equals(value, read) ? "matching" : "NOT matching");
+
+			try(BlobInputStream in = store.open("artifact")) {
+				byte[] b = new byte[100];
+				for(int i = 0; i < 100; i++) {
+					int pos = random.nextInt(value.length - b.length);
+					in.seek(pos);
+					int n = in.read(b);
+					if(!Arrays.equals(Arrays.copyOf(b, n), Arrays.copyOfRange(value, pos, pos + n))) {
+						System.out.println("Mismatch reading at " + pos);
+					}
+				}
+			}
+			store.delete("artifact");
+		}
+	}
+}
@@ -0,0 +1,387 @@
+/*
+ * HighContentionQueue.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2018 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import com.apple.foundationdb.Database;
+import com.apple.foundationdb.FDB;
+import com.apple.foundationdb.FDBException;
+import com.apple.foundationdb.KeyValue;
+import com.apple.foundationdb.MutationType;
+import com.apple.foundationdb.Range;
+import com.apple.foundationdb.Transaction;
+import com.apple.foundationdb.TransactionContext;
+import com.apple.foundationdb.subspace.Subspace;
+import com.apple.foundationdb.tuple.Tuple;
+import com.apple.foundationdb.tuple.Versionstamp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A queue layer that scales to many concurrent producers and consumers, unlike
+ *  {@code MicroQueue}, whose enqueue reads the last index and whose dequeue reads the
+ *  first item, so that every client conflicts with every other.<br>
+ * <br>
+ * Items are stored under versionstamped keys, so an enqueue does no reads at all and
+ *  never conflicts: items are ordered by the commit version of the transaction that
+ *  enqueued them, and then by their position within it.<br>
+ * <br>
+ * A dequeue first tries to take items from the head of the queue in a single
+ *  transaction. Its reads are snapshot reads, with a conflict only on the items it takes,
+ *  so it does not conflict with enqueues. If that transaction conflicts with another
+ *  consumer, or if other consumers are already waiting, the dequeue falls back to a staged
+ *  hand-off, as in the Python high contention queue. It registers itself as a waiter, and
+ *  every waiting consumer then tries to fulfill the outstanding waiters in order, handing
+ *  each one its own items in a single transaction. Only one such transaction succeeds at
+ *  a time, but each one serves a hundred waiters, and the consumers it serves find their
+ *  items already set aside for them rather than racing for the first one.<br>
+ * <br>
+ * Dequeues cannot be composed with other operations in a single transaction. If the
+ *  commit of a dequeue that takes items directly from the head has an unknown result,
+ *  the error is thrown rather than retried, since the items may already have been taken.
+ *  Items handed to a waiting consumer are taken exactly once.
+ */
+public class HighContentionQueue {
+	// The number of waiters handed items by one fulfilling transaction
+	private static final int FULFILL_BATCH = 100;
+	// The most items that one transaction can enqueue under a single versionstamp
+	private static final int MAX_ENQUEUE_BATCH = 0xffff;
+
+	private static final int NOT_COMMITTED = 1020;
+
+	private static final long MIN_BACKOFF_MILLIS = 10;
+	private static final long MAX_BACKOFF_MILLIS = 1000;
+
+	private static final byte[] PENDING = new byte[0];
+
+	private final Subspace subspace;
+	private final boolean highContention;
+	private final Subspace items;
+	private final Subspace waiters;
+	private final Subspace results;
+
+	/**
+	 * Creates a queue in the given subspace, in high contention mode.
+	 *
+	 * @param subspace the subspace in which to store the queue
+	 */
+	public HighContentionQueue(Subspace subspace) {
+		this(subspace, true);
+	}
+
+	/**
+	 * Creates a queue in the given subspace. In high contention mode, conflicting
+	 *  dequeues are fulfilled by a staged hand-off; otherwise a dequeue simply retries
+	 *  until it wins, which is faster with a single consumer.
+	 *
+	 * @param subspace the subspace in which to store the queue
+	 * @param highContention whether conflicting dequeues should wait to be handed items
+	 */
+	public HighContentionQueue(Subspace subspace, boolean highContention) {
+		this.subspace = subspace;
+		this.highContention = highContention;
+		this.items = subspace.get("item");
+		this.waiters = subspace.get("pop");
+		this.results = subspace.get("result");
+	}
+
+	// Removes all items from the queue, along with any waiting consumers.
+	public void clear(TransactionContext tcx) {
+		tcx.run(tr -> {
+			tr.clear(subspace.range());
+			return null;
+		});
+	}
+
+	// Adds an item to the end of the queue.
+	public void enqueue(TransactionContext tcx, byte[] value) {
+		enqueueAll(tcx, Collections.singletonList(value));
+	}
+
+	// Adds items to the end of the queue, in order, in one transaction.
+	public void enqueueAll(TransactionContext tcx, List<byte[]> values) {
+		if(values.size() > MAX_ENQUEUE_BATCH) {
+			throw new IllegalArgumentException("Cannot enqueue more than " + MAX_ENQUEUE_BATCH + " items at once");
+		}
+		// Distinguishes the items of this call from those of other calls in the same transaction
+		final long id = ThreadLocalRandom.current().nextLong();
+		tcx.run(tr -> {
+			for(int i = 0; i < values.size(); i++) {
+				tr.mutate(MutationType.SET_VERSIONSTAMPED_KEY,
+						items.packWithVersionstamp(Tuple.from(Versionstamp.incomplete(i), id)),
+						values.get(i));
+			}
+			return null;
+		});
+	}
+
+	// Tests whether the queue is empty.
+	public boolean isEmpty(TransactionContext tcx) {
+		return tcx.read(tr -> tr.getRange(items.range(), 1).asList().join().isEmpty());
+	}
+
+	// Removes the first item from the queue, or returns null if the queue is empty.
+	public byte[] dequeue(Database db) {
+		List<byte[]> values = dequeue(db, 1);
+		return values.isEmpty() ? null : values.get(0);
+	}
+
+	// Removes up to max items from the front of the queue, returning fewer only if the
+	// queue runs out.
+	public List<byte[]> dequeue(Database db, int max) {
+		if(max < 1) {
+			throw new IllegalArgumentException("Must dequeue at least one item");
+		}
+		if(!highContention) {
+			return db.run(tr -> takeFromHead(tr, max));
+		}
+
+		Transaction tr = db.createTransaction();
+		try {
+			// Consumers that are already waiting are served first
+			while(tr.snapshot().getRange(waiters.range(), 1).asList().join().isEmpty()) {
+				try {
+					List<byte[]> values = takeFromHead(tr, max);
+					tr.commit().join();
+					return values;
+				}
+				catch(RuntimeException e) {
+					FDBException err = unwrap(e);
+					if(err == null) {
+						throw e;
+					}
+					if(err.getCode() == NOT_COMMITTED) {
+						// Another consumer took the same items, so wait in line instead
+						break;
+					}
+					if(err.isMaybeCommitted()) {
+						// The items may already have been taken, and retrying would lose them
+						throw e;
+					}
+					tr = tr.onError(e).join();
+				}
+			}
+		}
+		finally {
+			tr.close();
+		}
+		return waitForItems(db, max);
+	}
+
+	private List<byte[]> takeFromHead(Transaction tr, int max) {
+		List<byte[]> values = new ArrayList<>();
+		for(KeyValue kv : tr.snapshot().getRange(items.range(), max).asList().join()) {
+			tr.addReadConflictKey(kv.getKey());
+			tr.clear(kv.getKey());
+			values.add(kv.getValue());
+		}
+		return values;
+	}
+
+	private List<byte[]> waitForItems(Database db, int max) {
+		// The marker is empty until this waiter is fulfilled, when it is set to the
+		// number of items it was handed
+		final UUID id = UUID.randomUUID();
+		final byte[] markerKey = results.pack(Tuple.from(id));
+		db.run(tr -> {
+			tr.mutate(MutationType.SET_VERSIONSTAMPED_KEY,
+					waiters.packWithVersionstamp(Tuple.from(Versionstamp.incomplete(0), id)),
+					Tuple.from(max).pack());
+			tr.set(markerKey, PENDING);
+			return null;
+		});
+
+		long backoff = MIN_BACKOFF_MILLIS;
+		while(true) {
+			while(!fulfillWaiters(db)) {
+				// Keep going while there may be more waiters ahead of this one
+			}
+
+			List<byte[]> values = collect(db, id, markerKey);
+			if(values != null) {
+				return values;
+			}
+
+			CompletableFuture<Void> watch = db.run(tr -> tr.watch(markerKey));
+			try {
+				watch.get(backoff, TimeUnit.MILLISECONDS);
+			}
+			catch(TimeoutException | ExecutionException e) {
+				watch.cancel(true);
+			}
+			catch(InterruptedException e) {
+				watch.cancel(true);
+				Thread.currentThread().interrupt();
+				throw new CompletionException(e);
+			}
+			backoff = Math.min(MAX_BACKOFF_MILLIS, backoff * 2);
+		}
+	}
+
+	// Takes the items handed to a waiter, or returns null if it has not been fulfilled.
+	private List<byte[]> collect(Database db, UUID id, byte[] markerKey) {
+		// The items taken by an attempt whose commit had an unknown result. Only this
+		// consumer clears its marker, so if the marker is then gone that attempt committed.
+		List<byte[]> uncertain = null;
+		Transaction tr = db.createTransaction();
+		try {
+			while(true) {
+				List<byte[]> values = null;
+				try {
+					byte[] marker = tr.get(markerKey).join();
+					if(marker == null && uncertain != null) {
+						return uncertain;
+					}
+					if(marker != null && marker.length == 0) {
+						return null;
+					}
+					Range handed = results.range(Tuple.from(id));
+					values = new ArrayList<>();
+					for(KeyValue kv : tr.getRange(handed).asList().join()) {
+						values.add(kv.getValue());
+					}
+					tr.clear(markerKey);
+					tr.clear(handed);
+					tr.commit().join();
+					return values;
+				}
+				catch(RuntimeException e) {
+					FDBException err = unwrap(e);
+					if(err != null && err.isMaybeCommitted() && values != null) {
+						uncertain = values;
+					}
+					tr = tr.onError(e).join();
+				}
+			}
+		}
+		finally {
+			tr.close();
+		}
+	}
+
+	// Hands items to the first waiters in line, returning true once no waiters remain
+	// or this consumer lost a race to another that was doing the same.
+	private boolean fulfillWaiters(Database db) {
+		Transaction tr = db.createTransaction();
+		try {
+			while(true) {
+				try {
+					boolean done = fulfillWaiters(tr);
+					tr.commit().join();
+					return done;
+				}
+				catch(RuntimeException e) {
+					FDBException err = unwrap(e);
+					if(err != null && err.getCode() == NOT_COMMITTED) {
+						// Some other consumer has probably just fulfilled the same waiters
+						return true;
+					}
+					tr = tr.onError(e).join();
+				}
+			}
+		}
+		finally {
+			tr.close();
+		}
+	}
+
+	private boolean fulfillWaiters(Transaction tr) {
+		List<KeyValue> pending = tr.snapshot().getRange(waiters.range(), FULFILL_BATCH).asList().join();
+		if(pending.isEmpty()) {
+			return true;
+		}
+
+		List<UUID> ids = new ArrayList<>(pending.size());
+		List<CompletableFuture<byte[]>> markers = new ArrayList<>(pending.size());
+		long wanted = 0;
+		for(KeyValue kv : pending) {
+			UUID id = waiters.unpack(kv.getKey()).getUUID(1);
+			ids.add(id);
+			markers.add(tr.snapshot().get(results.pack(Tuple.from(id))));
+			wanted += Tuple.fromBytes(kv.getValue()).getLong(0);
+		}
+		List<KeyValue> available = tr.snapshot().getRange(items.range(), (int)Math.min(wanted, Integer.MAX_VALUE)).asList().join();
+
+		Set<UUID> fulfilled = new HashSet<>();
+		int next = 0;
+		for(int i = 0; i < pending.size(); i++) {
+			byte[] waiterKey = pending.get(i).getKey();
+			tr.addReadConflictKey(waiterKey);
+			tr.clear(waiterKey);
+
+			// A waiter without a pending marker, or seen twice, was registered more than once
+			byte[] marker = markers.get(i).join();
+			if(marker == null || marker.length != 0 || !fulfilled.add(ids.get(i))) {
+				continue;
+			}
+
+			long count = Math.min(Tuple.fromBytes(pending.get(i).getValue()).getLong(0), available.size() - next);
+			for(int j = 0; j < count; j++) {
+				KeyValue item = available.get(next++);
+				tr.addReadConflictKey(item.getKey());
+				tr.clear(item.getKey());
+				tr.set(results.pack(Tuple.from(ids.get(i), j)), item.getValue());
+			}
+			tr.set(results.pack(Tuple.from(ids.get(i))), Tuple.from(count).pack());
+		}
+		return pending.size() < FULFILL_BATCH;
+	}
+
+	private static FDBException unwrap(Throwable t) {
+		while((t instanceof CompletionException || t instanceof ExecutionException) && t.getCause() != null) {
+			t = t.getCause();
+		}
+		return t instanceof FDBException ? (FDBException)t : null;
+	}
+
+	public static void main(String[] args) {
+		FDB fdb = FDB.selectAPIVersion(620);
+		try(Database db = fdb.open()) {
+			HighContentionQueue queue = new HighContentionQueue(new Subspace(Tuple.from("HCQ")));
+			queue.clear(db);
+
+			String[] line = {"Alice", "Bob", "Carol", "Dave", "Eve", "Frank", "George",
+							 "Harry", "Ian", "Jack", "Liz", "Mary", "Nathan"};
+			List<byte[]> values = new ArrayList<>();
+			for(String name : line) {
+				values.add(Tuple.from(name).pack());
+			}
+			queue.enqueueAll(db, values.subList(0, 3));
+			for(byte[] value : values.subList(3, values.size())) {
+				queue.enqueue(db, value);
+			}
+
+			byte[] value;
+			while((value = queue.dequeue(db)) != null) {
+				System.out.println(Tuple.fromBytes(value).getString(0));
+			}
+		}
+	}
+}
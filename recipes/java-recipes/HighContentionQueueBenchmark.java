@@ -0,0 +1,96 @@
+/*
+ * HighContentionQueueBenchmark.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2018 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import com.apple.foundationdb.Database;
+import com.apple.foundationdb.FDB;
+import com.apple.foundationdb.subspace.Subspace;
+import com.apple.foundationdb.tuple.Tuple;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Measures the throughput of HighContentionQueue as the number of producers and
+// consumers grows, with and without the staged hand-off of dequeues.
+//
+// Usage: HighContentionQueueBenchmark [itemsPerProducer [batchSize [maxClients]]]
+public class HighContentionQueueBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int itemsPerProducer = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+		int maxClients = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+
+		FDB fdb = FDB.selectAPIVersion(620);
+		try(Database db = fdb.open()) {
+			System.out.println("mode, producers, consumers, items, seconds, items/s");
+			for(boolean highContention : new boolean[] { false, true }) {
+				for(int clients = 1; clients <= maxClients; clients *= 2) {
+					run(db, highContention, clients, clients, itemsPerProducer, batchSize);
+				}
+			}
+		}
+	}
+
+	private static void run(Database db, boolean highContention, int producers, int consumers,
+							int itemsPerProducer, int batchSize) throws Exception {
+		HighContentionQueue queue = new HighContentionQueue(new Subspace(Tuple.from("HCQBench")), highContention);
+		queue.clear(db);
+
+		final long total = (long)producers * itemsPerProducer;
+		final AtomicLong consumed = new AtomicLong();
+		ExecutorService pool = Executors.newFixedThreadPool(producers + consumers);
+		List<Future<?>> tasks = new ArrayList<>();
+
+		long start = System.nanoTime();
+		for(int p = 0; p < producers; p++) {
+			final int producer = p;
+			tasks.add(pool.submit(() -> {
+				for(int i = 0; i < itemsPerProducer; i += batchSize) {
+					List<byte[]> values = new ArrayList<>();
+					for(int j = i; j < Math.min(i + batchSize, itemsPerProducer); j++) {
+						values.add(Tuple.from(producer, j).pack());
+					}
+					queue.enqueueAll(db, values);
+				}
+			}));
+		}
+		for(int c = 0; c < consumers; c++) {
+			tasks.add(pool.submit(() -> {
+				while(consumed.get() < total) {
+					consumed.addAndGet(queue.dequeue(db, batchSize).size());
+				}
+			}));
+		}
+		for(Future<?> task : tasks) {
+			task.get();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		pool.shutdown();
+
+		System.out.printf("%s, %d, %d, %d, %.3f, %.0f%n", highContention ? "high contention" : "simple",
+				producers, consumers, total, seconds, total / seconds);
+		queue.clear(db);
+	}
+}
@@ -0,0 +1,500 @@
+/*
+ * IndexBuilder.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2018 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import com.apple.foundationdb.Database;
+import com.apple.foundationdb.FDB;
+import com.apple.foundationdb.FDBException;
+import com.apple.foundationdb.KeyValue;
+import com.apple.foundationdb.ReadTransaction;
+import com.apple.foundationdb.Transaction;
+import com.apple.foundationdb.TransactionContext;
+import com.apple.foundationdb.subspace.Subspace;
+import com.apple.foundationdb.tuple.ByteArrayUtil;
+import com.apple.foundationdb.tuple.Tuple;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Builds a secondary index, like the one kept by {@code MicroIndexes}, over records that
+ *  already exist, without stopping writes to them.<br>
+ * <br>
+ * Writers change records through {@link #set(Transaction, byte[], byte[])} and
+ *  {@link #clear(Transaction, byte[])}, which read the state of the index in the same
+ *  transaction and maintain its entries once a build has started. Starting a build
+ *  therefore conflicts with every writer in flight, and every write committed after it
+ *  keeps the index up to date.<br>
+ * <br>
+ * The records that existed before are then backfilled in parallel. The range of records
+ *  is cut into chunks at the shard boundaries of the database, and each chunk is read in
+ *  transactions of a bounded number of rows, each of which writes the entries of the rows
+ *  it read and moves the chunk's cursor past them. The rows are read without snapshot
+ *  isolation, so a backfill that overlaps a concurrent write to one of its rows conflicts
+ *  and is retried. The cursors are kept in the database, so that a build that is stopped
+ *  can be resumed by calling {@link #build()} again, and so that several builders can work
+ *  on the same index without writing any chunk twice. Once every chunk has been read, the
+ *  index is marked readable.
+ */
+public class IndexBuilder {
+	public enum State { DISABLED, WRITE_ONLY, READABLE }
+
+	// Maps a record to the entries that it has in the index.
+	public interface IndexFunction {
+		List<KeyValue> entries(byte[] key, byte[] value);
+	}
+
+	public static final int DEFAULT_PARALLELISM = 8;
+	public static final int DEFAULT_ROWS_PER_TRANSACTION = 500;
+
+	private static final int TRANSACTION_TOO_OLD = 1007;
+	private static final int TRANSACTION_TOO_LARGE = 2101;
+
+	private final Database db;
+	private final Subspace records;
+	private final Subspace index;
+	private final Subspace chunks;
+	private final byte[] stateKey;
+	private final IndexFunction function;
+
+	private int parallelism = DEFAULT_PARALLELISM;
+	private int rowsPerTransaction = DEFAULT_ROWS_PER_TRANSACTION;
+	private double maxRowsPerSecond = 0;
+
+	// Throttle, guarded by this
+	private long nextAllowedNanos = 0;
+
+	private final AtomicLong chunksTotal = new AtomicLong();
+	private final AtomicLong chunksDone = new AtomicLong();
+	private final AtomicLong rowsScanned = new AtomicLong();
+	private final AtomicLong entriesWritten = new AtomicLong();
+	private final AtomicLong transactions = new AtomicLong();
+	private final AtomicLong retries = new AtomicLong();
+	private volatile long startNanos = System.nanoTime();
+
+	// The metadata subspace holds the state of the index and the cursors of a build.
+	public IndexBuilder(Database db, Subspace records, Subspace index, Subspace metadata, IndexFunction function) {
+		this.db = db;
+		this.records = records;
+		this.index = index;
+		this.chunks = metadata.get("chunk");
+		this.stateKey = metadata.pack(Tuple.from("state"));
+		this.function = function;
+	}
+
+	public IndexBuilder setParallelism(int parallelism) {
+		if(parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism must be at least 1");
+		}
+		this.parallelism = parallelism;
+		return this;
+	}
+
+	public IndexBuilder setRowsPerTransaction(int rows) {
+		if(rows < 1) {
+			throw new IllegalArgumentException("Rows per transaction must be at least 1");
+		}
+		this.rowsPerTransaction = rows;
+		return this;
+	}
+
+	// Limits the rate at which records are backfilled, or removes the limit if zero.
+	public IndexBuilder setMaxRowsPerSecond(double rate) {
+		if(rate < 0) {
+			throw new IllegalArgumentException("Rate cannot be negative");
+		}
+		this.maxRowsPerSecond = rate;
+		return this;
+	}
+
+	public State getState(ReadTransaction tr) {
+		byte[] state = tr.get(stateKey).join();
+		return state == null ? State.DISABLED : State.valueOf(Tuple.fromBytes(state).getString(0));
+	}
+
+	private void setState(Transaction tr, State state) {
+		tr.set(stateKey, Tuple.from(state.name()).pack());
+	}
+
+	// Writes a record, and its index entries if the index is being built or is built.
+	public void set(Transaction tr, byte[] key, byte[] value) {
+		if(getState(tr) != State.DISABLED) {
+			removeEntries(tr, key);
+			for(KeyValue entry : function.entries(key, value)) {
+				tr.set(entry.getKey(), entry.getValue());
+			}
+		}
+		tr.set(key, value);
+	}
+
+	// Clears a record, and its index entries if the index is being built or is built.
+	public void clear(Transaction tr, byte[] key) {
+		if(getState(tr) != State.DISABLED) {
+			removeEntries(tr, key);
+		}
+		tr.clear(key);
+	}
+
+	private void removeEntries(Transaction tr, byte[] key) {
+		byte[] old = tr.get(key).join();
+		if(old != null) {
+			for(KeyValue entry : function.entries(key, old)) {
+				tr.clear(entry.getKey());
+			}
+		}
+	}
+
+	// Drops the index and any build in progress.
+	public void disable(TransactionContext tcx) {
+		tcx.run(tr -> {
+			tr.clear(index.range());
+			tr.clear(chunks.range());
+			tr.clear(stateKey);
+			return null;
+		});
+	}
+
+	/**
+	 * Builds the index, or resumes a build that was stopped, and returns once it is
+	 *  readable. Only the chunks that this builder backfilled are counted in its progress.
+	 */
+	public Progress build() throws InterruptedException {
+		startNanos = System.nanoTime();
+		List<byte[]> boundaries = db.getShardMapCache().getBoundaryKeys(records.range().begin, records.range().end).join();
+		List<byte[]> pending = db.run(tr -> start(tr, boundaries));
+		chunksTotal.set(pending.size());
+
+		ConcurrentLinkedQueue<byte[]> queue = new ConcurrentLinkedQueue<>(pending);
+		ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+		try {
+			List<Future<?>> workers = new ArrayList<>();
+			for(int i = 0; i < parallelism; i++) {
+				workers.add(pool.submit(() -> {
+					byte[] chunk;
+					while((chunk = queue.poll()) != null) {
+						backfill(chunk);
+						chunksDone.incrementAndGet();
+					}
+					return null;
+				}));
+			}
+			for(Future<?> worker : workers) {
+				try {
+					worker.get();
+				}
+				catch(ExecutionException e) {
+					throw new RuntimeException(e.getCause());
+				}
+			}
+		}
+		finally {
+			pool.shutdownNow();
+		}
+
+		db.run(tr -> finish(tr));
+		return getProgress();
+	}
+
+	// Marks the index as being built and returns the begin keys of the chunks still to be read.
+	private List<byte[]> start(Transaction tr, List<byte[]> boundaries) {
+		State state = getState(tr);
+		if(state == State.READABLE) {
+			return Collections.emptyList();
+		}
+		if(state == State.DISABLED) {
+			tr.clear(index.range());
+			tr.clear(chunks.range());
+			List<byte[]> begins = new ArrayList<>();
+			begins.add(records.range().begin);
+			for(byte[] boundary : boundaries) {
+				if(ByteArrayUtil.compareUnsigned(boundary, begins.get(begins.size() - 1)) > 0
+						&& ByteArrayUtil.compareUnsigned(boundary, records.range().end) < 0) {
+					begins.add(boundary);
+				}
+			}
+			for(int i = 0; i < begins.size(); i++) {
+				byte[] end = i + 1 < begins.size() ? begins.get(i + 1) : records.range().end;
+				tr.set(chunks.pack(Tuple.from(begins.get(i))), Tuple.from(end, begins.get(i)).pack());
+			}
+			setState(tr, State.WRITE_ONLY);
+			return begins;
+		}
+
+		List<byte[]> begins = new ArrayList<>();
+		for(KeyValue kv : tr.getRange(chunks.range())) {
+			Tuple cursor = Tuple.fromBytes(kv.getValue());
+			if(ByteArrayUtil.compareUnsigned(cursor.getBytes(1), cursor.getBytes(0)) < 0) {
+				begins.add(chunks.unpack(kv.getKey()).getBytes(0));
+			}
+		}
+		return begins;
+	}
+
+	private void backfill(byte[] begin) throws InterruptedException {
+		final byte[] chunkKey = chunks.pack(Tuple.from(begin));
+		int limit = rowsPerTransaction;
+		boolean done = false;
+		while(!done) {
+			throttle(limit);
+			// The rows read and entries written by the transaction
+			final long[] counts = new long[2];
+			Transaction tr = db.createTransaction();
+			try {
+				while(true) {
+					try {
+						done = backfill(tr, chunkKey, limit, counts);
+						tr.commit().join();
+						break;
+					}
+					catch(RuntimeException e) {
+						// Transactions that are too slow or too large are retried with fewer
+						// rows, while conflicts with concurrent writers are retried as they are
+						FDBException err = unwrap(e);
+						if(err != null && (err.getCode() == TRANSACTION_TOO_OLD || err.getCode() == TRANSACTION_TOO_LARGE)) {
+							limit = Math.max(1, limit / 2);
+						}
+						tr = tr.onError(e).join();
+						retries.incrementAndGet();
+					}
+				}
+			}
+			finally {
+				tr.close();
+			}
+			rowsScanned.addAndGet(counts[0]);
+			entriesWritten.addAndGet(counts[1]);
+			transactions.incrementAndGet();
+			// Grow back towards the configured size once transactions commit again
+			limit = Math.min(rowsPerTransaction, limit * 2);
+		}
+	}
+
+	// Backfills the next rows of a chunk, returning true once the chunk has been read to its end.
+	private boolean backfill(Transaction tr, byte[] chunkKey, int limit, long[] counts) {
+		counts[0] = 0;
+		counts[1] = 0;
+
+		byte[] value = tr.get(chunkKey).join();
+		if(value == null) {
+			return true;
+		}
+		Tuple cursor = Tuple.fromBytes(value);
+		byte[] end = cursor.getBytes(0);
+		byte[] next = cursor.getBytes(1);
+		if(ByteArrayUtil.compareUnsigned(next, end) >= 0) {
+			return true;
+		}
+
+		List<KeyValue> rows = tr.getRange(next, end, limit).asList().join();
+		for(KeyValue row : rows) {
+			for(KeyValue entry : function.entries(row.getKey(), row.getValue())) {
+				tr.set(entry.getKey(), entry.getValue());
+				counts[1]++;
+			}
+		}
+		counts[0] = rows.size();
+		boolean last = rows.size() < limit;
+		if(!last) {
+			next = ByteArrayUtil.join(rows.get(rows.size() - 1).getKey(), new byte[] { 0x00 });
+		}
+		tr.set(chunkKey, Tuple.from(end, last ? end : next).pack());
+		return last;
+	}
+
+	private static FDBException unwrap(Throwable t) {
+		while((t instanceof CompletionException || t instanceof ExecutionException) && t.getCause() != null) {
+			t = t.getCause();
+		}
+		return t instanceof FDBException ? (FDBException)t : null;
+	}
+
+	// Marks the index readable once every chunk has been read to its end.
+	private Void finish(Transaction tr) {
+		if(getState(tr) != State.WRITE_ONLY) {
+			return null;
+		}
+		for(KeyValue kv : tr.getRange(chunks.range())) {
+			Tuple cursor = Tuple.fromBytes(kv.getValue());
+			if(ByteArrayUtil.compareUnsigned(cursor.getBytes(1), cursor.getBytes(0)) < 0) {
+				throw new IllegalStateException("Index build has unfinished chunks");
+			}
+		}
+		tr.clear(chunks.range());
+		setState(tr, State.READABLE);
+		return null;
+	}
+
+	private void throttle(int rows) throws InterruptedException {
+		long wait;
+		synchronized(this) {
+			if(maxRowsPerSecond <= 0) {
+				return;
+			}
+			long now = System.nanoTime();
+			nextAllowedNanos = Math.max(nextAllowedNanos, now);
+			wait = nextAllowedNanos - now;
+			nextAllowedNanos += (long)(rows * 1e9 / maxRowsPerSecond);
+		}
+		if(wait > 0) {
+			TimeUnit.NANOSECONDS.sleep(wait);
+		}
+	}
+
+	public Progress getProgress() {
+		return new Progress(chunksTotal.get(), chunksDone.get(), rowsScanned.get(), entriesWritten.get(),
+				transactions.get(), retries.get(), System.nanoTime() - startNanos);
+	}
+
+	public static class Progress {
+		public final long chunksTotal;
+		public final long chunksDone;
+		public final long rowsScanned;
+		public final long entriesWritten;
+		public final long transactions;
+		public final long retries;
+		public final long elapsedNanos;
+
+		Progress(long chunksTotal, long chunksDone, long rowsScanned, long entriesWritten,
+				 long transactions, long retries, long elapsedNanos) {
+			this.chunksTotal = chunksTotal;
+			this.chunksDone = chunksDone;
+			this.rowsScanned = rowsScanned;
+			this.entriesWritten = entriesWritten;
+			this.transactions = transactions;
+			this.retries = retries;
+			this.elapsedNanos = elapsedNanos;
+		}
+
+		public double getRowsPerSecond() {
+			return elapsedNanos == 0 ? 0.0 : rowsScanned * 1e9 / elapsedNanos;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d/%d chunks, %d rows, %d entries, %d transactions, %d retries, %.0f rows/s",
+					chunksDone, chunksTotal, rowsScanned, entriesWritten, transactions, retries, getRowsPerSecond());
+		}
+	}
+
+	// Builds a zipcode index over users stored without one, while another thread
+	// keeps moving users, and then checks the index against the users.
+	//
+	// Usage: IndexBuilder [users]
+	public static void main(String[] args) throws Exception {
+		int users = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+
+		FDB fdb = FDB.selectAPIVersion(620);
+		try(Database db = fdb.open()) {
+			Subspace main = new Subspace(Tuple.from("user"));
+			Subspace index = new Subspace(Tuple.from("zipcode_index"));
+			IndexBuilder builder = new IndexBuilder(db, main, index, new Subspace(Tuple.from("zipcode_index_build")),
+					(key, value) -> Collections.singletonList(new KeyValue(
+							index.pack(Tuple.from(Tuple.fromBytes(value).getString(1), main.unpack(key).getString(0))),
+							Tuple.from().pack())));
+			builder.disable(db);
+			db.run(tr -> {
+				tr.clear(main.range());
+				return null;
+			});
+
+			for(int i = 0; i < users; i += 1000) {
+				final int first = i;
+				db.run(tr -> {
+					for(int j = first; j < Math.min(first + 1000, users); j++) {
+						tr.set(main.pack(Tuple.from(String.format("%08d", j))), Tuple.from("user" + j, "zip" + (j % 100)).pack());
+					}
+					return null;
+				});
+			}
+
+			Thread writer = new Thread(() -> {
+				Random random = new Random();
+				while(!Thread.currentThread().isInterrupted()) {
+					int j = random.nextInt(users);
+					db.run(tr -> {
+						builder.set(tr, main.pack(Tuple.from(String.format("%08d", j))),
+								Tuple.from("user" + j, "zip" + random.nextInt(100)).pack());
+						return null;
+					});
+				}
+			});
+			writer.start();
+
+			Thread reporter = new Thread(() -> {
+				try {
+					while(true) {
+						Thread.sleep(1000);
+						System.out.println(builder.getProgress());
+					}
+				}
+				catch(InterruptedException e) {
+					// Build finished
+				}
+			});
+			reporter.start();
+
+			Progress progress = builder.build();
+			reporter.interrupt();
+			writer.interrupt();
+			writer.join();
+			System.out.println("Built: " + progress);
+
+			long mismatches = 0;
+			for(int i = 0; i < users; i += 1000) {
+				final byte[] first = main.pack(Tuple.from(String.format("%08d", i)));
+				final byte[] last = main.pack(Tuple.from(String.format("%08d", Math.min(i + 1000, users))));
+				mismatches += db.read(tr -> {
+					long count = 0;
+					for(KeyValue kv : tr.getRange(first, last)) {
+						byte[] entry = builder.function.entries(kv.getKey(), kv.getValue()).get(0).getKey();
+						if(tr.get(entry).join() == null) {
+							count++;
+						}
+					}
+					return count;
+				});
+			}
+			// Each user has one entry, so any more are stale
+			long entries = 0;
+			byte[] begin = index.range().begin;
+			while(true) {
+				final byte[] from = begin;
+				List<KeyValue> page = db.read(tr -> tr.getRange(from, index.range().end, 10_000).asList().join());
+				entries += page.size();
+				if(page.size() < 10_000) {
+					break;
+				}
+				begin = ByteArrayUtil.join(page.get(page.size() - 1).getKey(), new byte[] { 0x00 });
+			}
+			System.out.println("State " + db.read(builder::getState) + ", " + mismatches + " of " + users
+					+ " users missing from the index, " + (entries - users + mismatches) + " stale entries");
+		}
+	}
+}
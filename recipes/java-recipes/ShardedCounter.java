@@ -0,0 +1,249 @@
+/*
+ * ShardedCounter.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2018 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import com.apple.foundationdb.Database;
+import com.apple.foundationdb.FDB;
+import com.apple.foundationdb.KeyValue;
+import com.apple.foundationdb.MutationType;
+import com.apple.foundationdb.ReadTransaction;
+import com.apple.foundationdb.ReadTransactionContext;
+import com.apple.foundationdb.TransactionContext;
+import com.apple.foundationdb.subspace.Subspace;
+import com.apple.foundationdb.tuple.ByteArrayUtil;
+import com.apple.foundationdb.tuple.Tuple;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Counters that can be incremented by many clients at once, unlike the counts of
+ *  {@code MicroMulti}, whose decrements read the counter and so conflict with every other
+ *  change to it.<br>
+ * <br>
+ * Each counter is spread across a number of shard keys, and every increment or decrement
+ *  is an {@code ADD} mutation of one shard chosen at random. Changes never read anything,
+ *  so they never conflict, and the load of a busy counter is spread across its shards
+ *  rather than falling on a single key. The shards of a counter are adjacent, so its value
+ *  is read by summing them with a single range read.<br>
+ * <br>
+ * Shards that have been written are left in place, so a counter that is changed rarely
+ *  can be compacted, moving the values of its other shards into its first shard. This is
+ *  done with {@code ADD} mutations too, from snapshot reads, so compaction does not
+ *  conflict with concurrent changes either.
+ */
+public class ShardedCounter {
+	public static final int DEFAULT_SHARDS = 16;
+
+	// The values of shards in compaction are read this many at a time
+	private static final int COMPACT_BATCH = 1000;
+
+	private static final byte[] ONE = encode(1L);
+	private static final byte[] MINUS_ONE = encode(-1L);
+	private static final byte[] ZERO = encode(0L);
+
+	private final Subspace counters;
+	private final int shards;
+
+	public ShardedCounter(Subspace counters) {
+		this(counters, DEFAULT_SHARDS);
+	}
+
+	public ShardedCounter(Subspace counters, int shards) {
+		if(shards < 1) {
+			throw new IllegalArgumentException("Counters must have at least one shard");
+		}
+		this.counters = counters;
+		this.shards = shards;
+	}
+
+	// Encodes a value as the eight little-endian bytes expected by ADD.
+	private static byte[] encode(long value) {
+		byte[] b = new byte[8];
+		for(int i = 0; i < 8; i++) {
+			b[i] = (byte)(value >>> (8 * i));
+		}
+		return b;
+	}
+
+	private static long decode(byte[] b) {
+		long value = 0;
+		for(int i = Math.min(b.length, 8) - 1; i >= 0; i--) {
+			value = (value << 8) | (b[i] & 0xff);
+		}
+		return value;
+	}
+
+	private byte[] shardKey(String name, int shard) {
+		return counters.pack(Tuple.from(name, shard));
+	}
+
+	public void add(TransactionContext tcx, String name, long amount) {
+		final byte[] param = amount == 1 ? ONE : amount == -1 ? MINUS_ONE : encode(amount);
+		tcx.run(tr -> {
+			tr.mutate(MutationType.ADD, shardKey(name, ThreadLocalRandom.current().nextInt(shards)), param);
+			return null;
+		});
+	}
+
+	public void increment(TransactionContext tcx, String name) {
+		add(tcx, name, 1);
+	}
+
+	public void decrement(TransactionContext tcx, String name) {
+		add(tcx, name, -1);
+	}
+
+	public long get(ReadTransactionContext tcx, String name) {
+		return tcx.readAsync(tr -> getAsync(tr, name)).join();
+	}
+
+	// Reads a counter without conflicting with changes to it, for use in transactions
+	// that also write.
+	public long getSnapshot(ReadTransaction tr, String name) {
+		return getAsync(tr.snapshot(), name).join();
+	}
+
+	private CompletableFuture<Long> getAsync(ReadTransaction tr, String name) {
+		return tr.getRange(counters.range(Tuple.from(name))).asList().thenApply(shardValues -> {
+			long total = 0;
+			for(KeyValue kv : shardValues) {
+				total += decode(kv.getValue());
+			}
+			return total;
+		});
+	}
+
+	public void clear(TransactionContext tcx, String name) {
+		tcx.run(tr -> {
+			tr.clear(counters.range(Tuple.from(name)));
+			return null;
+		});
+	}
+
+	// Moves the values of the shards of every counter into each counter's first
+	// shard, and clears the shards left at zero.
+	public void compact(Database db) {
+		byte[] begin = counters.range().begin;
+		byte[] end = counters.range().end;
+		while(true) {
+			final byte[] from = begin;
+			byte[] last = db.run(tr -> {
+				List<KeyValue> shardValues = tr.snapshot().getRange(from, end, COMPACT_BATCH).asList().join();
+				for(KeyValue kv : shardValues) {
+					Tuple key = counters.unpack(kv.getKey());
+					long value = decode(kv.getValue());
+					if(key.getLong(1) != 0 && value != 0) {
+						tr.mutate(MutationType.ADD, kv.getKey(), encode(-value));
+						tr.mutate(MutationType.ADD, shardKey(key.getString(0), 0), encode(value));
+					}
+					if(key.getLong(1) != 0) {
+						tr.mutate(MutationType.COMPARE_AND_CLEAR, kv.getKey(), ZERO);
+					}
+				}
+				return shardValues.size() < COMPACT_BATCH ? null : shardValues.get(shardValues.size() - 1).getKey();
+			});
+			if(last == null) {
+				return;
+			}
+			begin = ByteArrayUtil.join(last, new byte[] { 0x00 });
+		}
+	}
+
+	// Compacts the counters every interval, until the returned future is cancelled.
+	// A pass that fails is reported on standard error, and the next pass still runs.
+	public ScheduledFuture<?> startCompaction(Database db, ScheduledExecutorService scheduler, long interval, TimeUnit unit) {
+		return startCompaction(db, scheduler, interval, unit, e -> {
+			System.err.println("Compaction of " + ByteArrayUtil.printable(counters.getKey()) + " failed: " + e);
+		});
+	}
+
+	// Compacts the counters every interval, until the returned future is cancelled,
+	// passing the error of any failed pass to onError. A failed pass does not stop
+	// the passes after it.
+	public ScheduledFuture<?> startCompaction(Database db, ScheduledExecutorService scheduler, long interval, TimeUnit unit,
+			Consumer<? super RuntimeException> onError) {
+		return scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				compact(db);
+			}
+			catch(RuntimeException e) {
+				onError.accept(e);
+			}
+		}, interval, interval, unit);
+	}
+
+	// Measures the rate of increments to a single counter from many threads, for a
+	// growing number of shards, and checks the count after compaction.
+	//
+	// Usage: ShardedCounter [threads [seconds]]
+	public static void main(String[] args) throws Exception {
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		FDB fdb = FDB.selectAPIVersion(620);
+		try(Database db = fdb.open()) {
+			Subspace subspace = new Subspace(Tuple.from("C"));
+			ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+			System.out.println("shards, increments, increments/s, count after compaction");
+			for(int shards = 1; shards <= 64; shards *= 2) {
+				ShardedCounter counter = new ShardedCounter(subspace, shards);
+				counter.clear(db, "hot");
+
+				AtomicBoolean running = new AtomicBoolean(true);
+				AtomicLong increments = new AtomicLong();
+				List<Thread> workers = new ArrayList<>();
+				for(int i = 0; i < threads; i++) {
+					Thread worker = new Thread(() -> {
+						while(running.get()) {
+							counter.increment(db, "hot");
+							increments.incrementAndGet();
+						}
+					});
+					worker.start();
+					workers.add(worker);
+				}
+				ScheduledFuture<?> compaction = counter.startCompaction(db, scheduler, 1, TimeUnit.SECONDS);
+
+				Thread.sleep(seconds * 1000L);
+				running.set(false);
+				for(Thread worker : workers) {
+					worker.join();
+				}
+				compaction.cancel(false);
+				counter.compact(db);
+
+				System.out.printf("%d, %d, %.0f, %d%n", shards, increments.get(),
+						increments.get() / (double)seconds, counter.get(db, "hot"));
+			}
+			scheduler.shutdown();
+		}
+	}
+}
@@ -0,0 +1,324 @@
+/*
+ * SpatialIndex.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2018 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import com.apple.foundationdb.Database;
+import com.apple.foundationdb.FDB;
+import com.apple.foundationdb.KeyValue;
+import com.apple.foundationdb.ReadTransaction;
+import com.apple.foundationdb.ReadTransactionContext;
+import com.apple.foundationdb.Transaction;
+import com.apple.foundationdb.TransactionContext;
+import com.apple.foundationdb.async.AsyncUtil;
+import com.apple.foundationdb.subspace.Subspace;
+import com.apple.foundationdb.tuple.Tuple;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A spatial index of labelled points, built from the {@code MicroSpatialTest} recipe.
+ *  As in the recipe, each point is stored under its Z-order (Morton) code, which
+ *  interleaves the bits of its coordinates, so that points near each other tend to be
+ *  stored near each other. Coordinates are integers from 0 to {@link #MAX_COORDINATE}.<br>
+ * <br>
+ * Points within a rectangle are found by decomposing the rectangle into the ranges of
+ *  Z-codes of the aligned squares of a quadtree that cover it. Squares wholly inside the
+ *  rectangle are read exactly, and squares that are only partly inside are split into
+ *  quarters, in turn, for as long as the number of ranges stays within the index's
+ *  precision. Any squares still partly inside are then read whole, and their points
+ *  outside the rectangle are dropped. A higher precision reads fewer points outside the
+ *  rectangle, at the cost of more, smaller reads. All the ranges of a query are read
+ *  concurrently.
+ */
+public class SpatialIndex {
+	// Coordinates are limited to 31 bits, so that Z-codes are non-negative longs and
+	// sort in the same order as their tuple encodings
+	public static final long MAX_COORDINATE = (1L << 31) - 1;
+
+	public static final int DEFAULT_MAX_RANGES = 32;
+
+	private static final byte[] EMPTY = Tuple.from().pack();
+
+	private final Subspace labelZ;
+	private final Subspace zLabel;
+	private final int maxRanges;
+
+	public static class Location {
+		public final String label;
+		public final long x;
+		public final long y;
+
+		Location(String label, long x, long y) {
+			this.label = label;
+			this.x = x;
+			this.y = y;
+		}
+
+		@Override
+		public String toString() {
+			return label + "@(" + x + "," + y + ")";
+		}
+	}
+
+	public SpatialIndex(Subspace subspace) {
+		this(subspace, DEFAULT_MAX_RANGES);
+	}
+
+	// The precision is the most ranges that a query is decomposed into.
+	public SpatialIndex(Subspace subspace, int maxRanges) {
+		if(maxRanges < 1) {
+			throw new IllegalArgumentException("Queries must be allowed at least one range");
+		}
+		this.labelZ = subspace.get("L");
+		this.zLabel = subspace.get("Z");
+		this.maxRanges = maxRanges;
+	}
+
+	// Spreads the low 32 bits of v into the even bits of the result.
+	private static long spread(long v) {
+		v &= 0x00000000ffffffffL;
+		v = (v | (v << 16)) & 0x0000ffff0000ffffL;
+		v = (v | (v << 8)) & 0x00ff00ff00ff00ffL;
+		v = (v | (v << 4)) & 0x0f0f0f0f0f0f0f0fL;
+		v = (v | (v << 2)) & 0x3333333333333333L;
+		v = (v | (v << 1)) & 0x5555555555555555L;
+		return v;
+	}
+
+	// Gathers the even bits of v into the low 32 bits of the result.
+	private static long compact(long v) {
+		v &= 0x5555555555555555L;
+		v = (v | (v >>> 1)) & 0x3333333333333333L;
+		v = (v | (v >>> 2)) & 0x0f0f0f0f0f0f0f0fL;
+		v = (v | (v >>> 4)) & 0x00ff00ff00ff00ffL;
+		v = (v | (v >>> 8)) & 0x0000ffff0000ffffL;
+		v = (v | (v >>> 16)) & 0x00000000ffffffffL;
+		return v;
+	}
+
+	// Interleaves the bits of x and y, with those of x in the even positions.
+	public static long xyToZ(long x, long y) {
+		return spread(x) | (spread(y) << 1);
+	}
+
+	public static long[] zToXy(long z) {
+		return new long[] { compact(z), compact(z >>> 1) };
+	}
+
+	private static void checkCoordinate(long c) {
+		if(c < 0 || c > MAX_COORDINATE) {
+			throw new IllegalArgumentException("Coordinate " + c + " is outside 0 to " + MAX_COORDINATE);
+		}
+	}
+
+	public void setLocation(TransactionContext tcx, final String label, final long x, final long y) {
+		checkCoordinate(x);
+		checkCoordinate(y);
+		tcx.run(tr -> {
+			long z = xyToZ(x, y);
+			for(KeyValue kv : tr.getRange(labelZ.range(Tuple.from(label)), 1)) {
+				long previous = labelZ.unpack(kv.getKey()).getLong(1);
+				tr.clear(labelZ.pack(Tuple.from(label, previous)));
+				tr.clear(zLabel.pack(Tuple.from(previous, label)));
+			}
+			tr.set(labelZ.pack(Tuple.from(label, z)), EMPTY);
+			tr.set(zLabel.pack(Tuple.from(z, label)), EMPTY);
+			return null;
+		});
+	}
+
+	// Returns the location of the label, or null if it has none.
+	public Location getLocation(ReadTransactionContext tcx, final String label) {
+		return tcx.read(tr -> {
+			for(KeyValue kv : tr.getRange(labelZ.range(Tuple.from(label)), 1)) {
+				long[] p = zToXy(labelZ.unpack(kv.getKey()).getLong(1));
+				return new Location(label, p[0], p[1]);
+			}
+			return null;
+		});
+	}
+
+	public void removeLocation(TransactionContext tcx, final String label) {
+		tcx.run(tr -> {
+			for(KeyValue kv : tr.getRange(labelZ.range(Tuple.from(label)))) {
+				long z = labelZ.unpack(kv.getKey()).getLong(1);
+				tr.clear(zLabel.pack(Tuple.from(z, label)));
+			}
+			tr.clear(labelZ.range(Tuple.from(label)));
+			return null;
+		});
+	}
+
+	// Returns the points within the rectangle, inclusive of its edges, in Z order.
+	public List<Location> query(ReadTransactionContext tcx, long minX, long minY, long maxX, long maxY) {
+		return tcx.readAsync(tr -> queryAsync(tr, minX, minY, maxX, maxY)).join();
+	}
+
+	public CompletableFuture<List<Location>> queryAsync(ReadTransaction tr, long minX, long minY, long maxX, long maxY) {
+		List<CompletableFuture<List<KeyValue>>> reads = new ArrayList<>();
+		for(long[] range : decompose(minX, minY, maxX, maxY, maxRanges)) {
+			reads.add(tr.getRange(zLabel.pack(Tuple.from(range[0])), zLabel.pack(Tuple.from(range[1]))).asList());
+		}
+		return AsyncUtil.getAll(reads).thenApply(results -> {
+			List<Location> found = new ArrayList<>();
+			for(List<KeyValue> result : results) {
+				for(KeyValue kv : result) {
+					Tuple t = zLabel.unpack(kv.getKey());
+					long[] p = zToXy(t.getLong(0));
+					if(p[0] >= minX && p[0] <= maxX && p[1] >= minY && p[1] <= maxY) {
+						found.add(new Location(t.getString(1), p[0], p[1]));
+					}
+				}
+			}
+			return found;
+		});
+	}
+
+	/**
+	 * Decomposes a rectangle into at most {@code maxRanges} ranges of Z-codes, in order,
+	 *  that together cover it. Each range is returned as its inclusive start and exclusive
+	 *  end, and no two ranges are adjacent.
+	 */
+	static List<long[]> decompose(long minX, long minY, long maxX, long maxY, int maxRanges) {
+		checkCoordinate(minX);
+		checkCoordinate(minY);
+		checkCoordinate(maxX);
+		checkCoordinate(maxY);
+		if(minX > maxX || minY > maxY) {
+			throw new IllegalArgumentException("Rectangle has a minimum corner beyond its maximum");
+		}
+
+		// Start from the smallest square of the quadtree that contains the rectangle
+		long zMin = xyToZ(minX, minY);
+		long zMax = xyToZ(maxX, maxY);
+		int level = (64 - Long.numberOfLeadingZeros(zMin ^ zMax) + 1) / 2;
+		List<long[]> cells = new ArrayList<>();
+		cells.add(new long[] { level == 0 ? zMin : zMin & -(1L << (2 * level)), level });
+
+		// Split the squares that are only partly inside, a level at a time, while the
+		// ranges still fit; cells are kept in Z order throughout
+		while(true) {
+			List<long[]> next = new ArrayList<>();
+			boolean split = false;
+			for(long[] cell : cells) {
+				int cellLevel = (int)cell[1];
+				if(cellLevel == 0 || contains(cell, minX, minY, maxX, maxY)) {
+					next.add(cell);
+					continue;
+				}
+				long quarter = 1L << (2 * (cellLevel - 1));
+				for(int i = 0; i < 4; i++) {
+					long[] child = { cell[0] + i * quarter, cellLevel - 1 };
+					if(intersects(child, minX, minY, maxX, maxY)) {
+						next.add(child);
+					}
+				}
+				split = true;
+			}
+			if(!split || merge(next).size() > maxRanges) {
+				break;
+			}
+			cells = next;
+		}
+		return merge(cells);
+	}
+
+	private static boolean contains(long[] cell, long minX, long minY, long maxX, long maxY) {
+		long[] p = zToXy(cell[0]);
+		long side = 1L << cell[1];
+		return p[0] >= minX && p[0] + side - 1 <= maxX && p[1] >= minY && p[1] + side - 1 <= maxY;
+	}
+
+	private static boolean intersects(long[] cell, long minX, long minY, long maxX, long maxY) {
+		long[] p = zToXy(cell[0]);
+		long side = 1L << cell[1];
+		return p[0] <= maxX && p[0] + side - 1 >= minX && p[1] <= maxY && p[1] + side - 1 >= minY;
+	}
+
+	// Joins cells whose ranges of Z-codes are adjacent.
+	private static List<long[]> merge(List<long[]> cells) {
+		List<long[]> ranges = new ArrayList<>();
+		long[] last = null;
+		for(long[] cell : cells) {
+			long begin = cell[0];
+			long end = cell[0] + (1L << (2 * cell[1]));
+			if(last != null && last[1] == begin) {
+				last[1] = end;
+			}
+			else {
+				last = new long[] { begin, end };
+				ranges.add(last);
+			}
+		}
+		return ranges;
+	}
+
+	public void clear(TransactionContext tcx) {
+		tcx.run(tr -> {
+			tr.clear(labelZ.range());
+			tr.clear(zLabel.range());
+			return null;
+		});
+	}
+
+	// Loads random points and times queries of growing size at several precisions.
+	//
+	// Usage: SpatialIndex [points [side]]
+	public static void main(String[] args) {
+		int points = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+		long side = args.length > 1 ? Long.parseLong(args[1]) : 1_000_000;
+
+		FDB fdb = FDB.selectAPIVersion(620);
+		try(Database db = fdb.open()) {
+			Subspace subspace = new Subspace(Tuple.from("S"));
+			SpatialIndex index = new SpatialIndex(subspace);
+			index.clear(db);
+
+			Random random = new Random(0);
+			for(int i = 0; i < points; i += 1000) {
+				final int first = i;
+				db.run(tr -> {
+					for(int j = first; j < Math.min(first + 1000, points); j++) {
+						index.setLocation(tr, "p" + j, (long)(random.nextDouble() * side), (long)(random.nextDouble() * side));
+					}
+					return null;
+				});
+			}
+
+			System.out.println("precision, query side, ranges, points found, millis");
+			for(int precision : new int[] { 1, 4, 16, 64 }) {
+				SpatialIndex q = new SpatialIndex(subspace, precision);
+				for(long querySide = side / 1000; querySide <= side / 10; querySide *= 10) {
+					long x = side / 3;
+					long y = side / 2;
+					long start = System.nanoTime();
+					List<Location> found = q.query(db, x, y, x + querySide, y + querySide);
+					long millis = (System.nanoTime() - start) / 1_000_000;
+					System.out.println(precision + ", " + querySide + ", "
+							+ decompose(x, y, x + querySide, y + querySide, precision).size() + ", "
+							+ found.size() + ", " + millis);
+				}
+			}
+		}
+	}
+}
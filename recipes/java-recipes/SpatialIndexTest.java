@@ -0,0 +1,150 @@
+/*
+ * SpatialIndexTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2018 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks the decomposition of rectangles into ranges of Z-codes by {@link SpatialIndex},
+ *  which needs no database. For random rectangles and precisions it checks that the
+ *  ranges are in order and within the precision, that they cover every point of the
+ *  rectangle, and that each of them holds some point of the rectangle. With unlimited
+ *  precision, it checks that the ranges hold exactly the points of the rectangle.
+ */
+public class SpatialIndexTest {
+	private static final int[] PRECISIONS = { 1, 2, 4, 32, Integer.MAX_VALUE };
+
+	private static void check(boolean condition, String message, long minX, long minY, long maxX, long maxY, int maxRanges) {
+		if(!condition) {
+			throw new IllegalStateException(message + " for (" + minX + ", " + minY + ") to ("
+					+ maxX + ", " + maxY + ") with at most " + maxRanges + " ranges");
+		}
+	}
+
+	private static boolean inside(long z, long minX, long minY, long maxX, long maxY) {
+		long[] p = SpatialIndex.zToXy(z);
+		return p[0] >= minX && p[0] <= maxX && p[1] >= minY && p[1] <= maxY;
+	}
+
+	private static boolean covered(List<long[]> ranges, long z) {
+		int low = 0;
+		int high = ranges.size() - 1;
+		while(low <= high) {
+			int mid = (low + high) >>> 1;
+			long[] range = ranges.get(mid);
+			if(z < range[0]) {
+				high = mid - 1;
+			}
+			else if(z >= range[1]) {
+				low = mid + 1;
+			}
+			else {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Checks a rectangle small enough for each of its points to be visited
+	private static void checkRectangle(long minX, long minY, long maxX, long maxY, int maxRanges, boolean enumerateRanges) {
+		List<long[]> ranges = SpatialIndex.decompose(minX, minY, maxX, maxY, maxRanges);
+		check(!ranges.isEmpty() && ranges.size() <= maxRanges, "Wrong number of ranges", minX, minY, maxX, maxY, maxRanges);
+
+		long total = 0;
+		for(int i = 0; i < ranges.size(); i++) {
+			long[] range = ranges.get(i);
+			check(range[0] < range[1], "Empty range", minX, minY, maxX, maxY, maxRanges);
+			check(i == 0 || ranges.get(i - 1)[1] < range[0], "Ranges out of order or adjacent", minX, minY, maxX, maxY, maxRanges);
+			total += range[1] - range[0];
+
+			if(enumerateRanges) {
+				boolean any = false;
+				for(long z = range[0]; z < range[1] && !any; z++) {
+					any = inside(z, minX, minY, maxX, maxY);
+				}
+				check(any, "Range holds no point of the rectangle", minX, minY, maxX, maxY, maxRanges);
+			}
+		}
+
+		for(long x = minX; x <= maxX; x++) {
+			for(long y = minY; y <= maxY; y++) {
+				check(covered(ranges, SpatialIndex.xyToZ(x, y)), "Point (" + x + ", " + y + ") not covered",
+						minX, minY, maxX, maxY, maxRanges);
+			}
+		}
+
+		// The ranges cover the rectangle, so they hold nothing else if they are no larger than it
+		if(maxRanges == Integer.MAX_VALUE) {
+			long area = (maxX - minX + 1) * (maxY - minY + 1);
+			check(total == area, "Ranges hold " + total + " codes for an area of " + area, minX, minY, maxX, maxY, maxRanges);
+		}
+	}
+
+	public static void main(String[] args) {
+		Random random = new Random(0);
+		int rectangles = 0;
+
+		// Every rectangle of a small grid, with its ranges enumerated
+		for(long minX = 0; minX < 8; minX++) {
+			for(long minY = 0; minY < 8; minY++) {
+				for(long maxX = minX; maxX < 8; maxX++) {
+					for(long maxY = minY; maxY < 8; maxY++) {
+						for(int maxRanges : PRECISIONS) {
+							checkRectangle(minX, minY, maxX, maxY, maxRanges, true);
+						}
+						rectangles++;
+					}
+				}
+			}
+		}
+
+		// Random rectangles in a larger grid
+		for(int i = 0; i < 2000; i++) {
+			long minX = random.nextInt(256);
+			long minY = random.nextInt(256);
+			long maxX = minX + random.nextInt(64);
+			long maxY = minY + random.nextInt(64);
+			for(int maxRanges : PRECISIONS) {
+				checkRectangle(minX, minY, maxX, maxY, maxRanges, true);
+			}
+			rectangles++;
+		}
+
+		// Small rectangles anywhere, including against the edges of the coordinate space,
+		// whose coarser ranges are too large to enumerate
+		for(int i = 0; i < 2000; i++) {
+			long minX = i % 4 == 0 ? SpatialIndex.MAX_COORDINATE - random.nextInt(16) : (long)(random.nextDouble() * SpatialIndex.MAX_COORDINATE);
+			long minY = i % 4 == 1 ? SpatialIndex.MAX_COORDINATE - random.nextInt(16) : (long)(random.nextDouble() * SpatialIndex.MAX_COORDINATE);
+			long maxX = Math.min(minX + random.nextInt(16), SpatialIndex.MAX_COORDINATE);
+			long maxY = Math.min(minY + random.nextInt(16), SpatialIndex.MAX_COORDINATE);
+			for(int maxRanges : PRECISIONS) {
+				checkRectangle(minX, minY, maxX, maxY, maxRanges, false);
+			}
+			rectangles++;
+		}
+
+		// The whole coordinate space is a single range
+		List<long[]> all = SpatialIndex.decompose(0, 0, SpatialIndex.MAX_COORDINATE, SpatialIndex.MAX_COORDINATE, 1);
+		check(all.size() == 1 && all.get(0)[0] == 0 && all.get(0)[1] == 1L << 62, "Whole space not one range",
+				0, 0, SpatialIndex.MAX_COORDINATE, SpatialIndex.MAX_COORDINATE, 1);
+
+		System.out.println("Checked the decompositions of " + rectangles + " rectangles");
+	}
+}